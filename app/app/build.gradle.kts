@@ -45,12 +45,23 @@ android {
     }
 
     aaptOptions {
-        noCompress += "json"
+        noCompress += listOf("json", "sbm")
     }
+
+    sourceSets {
+        getByName("main") {
+            assets.srcDir(rootProject.layout.buildDirectory.dir("generated/modelAssets").get().asFile)
+        }
+    }
+}
+
+tasks.named("preBuild") {
+    dependsOn(":compileModelDescriptor")
 }
 
 dependencies {
 
+    implementation(project(":core"))
     implementation("androidx.appcompat:appcompat:1.6.1")
     implementation("com.google.android.material:material:1.11.0")
     implementation("androidx.constraintlayout:constraintlayout:2.1.4")
@@ -59,7 +70,6 @@ dependencies {
     testImplementation("junit:junit:4.13.2")
     androidTestImplementation("androidx.test.ext:junit:1.1.5")
     androidTestImplementation("androidx.test.espresso:espresso-core:3.5.1")
-    implementation("org.nanohttpd:nanohttpd:2.3.1")
     implementation("org.altbeacon:android-beacon-library:2.19")
     implementation("org.tensorflow:tensorflow-lite:+")
 }
\ No newline at end of file
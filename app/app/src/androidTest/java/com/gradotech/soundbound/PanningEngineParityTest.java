@@ -0,0 +1,65 @@
+package com.gradotech.soundbound;
+
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.MappedByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares the pure Java engine against the TFLite runtime on the device, over a
+ * grid that covers the whole room.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PanningEngineParityTest {
+    private static final int roomWidth = 340;
+    private static final int roomLength = 360;
+    private static final int gridStep = 5;
+
+    private DenseNetworkEngine denseEngine;
+    private TFLiteEngine tfliteEngine;
+
+    @Before
+    public void setUp() throws Exception {
+        AssetManager assets = InstrumentationRegistry.getInstrumentation()
+                .getTargetContext().getAssets();
+        AssetFileDescriptor modelFD = assets.openFd("room_to_volume.tflite");
+        MappedByteBuffer model = TFModel.loadModelFile(modelFD);
+
+        denseEngine = DenseNetworkEngine.fromTFLite(model);
+        tfliteEngine = new TFLiteEngine(model, denseEngine.getInputCount(),
+                denseEngine.getOutputCount());
+    }
+
+    @Test
+    public void run_matchesTFLiteOnRoomGrid() {
+        float[] input = new float[2];
+        float[] expected = new float[denseEngine.getOutputCount()];
+        float[] actual = new float[denseEngine.getOutputCount()];
+        float maxError = 0;
+
+        for (int x = 0; x <= roomWidth; x += gridStep) {
+            for (int y = 0; y <= roomLength; y += gridStep) {
+                input[0] = x;
+                input[1] = y;
+
+                tfliteEngine.run(input, expected);
+                denseEngine.run(input, actual);
+
+                for (int i = 0; i < expected.length; i++)
+                    maxError = Math.max(maxError, Math.abs(expected[i] - actual[i]));
+            }
+        }
+
+        /* Volumes are rounded to whole percents, this is far below that */
+        assertTrue("Max error " + maxError, maxError < 1e-2f);
+    }
+}
@@ -23,6 +23,7 @@
 
 #define SB_SERVER_PORT	1881
 #define SB_STREAM_PORT	1882
+#define SB_DISCOVERY_PORT	1883
 
 #define SB_MAX_SPEAKERS		8
 #define SB_DEV_NAME_SIZE	21
@@ -34,11 +35,15 @@ enum sb_command {
     SB_SET_VOLUME	= 2,
     SB_START		= 3,
     SB_STOP		= 4,
+    SB_SET_VOLUME_BATCH	= 5,	/* Since version 0.2 */
+    SB_DISCOVER		= 6,	/* Since version 0.3, UDP only */
+    SB_SET_VOLUME_RAMP	= 7,	/* Since version 0.5 */
 
     SB_CMD_MAX	= UCHAR_MAX
 };
 
 struct sb_qdata_packet {
+    jbyte cmd;				/* SB_QUERY_DATA */
     jbyte major;			/* Major version number */
     jbyte minor;			/* Minor version number */
     char spks[SB_MAX_SPEAKERS];		/* Speaker IDs */
@@ -51,4 +56,28 @@ struct sb_volume_packet {
     jbyte reserved;
 };
 
+struct sb_volume_entry {
+    jbyte id;				/* Speaker ID */
+    jbyte volume;			/* Volume to be set */
+};
+
+struct sb_volume_batch_packet {
+    jbyte cmd;				/* SB_SET_VOLUME_BATCH */
+    jbyte count;			/* Number of entries on the wire */
+    struct sb_volume_entry vols[SB_MAX_SPEAKERS];
+};
+
+struct sb_volume_ramp_packet {
+    jbyte cmd;				/* SB_SET_VOLUME_RAMP */
+    jbyte count;			/* Number of entries on the wire */
+    jbyte duration[2];			/* Milliseconds, big endian */
+    struct sb_volume_entry vols[SB_MAX_SPEAKERS];
+};
+
+struct sb_discovery_packet {
+    jbyte cmd;				/* SB_DISCOVER */
+    jbyte port[2];			/* TCP server port, big endian */
+    struct sb_qdata_packet qdata;	/* Same as the TCP handshake */
+};
+
 #endif /* __SOUNDBOUND_H__ */
@@ -3,130 +3,107 @@ package com.gradotech.soundbound;
 import android.os.Handler;
 import android.util.Log;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.net.Socket;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingDeque;
-
-public class Connection extends Thread {
-    static class CommandQueue {
-        static class Command {
-            private final byte[] buff;
-
-            public Command(byte[] buff) {
-                this.buff = buff;
-            }
-
-            public byte[] getBuff() {
-                return buff;
-            }
-        }
 
-        private final BlockingQueue<Command> cmdQeueue;
+public class Connection implements ControllerSupervisor.Listener {
+    private static final long scanTimeout = 1500L;
+    private static final long discoveryTimeout = 1000L;
+    /* Known controllers answer within a few round trips when they are still there */
+    private static final long cacheTimeout = 500L;
+    private static final long backoffBaseMs = 500L;
+    private static final long backoffMaxMs = 30000L;
+    private static final long heartbeatMs = 2000L;
+    private static final long writeTimeoutMs = 5000L;
 
-        public CommandQueue() {
-            cmdQeueue = new LinkedBlockingDeque<>();
-        }
+    MainActivity activity;
+    private final Handler mainHandler;
+    private final ControllerPool controllerPool;
+    private final ControllerSupervisor supervisor;
 
-        public void enqueueCmd(byte[] cmd) {
-            cmdQeueue.add(new Command(cmd));
+    public Connection(MainActivity activity, AddressRange scanRange, int targetPort,
+                      InetSocketAddress broadcast, File cacheFile) {
+        this.activity = activity;
+        this.mainHandler = new Handler(activity.getMainLooper());
+
+        try {
+            this.controllerPool = new ControllerPool();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
         }
 
-        public byte[] dequeueCmd() throws InterruptedException {
-            byte[] buff;
+        controllerPool.setHeartbeat(heartbeatMs, writeTimeoutMs);
 
-            buff = cmdQeueue.take().getBuff();
+        ControllerFinder finder = new ControllerFinder(
+                new ControllerScanner(targetPort, Soundbound.QDataPacket.SIZE, scanTimeout),
+                scanRange);
+        finder.setDiscovery(new ControllerDiscovery(broadcast, discoveryTimeout));
+        finder.setCache(new ControllerCache(cacheFile), cacheTimeout);
 
-            return buff;
-        }
+        this.supervisor = new ControllerSupervisor(controllerPool, finder,
+                new Backoff(backoffBaseMs, backoffMaxMs), this);
     }
 
-    MainActivity activity;
-    private final int startIpSuffix;
-    private final int endIpSuffix;
-    private final String ipAddress;
-    private final int targetPort;
-    private Socket socket;
-    private CommandQueue commandQueue;
-    private boolean isInitDone;
-
-    public Connection(MainActivity activity, int startIpSuffix, int endIpSuffix, String ipAddress,
-                      int targetPort) {
-        this.activity = activity;
+    @Override
+    public void onControllerFound(byte[] packet) {
+        mainHandler.post(() -> activity.handshakeDone(packet));
+    }
 
-        this.startIpSuffix = startIpSuffix;
-        this.endIpSuffix = endIpSuffix;
-        this.targetPort = targetPort;
-        this.ipAddress = ipAddress;
+    @Override
+    public void onControllerLost(byte[] speakerIds, String reason) {
+        Log.w(this.getClass().getName(), "Lost controller of speakers " +
+                new String(speakerIds) + ": " + reason);
+    }
 
-        this.commandQueue = new CommandQueue();
-        this.isInitDone = false;
+    @Override
+    public void onStateChanged(ControllerSupervisor.State state, int controllers) {
+        /* Only worth an error once nothing is left to play */
+        if (state == ControllerSupervisor.State.BACKOFF && controllers == 0)
+            mainHandler.post(activity::handshakeFailed);
     }
 
-    private byte[] doHandshake()
-    {
-        for (int i = startIpSuffix; i <= endIpSuffix; i++) {
-            String ip = ipAddress + i;
-
-            try {
-                socket = new Socket();
-                socket.connect(new InetSocketAddress(ip, targetPort), 100);
-
-                while(true) {
-                    int length = activity.getQDataPacketSize();
-                    byte[] buff = new byte[length];
-                    int n = socket.getInputStream().read(buff);
-                    if (n > 1)
-                        return buff;
-                }
-            } catch (IOException ignored)
-            { }
-        }
+    public void emitControl(byte cmd) {
+        controllerPool.emitControl(cmd);
+    }
 
-        return null;
+    public void emitVolume(byte id, byte volume) {
+        controllerPool.emitVolume(id, volume);
     }
 
-    public void emitCommand(byte[] cmd) {
-        commandQueue.enqueueCmd(cmd);
+    public void emitVolume(byte id, byte volume, long originNanos) {
+        controllerPool.emitVolume(id, volume, originNanos);
     }
 
-    @Override
-    public void run() {
-        while (this.isAlive()) {
-            if (isInitDone) {
-                try {
-                    /* Block and wait for cmd to be available */
-                    byte[] cmd = commandQueue.dequeueCmd();
-
-                    socket.getOutputStream().write(cmd);
-                } catch (IOException e) {
-                    Log.e(this.getClass().getName(), "Failed to write command");
-                } catch (InterruptedException ignored) {}
-
-            } else {
-                Handler mainHandler = new Handler(activity.getMainLooper());
-                Runnable runnable;
-                byte[] packet = doHandshake();
-
-                isInitDone = (packet != null);
-
-                if (isInitDone)
-                    runnable = () -> activity.handshakeDone(packet);
-                else
-                    runnable = activity::handshakeFailed;
-
-                mainHandler.post(runnable);
-            }
-        }
+    /**
+     * Has controllers that can ramp move to every volume over rampMs, 0 for steps.
+     */
+    public void setRampDuration(int rampMs) {
+        controllerPool.setRampDuration(rampMs);
+    }
+
+    /**
+     * Records the queue and write latencies into metrics and adds the command
+     * counters to it.
+     */
+    public void setMetrics(PipelineMetrics metrics) {
+        controllerPool.setMetrics(metrics);
+
+        metrics.addCounter("commands_sent", controllerPool::getSentCount);
+        metrics.addCounter("commands_dropped", controllerPool::getDroppedCount);
+        metrics.addCounter("commands_coalesced", controllerPool::getCoalescedCount);
+        metrics.addCounter("heartbeats", controllerPool::getHeartbeatCount);
+        metrics.addCounter("controllers_lost", controllerPool::getLostCount);
+    }
+
+    public void start() {
+        controllerPool.start();
+        supervisor.start();
     }
 
     public void close()
     {
-        try {
-            this.socket.close();
-        } catch (IOException e) {
-            Log.e(this.getClass().getName(), "Failed to close socket: " + e.getMessage());
-        }
+        supervisor.close();
+        controllerPool.close();
     }
-}
\ No newline at end of file
+}
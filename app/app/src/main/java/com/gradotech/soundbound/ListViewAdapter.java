@@ -7,12 +7,14 @@ import android.view.ViewGroup;
 import android.widget.ArrayAdapter;
 import android.widget.TextView;
 
-import java.util.List;
+import java.util.ArrayList;
 
-public class ListViewAdapter extends ArrayAdapter<String> {
+public class ListViewAdapter extends ArrayAdapter<MusicLibrary.Track> {
+    private final MusicLibrary library;
 
-    public ListViewAdapter(Context context, int resource, List<String> objects) {
-        super(context, resource, objects);
+    public ListViewAdapter(Context context, int resource, MusicLibrary library) {
+        super(context, resource, new ArrayList<>());
+        this.library = library;
     }
 
     @Override
@@ -23,8 +25,13 @@ public class ListViewAdapter extends ArrayAdapter<String> {
             view = inflater.inflate(R.layout.list_item, null);
         }
 
+        MusicLibrary.Track track = getItem(position);
         TextView textView = view.findViewById(android.R.id.text1);
-        textView.setText(getItem(position));
+        textView.setText(track.getDisplayName());
+
+        /* Tags are only read for the songs that get on screen */
+        if (!track.hasMetadata())
+            library.requestMetadata(track);
 
         return view;
     }
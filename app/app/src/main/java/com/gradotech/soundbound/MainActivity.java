@@ -14,10 +14,11 @@ import android.net.wifi.WifiInfo;
 import android.net.wifi.WifiManager;
 import android.os.Bundle;
 import android.os.Environment;
+import android.os.Handler;
 import android.os.RemoteException;
+import android.util.Log;
 import android.view.View;
 import android.widget.AbsListView;
-import android.widget.ArrayAdapter;
 import android.widget.Button;
 import android.widget.ListView;
 import android.widget.TextView;
@@ -30,10 +31,11 @@ import org.altbeacon.beacon.BeaconManager;
 import org.altbeacon.beacon.Region;
 
 import java.io.File;
+import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 public class MainActivity extends AppCompatActivity {
     static {
@@ -45,11 +47,12 @@ public class MainActivity extends AppCompatActivity {
     private String deviceName;
     private HashMap<String, Integer> hwVersion;
     private ListView songListView;
-    private List<String> fileList;
     private final String songsDir = "/Music/";
-    private String selectedFilePath;
-    private ArrayAdapter<String> adapter;
+    private int selectedPosition = -1;
+    private ListViewAdapter adapter;
+    private MusicLibrary library;
     private AudioServer audioServer;
+    private InferenceWorker inferenceWorker;
     private BeaconManager beaconManager;
     private Region region;
     private static final int permRequestCode = 1;
@@ -63,29 +66,22 @@ public class MainActivity extends AppCompatActivity {
         binding = ActivityMainBinding.inflate(getLayoutInflater());
         setContentView(binding.getRoot());
 
-        TFModel tfModel = new TFModel(getAssets(),
+        TFModel tfModel = new TFModel(getAssets(), getCacheDir(),
                 "room_to_volume.tflite",
+                "room_to_volume.sbm",
                 "room_to_volume.json");
 
         region = new Region("Soundbound", null, null, null);
 
         beaconManager = BeaconManager.getInstanceForApplication(this);
+        /* Only hand the scan over, the worker predicts and sends the volumes */
         beaconManager.addRangeNotifier((beacons, region) -> {
-            for (Beacon beacon : beacons) {
-                String id1 = beacon.getId1().toString();
-                float distance = (float)beacon.getDistance();
+            InferenceWorker.Snapshot snapshot = inferenceWorker.begin();
 
-                tfModel.updateInput(id1, distance);
-            }
-
-            HashMap<String, Integer> modelOutput = tfModel.predict();
-            for (Map.Entry<String, Integer> output : modelOutput.entrySet()) {
-                byte id = (byte) output.getKey().charAt(0);
-                byte volume = output.getValue().byteValue();
-                byte[] cmd = getVolumeCmd(id, volume);
+            for (Beacon beacon : beacons)
+                snapshot.put(beacon.getId1().toString(), (float)beacon.getDistance());
 
-                hwConnection.emitCommand(cmd);
-            }
+            inferenceWorker.publish();
         });
 
         try {
@@ -99,26 +95,48 @@ public class MainActivity extends AppCompatActivity {
         String ipAddress = getIpAddress();
         int streamPort = getStreamPort();
         audioServer = new AudioServer(streamPort);
-
-        hwConnection = new Connection(this,100, 120, ipAddress,
-                                      serverPort);
+        /* Every controller in the house plays the same song, read it once for all */
+        audioServer.setBroadcast(true);
+        /* Music is read only, the frame indexes go to the cache */
+        audioServer.setIndexDir(getCacheDir());
+        audioServer.setPacing(true);
+        /* Latency of every stage from beacon scan to socket write, on /metrics */
+        PipelineMetrics metrics = new PipelineMetrics();
+        audioServer.setMetrics(metrics);
+
+        AddressRange scanRange = AddressRange.parse(getString(R.string.controller_scan_range),
+                                                    ipAddress);
+        /* Same /24 as the scan range, cached controllers are tried before both */
+        hwConnection = new Connection(this, scanRange, serverPort,
+                new InetSocketAddress(ipAddress + "255", Soundbound.SB_DISCOVERY_PORT),
+                new File(getCacheDir(), "controllers"));
+        hwConnection.setMetrics(metrics);
+        /* Glide from one scan's volumes to the next instead of stepping */
+        hwConnection.setRampDuration((int) beaconScanPeriod);
         hwConnection.start();
 
-        songListView = findViewById(R.id.songList);
-        fileList = new ArrayList<>();
+        inferenceWorker = tfModel.createWorker(hwConnection::emitVolume);
+        inferenceWorker.getDeadband().setRamp(TimeUnit.MILLISECONDS.toNanos(beaconScanPeriod));
+        inferenceWorker.setMetrics(metrics);
+        metrics.addCounter("volumes_suppressed",
+                inferenceWorker.getDeadband()::getSuppressedCount);
+        metrics.addCounter("scans_skipped", inferenceWorker::getOverwrittenCount);
+        inferenceWorker.start();
 
-        checkPermission();
-        listFiles(Environment.getExternalStorageDirectory() + songsDir);
+        songListView = findViewById(R.id.songList);
 
+        library = new MusicLibrary(new File(Environment.getExternalStorageDirectory() + songsDir),
+                new File(getCacheDir(), "music_library"), new LibraryListener());
         adapter = new ListViewAdapter(this, android.R.layout.simple_list_item_activated_1,
-                                    fileList);
+                                    library);
         songListView.setAdapter(adapter);
         songListView.setChoiceMode(AbsListView.CHOICE_MODE_SINGLE);
 
+        checkPermission();
+        library.scan();
+
         songListView.setOnItemClickListener((parent, view, position, id) -> {
-            String selectedFileName = fileList.get(position);
-            selectedFilePath = Environment.getExternalStorageDirectory() + songsDir +
-                                selectedFileName;
+            selectedPosition = position;
 
             songListView.setItemChecked(position, true);
         });
@@ -127,10 +145,12 @@ public class MainActivity extends AppCompatActivity {
         Button pauseBtn = findViewById(R.id.pauseBtn);
 
         playBtn.setOnClickListener(view -> {
-            byte[] cmd = getStartCmd();
-
-            if (selectedFilePath != null) {
-                audioServer.setFilePath(selectedFilePath);
+            if (selectedPosition >= 0 && selectedPosition < adapter.getCount()) {
+                /* The selected song and the ones after it, played back to back */
+                List<String> paths = new ArrayList<>();
+                for (int i = selectedPosition; i < adapter.getCount(); i++)
+                    paths.add(adapter.getItem(i).getPath());
+                audioServer.setPlaylist(paths);
 
                 if (!audioServer.wasStarted())
                     audioServer.startServer();
@@ -139,7 +159,7 @@ public class MainActivity extends AppCompatActivity {
                 return;
             }
 
-            hwConnection.emitCommand(cmd);
+            hwConnection.emitControl(Soundbound.SB_START);
 
             playBtn.setVisibility(View.GONE);
             pauseBtn.setVisibility(View.VISIBLE);
@@ -152,13 +172,18 @@ public class MainActivity extends AppCompatActivity {
         pauseBtn.setOnClickListener(view -> {
             playBtn.setVisibility(View.VISIBLE);
             pauseBtn.setVisibility(View.GONE);
-            byte[] cmd = getStopCmd();
 
-            hwConnection.emitCommand(cmd);
+            hwConnection.emitControl(Soundbound.SB_STOP);
 
             audioServer.setPlayingStatus(false);
 
             beaconManager.stopRangingBeacons(region);
+            Log.i(getClass().getName(), "Volume commands sent " +
+                    inferenceWorker.getDeadband().getSentCount() + ", suppressed " +
+                    inferenceWorker.getDeadband().getSuppressedCount() + ", scans " +
+                    inferenceWorker.getPublishedCount() + ", skipped " +
+                    inferenceWorker.getOverwrittenCount() + ", max latency " +
+                    inferenceWorker.getMaxLatencyNanos() / 1000 + " us");
         });
     }
 
@@ -192,33 +217,44 @@ public class MainActivity extends AppCompatActivity {
 
         if (requestCode == permRequestCode) {
             if (grantResults.length > 0 && grantResults[0] == PackageManager.PERMISSION_GRANTED) {
-                listFiles(Environment.getExternalStorageDirectory() + songsDir);
+                library.scan();
             } else {
                 Toast.makeText(this, "Permission denied", Toast.LENGTH_SHORT).show();
             }
         }
     }
 
-    private void listFiles(String directoryPath) {
-        File directory = new File(directoryPath);
+    /**
+     * Brings what the library finds in the background to the song list.
+     */
+    private class LibraryListener implements MusicLibrary.Listener {
+        private final Handler mainHandler = new Handler(getMainLooper());
+
+        @Override
+        public void onTracksFound(List<MusicLibrary.Track> tracks) {
+            mainHandler.post(() -> adapter.addAll(tracks));
+        }
 
-        if (directory.exists() && directory.isDirectory()) {
-            File[] files = directory.listFiles();
-            if (files != null) {
-                for (File file : files) {
-                    String name = file.getName();
+        @Override
+        public void onTracksRemoved(List<MusicLibrary.Track> tracks) {
+            mainHandler.post(() -> {
+                adapter.setNotifyOnChange(false);
+                for (MusicLibrary.Track track : tracks)
+                    adapter.remove(track);
+                adapter.notifyDataSetChanged();
+            });
+        }
 
-                    if (name.endsWith(".mp3"))
-                        fileList.add(name);
-                }
+        @Override
+        public void onTrackUpdated(MusicLibrary.Track track) {
+            mainHandler.post(adapter::notifyDataSetChanged);
+        }
 
-                ArrayAdapter<String> adapter = new ArrayAdapter<>(this,
-                        android.R.layout.simple_list_item_1, fileList);
-                songListView.setAdapter(adapter);
-            }
-        } else {
-            Toast.makeText(this, "Music directory not found",
-                            Toast.LENGTH_SHORT).show();
+        @Override
+        public void onScanFinished(int trackCount) {
+            if (trackCount == 0)
+                mainHandler.post(() -> Toast.makeText(MainActivity.this, "No songs found",
+                        Toast.LENGTH_SHORT).show());
         }
     }
 
@@ -248,15 +284,15 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private String getDeviceName(byte[] packet) {
-        return parseDeviceName(packet);
+        return new Soundbound.QDataPacket().wrap(packet).getDeviceName();
     }
 
     private HashMap<String, Integer> getHWVersion(byte[] packet) {
-        int[] versions = parseHWVersion(packet);
+        Soundbound.QDataPacket qdata = new Soundbound.QDataPacket().wrap(packet);
         HashMap<String, Integer> mVersions = new HashMap<>();
 
-        mVersions.put("major", versions[0]);
-        mVersions.put("minor", versions[1]);
+        mVersions.put("major", qdata.getMajor());
+        mVersions.put("minor", qdata.getMinor());
 
         return mVersions;
     }
@@ -280,7 +316,9 @@ public class MainActivity extends AppCompatActivity {
         super.onDestroy();
 
         audioServer.stop();
+        inferenceWorker.close();
         hwConnection.close();
+        library.close();
     }
 
     /**
@@ -289,11 +327,4 @@ public class MainActivity extends AppCompatActivity {
      */
     public native int getServerPort();
     public native int getStreamPort();
-    public native int getQDataPacketSize();
-    public native char getNextSpkId(byte[] packet, int index);
-    public native byte[] getStartCmd();
-    public native byte[] getStopCmd();
-    public native byte[] getVolumeCmd(byte id, byte volume);
-    public native String parseDeviceName(byte[] packet);
-    public native int[] parseHWVersion(byte[] packet);
 }
@@ -0,0 +1,108 @@
+package com.gradotech.soundbound;
+
+import org.tensorflow.lite.Interpreter;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Runs the model through the TFLite interpreter. The tensors are bound to direct
+ * buffers that are reused on every call. Batches resize the batch dimension of the
+ * input tensor, which only reallocates the tensors when the row count changes.
+ */
+public class TFLiteEngine implements PanningEngine {
+    private final Interpreter tflite;
+    private final int inputCount;
+    private final int outputCount;
+    private final int maxBatch;
+    /* Views of the first rows of the buffers, one per row count */
+    private final ByteBuffer[] inputBuffers;
+    private final ByteBuffer[] outputBuffers;
+    private final FloatBuffer inputFloats;
+    private final FloatBuffer outputFloats;
+    private final Object[] inputs;
+    private final Map<Integer, Object> outputs;
+    private int batch;
+
+    public TFLiteEngine(MappedByteBuffer model, int inputCount, int outputCount,
+                        int maxBatch) {
+        tflite = new Interpreter(model);
+
+        this.inputCount = inputCount;
+        this.outputCount = outputCount;
+        this.maxBatch = maxBatch;
+        this.batch = 1;
+
+        ByteBuffer inputBuffer = ByteBuffer.allocateDirect(maxBatch * inputCount * Float.BYTES)
+                .order(ByteOrder.nativeOrder());
+        ByteBuffer outputBuffer = ByteBuffer.allocateDirect(maxBatch * outputCount * Float.BYTES)
+                .order(ByteOrder.nativeOrder());
+        inputFloats = inputBuffer.asFloatBuffer();
+        outputFloats = outputBuffer.asFloatBuffer();
+
+        inputBuffers = new ByteBuffer[maxBatch];
+        outputBuffers = new ByteBuffer[maxBatch];
+        for (int rows = 1; rows <= maxBatch; rows++) {
+            inputBuffers[rows - 1] = rows(inputBuffer, rows * inputCount);
+            outputBuffers[rows - 1] = rows(outputBuffer, rows * outputCount);
+        }
+
+        inputs = new Object[] { inputBuffers[0] };
+        outputs = new HashMap<>();
+        outputs.put(0, outputBuffers[0]);
+    }
+
+    public TFLiteEngine(MappedByteBuffer model, int inputCount, int outputCount) {
+        this(model, inputCount, outputCount, 1);
+    }
+
+    /* TFLite wants the capacity of a buffer to match the tensor exactly */
+    private static ByteBuffer rows(ByteBuffer buffer, int floats) {
+        ByteBuffer view = buffer.duplicate();
+
+        view.limit(floats * Float.BYTES);
+
+        return view.slice().order(ByteOrder.nativeOrder());
+    }
+
+    @Override
+    public void run(float[] input, float[] output) {
+        runBatch(input, output, 1);
+    }
+
+    @Override
+    public int getMaxBatch() {
+        return maxBatch;
+    }
+
+    @Override
+    public void runBatch(float[] input, float[] output, int rows) {
+        if (rows < 1 || rows > maxBatch)
+            throw new IllegalArgumentException("Batch of " + rows + " rows");
+
+        if (rows != batch) {
+            tflite.resizeInput(0, new int[] { rows, inputCount });
+            tflite.allocateTensors();
+            batch = rows;
+        }
+
+        ByteBuffer inputBuffer = inputBuffers[rows - 1];
+        ByteBuffer outputBuffer = outputBuffers[rows - 1];
+
+        inputFloats.clear();
+        inputFloats.put(input, 0, rows * inputCount);
+        inputBuffer.rewind();
+        outputBuffer.rewind();
+
+        inputs[0] = inputBuffer;
+        outputs.put(0, outputBuffer);
+        tflite.runForMultipleInputsOutputs(inputs, outputs);
+
+        outputFloats.clear();
+        outputFloats.get(output, 0, rows * outputCount);
+    }
+}
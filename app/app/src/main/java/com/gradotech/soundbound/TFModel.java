@@ -4,208 +4,161 @@ import android.content.res.AssetFileDescriptor;
 import android.content.res.AssetManager;
 import android.util.Log;
 
-import org.json.JSONObject;
-import org.tensorflow.lite.Interpreter;
-
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.zip.CRC32;
 
 public class TFModel {
-    private static class Shape {
-        private final String name;
-        private final String type;
-        private final int min;
-        private final int max;
-
-        public Shape(String name, String type, int min, int max) {
-            this.name = name;
-            this.type = type;
-            this.min = min;
-            this.max = max;
-        }
-
-        public String getName() {
-            return name;
-        }
-
-        public String getType() {
-            return type;
-        }
+    /* Grid step of the volume lookup table, in cm */
+    private static final float lutStep = 2f;
+    /* Beacons of a scan, 16 listeners carrying up to 4 each */
+    private static final int maxBeacons = 64;
+    /* Rows of a batch, every listener's lookahead, the TFLite input tensor is sized for */
+    private static final int maxBatch = 48;
+
+    private Predictor predictor;
+
+    /**
+     * Reads the config from the compiled descriptorName, or from the JSON configName
+     * when the descriptor is missing or unreadable.
+     */
+    public TFModel(AssetManager assets, File cacheDir, String modelName,
+                   String descriptorName, String configName) {
+        try {
+            AssetFileDescriptor modelFD = assets.openFd(modelName);
+            ByteBuffer configBytes = loadDescriptor(assets, descriptorName);
+            ModelConfig config = null;
+
+            if (configBytes != null) {
+                try {
+                    config = ModelDescriptor.read(configBytes);
+                } catch (IllegalArgumentException e) {
+                    Log.w(this.getClass().getName(), descriptorName + ": " + e.getMessage());
+                }
+            }
 
-        public int getMin() {
-            return min;
-        }
+            if (config == null) {
+                byte[] configJSON = loadJSONConfig(assets.open(configName));
 
-        public int getMax() {
-            return max;
-        }
-    }
+                configBytes = ByteBuffer.wrap(configJSON);
+                config = ModelConfigJson.parse(new String(configJSON, StandardCharsets.UTF_8));
+            }
 
-    private static class Speaker {
-        String id;
-        int[] coordinates;
+            MappedByteBuffer model = loadModelFile(modelFD);
+            PanningEngine engine = createEngine(model, config);
 
-        public Speaker(String id, int[] coordinates) {
-            this.id = id;
-            this.coordinates = coordinates;
-        }
+            if (config.getInputs().size() == 2)
+                engine = loadLut(new File(cacheDir, modelName + ".lut"),
+                        hash(model, configBytes), config, engine);
 
-        public String getId() {
-            return id;
-        }
-
-        public int[] getCoordinates() {
-            return coordinates;
+            predictor = new Predictor(config, engine);
+        } catch (Exception e) {
+            Log.e(this.getClass().getName(), "Failed to parse model config!");
+            e.printStackTrace();
         }
     }
 
-    private static class Beacon {
-        String id1;
-        String measures;
-        float distance;
+    /**
+     * Prefers the pure Java engine and only loads the TFLite runtime for models it
+     * can't evaluate.
+     */
+    private PanningEngine createEngine(MappedByteBuffer model, ModelConfig config) {
+        int inputCount = config.getInputs().size();
+        int outputCount = config.getOutputs().size();
 
-        public Beacon(String id1, String measures) {
-            this.id1 = id1;
-            this.measures = measures;
-            this.distance = 0;
-        }
+        try {
+            DenseNetworkEngine engine = DenseNetworkEngine.fromTFLite(model);
 
-        public String getId1() {
-            return id1;
-        }
+            if (engine.getInputCount() == inputCount && engine.getOutputCount() == outputCount)
+                return engine;
 
-        public String getMeasures() {
-            return measures;
+            Log.w(this.getClass().getName(), "Model shape doesn't match its config");
+        } catch (IllegalArgumentException e) {
+            Log.i(this.getClass().getName(), "Using TFLite runtime: " + e.getMessage());
         }
 
-        public void setDistance(float distance) {
-            this.distance = distance;
-        }
+        ModelConfig.Lookahead lookahead = config.getLookahead();
+        int steps = (lookahead != null) ? lookahead.getSteps() : 1;
+        int batch = Math.min(config.getListenerCount() * steps, maxBatch);
 
-        public float getDistance() {
-            return distance;
-        }
+        return new TFLiteEngine(model, inputCount, outputCount, batch);
     }
 
-    private Interpreter tflite;
-    private JSONObject config;
-    private HashMap<String, Shape> inputs;
-    private HashMap<String, Shape> outputs;
-    private HashMap<String, Speaker> speakers;
-    private HashMap<String, Beacon> beacons;
-
-    public TFModel(AssetManager assets, String modelName, String configName) {
+    /**
+     * Answers from the lookup table in file, building it first when it is missing or
+     * was built from another model. Any failure keeps evaluating the model directly.
+     */
+    private PanningEngine loadLut(File file, long hash, ModelConfig config,
+                                  PanningEngine engine) {
         try {
-            int objCount;
-            int i;
-
-            AssetFileDescriptor modelFD = assets.openFd(modelName);
-            InputStream configStream = assets.open(configName);
-
-            tflite = new Interpreter(loadModelFile(modelFD));
-            config = new JSONObject(loadJSONConfig(configStream));
-
-            objCount = config.getJSONArray("inputs").length();
-            inputs = new HashMap<String, Shape>();
-            for (i = 0; i < objCount; i++) {
-                JSONObject obj = config.getJSONArray("inputs").getJSONObject(i);
+            VolumeLut lut = VolumeLut.open(file, hash);
 
-                inputs.put(obj.getString("name"),
-                        new Shape(obj.getString("name"),
-                        obj.getString("type"),
-                        obj.getInt("min"),
-                        obj.getInt("max")));
+            if (lut == null) {
+                Log.i(this.getClass().getName(), "Building volume lookup table " + file);
+                VolumeLut.build(file, hash, config, engine, lutStep);
+                lut = VolumeLut.open(file, hash);
             }
 
-            objCount = config.getJSONArray("outputs").length();
-            outputs = new HashMap<String, Shape>();
-            for (i = 0; i < objCount; i++) {
-                JSONObject obj = config.getJSONArray("outputs").getJSONObject(i);
-
-                outputs.put(obj.getString("name"),
-                        new Shape(obj.getString("name"),
-                        obj.getString("type"),
-                        obj.getInt("min"),
-                        obj.getInt("max")));
-            }
-
-            objCount = config.getJSONArray("speakers").length();
-            speakers = new HashMap<String, Speaker>();
-            for (i = 0; i < objCount; i++) {
-                JSONObject obj = config.getJSONArray("speakers").getJSONObject(i);
-                String id = obj.getString("id");
-                int[] coordinates = new int[2];
-
-                coordinates[0] = obj.getJSONArray("coordinates").getInt(0);
-                coordinates[1] = obj.getJSONArray("coordinates").getInt(1);
-
-                speakers.put(id, new Speaker(id, coordinates));
-            }
-
-            objCount = config.getJSONArray("beacons").length();
-            beacons = new HashMap<String, Beacon>();
-            for (i = 0; i < objCount; i++) {
-                JSONObject obj = config.getJSONArray("beacons").getJSONObject(i);
-                String id1 = obj.getString("id1");
-
-                beacons.put(id1, new Beacon(id1, obj.getString("measures")));
-            }
-        } catch (Exception e) {
-            Log.e(this.getClass().getName(), "Failed to parse model config!");
-            e.printStackTrace();
+            if (lut != null)
+                return lut;
+        } catch (IOException e) {
+            Log.w(this.getClass().getName(), "Volume lookup table unavailable: " + e.getMessage());
         }
+
+        return engine;
     }
 
-    public HashMap<String, Integer> predict() {
-        int inputMax = inputs.size();
-        int outputMax = outputs.size();
+    /* Covers everything the table depends on, including its resolution */
+    private static long hash(MappedByteBuffer model, ByteBuffer config) {
+        CRC32 crc = new CRC32();
 
-        float[][] tfInput = new float[1][inputMax];
-        float[][] tfOutput = new float[1][outputMax];
-        HashMap<String, Integer> result = new HashMap<>();
+        crc.update(model.duplicate());
+        crc.update(config.duplicate());
 
-        int i = 0;
-        for (Map.Entry<String, Beacon> beacon : beacons.entrySet()) {
-            float distance = beacon.getValue().getDistance() * 100;
-            int clampMax = inputs.get(beacon.getValue().getMeasures()).getMax();
-            int clampMin = inputs.get(beacon.getValue().getMeasures()).getMin();
+        return (crc.getValue() << 32) | Float.floatToIntBits(lutStep);
+    }
 
-            tfInput[0][i++] = Math.max(clampMin, Math.min(clampMax, distance));
-        }
+    public int getOutputCount() {
+        return predictor.getOutputCount();
+    }
 
-        tflite.run(tfInput, tfOutput);
+    public byte getSpeakerId(int ordinal) {
+        return predictor.getSpeakerId(ordinal);
+    }
 
-        i = 0;
-        for (Map.Entry<String, Shape> output : outputs.entrySet()) {
-            /* Outputs index in the config should always match those of the model! */
-            int volume = Math.round(tfOutput[0][i++]);
-            int clampMax = output.getValue().getMax();
-            int clampMin = output.getValue().getMin();
+    public VolumeDeadband createDeadband() {
+        return predictor.createDeadband();
+    }
 
-            result.put(output.getValue().getName(),
-                       Math.max(clampMin, Math.min(clampMax, volume)));
-        }
+    /**
+     * A worker that owns the predictor from now on, the model must not be used for
+     * predictions on any other thread after this.
+     */
+    public InferenceWorker createWorker(InferenceWorker.Output output) {
+        return new InferenceWorker(predictor, predictor.createDeadband(), output, maxBeacons);
+    }
 
-        return result;
+    /**
+     * Writes the volume of every speaker into volumes, indexed by output ordinal.
+     */
+    public void predict(int[] volumes) {
+        predictor.predict(volumes);
     }
 
     public void updateInput(String id1, float distance) {
-        Beacon beacon = beacons.get(id1);
-
-        if (beacon != null) {
-            beacon.setDistance(distance);
-        }
-        else {
+        if (!predictor.updateInput(id1, distance))
             Log.w(this.getClass().getName(), "Unsupported beacon id1 " + id1);
-        }
     }
 
-    private MappedByteBuffer loadModelFile(AssetFileDescriptor modelFD) throws Exception {
+    static MappedByteBuffer loadModelFile(AssetFileDescriptor modelFD) throws Exception {
         FileInputStream inputStream = new FileInputStream(modelFD.getFileDescriptor());
         FileChannel fileChannel = inputStream.getChannel();
         long startOffset = modelFD.getStartOffset();
@@ -213,12 +166,27 @@ public class TFModel {
         return fileChannel.map(FileChannel.MapMode.READ_ONLY, startOffset, declaredLength);
     }
 
-    private String loadJSONConfig(InputStream configStream) throws Exception {
-        int size = configStream.available();
-        byte[] buffer = new byte[size];
-        configStream.read(buffer);
-        configStream.close();
+    /* Descriptors are stored uncompressed so they can be mapped like the model */
+    private static ByteBuffer loadDescriptor(AssetManager assets, String descriptorName)
+            throws Exception {
+        try (AssetFileDescriptor descriptorFD = assets.openFd(descriptorName)) {
+            return loadModelFile(descriptorFD);
+        } catch (FileNotFoundException e) {
+            Log.i(TFModel.class.getName(), "No " + descriptorName + ", parsing JSON config");
+            return null;
+        }
+    }
+
+    private static byte[] loadJSONConfig(InputStream configStream) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+
+        try (InputStream in = configStream) {
+            while ((n = in.read(buffer)) > 0)
+                out.write(buffer, 0, n);
+        }
 
-        return new String(buffer, StandardCharsets.UTF_8);
+        return out.toByteArray();
     }
 }
@@ -0,0 +1,21 @@
+plugins {
+    id("java")
+    id("me.champeau.jmh")
+}
+
+sourceSets {
+    named("jmh") {
+        resources.srcDir("../app/src/main/assets")
+        resources.srcDir(rootProject.tasks.named("compileModelDescriptor"))
+    }
+}
+
+dependencies {
+    "jmh"(project(":core"))
+    "jmh"("org.json:json:20231013")
+}
+
+jmh {
+    resultFormat.set("JSON")
+    resultsFile.set(layout.buildDirectory.file("results/jmh/results.json"))
+}
@@ -0,0 +1,61 @@
+package com.gradotech.soundbound;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * The app's assets on the benchmark classpath. They are read as resources, so they
+ * load the same from the build directory and from the JMH jar.
+ */
+final class Assets {
+    private Assets() {}
+
+    private static InputStream open(String name) throws IOException {
+        InputStream in = Assets.class.getResourceAsStream("/" + name);
+
+        if (in == null)
+            throw new FileNotFoundException("No asset " + name);
+
+        return in;
+    }
+
+    static byte[] read(String name) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+
+        try (InputStream in = open(name)) {
+            while ((n = in.read(buffer)) > 0)
+                out.write(buffer, 0, n);
+        }
+
+        return out.toByteArray();
+    }
+
+    static ByteBuffer wrap(String name) throws IOException {
+        return ByteBuffer.wrap(read(name));
+    }
+
+    /**
+     * Copies an asset to a temporary file, for benchmarks that map it like the app.
+     */
+    static File extract(String name) throws IOException {
+        File file = File.createTempFile("asset", "-" + name);
+        byte[] buffer = new byte[4096];
+        int n;
+
+        file.deleteOnExit();
+        try (InputStream in = open(name); OutputStream out = new FileOutputStream(file)) {
+            while ((n = in.read(buffer)) > 0)
+                out.write(buffer, 0, n);
+        }
+
+        return file;
+    }
+}
@@ -0,0 +1,117 @@
+package com.gradotech.soundbound;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Downloads /stream from a local AudioServer, either the whole file or the second
+ * half of it as a range request. Divide the file size by the score to get the
+ * throughput. The serverCpuUsPerMb counter is the CPU time spent by the server's
+ * request threads per megabyte sent.
+ */
+@State(Scope.Benchmark)
+public class AudioStreamBenchmark {
+    private static final String requestThread = "NanoHttpd Request Processor";
+
+    @Param({ "8388608" })
+    public int fileSize;
+
+    @Param({ "full", "range" })
+    public String request;
+
+    private AudioServer server;
+    private File file;
+    private URL stream;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class ServerCpu {
+        private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        private long cpuStart;
+        private long bytes;
+
+        public double serverCpuUsPerMb;
+
+        @Setup(Level.Iteration)
+        public void start() {
+            cpuStart = serverCpuNanos();
+            bytes = 0;
+        }
+
+        void sent(long count) {
+            bytes += count;
+            serverCpuUsPerMb = (serverCpuNanos() - cpuStart) / 1000.0 / (bytes / 1048576.0);
+        }
+
+        private long serverCpuNanos() {
+            long total = 0;
+
+            for (ThreadInfo info : threads.getThreadInfo(threads.getAllThreadIds())) {
+                if (info != null && info.getThreadName().startsWith(requestThread))
+                    total += Math.max(0, threads.getThreadCpuTime(info.getThreadId()));
+            }
+
+            return total;
+        }
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        file = File.createTempFile("stream", ".mp3");
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(fileSize);
+        }
+
+        server = new AudioServer(0);
+        server.setFilePath(file.getPath());
+        server.startServer();
+        stream = new URL("http://127.0.0.1:" + server.getListeningPort() + "/stream");
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.stop();
+        file.delete();
+    }
+
+    @Benchmark
+    public long download(ServerCpu cpu) throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) stream.openConnection();
+        long expected = fileSize;
+        byte[] buffer = new byte[64 * 1024];
+        long total = 0;
+        int read;
+
+        if ("range".equals(request)) {
+            connection.setRequestProperty("Range", "bytes=" + fileSize / 2 + "-");
+            expected = fileSize - fileSize / 2;
+        }
+
+        try (InputStream in = connection.getInputStream()) {
+            while ((read = in.read(buffer)) > 0)
+                total += read;
+        }
+
+        if (total != expected)
+            throw new IllegalStateException("Received " + total + " of " + expected + " bytes");
+
+        cpu.sent(total);
+
+        return total;
+    }
+}
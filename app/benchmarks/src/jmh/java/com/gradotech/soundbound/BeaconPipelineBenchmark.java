@@ -0,0 +1,96 @@
+package com.gradotech.soundbound;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/**
+ * One beacon scan of a listener standing still in the room: noisy distances for
+ * both beacons, filtering, prediction and the deadband. commandsPerMinute is the
+ * number of volume commands it lets through at five scans per second.
+ */
+@State(Scope.Thread)
+public class BeaconPipelineBenchmark {
+    private static final String beaconX = "2f234454-cf6d-4a0f-adf2-f4911ba9ffa6";
+    private static final String beaconY = "7b8d4e1f-9a3c-6f2b-0e5d-8c9a7d3b2e4f";
+    private static final int scansPerMinute = 300;
+
+    @Param({ "none", "average:5", "exponential:0.2", "kalman:0.005:0.09" })
+    public String filter;
+
+    @Param({ "0", "2" })
+    public int deadband;
+
+    /* Standard deviation of the ranging, in meters */
+    @Param({ "0.3" })
+    public float noise;
+
+    private Predictor predictor;
+    private VolumeDeadband volumes;
+    private int[] predicted;
+    private Random random;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Commands {
+        private long scans;
+        private long sent;
+
+        public double commandsPerMinute;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            scans = 0;
+            sent = 0;
+        }
+
+        void scan(int commands) {
+            scans++;
+            sent += commands;
+            commandsPerMinute = (double) sent * scansPerMinute / scans;
+        }
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        ModelConfig config = new ModelConfig();
+
+        config.addInput(new ModelConfig.Shape("x", "float", 0, 340));
+        config.addInput(new ModelConfig.Shape("y", "float", 0, 360));
+        for (String speaker : new String[] { "a", "b", "c", "d" })
+            config.addOutput(new ModelConfig.Shape(speaker, "float", 0, 100));
+        config.addBeacon(new ModelConfig.Beacon(beaconX, "x", filter));
+        config.addBeacon(new ModelConfig.Beacon(beaconY, "y", filter));
+        config.setDeadband(deadband);
+
+        predictor = new Predictor(config, DenseNetworkEngine.fromTFLite(
+                Assets.wrap("room_to_volume.tflite")));
+        volumes = predictor.createDeadband();
+        predicted = new int[predictor.getOutputCount()];
+        random = new Random(1);
+    }
+
+    @Benchmark
+    public int scan(Commands commands) {
+        int sent = 0;
+
+        predictor.updateInput(beaconX, 1.7f + (float) random.nextGaussian() * noise);
+        predictor.updateInput(beaconY, 1.2f + (float) random.nextGaussian() * noise);
+        predictor.predict(predicted);
+
+        for (int i = 0; i < predicted.length; i++) {
+            if (volumes.accept(i, predicted[i]))
+                sent++;
+        }
+
+        commands.scan(sent);
+
+        return sent;
+    }
+}
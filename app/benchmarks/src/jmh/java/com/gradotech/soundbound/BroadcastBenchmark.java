@@ -0,0 +1,117 @@
+package com.gradotech.soundbound;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Plays a file to a number of clients through one BroadcastStream. The sourceMb
+ * and ringKb counters are the file bytes read and the buffer held per playback,
+ * which should not move with the number of clients.
+ */
+@State(Scope.Benchmark)
+public class BroadcastBenchmark {
+    @Param({ "8388608" })
+    public int fileSize;
+
+    @Param({ "1", "4", "16" })
+    public int clients;
+
+    @Param({ "1048576" })
+    public int capacity;
+
+    private File file;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Usage {
+        public double sourceMb;
+        public double ringKb;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            sourceMb = 0;
+            ringKb = 0;
+        }
+    }
+
+    /* Drops what it is given, like a client on a fast network */
+    private static class Sink implements WritableByteChannel {
+        @Override
+        public int write(ByteBuffer src) {
+            int n = src.remaining();
+
+            src.position(src.limit());
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {}
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        file = File.createTempFile("broadcast", ".mp3");
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(fileSize);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public long play(Usage usage) throws Exception {
+        List<Thread> threads = new ArrayList<>();
+
+        try (BroadcastStream stream = new BroadcastStream(
+                new FileInputStream(file).getChannel(), capacity, 5000)) {
+            for (int i = 0; i < clients; i++) {
+                BroadcastStream.Subscriber subscriber = stream.subscribe();
+
+                threads.add(new Thread(() -> {
+                    Sink sink = new Sink();
+
+                    try {
+                        while (subscriber.transferTo(sink) >= 0);
+                    } catch (IOException e) {
+                        throw new IllegalStateException(e);
+                    } finally {
+                        subscriber.close();
+                    }
+                }));
+            }
+
+            for (Thread thread : threads)
+                thread.start();
+            for (Thread thread : threads)
+                thread.join();
+
+            usage.sourceMb = stream.getSourceBytes() / 1048576.0;
+            usage.ringKb = stream.getCapacity() / 1024.0;
+
+            return stream.getSourceBytes();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.gradotech.soundbound;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Several producers emitting volumes and control commands into one queue, drained
+ * by a single consumer like the ControllerPool thread.
+ */
+@State(Scope.Group)
+public class CommandQueueBenchmark {
+    private static final byte[] speakerIds = { 'a', 'b', 'c', 'd' };
+
+    private CommandQueue queue;
+
+    @State(Scope.Thread)
+    public static class Producer {
+        int next;
+    }
+
+    @Setup
+    public void setUp() {
+        queue = new CommandQueue(speakerIds);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(3)
+    public boolean offerVolume(Producer producer) {
+        int i = producer.next++;
+
+        return queue.offerVolume(speakerIds[i & 3], (byte) (i % 101));
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public int drain() {
+        int sum = queue.pollControl();
+
+        for (int i = 0; i < speakerIds.length; i++)
+            sum += queue.pollVolume(i);
+
+        return sum;
+    }
+
+    @Benchmark
+    @Group("control")
+    @GroupThreads(3)
+    public boolean offerControl(Producer producer) {
+        return queue.offerControl((byte) (producer.next++ & 3));
+    }
+
+    @Benchmark
+    @Group("control")
+    @GroupThreads(1)
+    public int pollControl() {
+        return queue.pollControl();
+    }
+}
@@ -0,0 +1,163 @@
+package com.gradotech.soundbound;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time from launch to a connected pool, with the app's timeouts, against a loopback
+ * stand-in of the firmware at the last address of the 100-120 scan range. The other
+ * hosts of the range accept connections but never answer, like hosts that drop the
+ * SYN on a real network. range is the old scan only, cold starts with an empty
+ * controller cache and warm with the controller cached.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ControllerFinderBenchmark {
+    private static final String prefix = "127.0.0.";
+    private static final int first = 100;
+    private static final int last = 120;
+
+    @Param({ "range", "cold", "warm" })
+    public String start;
+
+    private final List<ServerSocket> silent = new ArrayList<>();
+    private final List<ControllerScanner.Controller> found = new ArrayList<>();
+    private ServerSocket server;
+    private DatagramSocket discovery;
+    private File cacheFile;
+    private ControllerFinder finder;
+
+    @Setup
+    public void setUp() throws IOException {
+        InetAddress standIn = InetAddress.getByName(prefix + last);
+
+        server = new ServerSocket();
+        server.bind(new InetSocketAddress(standIn, 0));
+        discovery = new DatagramSocket(new InetSocketAddress(standIn, 0));
+
+        for (int host = first; host < last; host++) {
+            ServerSocket socket = new ServerSocket();
+            socket.bind(new InetSocketAddress(InetAddress.getByName(prefix + host),
+                                              server.getLocalPort()));
+            silent.add(socket);
+        }
+
+        startDaemon(this::acceptClients);
+        startDaemon(this::answerDiscovery);
+
+        cacheFile = File.createTempFile("controllers", ".bin");
+        cacheFile.delete();
+
+        finder = new ControllerFinder(
+                new ControllerScanner(server.getLocalPort(), Soundbound.QDataPacket.SIZE, 1500),
+                AddressRange.parse(first + "-" + last, prefix));
+        if (!start.equals("range")) {
+            finder.setDiscovery(new ControllerDiscovery(
+                    (InetSocketAddress) discovery.getLocalSocketAddress(), 1000));
+            finder.setCache(new ControllerCache(cacheFile), 500);
+        }
+    }
+
+    private static void startDaemon(Runnable task) {
+        Thread thread = new Thread(task);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void acceptClients() {
+        ByteBuffer qdata = ByteBuffer.allocate(Soundbound.QDataPacket.SIZE);
+        Soundbound.QDataPacket.encode(qdata, 0, 3, new byte[] { 'a', 'b' }, "Stand-in");
+
+        try {
+            while (true) {
+                try (Socket client = server.accept()) {
+                    client.getOutputStream().write(qdata.array());
+                    /* Held until the benchmark hangs up */
+                    while (client.getInputStream().read() >= 0);
+                }
+            }
+        } catch (IOException e) {
+            /* Closed */
+        }
+    }
+
+    private void answerDiscovery() {
+        byte[] buff = new byte[16];
+        ByteBuffer answer = ByteBuffer.allocate(Soundbound.DiscoveryPacket.SIZE);
+        Soundbound.DiscoveryPacket.encode(answer, server.getLocalPort(), 0, 3,
+                                          new byte[] { 'a', 'b' }, "Stand-in");
+
+        try {
+            while (true) {
+                DatagramPacket request = new DatagramPacket(buff, buff.length);
+                discovery.receive(request);
+
+                discovery.send(new DatagramPacket(answer.array(), answer.capacity(),
+                                                  request.getSocketAddress()));
+            }
+        } catch (IOException e) {
+            /* Closed */
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void prepareCache() throws IOException {
+        if (start.equals("warm")) {
+            if (!cacheFile.isFile())
+                findAndHangUp();
+        } else {
+            cacheFile.delete();
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void hangUp() throws IOException {
+        for (ControllerScanner.Controller controller : found)
+            controller.getChannel().close();
+        found.clear();
+    }
+
+    private void findAndHangUp() throws IOException {
+        find();
+        hangUp();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        server.close();
+        discovery.close();
+        for (ServerSocket socket : silent)
+            socket.close();
+        cacheFile.delete();
+    }
+
+    @Benchmark
+    public int find() throws IOException {
+        return finder.find(controller -> {
+            found.add(controller);
+            return true;
+        });
+    }
+}
@@ -0,0 +1,137 @@
+package com.gradotech.soundbound;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Volumes through a ControllerPool to loopback controllers that each own one
+ * speaker. volumes emits a burst round robin and waits until every volume was
+ * written or replaced by a newer one, writeLatency times a single command from
+ * emitCommand to its last byte arriving at the controller.
+ */
+@State(Scope.Benchmark)
+public class ControllerPoolBenchmark {
+    private static final int burst = 1024;
+    private static final long timeoutNanos = TimeUnit.SECONDS.toNanos(10);
+
+    @Param({ "1", "8", "64" })
+    public int controllers;
+
+    private ServerSocket server;
+    private ControllerPool pool;
+    private Socket[] sockets;
+    private AtomicLong[] received;
+    private byte[][] commands;
+    private long emitted;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        server = new ServerSocket(0, 100, InetAddress.getLoopbackAddress());
+        pool = new ControllerPool();
+        pool.start();
+
+        sockets = new Socket[controllers];
+        received = new AtomicLong[controllers];
+        commands = new byte[controllers][];
+        for (int i = 0; i < controllers; i++) {
+            SocketChannel channel = SocketChannel.open(server.getLocalSocketAddress());
+
+            sockets[i] = server.accept();
+            received[i] = new AtomicLong();
+            commands[i] = new byte[] { Soundbound.SB_SET_VOLUME, (byte) (i + 1), 50, 0 };
+            drain(sockets[i], received[i]);
+            pool.addController(channel, new byte[] { (byte) (i + 1) }, 0, 1);
+        }
+    }
+
+    private static void drain(Socket socket, AtomicLong count) {
+        Thread thread = new Thread(() -> {
+            byte[] buff = new byte[4096];
+            int n;
+
+            try (InputStream in = socket.getInputStream()) {
+                while ((n = in.read(buff)) > 0)
+                    count.addAndGet(n);
+            } catch (IOException e) {
+                /* Closed */
+            }
+        });
+
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        pool.close();
+        pool.join();
+        for (Socket socket : sockets)
+            socket.close();
+        server.close();
+    }
+
+    private long written() {
+        long bytes = 0;
+
+        for (AtomicLong count : received)
+            bytes += count.get();
+
+        return bytes / 4;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(burst)
+    public long volumes() {
+        for (int i = 0; i < burst; i++, next++) {
+            byte[] cmd = commands[next % controllers];
+
+            pool.emitVolume(cmd[1], cmd[2]);
+        }
+        emitted += burst;
+
+        long deadline = System.nanoTime() + timeoutNanos;
+        while (written() + pool.getCoalescedCount() < emitted) {
+            if (System.nanoTime() > deadline)
+                throw new IllegalStateException("Controllers did not receive every volume");
+            Thread.yield();
+        }
+
+        return emitted;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public long writeLatency() {
+        int controller = next++ % controllers;
+        long expected = received[controller].get() + 4;
+        long deadline = System.nanoTime() + timeoutNanos;
+
+        pool.emitCommand(commands[controller]);
+        while (received[controller].get() < expected) {
+            if (System.nanoTime() > deadline)
+                throw new IllegalStateException("Controller did not receive the command");
+            Thread.yield();
+        }
+
+        return expected;
+    }
+}
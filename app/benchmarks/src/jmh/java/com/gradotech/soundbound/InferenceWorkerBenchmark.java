@@ -0,0 +1,90 @@
+package com.gradotech.soundbound;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time the beacon callback is held by one scan: predicting inline with the room
+ * model, or publishing the scan to the InferenceWorker.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class InferenceWorkerBenchmark {
+    private static final String beaconX = "2f234454-cf6d-4a0f-adf2-f4911ba9ffa6";
+    private static final String beaconY = "7b8d4e1f-9a3c-6f2b-0e5d-8c9a7d3b2e4f";
+
+    @Param({ "inline", "worker" })
+    public String mode;
+
+    private Predictor predictor;
+    private VolumeDeadband deadband;
+    private InferenceWorker worker;
+    private int[] volumes;
+    private int scan;
+
+    @Setup
+    public void setUp() throws Exception {
+        ModelConfig config = new ModelConfig();
+
+        config.addInput(new ModelConfig.Shape("x", "float", 0, 340));
+        config.addInput(new ModelConfig.Shape("y", "float", 0, 360));
+        for (String speaker : new String[] { "a", "b", "c", "d" })
+            config.addOutput(new ModelConfig.Shape(speaker, "float", 0, 100));
+        config.addBeacon(new ModelConfig.Beacon(beaconX, "x"));
+        config.addBeacon(new ModelConfig.Beacon(beaconY, "y"));
+
+        predictor = new Predictor(config, DenseNetworkEngine.fromTFLite(
+                Assets.wrap("room_to_volume.tflite")));
+        deadband = predictor.createDeadband();
+        volumes = new int[predictor.getOutputCount()];
+
+        if ("worker".equals(mode)) {
+            worker = new InferenceWorker(predictor, deadband, (id, volume, origin) -> {}, 16);
+            worker.start();
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        if (worker != null) {
+            worker.close();
+            worker.join();
+        }
+    }
+
+    @Benchmark
+    public int callback() {
+        float x = (scan++ % 340) / 100f;
+
+        if (worker != null) {
+            InferenceWorker.Snapshot snapshot = worker.begin();
+
+            snapshot.put(beaconX, x);
+            snapshot.put(beaconY, 1.2f);
+
+            return (int) worker.publish();
+        }
+
+        int sent = 0;
+
+        predictor.updateInput(beaconX, x);
+        predictor.updateInput(beaconY, 1.2f);
+        predictor.predict(volumes);
+        for (int i = 0; i < volumes.length; i++) {
+            if (deadband.accept(i, volumes[i]))
+                sent++;
+        }
+
+        return sent;
+    }
+}
@@ -0,0 +1,73 @@
+package com.gradotech.soundbound;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time from launch to the first prediction, as TFModel does it: read the config,
+ * map the model, build the engine and the predictor and predict once. Every fork
+ * measures a single cold run, class loading and interpretation included.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(20)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+public class ModelStartupBenchmark {
+    private static final String beaconX = "2f234454-cf6d-4a0f-adf2-f4911ba9ffa6";
+    private static final String beaconY = "7b8d4e1f-9a3c-6f2b-0e5d-8c9a7d3b2e4f";
+
+    @Param({ "json", "descriptor" })
+    public String config;
+
+    private File descriptor;
+    private File model;
+
+    /* Files outside the jar, so they can be mapped like the app maps its assets */
+    @Setup
+    public void setUp() throws IOException {
+        descriptor = Assets.extract("room_to_volume.sbm");
+        model = Assets.extract("room_to_volume.tflite");
+    }
+
+    private static MappedByteBuffer map(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        }
+    }
+
+    @Benchmark
+    public int firstPrediction() throws Exception {
+        ModelConfig modelConfig = "json".equals(config)
+                ? ModelConfigJson.parse(new String(Assets.read("room_to_volume.json"),
+                                                    StandardCharsets.UTF_8))
+                : ModelDescriptor.read(map(descriptor));
+        PanningEngine engine = DenseNetworkEngine.fromTFLite(map(model));
+        Predictor predictor = new Predictor(modelConfig, engine);
+        int[] volumes = new int[predictor.getOutputCount()];
+
+        predictor.updateInput(beaconX, 1.7f);
+        predictor.updateInput(beaconY, 1.8f);
+        predictor.predict(volumes);
+
+        return volumes[0];
+    }
+}
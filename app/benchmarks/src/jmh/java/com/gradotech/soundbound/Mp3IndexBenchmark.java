@@ -0,0 +1,147 @@
+package com.gradotech.soundbound;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Indexes a library of four minute VBR songs and seeks in them. build walks the
+ * frames of a song, openCached reads its cached index, seek maps a time to an
+ * offset and seekRequest is the time to the first bytes of /stream?t= for a song
+ * that was just selected.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class Mp3IndexBenchmark {
+    /* MPEG 1 layer III, 44.1 kHz, no CRC, joint stereo */
+    private static final int mpeg1Layer3 = 0xfffb0040;
+    private static final int songSeconds = 240;
+
+    @Param({ "100" })
+    public int songs;
+
+    private File library;
+    private File[] files;
+    private File[] caches;
+    private Mp3FrameIndex[] indexes;
+    private AudioServer server;
+    private final Random random = new Random(1);
+    private int next;
+
+    private static void writeSong(File file, Random random) throws IOException {
+        int frames = songSeconds * 44100 / 1152;
+
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            for (int i = 0; i <= frames; i++) {
+                /* The first frame is a Xing frame, the others 96 to 320 kbps */
+                int bitrateIndex = (i == 0) ? 9 : 7 + random.nextInt(8);
+                int header = mpeg1Layer3 | bitrateIndex << 12;
+                byte[] frame = new byte[Mp3FrameIndex.frameLength(header)];
+
+                frame[0] = (byte) (header >>> 24);
+                frame[1] = (byte) (header >>> 16);
+                frame[2] = (byte) (header >>> 8);
+                frame[3] = (byte) header;
+                if (i == 0)
+                    System.arraycopy("Xing".getBytes("US-ASCII"), 0, frame, 36, 4);
+
+                out.write(frame);
+            }
+        }
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        library = File.createTempFile("library", "");
+        library.delete();
+        library.mkdir();
+
+        files = new File[songs];
+        caches = new File[songs];
+        indexes = new Mp3FrameIndex[songs];
+        for (int i = 0; i < songs; i++) {
+            files[i] = new File(library, "song" + i + ".mp3");
+            caches[i] = new File(library, "song" + i + ".idx");
+            writeSong(files[i], random);
+            indexes[i] = Mp3FrameIndex.load(files[i], caches[i]);
+        }
+
+        server = new AudioServer(0);
+        server.setIndexDir(library);
+        server.startServer();
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.stop();
+
+        File[] children = library.listFiles();
+        if (children != null) {
+            for (File child : children)
+                child.delete();
+        }
+        library.delete();
+    }
+
+    private int nextSong() {
+        next = (next + 1) % songs;
+        return next;
+    }
+
+    @Benchmark
+    public int build() throws IOException {
+        return Mp3FrameIndex.build(files[nextSong()]).getFrameCount();
+    }
+
+    @Benchmark
+    public int openCached() throws IOException {
+        int song = nextSong();
+
+        return Mp3FrameIndex.open(caches[song], files[song]).getFrameCount();
+    }
+
+    @Benchmark
+    public long seek() {
+        return indexes[nextSong()].getOffset(random.nextDouble() * songSeconds);
+    }
+
+    @Benchmark
+    public int seekRequest() throws IOException {
+        server.setFilePath(files[nextSong()].getPath());
+
+        URL url = new URL("http://127.0.0.1:" + server.getListeningPort() + "/stream?t=" +
+                random.nextInt(songSeconds));
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        byte[] buffer = new byte[4096];
+        int total = 0;
+        int read;
+
+        try (InputStream in = connection.getInputStream()) {
+            while (total < buffer.length &&
+                    (read = in.read(buffer, total, buffer.length - total)) > 0)
+                total += read;
+        } finally {
+            connection.disconnect();
+        }
+
+        return total;
+    }
+}
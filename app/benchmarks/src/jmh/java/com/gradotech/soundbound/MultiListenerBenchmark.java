@@ -0,0 +1,105 @@
+package com.gradotech.soundbound;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A scan of several listeners with the shipped lookahead: every listener's beacons
+ * are updated and the volumes of the room predicted. Batched runs all listeners as
+ * rows of one Predictor, sequential runs a Predictor per listener and takes the
+ * loudest volume of each speaker like the MAX mixing does.
+ */
+@State(Scope.Thread)
+public class MultiListenerBenchmark {
+    private static final long scanNanos = 200000000L;
+
+    @Param({ "1", "2", "4", "8", "16" })
+    public int listeners;
+
+    @Param({ "batched", "sequential" })
+    public String inference;
+
+    private Predictor[] predictors;
+    private String[][] beacons;
+    private int[] volumes;
+    private int[] listenerVolumes;
+    private long nanos;
+    private int step;
+
+    /* Listeners first to last, or only listener when first == last */
+    static ModelConfig roomConfig(int first, int last) {
+        ModelConfig config = new ModelConfig();
+
+        config.addInput(new ModelConfig.Shape("x", "float", 0, 340));
+        config.addInput(new ModelConfig.Shape("y", "float", 0, 360));
+        for (String speaker : new String[] { "a", "b", "c", "d" })
+            config.addOutput(new ModelConfig.Shape(speaker, "float", 0, 100));
+        for (int listener = first; listener <= last; listener++) {
+            config.addBeacon(new ModelConfig.Beacon(listener + "-x", "x", "exponential:0.2",
+                                                    listener - first));
+            config.addBeacon(new ModelConfig.Beacon(listener + "-y", "y", "exponential:0.2",
+                                                    listener - first));
+        }
+        config.setLookahead(new ModelConfig.Lookahead(1500, 3, 4, 150));
+
+        return config;
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        byte[] bytes = Assets.read("room_to_volume.tflite");
+
+        if ("batched".equals(inference)) {
+            predictors = new Predictor[] { new Predictor(roomConfig(0, listeners - 1),
+                    DenseNetworkEngine.fromTFLite(ByteBuffer.wrap(bytes))) };
+        } else {
+            predictors = new Predictor[listeners];
+            for (int i = 0; i < listeners; i++)
+                predictors[i] = new Predictor(roomConfig(i, i),
+                        DenseNetworkEngine.fromTFLite(ByteBuffer.wrap(bytes)));
+        }
+
+        beacons = new String[listeners][];
+        for (int i = 0; i < listeners; i++)
+            beacons[i] = new String[] { i + "-x", i + "-y" };
+
+        volumes = new int[predictors[0].getOutputCount()];
+        listenerVolumes = new int[volumes.length];
+    }
+
+    /* Listeners spread along x and walking up and down y */
+    private void update(Predictor predictor, int listener) {
+        predictor.updateInput(beacons[listener][0], (listener * 20 + step) % 340 / 100f);
+        predictor.updateInput(beacons[listener][1], (listener * 37 + step) % 360 / 100f);
+    }
+
+    @Benchmark
+    public int scan() {
+        step = (step + 7) % 340;
+        nanos += scanNanos;
+
+        if (predictors.length == 1) {
+            for (int i = 0; i < listeners; i++)
+                update(predictors[0], i);
+            predictors[0].predict(volumes, nanos);
+
+            return volumes[0];
+        }
+
+        for (int i = 0; i < listeners; i++) {
+            update(predictors[i], i);
+            predictors[i].predict(listenerVolumes, nanos);
+
+            for (int o = 0; o < volumes.length; o++)
+                volumes[o] = (i == 0) ? listenerVolumes[o]
+                                      : Math.max(volumes[o], listenerVolumes[o]);
+        }
+
+        return volumes[0];
+    }
+}
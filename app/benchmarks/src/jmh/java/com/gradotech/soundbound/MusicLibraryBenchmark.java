@@ -0,0 +1,123 @@
+package com.gradotech.soundbound;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Opens the library of a synthetic tree of songs in folders of a hundred, without
+ * a cache (cold) or with the cache of a previous launch (warm). firstTracks is the
+ * time until the list gets its first songs, fullScan until the scan is done.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MusicLibraryBenchmark {
+    @Param({ "10000" })
+    public int songs;
+
+    @Param({ "cold", "warm" })
+    public String start;
+
+    private File root;
+    private File cache;
+    private MusicLibrary library;
+    private CountDownLatch firstTracks;
+
+    private class Listener implements MusicLibrary.Listener {
+        @Override
+        public void onTracksFound(List<MusicLibrary.Track> tracks) {
+            firstTracks.countDown();
+        }
+
+        @Override
+        public void onTracksRemoved(List<MusicLibrary.Track> tracks) {}
+
+        @Override
+        public void onTrackUpdated(MusicLibrary.Track track) {}
+
+        @Override
+        public void onScanFinished(int trackCount) {
+            if (trackCount != songs)
+                throw new IllegalStateException("Found " + trackCount + " of " + songs);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void createTree() throws Exception {
+        root = Files.createTempDirectory("music").toFile();
+        cache = new File(root.getParentFile(), root.getName() + ".library");
+
+        for (int i = 0; i < songs; i++) {
+            File folder = new File(root, String.format("Artist %02d/Album %d", i / 1000,
+                    i / 100 % 10));
+
+            folder.mkdirs();
+            try (FileOutputStream out = new FileOutputStream(
+                    new File(folder, String.format("%02d Song %d.mp3", i % 100, i)))) {
+                out.write(new byte[1024]);
+            }
+            new File(folder, "cover.jpg").createNewFile();
+        }
+
+        MusicLibrary first = new MusicLibrary(root, cache, new Listener());
+        firstTracks = new CountDownLatch(1);
+        first.scan().get();
+        first.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteTree() throws IOException {
+        try (Stream<Path> paths = Files.walk(root.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+        cache.delete();
+    }
+
+    @Setup(Level.Invocation)
+    public void open() {
+        if ("cold".equals(start))
+            cache.delete();
+
+        firstTracks = new CountDownLatch(1);
+        library = new MusicLibrary(root, cache, new Listener());
+    }
+
+    @TearDown(Level.Invocation)
+    public void close() {
+        library.close();
+    }
+
+    @Benchmark
+    public void firstTracks() throws InterruptedException {
+        library.scan();
+        firstTracks.await();
+    }
+
+    @Benchmark
+    public void fullScan() throws Exception {
+        library.scan().get();
+    }
+}
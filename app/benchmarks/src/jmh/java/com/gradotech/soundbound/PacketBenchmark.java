@@ -0,0 +1,58 @@
+package com.gradotech.soundbound;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encoding of the frames sent for one prediction on a four speaker controller, and
+ * decoding of the handshake packet.
+ */
+@State(Scope.Thread)
+public class PacketBenchmark {
+    private static final byte[] speakerIds = { 'a', 'b', 'c', 'd' };
+
+    @Param({ "true", "false" })
+    public boolean batch;
+
+    private CommandQueue queue;
+    private ByteBuffer control;
+    private ByteBuffer volumes;
+    private ByteBuffer handshake;
+    private Soundbound.QDataPacket qdata;
+    private int volume;
+
+    @Setup
+    public void setUp() {
+        queue = new CommandQueue(speakerIds);
+        control = ByteBuffer.allocate(64);
+        volumes = ByteBuffer.allocate(64);
+
+        handshake = ByteBuffer.allocate(Soundbound.QDataPacket.SIZE);
+        Soundbound.QDataPacket.encode(handshake, 0, 2, speakerIds, "Living room");
+        qdata = new Soundbound.QDataPacket();
+    }
+
+    @Benchmark
+    public int encodeVolumes() {
+        volume = (volume + 1) % 101;
+
+        for (byte id : speakerIds)
+            queue.offerVolume(id, (byte) volume);
+
+        ControllerPool.encode(queue, batch, control, volumes);
+
+        return volumes.remaining();
+    }
+
+    @Benchmark
+    public int decodeQData() {
+        qdata.wrap(handshake, 0);
+
+        return qdata.getVersion() + qdata.getSpeakerCount() + qdata.getSpeakerId(3);
+    }
+}
@@ -0,0 +1,58 @@
+package com.gradotech.soundbound;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One run of the room model on its own, walking the room. TFLite only runs on
+ * the device, PanningEngineParityTest checks the dense engine against it there.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PanningEngineBenchmark {
+    @Param({ "dense", "lut" })
+    public String engine;
+
+    private PanningEngine panning;
+    private float[] input;
+    private float[] output;
+    private int step;
+
+    @Setup
+    public void setUp() throws Exception {
+        ModelConfig config = PredictorBenchmark.roomConfig();
+
+        panning = DenseNetworkEngine.fromTFLite(Assets.wrap("room_to_volume.tflite"));
+        if ("lut".equals(engine)) {
+            File file = File.createTempFile("room_to_volume", ".lut");
+
+            file.deleteOnExit();
+            VolumeLut.build(file, 1, config, panning, 2);
+            panning = VolumeLut.open(file, 1);
+        }
+
+        input = new float[config.getInputs().size()];
+        output = new float[config.getOutputs().size()];
+    }
+
+    @Benchmark
+    public float run() {
+        step++;
+        input[0] = step % 340;
+        input[1] = step * 7 % 360;
+
+        panning.run(input, output);
+
+        return output[0];
+    }
+}
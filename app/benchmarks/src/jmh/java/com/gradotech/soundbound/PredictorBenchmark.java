@@ -0,0 +1,66 @@
+package com.gradotech.soundbound;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.File;
+
+/**
+ * One beacon update followed by a prediction, the work done per beacon scan.
+ */
+@State(Scope.Thread)
+public class PredictorBenchmark {
+    private static final String beaconX = "2f234454-cf6d-4a0f-adf2-f4911ba9ffa6";
+    private static final String beaconY = "7b8d4e1f-9a3c-6f2b-0e5d-8c9a7d3b2e4f";
+
+    @Param({ "dense", "lut" })
+    public String engine;
+
+    private Predictor predictor;
+    private int[] volumes;
+    private int step;
+
+    static ModelConfig roomConfig() {
+        ModelConfig config = new ModelConfig();
+
+        config.addInput(new ModelConfig.Shape("x", "float", 0, 340));
+        config.addInput(new ModelConfig.Shape("y", "float", 0, 360));
+        for (String speaker : new String[] { "a", "b", "c", "d" })
+            config.addOutput(new ModelConfig.Shape(speaker, "float", 0, 100));
+        config.addBeacon(new ModelConfig.Beacon(beaconX, "x"));
+        config.addBeacon(new ModelConfig.Beacon(beaconY, "y"));
+
+        return config;
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        ModelConfig config = roomConfig();
+        PanningEngine panning = DenseNetworkEngine.fromTFLite(
+                Assets.wrap("room_to_volume.tflite"));
+
+        if ("lut".equals(engine)) {
+            File file = File.createTempFile("room_to_volume", ".lut");
+
+            file.deleteOnExit();
+            VolumeLut.build(file, 1, config, panning, 2);
+            panning = VolumeLut.open(file, 1);
+        }
+
+        predictor = new Predictor(config, panning);
+        volumes = new int[predictor.getOutputCount()];
+    }
+
+    @Benchmark
+    public int predict() {
+        step = (step + 7) % 340;
+
+        predictor.updateInput(beaconX, step / 100f);
+        predictor.predict(volumes);
+
+        return volumes[0];
+    }
+}
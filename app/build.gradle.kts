@@ -1,4 +1,18 @@
 // Top-level build file where you can add configuration options common to all sub-projects/modules.
 plugins {
     id("com.android.application") version "8.2.1" apply false
-}
\ No newline at end of file
+    id("me.champeau.jmh") version "0.7.2" apply false
+}
+
+/* The model descriptor the app maps at startup, compiled from the JSON config */
+val modelAssets = layout.buildDirectory.dir("generated/modelAssets")
+tasks.register<Exec>("compileModelDescriptor") {
+    val config = file("app/src/main/assets/room_to_volume.json")
+    val compiler = file("../tools/config_compiler.py")
+    val descriptor = modelAssets.get().file("room_to_volume.sbm").asFile
+
+    inputs.files(config, compiler)
+    outputs.dir(modelAssets)
+    doFirst { descriptor.parentFile.mkdirs() }
+    commandLine("python3", compiler, config, descriptor)
+}
@@ -0,0 +1,24 @@
+plugins {
+    id("java-library")
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_1_8
+    targetCompatibility = JavaVersion.VERSION_1_8
+}
+
+sourceSets {
+    test {
+        /* Tests run against the model the app ships */
+        resources.srcDir("../app/src/main/assets")
+        resources.srcDir(rootProject.tasks.named("compileModelDescriptor"))
+    }
+}
+
+dependencies {
+    api("org.nanohttpd:nanohttpd:2.3.1")
+    /* Part of Android */
+    compileOnly("org.json:json:20231013")
+    testImplementation("org.json:json:20231013")
+    testImplementation("junit:junit:4.13.2")
+}
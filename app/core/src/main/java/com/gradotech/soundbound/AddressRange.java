@@ -0,0 +1,104 @@
+package com.gradotech.soundbound;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+public class AddressRange {
+    private static final int maxHosts = 1024;
+
+    private final int first;
+    private final int last;
+
+    public AddressRange(int first, int last) {
+        if (Integer.compareUnsigned(first, last) > 0)
+            throw new IllegalArgumentException("Range start is after range end");
+
+        if (Integer.toUnsignedLong(last) - Integer.toUnsignedLong(first) >= maxHosts)
+            throw new IllegalArgumentException("Range is larger than " + maxHosts + " hosts");
+
+        this.first = first;
+        this.last = last;
+    }
+
+    /**
+     * Accepts "a.b.c.d/n", "a.b.c.d-a.b.c.e", "a.b.c.d-e" or a bare suffix range
+     * such as "100-120", which is appended to the given subnet prefix ("a.b.c.").
+     */
+    public static AddressRange parse(String spec, String subnetPrefix) {
+        spec = spec.trim();
+
+        int slash = spec.indexOf('/');
+        if (slash >= 0) {
+            int base = toInt(spec.substring(0, slash));
+            int bits = Integer.parseInt(spec.substring(slash + 1));
+
+            if (bits < 0 || bits > 32)
+                throw new IllegalArgumentException("Invalid prefix length " + bits);
+
+            int mask = (bits == 0) ? 0 : (-1 << (32 - bits));
+            int network = base & mask;
+            int broadcast = network | ~mask;
+
+            /* Skip the network and broadcast addresses where they exist */
+            if (bits < 31)
+                return new AddressRange(network + 1, broadcast - 1);
+
+            return new AddressRange(network, broadcast);
+        }
+
+        int dash = spec.indexOf('-');
+        String start = (dash >= 0) ? spec.substring(0, dash).trim() : spec;
+        String end = (dash >= 0) ? spec.substring(dash + 1).trim() : spec;
+
+        if (start.indexOf('.') < 0)
+            start = subnetPrefix + start;
+
+        if (end.indexOf('.') < 0)
+            end = start.substring(0, start.lastIndexOf('.') + 1) + end;
+
+        return new AddressRange(toInt(start), toInt(end));
+    }
+
+    public int size() {
+        return last - first + 1;
+    }
+
+    public InetAddress get(int index) {
+        if (index < 0 || index >= size())
+            throw new IndexOutOfBoundsException("Index " + index + " out of range");
+
+        int ip = first + index;
+        byte[] addr = {
+                (byte) (ip >>> 24),
+                (byte) (ip >>> 16),
+                (byte) (ip >>> 8),
+                (byte) ip
+        };
+
+        try {
+            return InetAddress.getByAddress(addr);
+        } catch (UnknownHostException e) {
+            /* Never thrown for a 4 byte address */
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static int toInt(String address) {
+        String[] octets = address.trim().split("\\.");
+        int ip = 0;
+
+        if (octets.length != 4)
+            throw new IllegalArgumentException("Invalid IPv4 address " + address);
+
+        for (String octet : octets) {
+            int value = Integer.parseInt(octet);
+
+            if (value < 0 || value > 255)
+                throw new IllegalArgumentException("Invalid IPv4 address " + address);
+
+            ip = (ip << 8) | value;
+        }
+
+        return ip;
+    }
+}
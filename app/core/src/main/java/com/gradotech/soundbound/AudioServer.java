@@ -0,0 +1,766 @@
+package com.gradotech.soundbound;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import fi.iki.elonen.NanoHTTPD;
+
+/**
+ * Serves the selected song on /stream. Responses carry a Content-Length and honor
+ * single byte ranges, so a controller can seek or resume after a dropped
+ * connection. The body goes from the file to the socket with
+ * FileChannel.transferTo instead of being copied through streams.
+ * <p>
+ * In broadcast mode the clients share one BroadcastStream instead, so the song is
+ * read once however many controllers play it.
+ * <p>
+ * An Mp3FrameIndex of the song maps time to frames: /stream?t=seconds starts at
+ * that second, a plain /stream starts where playback was paused, and pacing sends
+ * the audio at its own bitrate after a short burst instead of as fast as the
+ * socket takes it.
+ * <p>
+ * With a Playlist instead of a selected song, /stream is one continuous broadcast
+ * of its songs back to back, so the controllers play on from one song to the next
+ * without reconnecting. The playback position then runs over the whole playlist.
+ * <p>
+ * With PipelineMetrics set, /metrics serves them as JSON.
+ */
+public class AudioServer extends NanoHTTPD {
+    private static final String mimeType = "audio/mp3";
+    private static final String metricsMimeType = "application/json";
+    private static final long transferChunk = 1024 * 1024;
+    private static final int broadcastCapacity = 1024 * 1024;
+    private static final long broadcastStallMs = 5000L;
+    private static final int paceBurstSeconds = 3;
+    /* Half a minute of a 128 kbps song */
+    private static final int prefetchBytes = 512 * 1024;
+
+    /* Socket of the client handled by the current thread */
+    private final ThreadLocal<Socket> clientSocket = new ThreadLocal<>();
+
+    private String selectedFilePath;
+    private boolean isPlaying;
+    private volatile boolean broadcast;
+    private volatile boolean pacing;
+    private volatile PipelineMetrics metrics;
+    private BroadcastStream broadcastStream;
+    private String broadcastPath;
+    private Playlist broadcastPlaylist;
+    private Playlist playlist;
+    private File indexDir;
+    private Mp3FrameIndex index;
+    private String indexPath;
+
+    /* Playback clock, positionMs is what was played before playStartMs */
+    private long positionMs;
+    private long playStartMs;
+    /* Bumped on every pause, responses started before it stop sending */
+    private volatile int pauses;
+
+    public AudioServer(int port) {
+        super(port);
+        isPlaying = false;
+
+        /* Sockets accepted through a channel can be the target of transferTo */
+        setServerSocketFactory(() -> ServerSocketChannel.open().socket());
+    }
+
+    public boolean isPlaying() {
+        return isPlaying;
+    }
+
+    /**
+     * Pausing ends the bodies being sent and keeps the playback position, so the
+     * next request for /stream resumes from it.
+     */
+    public synchronized void setPlayingStatus(boolean isPlaying) {
+        long now = System.currentTimeMillis();
+
+        if (isPlaying && !this.isPlaying)
+            playStartMs = now;
+
+        if (!isPlaying && this.isPlaying) {
+            positionMs += now - playStartMs;
+            pauses++;
+            closeBroadcast();
+        }
+
+        this.isPlaying = isPlaying;
+    }
+
+    /**
+     * Seconds of the selected song or of the playlist played so far.
+     */
+    public synchronized double getPlaybackPosition() {
+        long played = positionMs;
+
+        if (isPlaying)
+            played += System.currentTimeMillis() - playStartMs;
+
+        return played / 1000.0;
+    }
+
+    /**
+     * Sends the audio at the rate it plays instead of as fast as the socket takes it.
+     */
+    public void setPacing(boolean pacing) {
+        this.pacing = pacing;
+    }
+
+    /**
+     * Directory where the frame indexes of the songs are cached. When null they are
+     * kept next to each song.
+     */
+    public synchronized void setIndexDir(File indexDir) {
+        this.indexDir = indexDir;
+    }
+
+    public void setMetrics(PipelineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * In broadcast mode every client of /stream shares a single read of the song
+     * and gets the same bytes, instead of reading the file on its own. Clients
+     * joining a running broadcast get its position whatever time they ask for.
+     */
+    public void setBroadcast(boolean broadcast) {
+        this.broadcast = broadcast;
+    }
+
+    public synchronized BroadcastStream getBroadcastStream() {
+        return broadcastStream;
+    }
+
+    @Override
+    protected ClientHandler createClientHandler(final Socket socket, InputStream inputStream) {
+        return new ClientHandler(inputStream, socket) {
+            @Override
+            public void run() {
+                clientSocket.set(socket);
+                try {
+                    super.run();
+                } finally {
+                    clientSocket.remove();
+                }
+            }
+        };
+    }
+
+    @Override
+    public Response serve(IHTTPSession session) {
+        Method method = session.getMethod();
+        String uri = session.getUri();
+
+        if ((Method.GET.equals(method) || Method.HEAD.equals(method)) && "/stream".equals(uri)) {
+            return handleStreamRequest(session);
+        }
+
+        PipelineMetrics metrics = this.metrics;
+        if (Method.GET.equals(method) && "/metrics".equals(uri) && metrics != null)
+            return newFixedLengthResponse(Response.Status.OK, metricsMimeType, metrics.toJson());
+
+        return newFixedLengthResponse("Invalid URL");
+    }
+
+    /* First value of a query parameter, null when it's missing */
+    private static String getParameter(IHTTPSession session, String name) {
+        List<String> values = session.getParameters().get(name);
+
+        return (values == null || values.isEmpty()) ? null : values.get(0);
+    }
+
+    private Response handleStreamRequest(IHTTPSession session) {
+        Playlist playlist = getPlaylist();
+        if (playlist != null)
+            return handlePlaylistRequest(session, playlist);
+
+        File file = new File(selectedFilePath);
+        if (!file.isFile())
+            return newFixedLengthResponse("File not found");
+
+        /* The headers of a broadcast don't depend on it, a HEAD leaves it running */
+        if (broadcast && Method.HEAD.equals(session.getMethod()))
+            return new BroadcastResponse(null);
+
+        String time = getParameter(session, "t");
+        String rangeHeader = session.getHeaders().get("range");
+        double seconds = 0;
+
+        /* An explicit range is a byte offset and wins over the playback position */
+        try {
+            if (time != null)
+                seconds = Double.parseDouble(time);
+            else if (rangeHeader == null)
+                seconds = getPlaybackPosition();
+        } catch (NumberFormatException e) {
+            return newFixedLengthResponse(Response.Status.BAD_REQUEST, MIME_PLAINTEXT,
+                    "Invalid time");
+        }
+
+        Mp3FrameIndex index = (seconds > 0 || pacing) ? index(file) : null;
+        Pacer pacer = (pacing && index != null && index.getBytesPerSecond() > 0) ?
+                new Pacer(index.getBytesPerSecond()) : null;
+        long offset = 0;
+
+        if (index != null && seconds > 0) {
+            offset = index.getOffset(seconds);
+
+            /* Played to the end, start over */
+            if (time == null && offset >= index.getAudioEnd()) {
+                offset = 0;
+                restartPlayback();
+            }
+        }
+
+        if (broadcast) {
+            try {
+                return new BroadcastResponse(subscribe(file, offset, pacer));
+            } catch (IOException e) {
+                e.printStackTrace();
+                return newFixedLengthResponse("Error serving the file");
+            }
+        }
+
+        long length = file.length();
+        long[] range = (time != null || offset > 0) ?
+                new long[] { offset, length - 1 } : parseRange(rangeHeader, length);
+
+        if (range != null && range[0] > range[1]) {
+            Response response = newFixedLengthResponse(Response.Status.RANGE_NOT_SATISFIABLE,
+                    MIME_PLAINTEXT, "");
+            response.addHeader("Content-Range", "bytes */" + length);
+            return response;
+        }
+
+        try {
+            FileChannel channel = new FileInputStream(file).getChannel();
+
+            if (range == null)
+                return new FileResponse(Response.Status.OK, channel, 0, length, length, pacer);
+
+            /* A seek in time is a new stream starting at that frame, not a partial one */
+            Response.Status status = (rangeHeader != null && time == null && offset == 0) ?
+                    Response.Status.PARTIAL_CONTENT : Response.Status.OK;
+
+            return new FileResponse(status, channel, range[0], range[1] - range[0] + 1, length,
+                    pacer);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return newFixedLengthResponse("Error serving the file");
+        }
+    }
+
+    /**
+     * A playlist always goes out as a broadcast, ranges don't apply to it. Its
+     * songs are paced at their own bitrates.
+     */
+    private Response handlePlaylistRequest(IHTTPSession session, Playlist playlist) {
+        String time = getParameter(session, "t");
+        double seconds;
+
+        if (Method.HEAD.equals(session.getMethod()))
+            return new BroadcastResponse(null);
+
+        try {
+            seconds = (time != null) ? Double.parseDouble(time) : getPlaybackPosition();
+        } catch (NumberFormatException e) {
+            return newFixedLengthResponse(Response.Status.BAD_REQUEST, MIME_PLAINTEXT,
+                    "Invalid time");
+        }
+
+        /* The song playing seconds into the playlist, songs without an index are skipped */
+        int track;
+        Mp3FrameIndex index = null;
+        for (track = 0; track < playlist.size(); track++) {
+            index = playlist.getIndex(track);
+            if (index == null)
+                continue;
+
+            if (seconds * 1000 < index.getDurationMs())
+                break;
+            seconds -= index.getDurationMs() / 1000.0;
+        }
+
+        /* Played to the end, start over */
+        if (track == playlist.size() && time == null && track > 0) {
+            track = 0;
+            seconds = 0;
+            index = playlist.getIndex(0);
+            restartPlayback();
+        }
+
+        long offset = (track < playlist.size() && index != null) ? index.getOffset(seconds) : 0;
+        Pacer pacer = (pacing && index != null && index.getBytesPerSecond() > 0) ?
+                new Pacer(index.getBytesPerSecond()) : null;
+
+        try {
+            return new BroadcastResponse(subscribe(playlist, track, offset, pacer));
+        } catch (IOException e) {
+            e.printStackTrace();
+            return newFixedLengthResponse("Error serving the playlist");
+        }
+    }
+
+    /**
+     * Joins the running broadcast of file, starting a new one at offset for another
+     * song or once the previous one was played out or paused.
+     */
+    private synchronized BroadcastStream.Subscriber subscribe(File file, long offset,
+                                                              Pacer pacer) throws IOException {
+        if (broadcastStream == null || broadcastStream.isFinished() ||
+                broadcastPlaylist != null || !file.getPath().equals(broadcastPath)) {
+            closeBroadcast();
+
+            FileChannel channel = new FileInputStream(file).getChannel();
+            channel.position(offset);
+
+            broadcastStream = new BroadcastStream(
+                    (pacer != null) ? new PacedChannel(channel, pacer) : channel,
+                    broadcastCapacity, broadcastStallMs);
+            broadcastPath = file.getPath();
+            broadcastPlaylist = null;
+        }
+
+        return broadcastStream.subscribe();
+    }
+
+    /**
+     * Joins the running broadcast of playlist, or starts it at offset into track.
+     */
+    private synchronized BroadcastStream.Subscriber subscribe(Playlist playlist, int track,
+            long offset, Pacer pacer) throws IOException {
+        if (broadcastStream == null || broadcastStream.isFinished() ||
+                broadcastPlaylist != playlist) {
+            closeBroadcast();
+
+            Playlist.Stream stream = playlist.open(track, offset, (started, index) -> {
+                if (pacer != null && index.getBytesPerSecond() > 0)
+                    pacer.setRate(index.getBytesPerSecond());
+            });
+
+            broadcastStream = new BroadcastStream(
+                    (pacer != null) ? new PacedChannel(stream, pacer) : stream,
+                    broadcastCapacity, broadcastStallMs);
+            broadcastPath = null;
+            broadcastPlaylist = playlist;
+        }
+
+        return broadcastStream.subscribe();
+    }
+
+    private synchronized void closeBroadcast() {
+        if (broadcastStream != null) {
+            try {
+                broadcastStream.close();
+            } catch (IOException ignored) {}
+            broadcastStream = null;
+        }
+    }
+
+    private synchronized void restartPlayback() {
+        positionMs = 0;
+        playStartMs = System.currentTimeMillis();
+    }
+
+    /**
+     * Frame index of file, from the cache when it is up to date. Returns null when
+     * the song can't be indexed, it is then only served from its start. Songs are
+     * indexed outside the lock, a playlist indexes the next song in the background.
+     */
+    private Mp3FrameIndex index(File file) {
+        File cache;
+
+        synchronized (this) {
+            if (index != null && file.getPath().equals(indexPath))
+                return index;
+
+            cache = (indexDir == null) ? new File(file.getPath() + ".idx") :
+                    new File(indexDir, file.getName() + "." +
+                            Integer.toHexString(file.getPath().hashCode()) + ".idx");
+        }
+
+        try {
+            Mp3FrameIndex loaded = Mp3FrameIndex.load(file, cache);
+
+            synchronized (this) {
+                index = loaded;
+                indexPath = file.getPath();
+            }
+
+            return loaded;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Parses a single "bytes=" range against a file of the given length. Returns the
+     * first and last byte, with first past last when the range can't be satisfied,
+     * or null when the header is absent or not a single byte range and the whole
+     * file should be sent.
+     */
+    static long[] parseRange(String header, long length) {
+        if (header == null)
+            return null;
+
+        header = header.trim();
+        if (!header.startsWith("bytes=") || header.indexOf(',') >= 0)
+            return null;
+
+        String spec = header.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0)
+            return null;
+
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+
+            /* Suffix range, the final bytes of the file */
+            if (first.isEmpty()) {
+                long suffix = Long.parseLong(last);
+
+                if (suffix <= 0)
+                    return new long[] { length, length - 1 };
+
+                return new long[] { Math.max(0, length - suffix), length - 1 };
+            }
+
+            long start = Long.parseLong(first);
+            long end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+
+            if (start < 0 || end < start)
+                return null;
+
+            return new long[] { start, Math.min(end, length - 1) };
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes its own headers and then the body straight to the client's channel.
+     */
+    private abstract class DirectResponse extends Response {
+        private final int generation = pauses;
+        private boolean keepAlive;
+
+        DirectResponse(Response.Status status) {
+            super(status, mimeType, null, -1);
+        }
+
+        @Override
+        public void setKeepAlive(boolean keepAlive) {
+            super.setKeepAlive(keepAlive);
+            this.keepAlive = keepAlive;
+        }
+
+        /* Headers that follow Content-Type and Date */
+        abstract void appendHeaders(StringBuilder headers);
+
+        abstract void sendBody(WritableByteChannel target) throws IOException;
+
+        /* Ends the body when playback was paused since the request */
+        void checkPaused() throws IOException {
+            if (generation != pauses)
+                throw new IOException("Playback paused");
+        }
+
+        @Override
+        protected void send(OutputStream out) {
+            SimpleDateFormat gmt = new SimpleDateFormat("E, d MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+            StringBuilder headers = new StringBuilder();
+
+            gmt.setTimeZone(TimeZone.getTimeZone("GMT"));
+
+            headers.append("HTTP/1.1 ").append(getStatus().getDescription()).append("\r\n");
+            headers.append("Content-Type: ").append(getMimeType()).append("\r\n");
+            headers.append("Date: ").append(gmt.format(new Date())).append("\r\n");
+            appendHeaders(headers);
+            headers.append("Connection: ")
+                    .append(keepAlive && !isCloseConnection() ? "keep-alive" : "close")
+                    .append("\r\n\r\n");
+
+            try {
+                out.write(headers.toString().getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+
+                if (getRequestMethod() != Method.HEAD)
+                    sendBody(clientChannel(out));
+
+                out.flush();
+            } catch (IOException e) {
+                /* Players drop the connection to seek, just let the socket go */
+                closeConnection(true);
+            }
+        }
+
+        /* Sockets not accepted through a channel are written through their stream */
+        private WritableByteChannel clientChannel(OutputStream out) {
+            Socket socket = clientSocket.get();
+            SocketChannel channel = (socket != null) ? socket.getChannel() : null;
+
+            if (channel != null && channel.isBlocking())
+                return channel;
+
+            return Channels.newChannel(out);
+        }
+    }
+
+    private class FileResponse extends DirectResponse {
+        private final FileChannel file;
+        private final long start;
+        private final long count;
+        private final long total;
+        private final Pacer pacer;
+
+        FileResponse(Response.Status status, FileChannel file, long start, long count,
+                     long total, Pacer pacer) {
+            super(status);
+
+            this.file = file;
+            this.start = start;
+            this.count = count;
+            this.total = total;
+            this.pacer = pacer;
+        }
+
+        @Override
+        void appendHeaders(StringBuilder headers) {
+            headers.append("Accept-Ranges: bytes\r\n");
+            if (getStatus() == Response.Status.PARTIAL_CONTENT)
+                headers.append("Content-Range: bytes ").append(start).append('-')
+                        .append(start + count - 1).append('/').append(total).append("\r\n");
+            headers.append("Content-Length: ").append(count).append("\r\n");
+        }
+
+        @Override
+        void sendBody(WritableByteChannel target) throws IOException {
+            long position = start;
+            long end = start + count;
+
+            while (position < end) {
+                long chunk = Math.min(transferChunk, end - position);
+
+                checkPaused();
+                if (pacer != null)
+                    chunk = pacer.allowance(position - start, chunk);
+
+                long n = file.transferTo(position, chunk, target);
+
+                if (n <= 0 && position >= file.size())
+                    throw new IOException("File shrank while streaming");
+
+                position += n;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            file.close();
+            super.close();
+        }
+    }
+
+    /**
+     * A live stream has no length, the body ends when the connection closes. A HEAD
+     * request gets the headers without a subscriber.
+     */
+    private class BroadcastResponse extends DirectResponse {
+        private final BroadcastStream.Subscriber subscriber;
+
+        BroadcastResponse(BroadcastStream.Subscriber subscriber) {
+            super(Response.Status.OK);
+
+            this.subscriber = subscriber;
+            closeConnection(true);
+        }
+
+        @Override
+        void appendHeaders(StringBuilder headers) {
+            headers.append("Accept-Ranges: none\r\n");
+        }
+
+        @Override
+        void sendBody(WritableByteChannel target) throws IOException {
+            while (true) {
+                checkPaused();
+                if (subscriber.transferTo(target) < 0)
+                    return;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (subscriber != null)
+                subscriber.close();
+            super.close();
+        }
+    }
+
+    /**
+     * Lets a body out at the rate a player consumes it, after a burst of a few
+     * seconds that fills the player's buffer.
+     */
+    private static class Pacer {
+        private long bytesPerSecond;
+        /* Bytes due at startNs */
+        private long due;
+        private long startNs = System.nanoTime();
+
+        Pacer(long bytesPerSecond) {
+            this.bytesPerSecond = bytesPerSecond;
+            this.due = bytesPerSecond * paceBurstSeconds;
+        }
+
+        private long due(long now) {
+            return due + (now - startNs) / 1000 * bytesPerSecond / 1000000;
+        }
+
+        /* The next song of a playlist plays at its own rate, what is due stays due */
+        void setRate(long bytesPerSecond) {
+            long now = System.nanoTime();
+
+            due = due(now);
+            startNs = now;
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        /* Waits until a tenth of a second of audio, or count bytes, may follow sent */
+        long allowance(long sent, long count) throws IOException {
+            if (count <= 0)
+                return count;
+
+            long quantum = Math.min(count, Math.max(1, bytesPerSecond / 10));
+
+            while (true) {
+                long allowed = due(System.nanoTime()) - sent;
+
+                if (allowed >= quantum)
+                    return Math.min(allowed, count);
+
+                try {
+                    Thread.sleep(Math.max(1, (quantum - allowed) * 1000 / bytesPerSecond));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while pacing");
+                }
+            }
+        }
+    }
+
+    private static class PacedChannel implements ReadableByteChannel {
+        private final ReadableByteChannel source;
+        private final Pacer pacer;
+        private long read;
+
+        PacedChannel(ReadableByteChannel source, Pacer pacer) {
+            this.source = source;
+            this.pacer = pacer;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            int limit = dst.limit();
+
+            dst.limit(dst.position() + (int) pacer.allowance(read, dst.remaining()));
+            try {
+                int n = source.read(dst);
+
+                if (n > 0)
+                    read += n;
+
+                return n;
+            } finally {
+                dst.limit(limit);
+            }
+        }
+
+        @Override
+        public boolean isOpen() {
+            return source.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            source.close();
+        }
+    }
+
+    @Override
+    public void stop() {
+        super.stop();
+        closeBroadcast();
+    }
+
+    public void startServer() {
+        try {
+            start(NanoHTTPD.SOCKET_READ_TIMEOUT, false);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Selecting another song starts its playback position over, selecting a song
+     * ends the playlist.
+     */
+    public synchronized void setFilePath(String selectedFilePath) {
+        if (!selectedFilePath.equals(this.selectedFilePath) || playlist != null)
+            restartPlayback();
+
+        this.selectedFilePath = selectedFilePath;
+        this.playlist = null;
+    }
+
+    /**
+     * Plays paths back to back from the first one. Setting the playlist it already
+     * plays keeps the playback position, more songs can be added to getPlaylist().
+     */
+    public synchronized void setPlaylist(List<String> paths) {
+        if (playlist != null && playlist.getPaths().equals(paths))
+            return;
+
+        Playlist playlist = new Playlist(this::index, prefetchBytes);
+        for (String path : paths)
+            playlist.add(path);
+
+        setPlaylist(playlist);
+    }
+
+    /**
+     * Plays playlist from its first song, null goes back to the selected song.
+     */
+    public synchronized void setPlaylist(Playlist playlist) {
+        if (playlist != this.playlist) {
+            restartPlayback();
+            closeBroadcast();
+        }
+
+        this.playlist = playlist;
+    }
+
+    public synchronized Playlist getPlaylist() {
+        return playlist;
+    }
+}
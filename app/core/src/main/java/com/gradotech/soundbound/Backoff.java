@@ -0,0 +1,51 @@
+package com.gradotech.soundbound;
+
+import java.util.Random;
+
+/**
+ * Exponential backoff with jitter between reconnect attempts. The nth delay is
+ * drawn from the upper half of min(base * 2^(n-1), max), so phones that lost the
+ * controllers together don't rescan in lockstep, and a retry never comes
+ * immediately.
+ */
+public class Backoff {
+    private final long baseMs;
+    private final long maxMs;
+    private final Random random;
+    private int attempts;
+
+    public Backoff(long baseMs, long maxMs, Random random) {
+        if (baseMs <= 0 || maxMs < baseMs)
+            throw new IllegalArgumentException("Bad backoff range " + baseMs + "-" + maxMs);
+
+        this.baseMs = baseMs;
+        this.maxMs = maxMs;
+        this.random = random;
+    }
+
+    public Backoff(long baseMs, long maxMs) {
+        this(baseMs, maxMs, new Random());
+    }
+
+    /**
+     * Returns the delay before the next attempt, in ms.
+     */
+    public long next() {
+        int shift = Math.min(attempts++, 30);
+        long cap = Math.min(maxMs, baseMs << shift);
+        long half = cap / 2;
+
+        return cap - half + (long) (random.nextDouble() * (half + 1));
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * Starts over from the base delay, after a successful attempt.
+     */
+    public void reset() {
+        attempts = 0;
+    }
+}
@@ -0,0 +1,206 @@
+package com.gradotech.soundbound;
+
+/**
+ * Smooths the distances reported for one beacon before they reach the model. BLE
+ * ranging is noisy, a listener standing still is reported a few tens of cm back and
+ * forth on every scan. Filters keep their state in fields allocated up front, so
+ * updating them never allocates.
+ * <p>
+ * Filters are configured per beacon with a spec: "none", "average:window",
+ * "exponential:alpha" or "kalman:processNoise:measurementNoise", noise variances in m^2.
+ */
+public interface BeaconFilter {
+    /**
+     * Feeds a new distance in meters and returns the filtered one.
+     */
+    float update(float distance);
+
+    void reset();
+
+    /**
+     * Number of updates by which the output trails a listener walking at a steady
+     * pace, once the filter has settled.
+     */
+    float getLag();
+
+    /**
+     * Creates the filter described by spec, a null spec doesn't filter.
+     */
+    static BeaconFilter parse(String spec) {
+        String[] fields = (spec == null) ? new String[] { "none" } : spec.trim().split(":");
+
+        try {
+            switch (fields[0]) {
+                case "none":
+                    if (fields.length == 1)
+                        return new None();
+                    break;
+                case "average":
+                    if (fields.length == 2)
+                        return new MovingAverage(Integer.parseInt(fields[1]));
+                    break;
+                case "exponential":
+                    if (fields.length == 2)
+                        return new Exponential(Float.parseFloat(fields[1]));
+                    break;
+                case "kalman":
+                    if (fields.length == 3)
+                        return new Kalman(Float.parseFloat(fields[1]),
+                                Float.parseFloat(fields[2]));
+                    break;
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad beacon filter " + spec, e);
+        }
+
+        throw new IllegalArgumentException("Bad beacon filter " + spec);
+    }
+
+    class None implements BeaconFilter {
+        @Override
+        public float update(float distance) {
+            return distance;
+        }
+
+        @Override
+        public void reset() {}
+
+        @Override
+        public float getLag() {
+            return 0;
+        }
+    }
+
+    /**
+     * Mean of the last window distances, kept in a ring.
+     */
+    class MovingAverage implements BeaconFilter {
+        private final float[] ring;
+        private double sum;
+        private int count;
+        private int next;
+
+        public MovingAverage(int window) {
+            if (window < 1)
+                throw new IllegalArgumentException("Window must be at least 1");
+
+            ring = new float[window];
+        }
+
+        @Override
+        public float update(float distance) {
+            if (count == ring.length)
+                sum -= ring[next];
+            else
+                count++;
+
+            ring[next] = distance;
+            sum += distance;
+            next = (next + 1) % ring.length;
+
+            return (float) (sum / count);
+        }
+
+        @Override
+        public void reset() {
+            sum = 0;
+            count = 0;
+            next = 0;
+        }
+
+        @Override
+        public float getLag() {
+            return (ring.length - 1) / 2f;
+        }
+    }
+
+    /**
+     * Exponential moving average, alpha is the weight of the newest distance.
+     */
+    class Exponential implements BeaconFilter {
+        private final float alpha;
+        private float value;
+        private boolean primed;
+
+        public Exponential(float alpha) {
+            if (!(alpha > 0 && alpha <= 1))
+                throw new IllegalArgumentException("Alpha must be in (0, 1]");
+
+            this.alpha = alpha;
+        }
+
+        @Override
+        public float update(float distance) {
+            value = primed ? value + alpha * (distance - value) : distance;
+            primed = true;
+
+            return value;
+        }
+
+        @Override
+        public void reset() {
+            primed = false;
+        }
+
+        @Override
+        public float getLag() {
+            return (1 - alpha) / alpha;
+        }
+    }
+
+    /**
+     * One dimensional Kalman filter for a listener that wanders slowly: processNoise
+     * is how much the distance may drift per scan, measurementNoise how much the
+     * ranging jitters.
+     */
+    class Kalman implements BeaconFilter {
+        private final float processNoise;
+        private final float measurementNoise;
+        private float estimate;
+        private float variance;
+        private boolean primed;
+
+        public Kalman(float processNoise, float measurementNoise) {
+            if (!(processNoise > 0 && measurementNoise > 0))
+                throw new IllegalArgumentException("Noises must be positive");
+
+            this.processNoise = processNoise;
+            this.measurementNoise = measurementNoise;
+        }
+
+        @Override
+        public float update(float distance) {
+            if (!primed) {
+                estimate = distance;
+                variance = measurementNoise;
+                primed = true;
+
+                return estimate;
+            }
+
+            variance += processNoise;
+
+            float gain = variance / (variance + measurementNoise);
+
+            estimate += gain * (distance - estimate);
+            variance *= 1 - gain;
+
+            return estimate;
+        }
+
+        @Override
+        public void reset() {
+            primed = false;
+        }
+
+        /* Settled, the filter is an exponential average with the steady state gain */
+        @Override
+        public float getLag() {
+            double predicted = (processNoise + Math.sqrt(processNoise * processNoise +
+                    4.0 * processNoise * measurementNoise)) / 2;
+            double gain = predicted / (predicted + measurementNoise);
+
+            return (float) ((1 - gain) / gain);
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package com.gradotech.soundbound;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reads a source once into a fixed ring buffer that every subscriber consumes with
+ * its own cursor, so N clients cost one read of the file and one ring of memory.
+ * <p>
+ * The reader only overwrites bytes that every subscriber has consumed. When the
+ * ring is full because of a subscriber that hasn't moved for stallTimeoutMs, that
+ * subscriber is dropped: its next read fails and the others carry on.
+ */
+public class BroadcastStream implements Closeable {
+    private final ReadableByteChannel source;
+    private final byte[] ring;
+    private final int mask;
+    private final long stallTimeoutMs;
+    private final List<Subscriber> subscribers = new ArrayList<>();
+    private final Thread reader;
+    private final AtomicLong sourceBytes = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    /* Guarded by this */
+    private long writePos;
+    private boolean eof;
+    private boolean closed;
+
+    public class Subscriber implements Closeable {
+        private long cursor;
+        private boolean dropped;
+
+        private Subscriber(long cursor) {
+            this.cursor = cursor;
+        }
+
+        /**
+         * Writes what is available to target, waiting for data when the subscriber
+         * caught up with the reader. Returns the number of bytes written or -1 once
+         * the whole source was consumed.
+         */
+        public int transferTo(WritableByteChannel target) throws IOException {
+            int offset;
+            int length;
+
+            synchronized (BroadcastStream.this) {
+                try {
+                    while (cursor == writePos && !eof && !dropped && !closed)
+                        BroadcastStream.this.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for data");
+                }
+
+                if (dropped)
+                    throw new IOException("Dropped, fell more than a ring behind");
+                if (cursor == writePos)
+                    return -1;
+
+                offset = (int) (cursor & mask);
+                length = (int) Math.min(writePos - cursor, ring.length - offset);
+            }
+
+            /* The reader never writes into [cursor, writePos) while we are subscribed */
+            int written = target.write(ByteBuffer.wrap(ring, offset, length));
+
+            synchronized (BroadcastStream.this) {
+                if (dropped)
+                    throw new IOException("Dropped, fell more than a ring behind");
+
+                cursor += written;
+                BroadcastStream.this.notifyAll();
+            }
+
+            return written;
+        }
+
+        public long getPosition() {
+            synchronized (BroadcastStream.this) {
+                return cursor;
+            }
+        }
+
+        @Override
+        public void close() {
+            synchronized (BroadcastStream.this) {
+                subscribers.remove(this);
+                BroadcastStream.this.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * The capacity is rounded up to a power of two.
+     */
+    public BroadcastStream(ReadableByteChannel source, int capacity, long stallTimeoutMs) {
+        this.source = source;
+        this.ring = new byte[Integer.highestOneBit(Math.max(2, capacity) - 1) << 1];
+        this.mask = ring.length - 1;
+        this.stallTimeoutMs = stallTimeoutMs;
+
+        this.reader = new Thread(this::readSource, "BroadcastStream reader");
+        this.reader.setDaemon(true);
+        this.reader.start();
+    }
+
+    /**
+     * Joins the broadcast at the oldest byte the other subscribers still need, so
+     * everyone gets the same bytes. The first subscriber starts the reader.
+     */
+    public synchronized Subscriber subscribe() throws IOException {
+        if (closed)
+            throw new IOException("Broadcast closed");
+
+        Subscriber subscriber = new Subscriber(subscribers.isEmpty() ? writePos : minCursor());
+
+        subscribers.add(subscriber);
+        notifyAll();
+
+        return subscriber;
+    }
+
+    public synchronized int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    /**
+     * True once the source hit its end and nobody is left to consume the ring.
+     */
+    public synchronized boolean isFinished() {
+        return closed || (eof && subscribers.isEmpty());
+    }
+
+    public int getCapacity() {
+        return ring.length;
+    }
+
+    /**
+     * Bytes read from the source, independent of the number of subscribers.
+     */
+    public long getSourceBytes() {
+        return sourceBytes.get();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    private long minCursor() {
+        long min = writePos;
+
+        for (Subscriber subscriber : subscribers)
+            min = Math.min(min, subscriber.cursor);
+
+        return min;
+    }
+
+    private void readSource() {
+        try {
+            while (true) {
+                int offset;
+                int length;
+
+                synchronized (this) {
+                    long stallStart = System.currentTimeMillis();
+
+                    while (!closed && (subscribers.isEmpty() || writePos - minCursor() == ring.length)) {
+                        if (subscribers.isEmpty()) {
+                            wait();
+                            stallStart = System.currentTimeMillis();
+                            continue;
+                        }
+
+                        long remaining = stallStart + stallTimeoutMs - System.currentTimeMillis();
+                        if (remaining <= 0) {
+                            dropStalled();
+                            stallStart = System.currentTimeMillis();
+                            continue;
+                        }
+
+                        wait(remaining);
+                    }
+
+                    if (closed)
+                        return;
+
+                    offset = (int) (writePos & mask);
+                    length = (int) Math.min(ring.length - (writePos - minCursor()),
+                            ring.length - offset);
+                }
+
+                /* Nobody reads this region until writePos moves past it */
+                int n = source.read(ByteBuffer.wrap(ring, offset, length));
+
+                synchronized (this) {
+                    if (n < 0) {
+                        eof = true;
+                        notifyAll();
+                        return;
+                    }
+
+                    sourceBytes.addAndGet(n);
+                    writePos += n;
+                    notifyAll();
+                }
+            }
+        } catch (IOException e) {
+            synchronized (this) {
+                eof = true;
+                notifyAll();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /* Called with the ring full, every subscriber a whole ring behind is stalled */
+    private void dropStalled() {
+        long oldest = writePos - ring.length;
+
+        for (int i = subscribers.size() - 1; i >= 0; i--) {
+            Subscriber subscriber = subscribers.get(i);
+
+            if (subscriber.cursor == oldest) {
+                subscriber.dropped = true;
+                subscribers.remove(i);
+                droppedCount.incrementAndGet();
+            }
+        }
+
+        notifyAll();
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+
+        reader.interrupt();
+        source.close();
+    }
+}
@@ -0,0 +1,203 @@
+package com.gradotech.soundbound;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size command queue of a single controller. Each speaker has one volume slot
+ * and a newer volume replaces the pending one, so a stalled socket never replays
+ * stale positions. Control commands keep their order in a small bounded ring.
+ * <p>
+ * Producers may be any thread, only the controller's I/O thread consumes. Neither
+ * side allocates.
+ */
+public class CommandQueue {
+    public static final int EMPTY = -1;
+
+    private static final int controlCapacity = 16;
+
+    private final byte[] speakerIds;
+    private final int[] ordinals;
+    private final AtomicIntegerArray volumes;
+
+    private final byte[] controls;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail;
+    private long head;
+
+    private final AtomicBoolean scheduled;
+    private volatile long scheduledNanos;
+    private volatile long originNanos;
+    private final AtomicLong coalesced;
+    private final AtomicLong dropped;
+
+    public CommandQueue(byte[] speakerIds) {
+        this.speakerIds = speakerIds.clone();
+        this.ordinals = new int[256];
+        this.volumes = new AtomicIntegerArray(speakerIds.length);
+
+        for (int i = 0; i < speakerIds.length; i++) {
+            ordinals[speakerIds[i] & 0xff] = i + 1;
+            volumes.set(i, EMPTY);
+        }
+
+        this.controls = new byte[controlCapacity];
+        this.sequences = new AtomicLongArray(controlCapacity);
+        this.tail = new AtomicLong();
+        this.head = 0;
+
+        for (int i = 0; i < controlCapacity; i++)
+            sequences.set(i, i);
+
+        this.scheduled = new AtomicBoolean(false);
+        this.coalesced = new AtomicLong();
+        this.dropped = new AtomicLong();
+    }
+
+    public int getSpeakerCount() {
+        return speakerIds.length;
+    }
+
+    public byte getSpeakerId(int ordinal) {
+        return speakerIds[ordinal];
+    }
+
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Stores the volume in the speaker's slot, replacing any volume that was not sent
+     * yet. Returns false for a speaker this controller doesn't own.
+     */
+    public boolean offerVolume(byte id, byte volume) {
+        int ordinal = ordinals[id & 0xff] - 1;
+
+        if (ordinal < 0) {
+            dropped.incrementAndGet();
+            return false;
+        }
+
+        if (volumes.getAndSet(ordinal, volume & 0xff) != EMPTY)
+            coalesced.incrementAndGet();
+
+        return true;
+    }
+
+    /**
+     * Appends a single byte control command. Returns false when the ring is full.
+     */
+    public boolean offerControl(byte cmd) {
+        long pos = tail.get();
+        int index;
+
+        while (true) {
+            index = (int) (pos & (controlCapacity - 1));
+            long diff = sequences.get(index) - pos;
+
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1))
+                    break;
+                pos = tail.get();
+            } else if (diff < 0) {
+                dropped.incrementAndGet();
+                return false;
+            } else {
+                pos = tail.get();
+            }
+        }
+
+        controls[index] = cmd;
+        sequences.lazySet(index, pos + 1);
+
+        return true;
+    }
+
+    /**
+     * Consumer only. Returns the oldest control command or EMPTY.
+     */
+    public int pollControl() {
+        int index = (int) (head & (controlCapacity - 1));
+
+        if (sequences.get(index) != head + 1)
+            return EMPTY;
+
+        int cmd = controls[index] & 0xff;
+        sequences.lazySet(index, head + controlCapacity);
+        head++;
+
+        return cmd;
+    }
+
+    /**
+     * Consumer only. Takes the pending volume of the speaker at the given ordinal,
+     * or EMPTY when there is none.
+     */
+    public int pollVolume(int ordinal) {
+        return volumes.getAndSet(ordinal, EMPTY);
+    }
+
+    /**
+     * Consumer only.
+     */
+    public boolean isEmpty() {
+        int index = (int) (head & (controlCapacity - 1));
+
+        if (sequences.get(index) == head + 1)
+            return false;
+
+        for (int i = 0; i < speakerIds.length; i++) {
+            if (volumes.get(i) != EMPTY)
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Marks the queue as waiting for the consumer. Only the caller that gets true has
+     * to wake the consumer up.
+     */
+    public boolean schedule() {
+        return schedule(0);
+    }
+
+    /**
+     * Like schedule(), originNanos is when the command that was queued was produced,
+     * 0 for now. Only the call that schedules the queue stamps it, so the stamps
+     * belong to the oldest pending command.
+     */
+    public boolean schedule(long originNanos) {
+        if (!scheduled.compareAndSet(false, true))
+            return false;
+
+        long now = System.nanoTime();
+
+        this.scheduledNanos = now;
+        this.originNanos = (originNanos != 0) ? originNanos : now;
+
+        return true;
+    }
+
+    public long getScheduledNanos() {
+        return scheduledNanos;
+    }
+
+    public long getOriginNanos() {
+        return originNanos;
+    }
+
+    public boolean isScheduled() {
+        return scheduled.get();
+    }
+
+    public void unschedule() {
+        scheduled.set(false);
+    }
+}
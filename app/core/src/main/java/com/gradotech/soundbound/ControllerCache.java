@@ -0,0 +1,155 @@
+package com.gradotech.soundbound;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Last-known address and speakers of every controller, so the next launch can
+ * connect to them directly before falling back to discovery. Addresses are stored
+ * as raw bytes and never resolved.
+ */
+public class ControllerCache {
+    private static final int magic = 0x53424343; /* "SBCC" */
+    private static final int formatVersion = 1;
+    /* Controllers that have moved away drop out after this many newer ones */
+    private static final int maxEntries = 16;
+
+    public static class Entry {
+        private final InetSocketAddress address;
+        private final byte[] speakerIds;
+
+        public Entry(InetSocketAddress address, byte[] speakerIds) {
+            this.address = address;
+            this.speakerIds = speakerIds;
+        }
+
+        public InetSocketAddress getAddress() {
+            return address;
+        }
+
+        public byte[] getSpeakerIds() {
+            return speakerIds;
+        }
+    }
+
+    private final File file;
+
+    public ControllerCache(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Returns the cached controllers, most recently seen first, or an empty list
+     * when there is no usable cache.
+     */
+    public List<Entry> load() {
+        if (!file.isFile())
+            return Collections.emptyList();
+
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != magic || in.readInt() != formatVersion)
+                return Collections.emptyList();
+
+            int count = in.readInt();
+            if (count < 0)
+                return Collections.emptyList();
+
+            count = Math.min(count, maxEntries);
+            List<Entry> entries = new ArrayList<>(count);
+
+            for (int i = 0; i < count; i++) {
+                byte[] address = new byte[in.readUnsignedByte()];
+                in.readFully(address);
+                int port = in.readUnsignedShort();
+                byte[] speakerIds = new byte[in.readUnsignedByte()];
+                in.readFully(speakerIds);
+
+                entries.add(new Entry(new InetSocketAddress(
+                        InetAddress.getByAddress(address), port), speakerIds));
+            }
+
+            return entries;
+        } catch (IOException e) {
+            /* A broken cache is only a cold start */
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Returns true when every speaker of entries is served by one of found.
+     */
+    public static boolean covers(List<Entry> found, List<Entry> entries) {
+        boolean[] served = new boolean[256];
+
+        for (Entry entry : found) {
+            for (byte id : entry.speakerIds)
+                served[id & 0xff] = true;
+        }
+
+        for (Entry entry : entries) {
+            for (byte id : entry.speakerIds) {
+                if (!served[id & 0xff])
+                    return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Puts found first and keeps the older entries after them, unless found has
+     * their address or all their speakers, as when a board got a new address.
+     */
+    public void save(List<Entry> found) {
+        List<Entry> entries = new ArrayList<>(found);
+
+        for (Entry old : load()) {
+            boolean replaced = covers(found, Collections.singletonList(old));
+
+            for (Entry entry : found)
+                replaced |= entry.address.equals(old.address);
+
+            if (!replaced)
+                entries.add(old);
+        }
+
+        if (entries.size() > maxEntries)
+            entries = entries.subList(0, maxEntries);
+
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(magic);
+            out.writeInt(formatVersion);
+            out.writeInt(entries.size());
+
+            for (Entry entry : entries) {
+                byte[] address = entry.address.getAddress().getAddress();
+
+                out.writeByte(address.length);
+                out.write(address);
+                out.writeShort(entry.address.getPort());
+                out.writeByte(entry.speakerIds.length);
+                out.write(entry.speakerIds);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        if (!tmp.renameTo(file))
+            tmp.delete();
+    }
+}
@@ -0,0 +1,102 @@
+package com.gradotech.soundbound;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finds controllers with a single SB_DISCOVER datagram broadcast on the local
+ * network. Every controller waiting for a client answers with an
+ * sb_discovery_packet carrying its TCP port, which replaces probing a whole address
+ * range. The request is sent once more halfway through in case WiFi dropped it.
+ */
+public class ControllerDiscovery {
+    /* Once a controller answered, others usually follow within a few ms */
+    private static final long defaultSettleMs = 100L;
+
+    private final InetSocketAddress broadcast;
+    private final long timeoutMs;
+    private final long settleMs;
+
+    public ControllerDiscovery(InetSocketAddress broadcast, long timeoutMs, long settleMs) {
+        this.broadcast = broadcast;
+        this.timeoutMs = timeoutMs;
+        this.settleMs = settleMs;
+    }
+
+    public ControllerDiscovery(InetSocketAddress broadcast, long timeoutMs) {
+        this(broadcast, timeoutMs, defaultSettleMs);
+    }
+
+    /**
+     * Returns the TCP address of every controller that answered, in answer order.
+     * Waits for the timeout when nothing answers, or for the settle time after the
+     * last answer.
+     */
+    public List<InetSocketAddress> discover() throws IOException {
+        Set<InetSocketAddress> found = new LinkedHashSet<>();
+        ByteBuffer request = ByteBuffer.wrap(new byte[] { Soundbound.SB_DISCOVER });
+        ByteBuffer answer = ByteBuffer.allocate(Soundbound.DiscoveryPacket.SIZE + 1);
+
+        try (DatagramChannel channel = DatagramChannel.open();
+             Selector selector = Selector.open()) {
+            channel.setOption(StandardSocketOptions.SO_BROADCAST, true);
+            channel.configureBlocking(false);
+            channel.bind(null);
+            channel.register(selector, SelectionKey.OP_READ);
+
+            long start = System.nanoTime();
+            long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+            long resend = start + TimeUnit.MILLISECONDS.toNanos(timeoutMs / 2);
+            boolean resent = false;
+
+            channel.send(request, broadcast);
+
+            while (true) {
+                long now = System.nanoTime();
+
+                if (now - deadline >= 0)
+                    break;
+
+                if (!resent && now - resend >= 0) {
+                    request.rewind();
+                    channel.send(request, broadcast);
+                    resent = true;
+                }
+
+                long until = resent ? deadline : Math.min(deadline, resend);
+
+                selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(until - now)));
+                selector.selectedKeys().clear();
+
+                InetSocketAddress sender;
+                while ((sender = (InetSocketAddress) channel.receive(answer)) != null) {
+                    answer.flip();
+
+                    /* Our own broadcast comes back on some interfaces, skip it */
+                    if (answer.remaining() == Soundbound.DiscoveryPacket.SIZE &&
+                            Soundbound.DiscoveryPacket.matches(answer, 0)) {
+                        int port = Soundbound.DiscoveryPacket.getPort(answer, 0);
+
+                        if (found.add(new InetSocketAddress(sender.getAddress(), port)))
+                            deadline = Math.min(deadline, System.nanoTime() +
+                                    TimeUnit.MILLISECONDS.toNanos(settleMs));
+                    }
+
+                    answer.clear();
+                }
+            }
+        }
+
+        return new ArrayList<>(found);
+    }
+}
@@ -0,0 +1,139 @@
+package com.gradotech.soundbound;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Looks for controllers from the cheapest source to the most expensive one: the
+ * addresses they had last time, then a discovery broadcast, then probing the whole
+ * address range when neither found anything. Controllers found are saved to the
+ * cache for the next launch.
+ * <p>
+ * When the cached controllers that answered serve every speaker of the cache, the
+ * broadcast is skipped, so a warm start costs one round trip. A board added since
+ * is found by the next search that misses a cached speaker.
+ */
+public class ControllerFinder {
+    public enum Source {
+        CACHE,
+        DISCOVERY,
+        RANGE
+    }
+
+    private final ControllerScanner scanner;
+    private final AddressRange range;
+    private ControllerDiscovery discovery;
+    private ControllerCache cache;
+    private long cacheTimeoutMs;
+
+    public ControllerFinder(ControllerScanner scanner, AddressRange range) {
+        this.scanner = scanner;
+        this.range = range;
+    }
+
+    public void setDiscovery(ControllerDiscovery discovery) {
+        this.discovery = discovery;
+    }
+
+    /**
+     * Tries the cached controllers first, for at most timeoutMs.
+     */
+    public void setCache(ControllerCache cache, long timeoutMs) {
+        this.cache = cache;
+        this.cacheTimeoutMs = timeoutMs;
+    }
+
+    private class Recorder implements ControllerScanner.Listener {
+        final List<ControllerCache.Entry> found = new ArrayList<>();
+        final Soundbound.QDataPacket qdata = new Soundbound.QDataPacket();
+        final ControllerScanner.Listener listener;
+        final List<Source> sources;
+        Source source;
+        boolean stopped;
+
+        Recorder(ControllerScanner.Listener listener, List<Source> sources) {
+            this.listener = listener;
+            this.sources = sources;
+        }
+
+        boolean isFound(InetSocketAddress address) {
+            for (ControllerCache.Entry entry : found) {
+                if (entry.getAddress().equals(address))
+                    return true;
+            }
+
+            return false;
+        }
+
+        @Override
+        public boolean onController(ControllerScanner.Controller controller) {
+            found.add(new ControllerCache.Entry(controller.getAddress(),
+                    qdata.wrap(controller.getPacket()).getSpeakerIds()));
+            if (sources != null)
+                sources.add(source);
+
+            stopped = !listener.onController(controller);
+
+            return !stopped;
+        }
+    }
+
+    public int find(ControllerScanner.Listener listener) throws IOException {
+        return find(listener, null);
+    }
+
+    /**
+     * Reports every controller found like ControllerScanner does, and adds where
+     * each one came from to sources when not null. Returns the number of
+     * controllers reported.
+     */
+    public int find(ControllerScanner.Listener listener, List<Source> sources)
+            throws IOException {
+        Recorder recorder = new Recorder(listener, sources);
+        List<ControllerCache.Entry> cached = cache != null ?
+                cache.load() : new ArrayList<>();
+        boolean complete = false;
+
+        if (!cached.isEmpty()) {
+            List<InetSocketAddress> addresses = new ArrayList<>(cached.size());
+
+            for (ControllerCache.Entry entry : cached)
+                addresses.add(entry.getAddress());
+
+            recorder.source = Source.CACHE;
+            scanner.scan(addresses, cacheTimeoutMs, recorder);
+
+            complete = ControllerCache.covers(recorder.found, cached);
+        }
+
+        if (discovery != null && !complete && !recorder.stopped) {
+            List<InetSocketAddress> addresses = new ArrayList<>();
+
+            try {
+                for (InetSocketAddress address : discovery.discover()) {
+                    if (!recorder.isFound(address))
+                        addresses.add(address);
+                }
+            } catch (IOException e) {
+                /* No broadcast on this network, the range scan still works */
+            }
+
+            if (!addresses.isEmpty()) {
+                recorder.source = Source.DISCOVERY;
+                scanner.scan(addresses, scanner.getTimeoutMs(), recorder);
+            }
+        }
+
+        if (recorder.found.isEmpty() && !recorder.stopped) {
+            recorder.source = Source.RANGE;
+            scanner.scan(range, recorder);
+        }
+
+        if (cache != null && !recorder.found.isEmpty())
+            cache.save(recorder.found);
+
+        return recorder.found.size();
+    }
+}
@@ -0,0 +1,560 @@
+package com.gradotech.soundbound;
+
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Drives every connected controller from a single selector thread. Commands wait in
+ * a per-controller CommandQueue and are encoded only when the controller's channel
+ * is writable, so a stalled board never blocks the others and never builds up a
+ * backlog of stale volumes.
+ * <p>
+ * Pending control commands and all pending volumes of a controller go out together
+ * in one gathered write. Boards from version 0.2 get the volumes as a single
+ * SB_SET_VOLUME_BATCH frame, older boards get one SB_SET_VOLUME packet per speaker.
+ * With a ramp duration set, boards from version 0.5 get an SB_SET_VOLUME_RAMP
+ * frame instead and move to the volumes over that time.
+ * <p>
+ * The time commands wait in the queues, the socket writes and the total from the
+ * origin of a command to its write go to the PipelineMetrics.
+ * <p>
+ * A controller whose socket fails, reaches EOF or takes no bytes for the write
+ * timeout is removed and reported to the Listener. Idle controllers get an
+ * SB_NO_CMD heartbeat, which the firmware ignores, so a controller that rebooted
+ * answers with a reset and is removed too. The pool remembers the latest volume of
+ * every speaker and the latest SB_START or SB_STOP, and replays only those to a
+ * controller that joins.
+ */
+public class ControllerPool extends Thread {
+    private static final int batchMinVersion = Soundbound.version(0, 2);
+    private static final int rampMinVersion = Soundbound.version(0, 5);
+    private static final int controlSize = 64;
+    private static final int volumesSize = 64;
+
+    public interface Listener {
+        /**
+         * Called on the pool's thread after a controller was removed because its
+         * connection failed.
+         */
+        void onControllerLost(byte[] speakerIds, String reason);
+    }
+
+    static class ControllerChannel {
+        private final SocketChannel channel;
+        private final CommandQueue queue;
+        private final boolean batchVolumes;
+        private final boolean rampVolumes;
+        private final ByteBuffer control;
+        private final ByteBuffer volumes;
+        private final ByteBuffer[] frames;
+        private final ByteBuffer inbound;
+        private SelectionKey key;
+        private long originNanos;
+        private long lastWriteNanos;
+        private long heartbeatNanos;
+
+        ControllerChannel(SocketChannel channel, byte[] speakerIds, boolean batchVolumes,
+                          boolean rampVolumes) {
+            this.channel = channel;
+            this.queue = new CommandQueue(speakerIds);
+            this.batchVolumes = batchVolumes;
+            this.rampVolumes = rampVolumes;
+            this.control = ByteBuffer.allocate(controlSize);
+            this.volumes = ByteBuffer.allocate(volumesSize);
+            this.frames = new ByteBuffer[] { control, volumes };
+            this.inbound = ByteBuffer.allocate(64);
+            this.lastWriteNanos = System.nanoTime();
+
+            /* Both buffers start empty in read mode */
+            this.control.flip();
+            this.volumes.flip();
+        }
+
+        CommandQueue getQueue() {
+            return queue;
+        }
+    }
+
+    private final Selector selector;
+    private final AtomicReferenceArray<ControllerChannel> routes;
+    private final AtomicBoolean wakeupPending;
+    private final AtomicLong dropped;
+    private final AtomicLong sent;
+    private final AtomicLong heartbeats;
+    private final AtomicLong lost;
+    private final AtomicIntegerArray lastVolumes;
+    private volatile int lastPlayback;
+    private volatile PipelineMetrics metrics;
+    private volatile Listener listener;
+    private volatile long heartbeatNanos;
+    private volatile long writeTimeoutNanos;
+    private volatile int rampMs;
+    private volatile ControllerChannel[] controllers;
+    private volatile boolean running;
+
+    public ControllerPool() throws IOException {
+        super("ControllerPool");
+
+        this.selector = Selector.open();
+        this.routes = new AtomicReferenceArray<>(256);
+        this.wakeupPending = new AtomicBoolean(false);
+        this.dropped = new AtomicLong();
+        this.sent = new AtomicLong();
+        this.heartbeats = new AtomicLong();
+        this.lost = new AtomicLong();
+        this.lastVolumes = new AtomicIntegerArray(256);
+        for (int i = 0; i < 256; i++)
+            lastVolumes.set(i, CommandQueue.EMPTY);
+        this.lastPlayback = CommandQueue.EMPTY;
+        this.metrics = new PipelineMetrics();
+        this.controllers = new ControllerChannel[0];
+        this.running = true;
+    }
+
+    /**
+     * Hands a connected channel over to the pool. Volume commands for the given
+     * speaker IDs are routed to it from now on. The version is the one the board
+     * reported in its sb_qdata_packet.
+     */
+    public void addController(SocketChannel channel, byte[] speakerIds, int major, int minor)
+            throws IOException {
+        int version = Soundbound.version(major, minor);
+        ControllerChannel controller = new ControllerChannel(channel, speakerIds,
+                version >= batchMinVersion, version >= rampMinVersion);
+
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+        synchronized (this) {
+            ControllerChannel[] grown = Arrays.copyOf(controllers, controllers.length + 1);
+            grown[controllers.length] = controller;
+            controllers = grown;
+        }
+
+        for (byte id : speakerIds)
+            routes.set(id & 0xff, controller);
+
+        /* Catch the controller up with the latest state, not the history */
+        int playback = lastPlayback;
+        if (playback != CommandQueue.EMPTY)
+            controller.queue.offerControl((byte) playback);
+
+        for (byte id : speakerIds) {
+            int volume = lastVolumes.get(id & 0xff);
+
+            if (volume != CommandQueue.EMPTY)
+                controller.queue.offerVolume(id, (byte) volume);
+        }
+
+        if (!controller.queue.isEmpty())
+            controller.queue.schedule();
+
+        wakeup();
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Sends SB_NO_CMD to controllers that had nothing written for heartbeatMs, and
+     * removes controllers with commands pending that took no bytes for
+     * writeTimeoutMs. 0 disables either.
+     */
+    public void setHeartbeat(long heartbeatMs, long writeTimeoutMs) {
+        this.heartbeatNanos = TimeUnit.MILLISECONDS.toNanos(heartbeatMs);
+        this.writeTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(writeTimeoutMs);
+
+        wakeup();
+    }
+
+    /**
+     * Has boards that support it ramp to every volume over rampMs instead of
+     * jumping to it, 0 disables ramps. Older boards still jump.
+     */
+    public void setRampDuration(int rampMs) {
+        this.rampMs = rampMs;
+    }
+
+    public void setMetrics(PipelineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public int getControllerCount() {
+        return controllers.length;
+    }
+
+    /**
+     * Commands encoded for a write, control commands and volumes alike.
+     */
+    public long getSentCount() {
+        return sent.get();
+    }
+
+    public long getHeartbeatCount() {
+        return heartbeats.get();
+    }
+
+    /**
+     * Controllers removed because their connection failed.
+     */
+    public long getLostCount() {
+        return lost.get();
+    }
+
+    public long getDroppedCount() {
+        long count = dropped.get();
+
+        for (ControllerChannel controller : controllers)
+            count += controller.queue.getDroppedCount();
+
+        return count;
+    }
+
+    public long getCoalescedCount() {
+        long count = 0;
+
+        for (ControllerChannel controller : controllers)
+            count += controller.queue.getCoalescedCount();
+
+        return count;
+    }
+
+    /**
+     * Queues a volume for the controller that owns the speaker. A volume that is
+     * still pending for the same speaker is replaced.
+     */
+    public boolean emitVolume(byte id, byte volume) {
+        return emitVolume(id, volume, 0);
+    }
+
+    /**
+     * Like emitVolume(), originNanos is the System.nanoTime() the volume's beacon
+     * scan was published at, for the total latency.
+     */
+    public boolean emitVolume(byte id, byte volume, long originNanos) {
+        lastVolumes.set(id & 0xff, volume & 0xff);
+
+        ControllerChannel controller = routes.get(id & 0xff);
+
+        if (controller == null) {
+            dropped.incrementAndGet();
+            return false;
+        }
+
+        if (!controller.queue.offerVolume(id, volume))
+            return false;
+
+        if (controller.queue.schedule(originNanos))
+            wakeup();
+
+        return true;
+    }
+
+    /**
+     * Queues a single byte control command such as SB_START on every controller.
+     * Returns false if any controller had to drop it.
+     */
+    public boolean emitControl(byte cmd) {
+        ControllerChannel[] snapshot = controllers;
+
+        if (cmd == Soundbound.SB_START || cmd == Soundbound.SB_STOP)
+            lastPlayback = cmd;
+        boolean sent = true;
+
+        for (ControllerChannel controller : snapshot) {
+            if (controller.queue.offerControl(cmd))
+                schedule(controller);
+            else
+                sent = false;
+        }
+
+        return sent;
+    }
+
+    public boolean emitCommand(byte[] cmd) {
+        ByteBuffer buff = ByteBuffer.wrap(cmd);
+
+        if (cmd.length == Soundbound.VolumePacket.SIZE && Soundbound.VolumePacket.matches(buff, 0))
+            return emitVolume(Soundbound.VolumePacket.getId(buff, 0),
+                              Soundbound.VolumePacket.getVolume(buff, 0));
+
+        if (cmd.length != 1)
+            throw new IllegalArgumentException("Unsupported command of " + cmd.length + " bytes");
+
+        return emitControl(cmd[0]);
+    }
+
+    private void schedule(ControllerChannel controller) {
+        if (controller.queue.schedule())
+            wakeup();
+    }
+
+    private void wakeup() {
+        if (wakeupPending.compareAndSet(false, true))
+            selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                selector.select(checkInterval());
+                wakeupPending.set(false);
+
+                for (ControllerChannel controller : controllers)
+                    register(controller);
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+
+                    handle(key);
+                }
+
+                check(System.nanoTime());
+            } catch (IOException e) {
+                running = false;
+            }
+        }
+
+        for (ControllerChannel controller : controllers)
+            remove(controller, null);
+
+        try {
+            selector.close();
+        } catch (IOException ignored) {}
+    }
+
+    /* Select timeout in ms that keeps heartbeats and timeouts on time, 0 blocks */
+    private long checkInterval() {
+        long heartbeat = heartbeatNanos;
+        long timeout = writeTimeoutNanos;
+        long shortest = (heartbeat == 0) ? timeout : (timeout == 0) ? heartbeat :
+                Math.min(heartbeat, timeout);
+
+        return (shortest == 0) ? 0 : Math.max(1, TimeUnit.NANOSECONDS.toMillis(shortest) / 4);
+    }
+
+    private void check(long now) {
+        long heartbeat = heartbeatNanos;
+        long timeout = writeTimeoutNanos;
+
+        for (ControllerChannel controller : controllers) {
+            CommandQueue queue = controller.queue;
+            boolean buffered = controller.control.hasRemaining() ||
+                    controller.volumes.hasRemaining();
+
+            if (controller.key == null || !controller.key.isValid())
+                continue;
+
+            if (buffered || queue.isScheduled()) {
+                long since = Math.max(Math.max(controller.lastWriteNanos,
+                        controller.heartbeatNanos), queue.getScheduledNanos());
+
+                if (timeout > 0 && now - since > timeout)
+                    remove(controller, "Write timed out");
+            } else if (heartbeat > 0 && now - controller.lastWriteNanos > heartbeat) {
+                controller.control.clear();
+                controller.control.put(Soundbound.SB_NO_CMD);
+                controller.control.flip();
+                controller.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                controller.heartbeatNanos = now;
+                controller.originNanos = 0;
+                heartbeats.incrementAndGet();
+            }
+        }
+    }
+
+    private void register(ControllerChannel controller) {
+        try {
+            if (controller.key == null)
+                controller.key = controller.channel.register(selector, SelectionKey.OP_READ,
+                                                             controller);
+
+            if (controller.queue.isScheduled() && controller.key.isValid())
+                controller.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        } catch (IOException e) {
+            remove(controller, e.toString());
+        }
+    }
+
+    private void handle(SelectionKey key) {
+        ControllerChannel controller = (ControllerChannel) key.attachment();
+
+        try {
+            if (key.isReadable()) {
+                /* Controllers don't talk after the handshake, only watch for EOF */
+                controller.inbound.clear();
+                if (controller.channel.read(controller.inbound) < 0)
+                    throw new IOException("Controller closed the connection");
+            }
+
+            if (key.isValid() && key.isWritable())
+                flush(controller);
+        } catch (IOException e) {
+            remove(controller, e.toString());
+        }
+    }
+
+    private void flush(ControllerChannel controller) throws IOException {
+        CommandQueue queue = controller.queue;
+        PipelineMetrics metrics = this.metrics;
+        long start = System.nanoTime();
+
+        if (!controller.control.hasRemaining() && !controller.volumes.hasRemaining()) {
+            int commands = encode(queue, controller.batchVolumes,
+                                  controller.rampVolumes ? rampMs : 0, controller.control,
+                                  controller.volumes);
+
+            if (commands > 0) {
+                metrics.record(PipelineMetrics.Stage.QUEUE, start - queue.getScheduledNanos());
+                controller.originNanos = queue.getOriginNanos();
+                sent.addAndGet(commands);
+            }
+        }
+
+        if (controller.control.hasRemaining() || controller.volumes.hasRemaining()) {
+            long written = System.nanoTime();
+
+            long bytes = controller.channel.write(controller.frames);
+
+            long end = System.nanoTime();
+            if (bytes > 0)
+                controller.lastWriteNanos = end;
+            metrics.record(PipelineMetrics.Stage.WRITE, end - written);
+
+            if (controller.control.hasRemaining() || controller.volumes.hasRemaining())
+                return;
+
+            if (controller.originNanos != 0)
+                metrics.record(PipelineMetrics.Stage.TOTAL, end - controller.originNanos);
+        }
+
+        /* Stay writable if commands slipped in after the queue was drained */
+        queue.unschedule();
+        if (queue.isEmpty() || !queue.schedule())
+            controller.key.interestOps(SelectionKey.OP_READ);
+    }
+
+    static int encode(CommandQueue queue, boolean batchVolumes, ByteBuffer control,
+                      ByteBuffer volumes) {
+        return encode(queue, batchVolumes, 0, control, volumes);
+    }
+
+    /**
+     * Drains queue into the control and volume frames, leaving both ready to be
+     * written. A rampMs above 0 sends the volumes as one ramp frame. Returns the
+     * number of commands encoded.
+     */
+    static int encode(CommandQueue queue, boolean batchVolumes, int rampMs, ByteBuffer control,
+                      ByteBuffer volumes) {
+        boolean ramp = rampMs > 0;
+        int batch = 0;
+        int commands = 0;
+        int cmd;
+
+        control.clear();
+        volumes.clear();
+
+        /* Control commands first and in order, then the latest volume per speaker */
+        while (control.hasRemaining() && (cmd = queue.pollControl()) != CommandQueue.EMPTY) {
+            control.put((byte) cmd);
+            commands++;
+        }
+
+        if (ramp)
+            batch = Soundbound.VolumeRampPacket.begin(volumes, rampMs);
+        else if (batchVolumes)
+            batch = Soundbound.VolumeBatchPacket.begin(volumes);
+
+        for (int i = 0; i < queue.getSpeakerCount(); i++) {
+            int volume = queue.pollVolume(i);
+
+            if (volume == CommandQueue.EMPTY)
+                continue;
+
+            if (ramp)
+                Soundbound.VolumeRampPacket.put(volumes, queue.getSpeakerId(i), (byte) volume);
+            else if (batchVolumes)
+                Soundbound.VolumeBatchPacket.put(volumes, queue.getSpeakerId(i), (byte) volume);
+            else
+                Soundbound.VolumePacket.encode(volumes, queue.getSpeakerId(i), (byte) volume);
+            commands++;
+        }
+
+        if (ramp && Soundbound.VolumeRampPacket.finish(volumes, batch) == 0)
+            volumes.clear();
+        else if (!ramp && batchVolumes && Soundbound.VolumeBatchPacket.finish(volumes, batch) == 0)
+            volumes.clear();
+
+        control.flip();
+        volumes.flip();
+
+        return commands;
+    }
+
+    /**
+     * Drops the controller, reporting it as lost for the given reason unless the
+     * reason is null.
+     */
+    private void remove(ControllerChannel controller, String reason) {
+        boolean removed = false;
+
+        synchronized (this) {
+            ControllerChannel[] current = controllers;
+            int index = Arrays.asList(current).indexOf(controller);
+
+            if (index >= 0) {
+                removed = true;
+                ControllerChannel[] shrunk = new ControllerChannel[current.length - 1];
+                System.arraycopy(current, 0, shrunk, 0, index);
+                System.arraycopy(current, index + 1, shrunk, index, shrunk.length - index);
+                controllers = shrunk;
+            }
+        }
+
+        for (int i = 0; i < controller.queue.getSpeakerCount(); i++)
+            routes.compareAndSet(controller.queue.getSpeakerId(i) & 0xff, controller, null);
+
+        if (controller.key != null)
+            controller.key.cancel();
+
+        try {
+            controller.channel.close();
+        } catch (IOException ignored) {}
+
+        Listener listener = this.listener;
+        if (removed && reason != null && running) {
+            lost.incrementAndGet();
+            if (listener != null)
+                listener.onControllerLost(speakerIds(controller.queue), reason);
+        }
+    }
+
+    private static byte[] speakerIds(CommandQueue queue) {
+        byte[] ids = new byte[queue.getSpeakerCount()];
+
+        for (int i = 0; i < ids.length; i++)
+            ids[i] = queue.getSpeakerId(i);
+
+        return ids;
+    }
+
+    public void close() {
+        running = false;
+        selector.wakeup();
+    }
+}
@@ -0,0 +1,211 @@
+package com.gradotech.soundbound;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Probes every host of an address range at once and reports the hosts that answer
+ * with a complete sb_qdata_packet.
+ */
+public class ControllerScanner {
+    public interface Listener {
+        /**
+         * Called on the scanning thread with a non-blocking, connected channel that
+         * the listener now owns. Returns false to stop the scan.
+         */
+        boolean onController(Controller controller);
+    }
+
+    public static class Controller {
+        private final InetSocketAddress address;
+        private final SocketChannel channel;
+        private final byte[] packet;
+
+        public Controller(InetSocketAddress address, SocketChannel channel, byte[] packet) {
+            this.address = address;
+            this.channel = channel;
+            this.packet = packet;
+        }
+
+        public InetSocketAddress getAddress() {
+            return address;
+        }
+
+        public SocketChannel getChannel() {
+            return channel;
+        }
+
+        public byte[] getPacket() {
+            return packet;
+        }
+    }
+
+    private final int port;
+    private final int packetSize;
+    private final long timeoutMs;
+
+    public ControllerScanner(int port, int packetSize, long timeoutMs) {
+        this.port = port;
+        this.packetSize = packetSize;
+        this.timeoutMs = timeoutMs;
+    }
+
+    public long getTimeoutMs() {
+        return timeoutMs;
+    }
+
+    /**
+     * Returns the first controller found, with its channel switched back to blocking
+     * mode, or null when nothing answered before the timeout.
+     */
+    public Controller scan(AddressRange range) throws IOException {
+        final Controller[] first = new Controller[1];
+
+        scan(range, controller -> {
+            first[0] = controller;
+            return false;
+        });
+
+        if (first[0] != null)
+            first[0].getChannel().configureBlocking(true);
+
+        return first[0];
+    }
+
+    /**
+     * Reports every controller that answers before the timeout, or until the listener
+     * asks to stop. Returns the number of controllers reported.
+     */
+    public int scan(AddressRange range, Listener listener) throws IOException {
+        List<InetSocketAddress> addresses = new ArrayList<>(range.size());
+
+        for (int i = 0; i < range.size(); i++)
+            addresses.add(new InetSocketAddress(range.get(i), port));
+
+        return scan(addresses, timeoutMs, listener);
+    }
+
+    /**
+     * Same as scanning a range, over addresses that carry their own port, like the
+     * ones a discovery or the controller cache returned.
+     */
+    public int scan(Collection<InetSocketAddress> addresses, long timeoutMs,
+                    Listener listener) throws IOException {
+        Set<SocketChannel> found = new HashSet<>();
+        Selector selector = Selector.open();
+
+        try {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+            boolean scanning = true;
+            int attempts = 0;
+
+            for (InetSocketAddress address : addresses) {
+                if (probe(selector, address))
+                    attempts++;
+            }
+
+            while (scanning && attempts > 0) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+
+                if (remaining <= 0)
+                    break;
+
+                selector.select(remaining);
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (scanning && it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+
+                    Controller controller = handle(key);
+                    if (!key.isValid())
+                        attempts--;
+
+                    if (controller != null) {
+                        found.add(controller.getChannel());
+                        scanning = listener.onController(controller);
+                    }
+                }
+            }
+        } finally {
+            /* Cancel every attempt that did not produce a controller */
+            for (SelectionKey key : selector.keys()) {
+                if (!found.contains(key.channel()))
+                    closeQuietly((SocketChannel) key.channel());
+            }
+
+            selector.close();
+        }
+
+        return found.size();
+    }
+
+    private boolean probe(Selector selector, InetSocketAddress address) {
+        SocketChannel channel = null;
+
+        try {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+
+            int ops = channel.connect(address) ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT;
+            channel.register(selector, ops, ByteBuffer.allocate(packetSize));
+
+            return true;
+        } catch (IOException e) {
+            /* Host unreachable from this interface, skip it */
+            closeQuietly(channel);
+
+            return false;
+        }
+    }
+
+    private Controller handle(SelectionKey key) {
+        SocketChannel channel = (SocketChannel) key.channel();
+        ByteBuffer buff = (ByteBuffer) key.attachment();
+
+        try {
+            if (key.isConnectable()) {
+                channel.finishConnect();
+                key.interestOps(SelectionKey.OP_READ);
+            } else if (key.isReadable()) {
+                if (channel.read(buff) < 0)
+                    throw new IOException("Connection closed during handshake");
+
+                if (buff.position() > 0 && buff.get(0) != Soundbound.SB_QUERY_DATA)
+                    throw new IOException("Unexpected handshake packet");
+
+                if (!buff.hasRemaining()) {
+                    key.cancel();
+
+                    return new Controller((InetSocketAddress) channel.getRemoteAddress(),
+                            channel, buff.array());
+                }
+            }
+        } catch (IOException e) {
+            key.cancel();
+            closeQuietly(channel);
+        }
+
+        return null;
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        if (channel == null)
+            return;
+
+        try {
+            channel.close();
+        } catch (IOException ignored) {}
+    }
+}
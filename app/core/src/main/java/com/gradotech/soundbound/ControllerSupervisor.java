@@ -0,0 +1,168 @@
+package com.gradotech.soundbound;
+
+import java.io.IOException;
+
+/**
+ * Keeps the ControllerPool connected. The supervisor finds controllers, then
+ * waits until the pool loses one and scans again. A scan that finds nothing is
+ * retried after an exponential Backoff, which resets on the next success. Retries
+ * all happen in the BACKOFF state, so the listener hears about state changes only,
+ * never about every retry.
+ */
+public class ControllerSupervisor extends Thread {
+    public enum State {
+        SCANNING,
+        CONNECTED,
+        BACKOFF
+    }
+
+    public interface Listener {
+        /**
+         * Called on the supervisor's thread for every controller that joined the pool,
+         * with the sb_qdata_packet it answered.
+         */
+        void onControllerFound(byte[] packet);
+
+        /**
+         * Called on the pool's thread when a controller's connection failed.
+         */
+        void onControllerLost(byte[] speakerIds, String reason);
+
+        void onStateChanged(State state, int controllers);
+    }
+
+    private final ControllerPool pool;
+    private final ControllerFinder finder;
+    private final Backoff backoff;
+    private final Listener listener;
+    private final Object lock = new Object();
+    private State state;
+    private long losses;
+    private volatile boolean running;
+
+    public ControllerSupervisor(ControllerPool pool, ControllerFinder finder,
+                                Backoff backoff, Listener listener) {
+        super("ControllerSupervisor");
+
+        this.pool = pool;
+        this.finder = finder;
+        this.backoff = backoff;
+        this.listener = listener;
+        this.running = true;
+
+        pool.setListener((speakerIds, reason) -> {
+            listener.onControllerLost(speakerIds, reason);
+
+            synchronized (lock) {
+                losses++;
+                lock.notifyAll();
+            }
+        });
+    }
+
+    public State getControllerState() {
+        synchronized (lock) {
+            return state;
+        }
+    }
+
+    private void setState(State state) {
+        synchronized (lock) {
+            if (this.state == state)
+                return;
+
+            this.state = state;
+        }
+
+        listener.onStateChanged(state, pool.getControllerCount());
+    }
+
+    private int scan() {
+        Soundbound.QDataPacket qdata = new Soundbound.QDataPacket();
+
+        try {
+            /* Every board the finder reaches joins the pool */
+            return finder.find(controller -> {
+                byte[] packet = controller.getPacket();
+
+                qdata.wrap(packet);
+
+                try {
+                    pool.addController(controller.getChannel(), qdata.getSpeakerIds(),
+                                       qdata.getMajor(), qdata.getMinor());
+                    listener.onControllerFound(packet);
+                } catch (IOException e) {
+                    try {
+                        controller.getChannel().close();
+                    } catch (IOException ignored) {}
+                }
+
+                return running;
+            });
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            long seen;
+
+            synchronized (lock) {
+                seen = losses;
+            }
+
+            if (getControllerState() != State.BACKOFF)
+                setState(State.SCANNING);
+            int found = scan();
+
+            if (!running)
+                break;
+
+            if (found > 0) {
+                backoff.reset();
+                setState(State.CONNECTED);
+
+                /* A loss during the scan sends us straight back to scanning */
+                synchronized (lock) {
+                    while (running && losses == seen) {
+                        try {
+                            lock.wait();
+                        } catch (InterruptedException e) {
+                            running = false;
+                        }
+                    }
+                }
+            } else {
+                setState(State.BACKOFF);
+                pause(backoff.next());
+            }
+        }
+    }
+
+    private void pause(long ms) {
+        long deadline = System.currentTimeMillis() + ms;
+        long remaining;
+
+        synchronized (lock) {
+            while (running && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                try {
+                    lock.wait(remaining);
+                } catch (InterruptedException e) {
+                    running = false;
+                }
+            }
+        }
+    }
+
+    public void close() {
+        synchronized (lock) {
+            running = false;
+            lock.notifyAll();
+        }
+
+        /* Wakes up a scan in progress */
+        interrupt();
+    }
+}
@@ -0,0 +1,259 @@
+package com.gradotech.soundbound;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pure Java evaluation of a stack of dense layers, as produced by
+ * tools/volume_generator.py. The weights are read straight from the .tflite
+ * flatbuffer, so the TFLite runtime is not needed for models of this shape.
+ */
+public class DenseNetworkEngine implements PanningEngine {
+    /* Values from the TFLite schema */
+    private static final int FULLY_CONNECTED = 9;
+    private static final int TENSOR_FLOAT32 = 0;
+    private static final int ACTIVATION_NONE = 0;
+    private static final int ACTIVATION_RELU = 1;
+    private static final int ACTIVATION_RELU6 = 3;
+
+    public static class Layer {
+        private final int inputs;
+        private final int outputs;
+        private final float[] weights;
+        private final float[] bias;
+        private final int activation;
+
+        /**
+         * Weights are row-major with one row of inputs per output, like the TFLite
+         * FULLY_CONNECTED weights tensor.
+         */
+        public Layer(int inputs, int outputs, float[] weights, float[] bias, int activation) {
+            if (weights.length != inputs * outputs || bias.length != outputs)
+                throw new IllegalArgumentException("Layer weights don't match its shape");
+
+            this.inputs = inputs;
+            this.outputs = outputs;
+            this.weights = weights;
+            this.bias = bias;
+            this.activation = activation;
+        }
+
+        public int getInputs() {
+            return inputs;
+        }
+
+        public int getOutputs() {
+            return outputs;
+        }
+
+        private void evaluate(float[] in, int inOffset, float[] out, int outOffset) {
+            for (int o = 0; o < outputs; o++) {
+                int row = o * inputs;
+                float sum = bias[o];
+
+                for (int i = 0; i < inputs; i++)
+                    sum += weights[row + i] * in[inOffset + i];
+
+                if (activation == ACTIVATION_RELU)
+                    sum = Math.max(0f, sum);
+                else if (activation == ACTIVATION_RELU6)
+                    sum = Math.max(0f, Math.min(6f, sum));
+
+                out[outOffset + o] = sum;
+            }
+        }
+    }
+
+    private final Layer[] layers;
+    private final float[][] activations;
+
+    public DenseNetworkEngine(List<Layer> layers) {
+        if (layers.isEmpty())
+            throw new IllegalArgumentException("Network has no layers");
+
+        this.layers = layers.toArray(new Layer[0]);
+        this.activations = new float[this.layers.length - 1][];
+
+        for (int i = 0; i < this.layers.length - 1; i++) {
+            if (this.layers[i].outputs != this.layers[i + 1].inputs)
+                throw new IllegalArgumentException("Layer " + i + " doesn't feed layer " + (i + 1));
+
+            activations[i] = new float[this.layers[i].outputs];
+        }
+    }
+
+    public int getInputCount() {
+        return layers[0].inputs;
+    }
+
+    public int getOutputCount() {
+        return layers[layers.length - 1].outputs;
+    }
+
+    public List<Layer> getLayers() {
+        List<Layer> list = new ArrayList<>();
+
+        for (Layer layer : layers)
+            list.add(layer);
+
+        return list;
+    }
+
+    @Override
+    public void run(float[] input, float[] output) {
+        run(input, 0, output, 0);
+    }
+
+    private void run(float[] input, int inOffset, float[] output, int outOffset) {
+        float[] in = input;
+        int offset = inOffset;
+
+        for (int i = 0; i < layers.length; i++) {
+            boolean last = i == layers.length - 1;
+            float[] out = last ? output : activations[i];
+
+            layers[i].evaluate(in, offset, out, last ? outOffset : 0);
+            in = out;
+            offset = 0;
+        }
+    }
+
+    /* Rows go through the layers one after the other, the batch only saves calls */
+    @Override
+    public int getMaxBatch() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public void runBatch(float[] input, float[] output, int rows) {
+        int inputCount = getInputCount();
+        int outputCount = getOutputCount();
+
+        for (int r = 0; r < rows; r++)
+            run(input, r * inputCount, output, r * outputCount);
+    }
+
+    /**
+     * Builds the engine from a .tflite model. Only float32 FULLY_CONNECTED operators
+     * chained one after the other are supported, anything else is rejected with an
+     * IllegalArgumentException so the caller can fall back to the TFLite runtime.
+     */
+    public static DenseNetworkEngine fromTFLite(ByteBuffer model) {
+        FlatBuffer fb = new FlatBuffer(model);
+        int root = fb.root();
+        int codes = fb.vector(root, 1);
+        int subgraph = fb.vectorTable(fb.vector(root, 2), 0);
+        int buffers = fb.vector(root, 4);
+        int tensors = fb.vector(subgraph, 0);
+        int operators = fb.vector(subgraph, 3);
+        List<Layer> layers = new ArrayList<>();
+
+        for (int i = 0; i < fb.length(operators); i++) {
+            int op = fb.vectorTable(operators, i);
+            int code = fb.vectorTable(codes, fb.intField(op, 0, 0));
+            int opInputs = fb.vector(op, 1);
+
+            /* builtin_code replaced the deprecated byte field in newer converters */
+            int builtin = Math.max(fb.byteField(code, 0, 0), fb.intField(code, 3, 0));
+
+            if (builtin != FULLY_CONNECTED)
+                throw new IllegalArgumentException("Unsupported operator " + builtin);
+
+            int weightsTensor = fb.vectorTable(tensors, fb.vectorInt(opInputs, 1));
+            int biasTensor = fb.vectorTable(tensors, fb.vectorInt(opInputs, 2));
+            int shape = fb.vector(weightsTensor, 0);
+            int options = fb.table(op, 4);
+            int activation = (options == 0) ? ACTIVATION_NONE : fb.byteField(options, 0, 0);
+
+            if (activation != ACTIVATION_NONE && activation != ACTIVATION_RELU &&
+                    activation != ACTIVATION_RELU6)
+                throw new IllegalArgumentException("Unsupported activation " + activation);
+
+            layers.add(new Layer(fb.vectorInt(shape, 1), fb.vectorInt(shape, 0),
+                    readFloats(fb, buffers, weightsTensor),
+                    readFloats(fb, buffers, biasTensor),
+                    activation));
+        }
+
+        return new DenseNetworkEngine(layers);
+    }
+
+    private static float[] readFloats(FlatBuffer fb, int buffers, int tensor) {
+        if (fb.byteField(tensor, 1, TENSOR_FLOAT32) != TENSOR_FLOAT32)
+            throw new IllegalArgumentException("Only float32 weights are supported");
+
+        int buffer = fb.vectorTable(buffers, fb.intField(tensor, 2, 0));
+        int data = fb.vector(buffer, 0);
+
+        if (data == 0)
+            throw new IllegalArgumentException("Weights are not stored in the model");
+
+        float[] values = new float[fb.length(data) / Float.BYTES];
+        for (int i = 0; i < values.length; i++)
+            values[i] = fb.buff.getFloat(data + 4 + i * Float.BYTES);
+
+        return values;
+    }
+
+    /**
+     * Just enough of the flatbuffers wire format to walk a TFLite model. Positions
+     * are absolute offsets into the buffer, 0 stands for an absent field.
+     */
+    private static class FlatBuffer {
+        private final ByteBuffer buff;
+
+        FlatBuffer(ByteBuffer buff) {
+            this.buff = buff.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            this.buff.position(0);
+        }
+
+        int root() {
+            return buff.getInt(0);
+        }
+
+        private int field(int table, int field) {
+            int vtable = table - buff.getInt(table);
+            int offset = 4 + field * 2;
+
+            if (offset >= (buff.getShort(vtable) & 0xffff))
+                return 0;
+
+            int pos = buff.getShort(vtable + offset) & 0xffff;
+            return (pos == 0) ? 0 : table + pos;
+        }
+
+        int intField(int table, int field, int fallback) {
+            int pos = field(table, field);
+            return (pos == 0) ? fallback : buff.getInt(pos);
+        }
+
+        int byteField(int table, int field, int fallback) {
+            int pos = field(table, field);
+            return (pos == 0) ? fallback : buff.get(pos);
+        }
+
+        int table(int table, int field) {
+            int pos = field(table, field);
+            return (pos == 0) ? 0 : pos + buff.getInt(pos);
+        }
+
+        int vector(int table, int field) {
+            return table(table, field);
+        }
+
+        int length(int vector) {
+            return buff.getInt(vector);
+        }
+
+        int vectorInt(int vector, int index) {
+            return buff.getInt(vector + 4 + index * 4);
+        }
+
+        int vectorTable(int vector, int index) {
+            int pos = vector + 4 + index * 4;
+            return pos + buff.getInt(pos);
+        }
+    }
+}
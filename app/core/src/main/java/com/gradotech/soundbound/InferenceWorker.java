@@ -0,0 +1,247 @@
+package com.gradotech.soundbound;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs the predictor on its own thread, away from the beacon callback. Every scan
+ * is written into a Snapshot and published to a single slot mailbox; a snapshot
+ * published before the worker took the previous one replaces it. The worker
+ * therefore always predicts from the newest scan, and a scan waits at most for the
+ * prediction already running when it arrives.
+ * <p>
+ * The mailbox is a triple buffer: the producer fills one snapshot, the worker
+ * reads another and the third one is the slot they swap through, so neither side
+ * locks or allocates. There must be a single producer.
+ * <p>
+ * The time between scans, the wait in the mailbox and the prediction go to the
+ * PipelineMetrics, whose median scan to write latency is what a predictor with a
+ * lookahead predicts over.
+ */
+public class InferenceWorker extends Thread {
+    private static final int fresh = 4;
+    private static final int indexMask = 3;
+
+    /**
+     * Receives the volumes that passed the deadband, on the worker thread, ramp
+     * targets when the deadband plans ramps. originNanos is the System.nanoTime()
+     * their scan was published at.
+     */
+    public interface Output {
+        void emitVolume(byte id, byte volume, long originNanos);
+    }
+
+    /**
+     * The distances of one beacon scan.
+     */
+    public static class Snapshot {
+        private final String[] ids;
+        private final float[] distances;
+        private int count;
+        private long sequence;
+        private long publishedNanos;
+
+        Snapshot(int capacity) {
+            ids = new String[capacity];
+            distances = new float[capacity];
+        }
+
+        /**
+         * Adds the distance in meters of a beacon, beacons past the capacity are
+         * ignored.
+         */
+        public void put(String id1, float distance) {
+            if (count == ids.length)
+                return;
+
+            ids[count] = id1;
+            distances[count] = distance;
+            count++;
+        }
+
+        public int size() {
+            return count;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+    }
+
+    private final Predictor predictor;
+    private final VolumeDeadband deadband;
+    private final Output output;
+    private final Snapshot[] buffers;
+    private final AtomicInteger middle;
+    private final int[] volumes;
+    private final AtomicLong published;
+    private final AtomicLong processed;
+    private final AtomicLong overwritten;
+    private final AtomicLong maxLatency;
+    private volatile PipelineMetrics metrics;
+    private volatile long lastSequence;
+    private volatile boolean parked;
+    private volatile boolean running;
+    private int back;
+    private int front;
+    private long lastPublishNanos;
+
+    public InferenceWorker(Predictor predictor, VolumeDeadband deadband, Output output,
+                           int maxBeacons) {
+        super("InferenceWorker");
+
+        this.predictor = predictor;
+        this.deadband = deadband;
+        this.output = output;
+        this.buffers = new Snapshot[] { new Snapshot(maxBeacons), new Snapshot(maxBeacons),
+                new Snapshot(maxBeacons) };
+        this.back = 0;
+        this.front = 1;
+        this.middle = new AtomicInteger(2);
+        this.volumes = new int[predictor.getOutputCount()];
+        this.published = new AtomicLong();
+        this.processed = new AtomicLong();
+        this.overwritten = new AtomicLong();
+        this.maxLatency = new AtomicLong();
+        this.metrics = new PipelineMetrics();
+        this.running = true;
+    }
+
+    public void setMetrics(PipelineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public VolumeDeadband getDeadband() {
+        return deadband;
+    }
+
+    public long getPublishedCount() {
+        return published.get();
+    }
+
+    public long getProcessedCount() {
+        return processed.get();
+    }
+
+    /**
+     * Snapshots replaced in the mailbox before the worker got to them.
+     */
+    public long getOverwrittenCount() {
+        return overwritten.get();
+    }
+
+    /**
+     * Sequence of the last snapshot the worker finished, 0 before the first one.
+     */
+    public long getLastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * Longest time from publishing a snapshot to handing its volumes to the output.
+     */
+    public long getMaxLatencyNanos() {
+        return maxLatency.get();
+    }
+
+    /**
+     * Returns an empty snapshot for the producer to fill and publish.
+     */
+    public Snapshot begin() {
+        Snapshot snapshot = buffers[back];
+
+        snapshot.count = 0;
+
+        return snapshot;
+    }
+
+    /**
+     * Hands the snapshot from begin() to the worker, replacing one it hasn't taken
+     * yet. Returns the sequence given to the snapshot.
+     */
+    public long publish() {
+        Snapshot snapshot = buffers[back];
+        long now = System.nanoTime();
+
+        if (lastPublishNanos != 0)
+            metrics.record(PipelineMetrics.Stage.SCAN, now - lastPublishNanos);
+        lastPublishNanos = now;
+
+        snapshot.sequence = published.incrementAndGet();
+        snapshot.publishedNanos = now;
+
+        int previous = middle.getAndSet(back | fresh);
+        if ((previous & fresh) != 0)
+            overwritten.incrementAndGet();
+        back = previous & indexMask;
+
+        /* A busy worker takes the snapshot when it is done, no need to wake it */
+        if (parked)
+            LockSupport.unpark(this);
+
+        return snapshot.sequence;
+    }
+
+    private Snapshot take() {
+        if ((middle.get() & fresh) == 0)
+            return null;
+
+        front = middle.getAndSet(front) & indexMask;
+
+        return buffers[front];
+    }
+
+    private void process(Snapshot snapshot) {
+        PipelineMetrics metrics = this.metrics;
+        long start = System.nanoTime();
+
+        metrics.record(PipelineMetrics.Stage.MAILBOX, start - snapshot.publishedNanos);
+
+        for (int i = 0; i < snapshot.count; i++)
+            predictor.updateInput(snapshot.ids[i], snapshot.distances[i]);
+
+        predictor.setLatency(metrics.get(PipelineMetrics.Stage.TOTAL).getPercentile(50));
+        predictor.predict(volumes, snapshot.publishedNanos);
+
+        metrics.record(PipelineMetrics.Stage.PREDICT, System.nanoTime() - start);
+
+        for (int i = 0; i < volumes.length; i++) {
+            int volume = deadband.accept(i, volumes[i], snapshot.publishedNanos);
+
+            if (volume != CommandQueue.EMPTY)
+                output.emitVolume(predictor.getSpeakerId(i), (byte) volume,
+                                  snapshot.publishedNanos);
+        }
+
+        long latency = System.nanoTime() - snapshot.publishedNanos;
+        long max;
+        while (latency > (max = maxLatency.get()) && !maxLatency.compareAndSet(max, latency));
+
+        processed.incrementAndGet();
+        lastSequence = snapshot.sequence;
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            Snapshot snapshot = take();
+
+            if (snapshot == null) {
+                /* publish() sees parked or the worker sees the fresh snapshot */
+                parked = true;
+                if ((middle.get() & fresh) == 0 && running)
+                    LockSupport.park(this);
+                parked = false;
+                continue;
+            }
+
+            process(snapshot);
+        }
+    }
+
+    public void close() {
+        running = false;
+        LockSupport.unpark(this);
+    }
+}
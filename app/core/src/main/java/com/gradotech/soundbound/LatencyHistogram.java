@@ -0,0 +1,108 @@
+package com.gradotech.soundbound;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed memory histogram of durations in nanoseconds. Every power of two is split
+ * in eight buckets, so a percentile is off by at most an eighth of its value, from
+ * a nanosecond up to about 18 minutes. Any thread may record without locking or
+ * allocating.
+ */
+public class LatencyHistogram {
+    private static final int subBits = 3;
+    private static final int subBuckets = 1 << subBits;
+    private static final int maxExponent = 40;
+    private static final int bucketCount = (maxExponent - subBits + 2) * subBuckets;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(bucketCount);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    static int bucketOf(long nanos) {
+        if (nanos < subBuckets)
+            return (int) Math.max(nanos, 0);
+
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+
+        if (exponent > maxExponent)
+            return bucketCount - 1;
+
+        int sub = (int) (nanos >>> (exponent - subBits)) & (subBuckets - 1);
+
+        return (exponent - subBits + 1) * subBuckets + sub;
+    }
+
+    /* Smallest duration that falls in the bucket */
+    static long lowerBound(int bucket) {
+        if (bucket < subBuckets)
+            return bucket;
+
+        int exponent = bucket / subBuckets + subBits - 1;
+        int sub = bucket % subBuckets;
+
+        return (long) (subBuckets + sub) << (exponent - subBits);
+    }
+
+    public void record(long nanos) {
+        buckets.incrementAndGet(bucketOf(nanos));
+        count.incrementAndGet();
+        sum.addAndGet(Math.max(nanos, 0));
+
+        long current;
+        while (nanos > (current = max.get()) && !max.compareAndSet(current, nanos));
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long n = count.get();
+
+        return (n == 0) ? 0 : (double) sum.get() / n;
+    }
+
+    /**
+     * Returns the duration that percent of the recorded ones don't exceed, as the
+     * upper bound of its bucket, or 0 when nothing was recorded.
+     */
+    public long getPercentile(double percent) {
+        long total = 0;
+
+        for (int i = 0; i < bucketCount; i++)
+            total += buckets.get(i);
+
+        if (total == 0)
+            return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(total * percent / 100));
+        long seen = 0;
+
+        for (int i = 0; i < bucketCount; i++) {
+            seen += buckets.get(i);
+
+            if (seen >= rank) {
+                long upper = (i + 1 < bucketCount) ? lowerBound(i + 1) - 1 : Long.MAX_VALUE;
+
+                return Math.min(upper, max.get());
+            }
+        }
+
+        return max.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < bucketCount; i++)
+            buckets.set(i, 0);
+
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+}
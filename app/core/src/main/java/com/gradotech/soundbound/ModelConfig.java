@@ -0,0 +1,248 @@
+package com.gradotech.soundbound;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Description of a room to volume model: its input and output tensors in model
+ * order, the speakers of the room and the beacons feeding the inputs.
+ * <p>
+ * Every listener in the room carries their own set of beacons, the volumes
+ * predicted for each of them are combined by the Mixing policy.
+ */
+public class ModelConfig {
+    public static class Shape {
+        private final String name;
+        private final String type;
+        private final int min;
+        private final int max;
+
+        public Shape(String name, String type, int min, int max) {
+            this.name = name;
+            this.type = type;
+            this.min = min;
+            this.max = max;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public int getMin() {
+            return min;
+        }
+
+        public int getMax() {
+            return max;
+        }
+    }
+
+    public static class Speaker {
+        private final String id;
+        private final int[] coordinates;
+
+        public Speaker(String id, int[] coordinates) {
+            this.id = id;
+            this.coordinates = coordinates;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public int[] getCoordinates() {
+            return coordinates;
+        }
+    }
+
+    public static class Beacon {
+        private final String id1;
+        private final String measures;
+        private final String filter;
+        private final int listener;
+
+        public Beacon(String id1, String measures) {
+            this(id1, measures, null);
+        }
+
+        /**
+         * filter is a BeaconFilter spec, null to use the distances as reported.
+         */
+        public Beacon(String id1, String measures, String filter) {
+            this(id1, measures, filter, 0);
+        }
+
+        /**
+         * listener is the index of the listener carrying the beacon, listeners are
+         * numbered from 0 in order of priority.
+         */
+        public Beacon(String id1, String measures, String filter, int listener) {
+            this.id1 = id1;
+            this.measures = measures;
+            this.filter = filter;
+            this.listener = listener;
+        }
+
+        public String getId1() {
+            return id1;
+        }
+
+        public String getMeasures() {
+            return measures;
+        }
+
+        public String getFilter() {
+            return filter;
+        }
+
+        public int getListener() {
+            return listener;
+        }
+    }
+
+    /**
+     * How the volumes of several listeners are combined: the loudest of them, their
+     * mean, or those of the listener with the lowest index.
+     */
+    public enum Mixing {
+        MAX,
+        MEAN,
+        PRIORITY
+    }
+
+    /**
+     * Predicting for where the listener will be once the volumes play: the inputs
+     * are extrapolated along their velocity, fitted over window scans and capped at
+     * maxSpeed input units per second, by the lag of the beacon filters plus the
+     * measured command latency, at most horizonMs. steps rows spread over the
+     * horizon, none past horizonMs, are predicted in one batch and averaged.
+     */
+    public static class Lookahead {
+        private final int horizonMs;
+        private final int steps;
+        private final int window;
+        private final float maxSpeed;
+
+        public Lookahead(int horizonMs, int steps, int window, float maxSpeed) {
+            if (horizonMs < 0 || steps < 1 || window < 2 || !(maxSpeed > 0))
+                throw new IllegalArgumentException("Bad lookahead");
+
+            this.horizonMs = horizonMs;
+            this.steps = steps;
+            this.window = window;
+            this.maxSpeed = maxSpeed;
+        }
+
+        public int getHorizonMs() {
+            return horizonMs;
+        }
+
+        public int getSteps() {
+            return steps;
+        }
+
+        public int getWindow() {
+            return window;
+        }
+
+        public float getMaxSpeed() {
+            return maxSpeed;
+        }
+    }
+
+    private final List<Shape> inputs = new ArrayList<>();
+    private final List<Shape> outputs = new ArrayList<>();
+    private final List<Speaker> speakers = new ArrayList<>();
+    private final List<Beacon> beacons = new ArrayList<>();
+    private int deadband;
+    private Lookahead lookahead;
+    private Mixing mixing = Mixing.MAX;
+
+    /* Inputs and outputs must be added in the model's tensor order */
+    public void addInput(Shape input) {
+        inputs.add(input);
+    }
+
+    public void addOutput(Shape output) {
+        outputs.add(output);
+    }
+
+    public void addSpeaker(Speaker speaker) {
+        speakers.add(speaker);
+    }
+
+    public void addBeacon(Beacon beacon) {
+        beacons.add(beacon);
+    }
+
+    public List<Shape> getInputs() {
+        return inputs;
+    }
+
+    public List<Shape> getOutputs() {
+        return outputs;
+    }
+
+    public List<Speaker> getSpeakers() {
+        return speakers;
+    }
+
+    public List<Beacon> getBeacons() {
+        return beacons;
+    }
+
+    /**
+     * Volume change a speaker needs before a new volume is sent to it.
+     */
+    public int getDeadband() {
+        return deadband;
+    }
+
+    public void setDeadband(int deadband) {
+        this.deadband = deadband;
+    }
+
+    /**
+     * Lookahead of the predictions, null to predict for the last scanned position.
+     */
+    public Lookahead getLookahead() {
+        return lookahead;
+    }
+
+    public void setLookahead(Lookahead lookahead) {
+        this.lookahead = lookahead;
+    }
+
+    public Mixing getMixing() {
+        return mixing;
+    }
+
+    public void setMixing(Mixing mixing) {
+        this.mixing = mixing;
+    }
+
+    /**
+     * Number of listeners the beacons are carried by, at least 1.
+     */
+    public int getListenerCount() {
+        int count = 1;
+
+        for (Beacon beacon : beacons)
+            count = Math.max(count, beacon.getListener() + 1);
+
+        return count;
+    }
+
+    public int indexOfInput(String name) {
+        for (int i = 0; i < inputs.size(); i++) {
+            if (inputs.get(i).getName().equals(name))
+                return i;
+        }
+
+        return -1;
+    }
+}
@@ -0,0 +1,67 @@
+package com.gradotech.soundbound;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Locale;
+
+/**
+ * Parses the JSON model config shipped next to a model. The app only falls back to
+ * it when there is no compiled ModelDescriptor, org.json is provided by Android.
+ */
+public class ModelConfigJson {
+    private ModelConfigJson() {
+    }
+
+    public static ModelConfig parse(String configJSON) throws JSONException {
+        JSONObject json = new JSONObject(configJSON);
+        ModelConfig config = new ModelConfig();
+        JSONArray inputs = json.getJSONArray("inputs");
+        JSONArray outputs = json.getJSONArray("outputs");
+        JSONArray speakers = json.getJSONArray("speakers");
+        JSONArray beacons = json.getJSONArray("beacons");
+        int i;
+
+        for (i = 0; i < inputs.length(); i++)
+            config.addInput(parseShape(inputs.getJSONObject(i)));
+
+        for (i = 0; i < outputs.length(); i++)
+            config.addOutput(parseShape(outputs.getJSONObject(i)));
+
+        for (i = 0; i < speakers.length(); i++) {
+            JSONObject obj = speakers.getJSONObject(i);
+            JSONArray coordinates = obj.getJSONArray("coordinates");
+
+            config.addSpeaker(new ModelConfig.Speaker(obj.getString("id"),
+                    new int[] { coordinates.getInt(0), coordinates.getInt(1) }));
+        }
+
+        for (i = 0; i < beacons.length(); i++) {
+            JSONObject obj = beacons.getJSONObject(i);
+
+            config.addBeacon(new ModelConfig.Beacon(obj.getString("id1"),
+                    obj.getString("measures"), obj.optString("filter", null),
+                    obj.optInt("listener", 0)));
+        }
+
+        config.setDeadband(json.optInt("deadband", 0));
+        config.setMixing(ModelConfig.Mixing.valueOf(
+                json.optString("mixing", "max").toUpperCase(Locale.ROOT)));
+
+        JSONObject lookahead = json.optJSONObject("lookahead");
+        if (lookahead != null)
+            config.setLookahead(new ModelConfig.Lookahead(lookahead.getInt("horizon_ms"),
+                    lookahead.optInt("steps", 1), lookahead.optInt("window", 5),
+                    (float) lookahead.getDouble("max_speed")));
+
+        return config;
+    }
+
+    private static ModelConfig.Shape parseShape(JSONObject obj) throws JSONException {
+        return new ModelConfig.Shape(obj.getString("name"),
+                obj.getString("type"),
+                obj.getInt("min"),
+                obj.getInt("max"));
+    }
+}
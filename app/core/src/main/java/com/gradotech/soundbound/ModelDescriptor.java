@@ -0,0 +1,121 @@
+package com.gradotech.soundbound;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary form of a JSON model config, written by tools/config_compiler.py so the
+ * app can map it at startup instead of parsing JSON. All values are little endian.
+ *
+ * The header holds the table sizes and the scalar settings, followed by fixed size
+ * records for the inputs and outputs (name, type, min, max), the speakers (id, x, y)
+ * and the beacons (id1, filter, index of the input they measure and of the listener
+ * carrying them). Strings are
+ * offsets into a pool of length prefixed UTF-8 at the end, 0xffff for none.
+ */
+public class ModelDescriptor {
+    private static final int magic = 0x53424d44; /* "SBMD" */
+    private static final int formatVersion = 2;
+    private static final int headerSize = 40;
+    private static final int shapeSize = 12;
+    private static final int speakerSize = 10;
+    private static final int beaconSize = 6;
+    private static final int noString = 0xffff;
+
+    private ModelDescriptor() {
+    }
+
+    /**
+     * CRC32 of the JSON config the descriptor was compiled from.
+     */
+    public static int getSourceCrc(ByteBuffer descriptor) {
+        return descriptor.duplicate().order(ByteOrder.LITTLE_ENDIAN).getInt(8);
+    }
+
+    /**
+     * Reads the config out of descriptor, throws IllegalArgumentException when it
+     * isn't a descriptor of this version or is truncated.
+     */
+    public static ModelConfig read(ByteBuffer descriptor) {
+        ByteBuffer buff = descriptor.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+
+        if (buff.capacity() < headerSize || buff.getInt(0) != magic)
+            throw new IllegalArgumentException("Not a model descriptor");
+        if (buff.getInt(4) != formatVersion)
+            throw new IllegalArgumentException("Model descriptor version " + buff.getInt(4));
+        if (buff.getInt(12) != buff.capacity())
+            throw new IllegalArgumentException("Truncated model descriptor");
+
+        int inputs = buff.get(16) & 0xff;
+        int outputs = buff.get(17) & 0xff;
+        int speakers = buff.get(18) & 0xff;
+        int beacons = buff.get(19) & 0xff;
+        int strings = buff.getInt(36);
+
+        if (strings != headerSize + (inputs + outputs) * shapeSize + speakers * speakerSize +
+                beacons * beaconSize || strings > buff.capacity())
+            throw new IllegalArgumentException("Bad model descriptor tables");
+
+        ModelConfig config = new ModelConfig();
+        int pos = headerSize;
+
+        for (int i = 0; i < inputs; i++, pos += shapeSize)
+            config.addInput(readShape(buff, pos, strings));
+
+        for (int i = 0; i < outputs; i++, pos += shapeSize)
+            config.addOutput(readShape(buff, pos, strings));
+
+        for (int i = 0; i < speakers; i++, pos += speakerSize)
+            config.addSpeaker(new ModelConfig.Speaker(readString(buff, pos, strings),
+                    new int[] { buff.getInt(pos + 2), buff.getInt(pos + 6) }));
+
+        for (int i = 0; i < beacons; i++, pos += beaconSize) {
+            int input = buff.get(pos + 4) & 0xff;
+
+            if (input >= inputs)
+                throw new IllegalArgumentException("Beacon measures input " + input);
+
+            config.addBeacon(new ModelConfig.Beacon(readString(buff, pos, strings),
+                    config.getInputs().get(input).getName(),
+                    readString(buff, pos + 2, strings), buff.get(pos + 5) & 0xff));
+        }
+
+        config.setDeadband(buff.getInt(20));
+
+        int mixing = buff.get(30) & 0xff;
+        if (mixing >= ModelConfig.Mixing.values().length)
+            throw new IllegalArgumentException("Unknown mixing " + mixing);
+        config.setMixing(ModelConfig.Mixing.values()[mixing]);
+
+        int horizonMs = buff.getInt(24);
+        if (horizonMs >= 0)
+            config.setLookahead(new ModelConfig.Lookahead(horizonMs, buff.get(28) & 0xff,
+                    buff.get(29) & 0xff, buff.getFloat(32)));
+
+        return config;
+    }
+
+    private static ModelConfig.Shape readShape(ByteBuffer buff, int pos, int strings) {
+        return new ModelConfig.Shape(readString(buff, pos, strings),
+                readString(buff, pos + 2, strings), buff.getInt(pos + 4), buff.getInt(pos + 8));
+    }
+
+    /* The string the offset at pos points to */
+    private static String readString(ByteBuffer buff, int pos, int strings) {
+        int offset = buff.getShort(pos) & 0xffff;
+
+        if (offset == noString)
+            return null;
+
+        int start = strings + offset;
+        if (start >= buff.capacity() || start + 1 + (buff.get(start) & 0xff) > buff.capacity())
+            throw new IllegalArgumentException("Bad model descriptor string");
+
+        byte[] bytes = new byte[buff.get(start) & 0xff];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = buff.get(start + 1 + i);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
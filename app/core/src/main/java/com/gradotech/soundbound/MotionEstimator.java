@@ -0,0 +1,121 @@
+package com.gradotech.soundbound;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Velocity of the listener along every model input, the least squares slope of the
+ * positions of the last few scans. Speeds are capped at a brisk walk, so a ranging
+ * glitch can't throw the extrapolation across the room, and a gap between scans
+ * starts the fit over. The history lives in rings allocated up front.
+ */
+public class MotionEstimator {
+    /* Longer than this without a scan and the listener may have done anything */
+    private static final long maxGapNanos = TimeUnit.SECONDS.toNanos(1);
+
+    private final int dimensions;
+    private final float maxSpeed;
+    private final long[] times;
+    private final float[][] positions;
+    private final float[] velocity;
+    private int count;
+    private int next;
+
+    /**
+     * Fits over window scans, maxSpeed is in input units per second.
+     */
+    public MotionEstimator(int dimensions, int window, float maxSpeed) {
+        if (window < 2)
+            throw new IllegalArgumentException("Window must hold at least 2 scans");
+
+        this.dimensions = dimensions;
+        this.maxSpeed = maxSpeed;
+        this.times = new long[window];
+        this.positions = new float[window][dimensions];
+        this.velocity = new float[dimensions];
+    }
+
+    /**
+     * Adds the position of a scan taken at nanos, a System.nanoTime() value.
+     */
+    public void update(long nanos, float[] position) {
+        if (count > 0 && nanos - newest() > maxGapNanos)
+            reset();
+
+        times[next] = nanos;
+        System.arraycopy(position, 0, positions[next], 0, dimensions);
+        next = (next + 1) % times.length;
+        if (count < times.length)
+            count++;
+
+        fit();
+    }
+
+    private long newest() {
+        return times[(next + times.length - 1) % times.length];
+    }
+
+    private int oldest() {
+        return (next + times.length - count) % times.length;
+    }
+
+    private void fit() {
+        if (count < 2) {
+            for (int d = 0; d < dimensions; d++)
+                velocity[d] = 0;
+            return;
+        }
+
+        /* Seconds relative to the newest scan keep the sums small */
+        long reference = newest();
+        double meanTime = 0;
+
+        for (int i = 0, slot = oldest(); i < count; i++, slot = (slot + 1) % times.length)
+            meanTime += (times[slot] - reference) / 1e9;
+        meanTime /= count;
+
+        for (int d = 0; d < dimensions; d++) {
+            double meanPosition = 0;
+            double covariance = 0;
+            double variance = 0;
+
+            for (int i = 0, slot = oldest(); i < count; i++, slot = (slot + 1) % times.length)
+                meanPosition += positions[slot][d];
+            meanPosition /= count;
+
+            for (int i = 0, slot = oldest(); i < count; i++, slot = (slot + 1) % times.length) {
+                double t = (times[slot] - reference) / 1e9 - meanTime;
+
+                covariance += t * (positions[slot][d] - meanPosition);
+                variance += t * t;
+            }
+
+            float speed = variance > 0 ? (float) (covariance / variance) : 0;
+            velocity[d] = Math.max(-maxSpeed, Math.min(maxSpeed, speed));
+        }
+    }
+
+    /**
+     * Velocity along dimension in input units per second, 0 until two scans came in.
+     */
+    public float getVelocity(int dimension) {
+        return velocity[dimension];
+    }
+
+    /**
+     * Mean time between the scans of the window in seconds, 0 until two scans came in.
+     */
+    public float getInterval() {
+        if (count < 2)
+            return 0;
+
+        return (newest() - times[oldest()]) / 1e9f / (count - 1);
+    }
+
+    public void reset() {
+        count = 0;
+        next = 0;
+
+        for (int d = 0; d < dimensions; d++)
+            velocity[d] = 0;
+    }
+}
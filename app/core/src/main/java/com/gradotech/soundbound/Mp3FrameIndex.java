@@ -0,0 +1,397 @@
+package com.gradotech.soundbound;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Byte offset of the first MP3 frame of every second of a song, found by walking
+ * the frame headers once. Frames are chained by their own lengths, so VBR files
+ * are timed exactly and the Xing/Info frame some encoders put first is skipped
+ * instead of being played as audio.
+ * <p>
+ * The index is small, 4 bytes per second, and is cached in a file tagged with the
+ * length and modification time of the song it was built from.
+ */
+public class Mp3FrameIndex {
+    private static final int magic = 0x53424d49; /* "SBMI" */
+    private static final int formatVersion = 1;
+    private static final int headerSize = 48;
+
+    /* Sync, version, layer and sample rate, which don't change within a stream */
+    private static final int streamMask = 0xfffe0c00;
+    /* How far past the tags estimateDurationMs looks for the first frame */
+    private static final int estimateWindow = 64 * 1024;
+
+    private static final int[][] bitrates = {
+            /* MPEG 1 layer I, II, III */
+            { 0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448 },
+            { 0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384 },
+            { 0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320 },
+            /* MPEG 2 and 2.5 layer I, II and III */
+            { 0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256 },
+            { 0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160 },
+    };
+    private static final int[] sampleRates = { 44100, 48000, 32000 };
+
+    private final long fileLength;
+    private final long lastModified;
+    private final int sampleRate;
+    private final int frames;
+    private final int durationMs;
+    private final int audioStart;
+    private final int audioEnd;
+    private final int[] offsets;
+
+    private Mp3FrameIndex(long fileLength, long lastModified, int sampleRate, int frames,
+                          int durationMs, int audioStart, int audioEnd, int[] offsets) {
+        this.fileLength = fileLength;
+        this.lastModified = lastModified;
+        this.sampleRate = sampleRate;
+        this.frames = frames;
+        this.durationMs = durationMs;
+        this.audioStart = audioStart;
+        this.audioEnd = audioEnd;
+        this.offsets = offsets;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getFrameCount() {
+        return frames;
+    }
+
+    public int getDurationMs() {
+        return durationMs;
+    }
+
+    /**
+     * Offset of the first audio frame, past any ID3v2 tag and Xing frame.
+     */
+    public int getAudioStart() {
+        return audioStart;
+    }
+
+    /**
+     * Offset right after the last audio frame.
+     */
+    public int getAudioEnd() {
+        return audioEnd;
+    }
+
+    /**
+     * Average rate of the audio, what a player consumes in real time.
+     */
+    public long getBytesPerSecond() {
+        if (durationMs == 0)
+            return 0;
+
+        return (audioEnd - audioStart) * 1000L / durationMs;
+    }
+
+    /**
+     * Offset of the frame playing at the given time, rounded down to the second.
+     * Times past the end give the end of the audio.
+     */
+    public long getOffset(double seconds) {
+        if (offsets.length == 0 || seconds * 1000 >= durationMs)
+            return audioEnd;
+
+        return offsets[(int) Math.max(0, Math.min(offsets.length - 1, Math.floor(seconds)))];
+    }
+
+    /**
+     * Second of the song playing at the given byte offset.
+     */
+    public int getSecond(long offset) {
+        int second = Arrays.binarySearch(offsets, (int) Math.min(offset, Integer.MAX_VALUE));
+
+        return Math.max(0, (second >= 0) ? second : -second - 2);
+    }
+
+    /**
+     * Length of the MP3 frame starting with header, or -1 when header is not the
+     * header of a frame this index can time.
+     */
+    static int frameLength(int header) {
+        if ((header & 0xffe00000) != 0xffe00000)
+            return -1;
+
+        int version = (header >>> 19) & 3;
+        int layer = 4 - ((header >>> 17) & 3);
+        int bitrateIndex = (header >>> 12) & 15;
+        int sampleRateIndex = (header >>> 10) & 3;
+        int padding = (header >>> 9) & 1;
+
+        /* Reserved version and layer, free format and bad bitrate or sample rate */
+        if (version == 1 || layer == 4 || bitrateIndex == 0 || bitrateIndex == 15 ||
+                sampleRateIndex == 3)
+            return -1;
+
+        int table = (version == 3) ? layer - 1 : Math.min(layer, 2) + 2;
+        int bitrate = 1000 * bitrates[table][bitrateIndex];
+        int sampleRate = sampleRate(header);
+
+        if (layer == 1)
+            return (12 * bitrate / sampleRate + padding) * 4;
+        if (layer == 3 && version != 3)
+            return 72 * bitrate / sampleRate + padding;
+
+        return 144 * bitrate / sampleRate + padding;
+    }
+
+    static int sampleRate(int header) {
+        int version = (header >>> 19) & 3;
+
+        return sampleRates[(header >>> 10) & 3] >> ((version == 3) ? 0 : (version == 2) ? 1 : 2);
+    }
+
+    static int samplesPerFrame(int header) {
+        int version = (header >>> 19) & 3;
+        int layer = 4 - ((header >>> 17) & 3);
+
+        if (layer == 1)
+            return 384;
+        if (layer == 3 && version != 3)
+            return 576;
+
+        return 1152;
+    }
+
+    /*
+     * A Xing or Info tag sits right after the side information of the first frame.
+     * Returns its position or -1 when the frame is audio.
+     */
+    private static int xingTag(ByteBuffer song, int pos, int header, int length) {
+        boolean mpeg1 = ((header >>> 19) & 3) == 3;
+        boolean mono = ((header >>> 6) & 3) == 3;
+        int tag = pos + 4 + (mpeg1 ? (mono ? 17 : 32) : (mono ? 9 : 17));
+
+        if (tag + 8 > pos + length)
+            return -1;
+
+        int id = song.getInt(tag);
+
+        return (id == 0x58696e67 || id == 0x496e666f) ? tag : -1; /* "Xing", "Info" */
+    }
+
+    /* A lone sync is noise, a first frame must chain into a second one */
+    private static boolean chains(ByteBuffer song, int pos, int header, int frameLength) {
+        int next = header(song, pos + frameLength);
+
+        return pos + frameLength + 4 > song.limit() ||
+                (frameLength(next) >= 0 && (next & streamMask) == (header & streamMask));
+    }
+
+    /* Size of an ID3v2 tag at the start of the song, its size is synchsafe */
+    private static int id3Size(ByteBuffer song) {
+        if (song.limit() < 10 || song.get(0) != 'I' || song.get(1) != 'D' || song.get(2) != '3')
+            return 0;
+
+        int size = (song.get(6) & 0x7f) << 21 | (song.get(7) & 0x7f) << 14 |
+                (song.get(8) & 0x7f) << 7 | (song.get(9) & 0x7f);
+        boolean footer = (song.get(5) & 0x10) != 0;
+
+        return 10 + size + (footer ? 10 : 0);
+    }
+
+    private static int header(ByteBuffer song, int pos) {
+        return (pos + 4 <= song.limit()) ? song.getInt(pos) : 0;
+    }
+
+    /**
+     * Walks the frames of the song in file. Bytes that don't chain into frames,
+     * like tags or garbage, are skipped until the next pair of consecutive frames.
+     */
+    public static Mp3FrameIndex build(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            long length = raf.length();
+
+            if (length > Integer.MAX_VALUE)
+                throw new IOException("Songs over 2 GiB are not supported");
+
+            MappedByteBuffer song = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+            int[] offsets = new int[64];
+            int seconds = 0;
+            int stream = 0;
+            int sampleRate = 0;
+            int frames = 0;
+            long samples = 0;
+            int audioStart = -1;
+            int audioEnd = 0;
+            int pos = Math.min(id3Size(song), (int) length);
+
+            song.order(ByteOrder.BIG_ENDIAN);
+
+            while (pos + 4 <= length) {
+                int header = song.getInt(pos);
+                int frameLength = frameLength(header);
+
+                if (frameLength < 0 || pos + frameLength > length ||
+                        (stream != 0 && (header & streamMask) != stream)) {
+                    pos++;
+                    continue;
+                }
+
+                if (stream == 0) {
+                    if (!chains(song, pos, header, frameLength)) {
+                        pos++;
+                        continue;
+                    }
+
+                    stream = header & streamMask;
+                    sampleRate = sampleRate(header);
+
+                    if (xingTag(song, pos, header, frameLength) >= 0) {
+                        pos += frameLength;
+                        continue;
+                    }
+                }
+
+                if (audioStart < 0)
+                    audioStart = pos;
+
+                while (samples >= (long) seconds * sampleRate) {
+                    if (seconds == offsets.length)
+                        offsets = Arrays.copyOf(offsets, seconds * 2);
+                    offsets[seconds++] = pos;
+                }
+
+                samples += samplesPerFrame(header);
+                frames++;
+                pos += frameLength;
+                audioEnd = pos;
+            }
+
+            return new Mp3FrameIndex(length, file.lastModified(), sampleRate, frames,
+                    (sampleRate == 0) ? 0 : (int) (samples * 1000 / sampleRate),
+                    Math.max(audioStart, 0), audioEnd, Arrays.copyOf(offsets, seconds));
+        }
+    }
+
+    /**
+     * Duration of the song in file from its first frames only, without walking the
+     * others: the frame count of its Xing header or, for constant bitrate songs,
+     * the size of the audio at the bitrate of the first frame. Returns 0 when no
+     * frame starts close to the beginning of the file.
+     */
+    public static int estimateDurationMs(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            long length = Math.min(raf.length(), Integer.MAX_VALUE);
+            MappedByteBuffer song = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+            int start = Math.min(id3Size(song), (int) length);
+
+            song.order(ByteOrder.BIG_ENDIAN);
+
+            for (int pos = start; pos + 4 <= length && pos < start + estimateWindow; pos++) {
+                int header = song.getInt(pos);
+                int frameLength = frameLength(header);
+
+                if (frameLength < 0 || pos + frameLength > length ||
+                        !chains(song, pos, header, frameLength))
+                    continue;
+
+                long samplesPerSecond = sampleRate(header);
+                int tag = xingTag(song, pos, header, frameLength);
+
+                /* The frame count is the first field, flagged by bit 0 */
+                if (tag >= 0 && (song.getInt(tag + 4) & 1) != 0 && tag + 12 <= pos + frameLength)
+                    return (int) ((song.getInt(tag + 8) & 0xffffffffL) *
+                            samplesPerFrame(header) * 1000 / samplesPerSecond);
+
+                long frames = (length - pos - id3v1Size(song)) / frameLength;
+
+                return (int) (frames * samplesPerFrame(header) * 1000 / samplesPerSecond);
+            }
+
+            return 0;
+        }
+    }
+
+    private static int id3v1Size(ByteBuffer song) {
+        int tag = song.limit() - 128;
+
+        return (tag >= 0 && song.get(tag) == 'T' && song.get(tag + 1) == 'A' &&
+                song.get(tag + 2) == 'G') ? 128 : 0;
+    }
+
+    /**
+     * Reads the index cached in cache. Returns null when the cache is missing,
+     * truncated or was built from another version of song.
+     */
+    public static Mp3FrameIndex open(File cache, File song) throws IOException {
+        if (!cache.isFile() || cache.length() < headerSize)
+            return null;
+
+        try (RandomAccessFile raf = new RandomAccessFile(cache, "r")) {
+            ByteBuffer buff = ByteBuffer.allocate((int) raf.length());
+
+            buff.order(ByteOrder.LITTLE_ENDIAN);
+
+            raf.getChannel().read(buff, 0);
+            if (buff.getInt(0) != magic || buff.getInt(4) != formatVersion ||
+                    buff.getLong(8) != song.length() || buff.getLong(16) != song.lastModified())
+                return null;
+
+            int seconds = buff.getInt(44);
+            if (seconds < 0 || buff.capacity() != headerSize + (long) seconds * Integer.BYTES)
+                return null;
+
+            int[] offsets = new int[seconds];
+            buff.position(headerSize);
+            buff.asIntBuffer().get(offsets);
+
+            return new Mp3FrameIndex(buff.getLong(8), buff.getLong(16), buff.getInt(24),
+                    buff.getInt(28), buff.getInt(32), buff.getInt(36), buff.getInt(40), offsets);
+        }
+    }
+
+    /**
+     * Writes the index to cache, atomically so a reader never sees half of it.
+     */
+    public void write(File cache) throws IOException {
+        ByteBuffer buff = ByteBuffer.allocate(headerSize + offsets.length * Integer.BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN);
+
+        buff.putInt(magic).putInt(formatVersion).putLong(fileLength).putLong(lastModified);
+        buff.putInt(sampleRate).putInt(frames).putInt(durationMs);
+        buff.putInt(audioStart).putInt(audioEnd).putInt(offsets.length);
+        buff.asIntBuffer().put(offsets);
+
+        File tmp = new File(cache.getPath() + ".tmp");
+        try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw")) {
+            raf.setLength(0);
+            raf.write(buff.array());
+        }
+
+        if (!tmp.renameTo(cache))
+            throw new IOException("Failed to replace " + cache);
+    }
+
+    /**
+     * Reads the cached index of song or builds it and refreshes the cache. A cache
+     * that can't be written only costs a rebuild next time.
+     */
+    public static Mp3FrameIndex load(File song, File cache) throws IOException {
+        Mp3FrameIndex index = open(cache, song);
+
+        if (index != null)
+            return index;
+
+        index = build(song);
+        try {
+            index.write(cache);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        return index;
+    }
+}
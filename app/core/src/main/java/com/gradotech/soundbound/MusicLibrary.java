@@ -0,0 +1,522 @@
+package com.gradotech.soundbound;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The MP3 files under a directory and its subdirectories, found on a background
+ * thread and cached by path, size and modification time. A library opened with a
+ * cache publishes the cached tracks at once and its scan only reports what was
+ * added, changed or removed since. Titles, artists and durations are read from
+ * the files when they are first asked for and kept in the cache as well.
+ * <p>
+ * The listener is called on the library's thread.
+ */
+public class MusicLibrary implements Closeable {
+    private static final int magic = 0x53424d4c; /* "SBML" */
+    private static final int formatVersion = 1;
+    /* Tracks found per onTracksFound call during a scan */
+    private static final int publishBatch = 200;
+
+    public interface Listener {
+        void onTracksFound(List<Track> tracks);
+
+        void onTracksRemoved(List<Track> tracks);
+
+        void onTrackUpdated(Track track);
+
+        void onScanFinished(int trackCount);
+    }
+
+    public static class Track {
+        private final String path;
+        private final long size;
+        private final long lastModified;
+        private volatile boolean hasMetadata;
+        private volatile String title;
+        private volatile String artist;
+        private volatile int durationMs;
+
+        Track(String path, long size, long lastModified) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public boolean hasMetadata() {
+            return hasMetadata;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        public String getArtist() {
+            return artist;
+        }
+
+        public int getDurationMs() {
+            return durationMs;
+        }
+
+        /**
+         * "Artist - Title" from the tags, or the file name until they were read.
+         */
+        public String getDisplayName() {
+            String name = title;
+
+            if (name == null) {
+                name = new File(path).getName();
+                if (name.toLowerCase(Locale.ROOT).endsWith(".mp3"))
+                    name = name.substring(0, name.length() - 4);
+            }
+
+            return (artist != null) ? artist + " - " + name : name;
+        }
+
+        @Override
+        public String toString() {
+            return getDisplayName();
+        }
+    }
+
+    private final File root;
+    private final File cache;
+    private final Listener listener;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "MusicLibrary");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /* Only touched on the library's thread */
+    private final Map<String, Track> tracks = new LinkedHashMap<>();
+    private boolean cacheLoaded;
+    private boolean dirty;
+    private boolean saveQueued;
+
+    public MusicLibrary(File root, File cache, Listener listener) {
+        this.root = root;
+        this.cache = cache;
+        this.listener = listener;
+    }
+
+    /**
+     * Publishes the cached tracks the first time, then walks the tree and reports
+     * the differences. Scanning again never reports a track twice.
+     */
+    public Future<?> scan() {
+        return executor.submit(() -> {
+            if (!cacheLoaded) {
+                cacheLoaded = true;
+                loadCache();
+                if (!tracks.isEmpty())
+                    listener.onTracksFound(new ArrayList<>(tracks.values()));
+            }
+
+            walk();
+            save();
+            listener.onScanFinished(tracks.size());
+        });
+    }
+
+    /**
+     * Reads the tags of track in the background unless they were already read, and
+     * reports it through onTrackUpdated.
+     */
+    public void requestMetadata(Track track) {
+        if (track.hasMetadata || executor.isShutdown())
+            return;
+
+        try {
+            executor.execute(() -> {
+                if (track.hasMetadata || tracks.get(track.path) != track)
+                    return;
+
+                readMetadata(track);
+                dirty = true;
+                listener.onTrackUpdated(track);
+
+                /* One save for a run of requests, queued behind them */
+                if (!saveQueued) {
+                    saveQueued = true;
+                    try {
+                        executor.execute(() -> {
+                            saveQueued = false;
+                            save();
+                        });
+                    } catch (RejectedExecutionException e) {
+                        /* Closing, close() queued the last save already */
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            /* close() got in after the check, dropped like requests after it */
+        }
+    }
+
+    /**
+     * Waits for the queued work, saves the cache and stops the library's thread.
+     * Closing again does nothing.
+     */
+    @Override
+    public synchronized void close() {
+        if (executor.isShutdown())
+            return;
+
+        executor.execute(this::save);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void walk() {
+        Set<String> seen = new HashSet<>();
+        List<Track> found = new ArrayList<>();
+        List<Track> removed = new ArrayList<>();
+        List<File> dirs = new ArrayList<>();
+
+        dirs.add(root);
+        while (!dirs.isEmpty()) {
+            File[] children = dirs.remove(dirs.size() - 1).listFiles();
+
+            if (children == null)
+                continue;
+
+            /* Pushed in reverse so the subfolders are walked in name order */
+            Arrays.sort(children);
+            for (int i = children.length - 1; i >= 0; i--) {
+                String name = children[i].getName();
+
+                if (!name.startsWith(".") && !isMp3(name) && children[i].isDirectory())
+                    dirs.add(children[i]);
+            }
+
+            for (File child : children) {
+                if (child.getName().startsWith(".") || !isMp3(child.getName()))
+                    continue;
+
+                BasicFileAttributes attributes;
+
+                /* One stat for both the size and the time */
+                try {
+                    attributes = Files.readAttributes(child.toPath(), BasicFileAttributes.class);
+                } catch (IOException e) {
+                    continue;
+                }
+
+                long size = attributes.size();
+                long lastModified = attributes.lastModifiedTime().toMillis();
+                Track known = tracks.get(child.getPath());
+
+                seen.add(child.getPath());
+                if (known != null && known.size == size && known.lastModified == lastModified)
+                    continue;
+
+                if (known != null)
+                    removed.add(known);
+
+                Track track = new Track(child.getPath(), size, lastModified);
+                tracks.put(track.path, track);
+                found.add(track);
+                dirty = true;
+
+                if (found.size() == publishBatch) {
+                    publish(found, removed);
+                    found = new ArrayList<>();
+                    removed = new ArrayList<>();
+                }
+            }
+        }
+
+        for (Track track : new ArrayList<>(tracks.values())) {
+            if (!seen.contains(track.path)) {
+                tracks.remove(track.path);
+                removed.add(track);
+                dirty = true;
+            }
+        }
+
+        publish(found, removed);
+    }
+
+    private static boolean isMp3(String name) {
+        return name.toLowerCase(Locale.ROOT).endsWith(".mp3");
+    }
+
+    private void publish(List<Track> found, List<Track> removed) {
+        if (!removed.isEmpty())
+            listener.onTracksRemoved(removed);
+        if (!found.isEmpty())
+            listener.onTracksFound(found);
+    }
+
+    private void loadCache() {
+        if (!cache.isFile())
+            return;
+
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(cache)))) {
+            if (in.readInt() != magic || in.readInt() != formatVersion ||
+                    !in.readUTF().equals(root.getPath()))
+                return;
+
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                Track track = new Track(in.readUTF(), in.readLong(), in.readLong());
+
+                if (in.readBoolean()) {
+                    track.title = readOptional(in);
+                    track.artist = readOptional(in);
+                    track.durationMs = in.readInt();
+                    track.hasMetadata = true;
+                }
+
+                tracks.put(track.path, track);
+            }
+        } catch (IOException e) {
+            /* A broken cache is only a cold start */
+            tracks.clear();
+        }
+    }
+
+    private void save() {
+        if (!dirty)
+            return;
+
+        File tmp = new File(cache.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(magic);
+            out.writeInt(formatVersion);
+            out.writeUTF(root.getPath());
+            out.writeInt(tracks.size());
+
+            for (Track track : tracks.values()) {
+                out.writeUTF(track.path);
+                out.writeLong(track.size);
+                out.writeLong(track.lastModified);
+                out.writeBoolean(track.hasMetadata);
+
+                if (track.hasMetadata) {
+                    writeOptional(out, track.title);
+                    writeOptional(out, track.artist);
+                    out.writeInt(track.durationMs);
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        if (tmp.renameTo(cache))
+            dirty = false;
+    }
+
+    private static String readOptional(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeOptional(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null)
+            out.writeUTF(value);
+    }
+
+    /* Tags missing from the file are left null, the track still counts as read */
+    static void readMetadata(Track track) {
+        File file = new File(track.path);
+
+        try {
+            String[] tags = readId3v2(file);
+
+            if (tags[0] == null && tags[1] == null)
+                tags = readId3v1(file);
+
+            track.title = tags[0];
+            track.artist = tags[1];
+            track.durationMs = (tags[2] != null) ? Integer.parseInt(tags[2]) :
+                    Mp3FrameIndex.estimateDurationMs(file);
+        } catch (IOException | NumberFormatException e) {
+            track.durationMs = 0;
+        }
+
+        track.hasMetadata = true;
+    }
+
+    /**
+     * Title, artist and length in ms from the ID3v2.2, 2.3 or 2.4 tag at the start
+     * of file. Only the frame headers are read up to the wanted frames, so large
+     * embedded pictures are skipped over.
+     */
+    static String[] readId3v2(File file) throws IOException {
+        String[] tags = new String[3];
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            byte[] header = new byte[10];
+
+            if (raf.length() < 10)
+                return tags;
+            raf.readFully(header);
+            if (header[0] != 'I' || header[1] != 'D' || header[2] != '3')
+                return tags;
+
+            int version = header[3];
+            long end = 10 + synchsafe(header, 6);
+            long pos = 10;
+
+            /* Unsynchronised tags are rare enough to be ignored */
+            if ((header[5] & 0x80) != 0 || version < 2 || version > 4)
+                return tags;
+
+            if (version > 2 && (header[5] & 0x40) != 0) {
+                raf.seek(pos);
+                raf.readFully(header, 0, 4);
+                pos += (version == 4) ? synchsafe(header, 0) : 4 + bigEndian(header, 0, 4);
+            }
+
+            int idLength = (version == 2) ? 3 : 4;
+            int frameHeader = (version == 2) ? 6 : 10;
+
+            end = Math.min(end, raf.length());
+            while (pos + frameHeader <= end && (tags[0] == null || tags[1] == null ||
+                    tags[2] == null)) {
+                raf.seek(pos);
+                raf.readFully(header, 0, frameHeader);
+                if (header[0] == 0)
+                    break;
+
+                String id = new String(header, 0, idLength, StandardCharsets.US_ASCII);
+                long size = (version == 2) ? bigEndian(header, 3, 3) :
+                        (version == 4) ? synchsafe(header, 4) : bigEndian(header, 4, 4);
+                int slot = -1;
+
+                if (id.equals("TIT2") || id.equals("TT2"))
+                    slot = 0;
+                else if (id.equals("TPE1") || id.equals("TP1"))
+                    slot = 1;
+                else if (id.equals("TLEN") || id.equals("TLE"))
+                    slot = 2;
+
+                if (slot >= 0 && size > 1 && size < 4096) {
+                    byte[] text = new byte[(int) size];
+
+                    raf.readFully(text);
+                    tags[slot] = decodeText(text);
+                }
+
+                pos += frameHeader + size;
+            }
+        }
+
+        if (tags[2] != null && !tags[2].matches("\\d+"))
+            tags[2] = null;
+
+        return tags;
+    }
+
+    /* Title and artist from the ID3v1 tag at the end of file */
+    static String[] readId3v1(File file) throws IOException {
+        String[] tags = new String[3];
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            byte[] tag = new byte[128];
+
+            if (raf.length() < tag.length)
+                return tags;
+
+            raf.seek(raf.length() - tag.length);
+            raf.readFully(tag);
+            if (tag[0] != 'T' || tag[1] != 'A' || tag[2] != 'G')
+                return tags;
+
+            tags[0] = latin1Field(tag, 3, 30);
+            tags[1] = latin1Field(tag, 33, 30);
+        }
+
+        return tags;
+    }
+
+    private static String latin1Field(byte[] tag, int offset, int length) {
+        String value = new String(tag, offset, length, StandardCharsets.ISO_8859_1).trim();
+        int nul = value.indexOf('\0');
+
+        if (nul >= 0)
+            value = value.substring(0, nul).trim();
+
+        return value.isEmpty() ? null : value;
+    }
+
+    /* Text frames start with their encoding, values end at the first null */
+    private static String decodeText(byte[] text) {
+        Charset[] charsets = { StandardCharsets.ISO_8859_1, StandardCharsets.UTF_16,
+                StandardCharsets.UTF_16BE, StandardCharsets.UTF_8 };
+
+        if (text[0] < 0 || text[0] > 3)
+            return null;
+
+        String value = new String(text, 1, text.length - 1, charsets[text[0]]);
+        int nul = value.indexOf('\0');
+
+        if (nul >= 0)
+            value = value.substring(0, nul);
+
+        value = value.trim();
+
+        return value.isEmpty() ? null : value;
+    }
+
+    private static long synchsafe(byte[] buff, int offset) {
+        return (buff[offset] & 0x7f) << 21 | (buff[offset + 1] & 0x7f) << 14 |
+                (buff[offset + 2] & 0x7f) << 7 | (buff[offset + 3] & 0x7f);
+    }
+
+    private static long bigEndian(byte[] buff, int offset, int length) {
+        long value = 0;
+
+        for (int i = 0; i < length; i++)
+            value = value << 8 | (buff[offset + i] & 0xff);
+
+        return value;
+    }
+}
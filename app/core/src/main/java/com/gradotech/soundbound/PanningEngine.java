@@ -0,0 +1,25 @@
+package com.gradotech.soundbound;
+
+/**
+ * Evaluates the room to volume model on one row of inputs.
+ */
+public interface PanningEngine {
+    /* Inputs and outputs are in the model's tensor order */
+    void run(float[] input, float[] output);
+
+    /**
+     * Largest number of rows runBatch evaluates in one call, 1 for engines that
+     * only take one row at a time.
+     */
+    default int getMaxBatch() {
+        return 1;
+    }
+
+    /**
+     * Evaluates rows rows of inputs laid out one after the other, filling the rows
+     * of output the same way, in a single call over the model's batch dimension.
+     */
+    default void runBatch(float[] input, float[] output, int rows) {
+        throw new UnsupportedOperationException("Engine doesn't run batches");
+    }
+}
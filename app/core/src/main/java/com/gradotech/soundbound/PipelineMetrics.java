@@ -0,0 +1,112 @@
+package com.gradotech.soundbound;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Latency of every stage between a beacon scan and the socket write of the volumes
+ * it produced, plus the command counters of the pipeline. AudioServer serves them
+ * as JSON on /metrics.
+ */
+public class PipelineMetrics {
+    public enum Stage {
+        /* Time between two beacon scans */
+        SCAN("scan"),
+        /* From publishing a scan to the inference worker taking it */
+        MAILBOX("mailbox"),
+        /* Filtering the distances and predicting the volumes */
+        PREDICT("predict"),
+        /* From a controller's queue getting a command to encoding it */
+        QUEUE("queue"),
+        /* One socket write to a controller */
+        WRITE("write"),
+        /* From publishing a scan to the end of the write of its volumes */
+        TOTAL("total");
+
+        private final String key;
+
+        Stage(String key) {
+            this.key = key;
+        }
+
+        public String getKey() {
+            return key;
+        }
+    }
+
+    private final LatencyHistogram[] histograms;
+    private final Map<String, LongSupplier> counters;
+
+    public PipelineMetrics() {
+        histograms = new LatencyHistogram[Stage.values().length];
+        for (int i = 0; i < histograms.length; i++)
+            histograms[i] = new LatencyHistogram();
+
+        counters = new LinkedHashMap<>();
+    }
+
+    public LatencyHistogram get(Stage stage) {
+        return histograms[stage.ordinal()];
+    }
+
+    public void record(Stage stage, long nanos) {
+        histograms[stage.ordinal()].record(nanos);
+    }
+
+    /**
+     * Adds a counter read each time the metrics are formatted.
+     */
+    public synchronized void addCounter(String name, LongSupplier counter) {
+        counters.put(name, counter);
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : histograms)
+            histogram.reset();
+    }
+
+    private static String micros(double nanos) {
+        return String.format(Locale.ROOT, "%.1f", nanos / 1000);
+    }
+
+    /**
+     * Formats p50, p99, max and mean of every stage in microseconds, and the
+     * counters.
+     */
+    public synchronized String toJson() {
+        StringBuilder json = new StringBuilder("{\"stages\":{");
+        boolean first = true;
+
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram histogram = get(stage);
+
+            if (!first)
+                json.append(',');
+            first = false;
+
+            json.append('"').append(stage.getKey()).append("\":{")
+                    .append("\"count\":").append(histogram.getCount())
+                    .append(",\"p50_us\":").append(micros(histogram.getPercentile(50)))
+                    .append(",\"p99_us\":").append(micros(histogram.getPercentile(99)))
+                    .append(",\"max_us\":").append(micros(histogram.getMax()))
+                    .append(",\"mean_us\":").append(micros(histogram.getMean()))
+                    .append('}');
+        }
+
+        json.append("},\"counters\":{");
+        first = true;
+
+        for (Map.Entry<String, LongSupplier> counter : counters.entrySet()) {
+            if (!first)
+                json.append(',');
+            first = false;
+
+            json.append('"').append(counter.getKey()).append("\":")
+                    .append(counter.getValue().getAsLong());
+        }
+
+        return json.append("}}").toString();
+    }
+}
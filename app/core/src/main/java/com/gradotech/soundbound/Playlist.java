@@ -0,0 +1,323 @@
+package com.gradotech.soundbound;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Songs played back to back as one continuous MP3 stream. A song contributes the
+ * frames between the audio start and end of its Mp3FrameIndex, so tags and Xing
+ * frames are left out and the last frame of a song is followed by the first frame
+ * of the next one. Songs that can't be indexed or hold no frames are skipped.
+ * <p>
+ * As soon as a song starts, the next one is indexed and its first prefetchBytes
+ * of audio read into memory on a background thread, so moving on to it never
+ * waits for storage. Only one song ahead is prefetched, a stream holds at most
+ * prefetchBytes of it.
+ * <p>
+ * Every song is indexed once, its index is kept for the life of the playlist and
+ * shared by seeking and prefetching.
+ */
+public class Playlist {
+    /**
+     * Frame index of a song, null when it can't be indexed.
+     */
+    public interface Indexer {
+        Mp3FrameIndex index(File song);
+    }
+
+    public interface Listener {
+        /* Called on the reading thread when the first byte of track is read */
+        void onTrackStarted(int track, Mp3FrameIndex index);
+    }
+
+    private final Indexer indexer;
+    private final int prefetchBytes;
+    private final List<String> paths = new ArrayList<>();
+    private final List<Mp3FrameIndex> indexes = new ArrayList<>();
+    /* Tracks that went through the indexer, failed ones have a null index */
+    private final BitSet indexed = new BitSet();
+
+    /**
+     * prefetchBytes of 0 opens every song only when the previous one ended.
+     */
+    public Playlist(Indexer indexer, int prefetchBytes) {
+        this.indexer = indexer;
+        this.prefetchBytes = prefetchBytes;
+    }
+
+    /**
+     * Queues path after the last song, streams already open play it too.
+     */
+    public synchronized void add(String path) {
+        paths.add(path);
+        indexes.add(null);
+    }
+
+    public synchronized int size() {
+        return paths.size();
+    }
+
+    public synchronized String getPath(int track) {
+        return paths.get(track);
+    }
+
+    public synchronized List<String> getPaths() {
+        return new ArrayList<>(paths);
+    }
+
+    /**
+     * Frame index of track, null when it can't be indexed. Only the first lookup of a
+     * track goes to the indexer, outside the lock as it may read the whole song.
+     */
+    public Mp3FrameIndex getIndex(int track) {
+        String path;
+
+        synchronized (this) {
+            if (indexed.get(track))
+                return indexes.get(track);
+            path = paths.get(track);
+        }
+
+        Mp3FrameIndex index = indexer.index(new File(path));
+
+        synchronized (this) {
+            indexes.set(track, index);
+            indexed.set(track);
+        }
+
+        return index;
+    }
+
+    /**
+     * Streams the songs from track on, starting at offset within it. An offset
+     * before the audio of the song starts at its first frame.
+     */
+    public Stream open(int track, long offset, Listener listener) throws IOException {
+        return new Stream(track, offset, listener);
+    }
+
+    /**
+     * A song opened at its first byte of audio, with the first headBytes of the
+     * audio read ahead.
+     */
+    private class Song implements Runnable {
+        private final int track;
+        private final String path;
+        private final int headBytes;
+        private final Thread thread;
+        private Mp3FrameIndex index;
+        private FileChannel channel;
+        private ByteBuffer head;
+        private boolean closed;
+
+        /* In the background when prefetching, otherwise right away without a head */
+        Song(int track, boolean prefetch) {
+            this.track = track;
+            this.path = getPath(track);
+            this.headBytes = prefetch ? prefetchBytes : 0;
+
+            if (prefetch) {
+                thread = new Thread(this, "Playlist prefetch");
+                thread.setDaemon(true);
+                thread.start();
+            } else {
+                thread = null;
+                run();
+            }
+        }
+
+        @Override
+        public void run() {
+            Mp3FrameIndex index = getIndex(track);
+            FileChannel channel = null;
+            ByteBuffer head = null;
+
+            try {
+                if (index != null) {
+                    int audio = index.getAudioEnd() - index.getAudioStart();
+
+                    channel = new FileInputStream(path).getChannel();
+                    head = ByteBuffer.allocate(Math.max(0, Math.min(headBytes, audio)));
+                    while (head.hasRemaining()) {
+                        if (channel.read(head, index.getAudioStart() + head.position()) <= 0)
+                            break;
+                    }
+                    head.flip();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                index = null;
+            }
+
+            synchronized (this) {
+                this.index = index;
+                this.channel = channel;
+                this.head = head;
+                if (closed)
+                    close();
+            }
+        }
+
+        /* Waits for the prefetch, returns false when the song has nothing to play */
+        boolean await() throws IOException {
+            if (thread != null) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while prefetching");
+                }
+            }
+
+            synchronized (this) {
+                return index != null && channel != null &&
+                        index.getAudioEnd() > index.getAudioStart();
+            }
+        }
+
+        synchronized void close() {
+            closed = true;
+
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {}
+                channel = null;
+            }
+        }
+    }
+
+    /**
+     * The audio of the songs one after the other, ending after the last song of the
+     * playlist.
+     */
+    public class Stream implements ReadableByteChannel {
+        private final Listener listener;
+        /* Track of song, or of the song to open next while song is null */
+        private int track;
+        private Song song;
+        private Song next;
+        private long position;
+        private long end;
+        private boolean started;
+        private boolean open = true;
+
+        private Stream(int track, long offset, Listener listener) throws IOException {
+            this.listener = listener;
+            this.track = track;
+
+            if (advance() && this.track == track)
+                position = Math.max(position, Math.min(offset, end));
+        }
+
+        /* Opens track or the first song after it that can be played */
+        private boolean advance() throws IOException {
+            if (song != null) {
+                song.close();
+                song = null;
+                track++;
+            }
+
+            while (track < size()) {
+                Song candidate = (next != null && next.track == track) ?
+                        next : new Song(track, false);
+
+                next = null;
+                if (candidate.await()) {
+                    song = candidate;
+                    position = song.index.getAudioStart() + song.head.remaining();
+                    end = song.index.getAudioEnd();
+                    started = false;
+                    return true;
+                }
+
+                candidate.close();
+                track++;
+            }
+
+            return false;
+        }
+
+        /**
+         * Track being read, the size of the playlist once it was read to the end.
+         */
+        public int getTrack() {
+            return track;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (!open)
+                throw new IOException("Stream closed");
+            if (song == null)
+                return -1;
+
+            do {
+                if (!started) {
+                    started = true;
+                    if (listener != null)
+                        listener.onTrackStarted(track, song.index);
+                }
+
+                /* Also picks up songs added after this one started */
+                if (next == null && prefetchBytes > 0 && track + 1 < size())
+                    next = new Song(track + 1, true);
+
+                ByteBuffer head = song.head;
+                if (head.hasRemaining()) {
+                    int n = Math.min(head.remaining(), dst.remaining());
+                    int limit = head.limit();
+
+                    head.limit(head.position() + n);
+                    dst.put(head);
+                    head.limit(limit);
+
+                    return n;
+                }
+
+                if (position < end) {
+                    int limit = dst.limit();
+
+                    dst.limit(dst.position() + (int) Math.min(dst.remaining(), end - position));
+                    try {
+                        int n = song.channel.read(dst, position);
+
+                        if (n > 0) {
+                            position += n;
+                            return n;
+                        }
+                    } finally {
+                        dst.limit(limit);
+                    }
+                }
+
+                /* Played out, or the file got shorter than its index */
+            } while (advance());
+
+            return -1;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+
+            if (song != null)
+                song.close();
+            if (next != null)
+                next.close();
+        }
+    }
+}
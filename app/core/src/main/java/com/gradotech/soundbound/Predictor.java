@@ -0,0 +1,364 @@
+package com.gradotech.soundbound;
+
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Room to volume predictor compiled from a ModelConfig. Beacons, input clamps and
+ * speaker outputs are resolved to fixed indices once, so updating inputs and
+ * predicting run on preallocated arrays and never allocate. Every beacon's
+ * distances go through the BeaconFilter of its config.
+ * <p>
+ * With a lookahead in the config, timed predictions are made for where the
+ * listener will be when the volumes play rather than where the last scan saw them.
+ * <p>
+ * Every listener in the room is a row of the model, all of them are evaluated in
+ * one batch and their volumes combined by the mixing policy. A listener takes part
+ * from the first report of one of their beacons until listenerTimeout predictions
+ * went by without one. Until anyone is seen all listeners are predicted.
+ */
+public class Predictor {
+    /* Predictions a listener stays in the mix without a beacon report */
+    private static final int listenerTimeout = 3;
+
+    private final PanningEngine engine;
+    private final HashMap<String, Integer> beaconIndex;
+    /* Index of the listener's input a beacon measures, in positions */
+    private final int[] beaconSlots;
+    private final int[] beaconListeners;
+    private final BeaconFilter[] filters;
+    private final float[] distances;
+    private final float[] inputMin;
+    private final float[] inputMax;
+    private final int[] outputMin;
+    private final int[] outputMax;
+    private final byte[] speakerIds;
+    private final int deadband;
+    private final int listeners;
+    /* Clamped inputs of every listener, one listener after the other */
+    private final float[] positions;
+    private final long[] lastReport;
+    private final boolean[] present;
+    /* Listeners of the rows of the current batch, in priority order */
+    private final int[] rowListeners;
+    private final float[] input;
+    private final float[] output;
+    private final MotionEstimator[] motion;
+    private final float[] inputLag;
+    private final float maxHorizon;
+    private final int steps;
+    private final float[] horizon;
+    private final float[] batchInput;
+    private final float[] batchOutput;
+    private ModelConfig.Mixing mixing;
+    private long predictions;
+    private float latency;
+
+    public Predictor(ModelConfig config, PanningEngine engine) {
+        List<ModelConfig.Shape> inputs = config.getInputs();
+        List<ModelConfig.Shape> outputs = config.getOutputs();
+        List<ModelConfig.Beacon> beacons = config.getBeacons();
+        int i;
+
+        this.engine = engine;
+        this.listeners = config.getListenerCount();
+        this.mixing = config.getMixing();
+
+        int[] listenerBeacons = new int[listeners];
+        this.beaconIndex = new HashMap<>();
+        this.beaconSlots = new int[beacons.size()];
+        this.beaconListeners = new int[beacons.size()];
+        this.filters = new BeaconFilter[beacons.size()];
+        this.distances = new float[beacons.size()];
+        for (i = 0; i < beacons.size(); i++) {
+            ModelConfig.Beacon beacon = beacons.get(i);
+            int inputIndex = config.indexOfInput(beacon.getMeasures());
+
+            if (inputIndex < 0)
+                throw new IllegalArgumentException("Beacon " + beacon.getId1() +
+                        " measures unknown input " + beacon.getMeasures());
+            if (beacon.getListener() < 0)
+                throw new IllegalArgumentException("Beacon " + beacon.getId1() +
+                        " of listener " + beacon.getListener());
+
+            beaconIndex.put(beacon.getId1(), i);
+            beaconSlots[i] = beacon.getListener() * inputs.size() + inputIndex;
+            beaconListeners[i] = beacon.getListener();
+            filters[i] = BeaconFilter.parse(beacon.getFilter());
+            listenerBeacons[beacon.getListener()]++;
+        }
+
+        for (i = 0; i < listeners; i++) {
+            if (listenerBeacons[i] == 0 && listeners > 1)
+                throw new IllegalArgumentException("Listener " + i + " has no beacons");
+        }
+
+        this.inputMin = new float[inputs.size()];
+        this.inputMax = new float[inputs.size()];
+        for (i = 0; i < inputs.size(); i++) {
+            inputMin[i] = inputs.get(i).getMin();
+            inputMax[i] = inputs.get(i).getMax();
+        }
+
+        /* Outputs are named after the speaker they drive */
+        this.outputMin = new int[outputs.size()];
+        this.outputMax = new int[outputs.size()];
+        this.speakerIds = new byte[outputs.size()];
+        for (i = 0; i < outputs.size(); i++) {
+            outputMin[i] = outputs.get(i).getMin();
+            outputMax[i] = outputs.get(i).getMax();
+            speakerIds[i] = (byte) outputs.get(i).getName().charAt(0);
+        }
+
+        this.deadband = config.getDeadband();
+        this.positions = new float[listeners * inputs.size()];
+        this.lastReport = new long[listeners];
+        this.present = new boolean[listeners];
+        this.rowListeners = new int[listeners];
+        this.input = new float[inputs.size()];
+        this.output = new float[outputs.size()];
+        for (i = 0; i < listeners; i++)
+            lastReport[i] = -listenerTimeout;
+
+        /* An input trails the listener as much as its slowest beacon filter */
+        ModelConfig.Lookahead lookahead = config.getLookahead();
+        this.inputLag = new float[listeners * inputs.size()];
+        for (i = 0; i < beacons.size(); i++)
+            inputLag[beaconSlots[i]] = Math.max(inputLag[beaconSlots[i]], filters[i].getLag());
+
+        if (lookahead != null) {
+            this.motion = new MotionEstimator[listeners];
+            for (i = 0; i < listeners; i++)
+                motion[i] = new MotionEstimator(inputs.size(), lookahead.getWindow(),
+                                                lookahead.getMaxSpeed());
+            this.maxHorizon = lookahead.getHorizonMs() / 1000f;
+            this.steps = lookahead.getSteps();
+        } else {
+            this.motion = null;
+            this.maxHorizon = 0;
+            this.steps = 1;
+        }
+
+        this.horizon = new float[listeners * inputs.size()];
+        this.batchInput = new float[listeners * steps * inputs.size()];
+        this.batchOutput = new float[listeners * steps * outputs.size()];
+    }
+
+    public int getOutputCount() {
+        return speakerIds.length;
+    }
+
+    public byte getSpeakerId(int ordinal) {
+        return speakerIds[ordinal];
+    }
+
+    public int getListenerCount() {
+        return listeners;
+    }
+
+    /**
+     * Overrides the mixing policy of the config.
+     */
+    public void setMixing(ModelConfig.Mixing mixing) {
+        this.mixing = mixing;
+    }
+
+    /**
+     * A deadband over the output ranges with the threshold of the config.
+     */
+    public VolumeDeadband createDeadband() {
+        return new VolumeDeadband(outputMin, outputMax, deadband);
+    }
+
+    /**
+     * Filters and stores the distance in meters reported for a beacon. Returns false
+     * for a beacon the model doesn't know.
+     */
+    public boolean updateInput(String id1, float distance) {
+        Integer index = beaconIndex.get(id1);
+
+        if (index == null)
+            return false;
+
+        distances[index] = filters[index].update(distance);
+        lastReport[beaconListeners[index]] = predictions;
+
+        return true;
+    }
+
+    /**
+     * Time from a scan to its volumes playing, which the lookahead predicts over on
+     * top of the lag of the beacon filters.
+     */
+    public void setLatency(long nanos) {
+        latency = nanos / 1e9f;
+    }
+
+    /**
+     * Current horizon of input in seconds for the first listener, 0 without a
+     * lookahead.
+     */
+    public float getHorizon(int input) {
+        return getHorizon(0, input);
+    }
+
+    public float getHorizon(int listener, int input) {
+        return horizon[listener * this.input.length + input];
+    }
+
+    private float clamp(int index, float value) {
+        return Math.max(inputMin[index], Math.min(inputMax[index], value));
+    }
+
+    /* Clamps the inputs of all listeners and lists the ones in the mix */
+    private int updatePositions() {
+        int inputs = input.length;
+        int count = 0;
+        int i;
+
+        for (i = 0; i < distances.length; i++)
+            positions[beaconSlots[i]] = clamp(beaconSlots[i] % inputs, distances[i] * 100);
+
+        for (i = 0; i < listeners; i++) {
+            if (predictions - lastReport[i] < listenerTimeout)
+                rowListeners[count++] = i;
+        }
+
+        if (count == 0) {
+            for (i = 0; i < listeners; i++)
+                rowListeners[count++] = i;
+        }
+
+        return count;
+    }
+
+    /**
+     * Writes the volume of every speaker into volumes, indexed by output ordinal,
+     * for the last scanned positions.
+     */
+    public void predict(int[] volumes) {
+        int inputs = input.length;
+        int rows = updatePositions();
+
+        if (mixing == ModelConfig.Mixing.PRIORITY)
+            rows = 1;
+
+        for (int row = 0; row < rows; row++)
+            System.arraycopy(positions, rowListeners[row] * inputs, batchInput, row * inputs,
+                             inputs);
+
+        evaluate(rows);
+        mix(rows, 1);
+        toVolumes(volumes);
+        predictions++;
+    }
+
+    /**
+     * Same as predict(volumes) for the scan taken at nanos, a System.nanoTime()
+     * value, looking ahead when the config has a lookahead.
+     */
+    public void predict(int[] volumes, long nanos) {
+        if (motion == null) {
+            predict(volumes);
+            return;
+        }
+
+        int inputs = input.length;
+        int count = updatePositions();
+        int rows = mixing == ModelConfig.Mixing.PRIORITY ? 1 : count;
+        int i;
+
+        for (int row = 0; row < count; row++) {
+            int listener = rowListeners[row];
+            int base = listener * inputs;
+
+            /* Listeners who come back start over, their old velocity is stale */
+            if (!present[listener])
+                motion[listener].reset();
+
+            System.arraycopy(positions, base, input, 0, inputs);
+            motion[listener].update(nanos, input);
+
+            /* A scan reports the listener as they were halfway through it */
+            float interval = motion[listener].getInterval();
+            for (i = 0; i < inputs; i++)
+                horizon[base + i] = Math.min(maxHorizon,
+                        (inputLag[base + i] + 0.5f) * interval + latency);
+
+            if (row >= rows)
+                continue;
+
+            /*
+             * Steps are spread evenly around the horizon so their mean lands on it,
+             * none looks further ahead than maxHorizon
+             */
+            for (int step = 0; step < steps; step++) {
+                float part = 2f * (step + 1) / (steps + 1);
+                int offset = (row * steps + step) * inputs;
+
+                for (i = 0; i < inputs; i++)
+                    batchInput[offset + i] = clamp(i, input[i] + motion[listener].getVelocity(i) *
+                            Math.min(maxHorizon, horizon[base + i] * part));
+            }
+        }
+
+        for (i = 0; i < listeners; i++)
+            present[i] = false;
+        for (int row = 0; row < count; row++)
+            present[rowListeners[row]] = true;
+
+        evaluate(rows * steps);
+        mix(rows, steps);
+        toVolumes(volumes);
+        predictions++;
+    }
+
+    /* All rows in one call when the engine takes them, one by one otherwise */
+    private void evaluate(int rows) {
+        int inputs = input.length;
+        int outputs = output.length;
+
+        if (rows > 1 && rows <= engine.getMaxBatch()) {
+            engine.runBatch(batchInput, batchOutput, rows);
+            return;
+        }
+
+        for (int row = 0; row < rows; row++) {
+            System.arraycopy(batchInput, row * inputs, input, 0, inputs);
+            engine.run(input, output);
+            System.arraycopy(output, 0, batchOutput, row * outputs, outputs);
+        }
+    }
+
+    /* Averages the steps of every listener and mixes the listeners into output */
+    private void mix(int rows, int stepCount) {
+        int outputs = output.length;
+
+        for (int i = 0; i < outputs; i++) {
+            float mixed = 0;
+
+            for (int row = 0; row < rows; row++) {
+                float sum = 0;
+
+                for (int step = 0; step < stepCount; step++)
+                    sum += batchOutput[(row * stepCount + step) * outputs + i];
+
+                float value = sum / stepCount;
+                if (mixing == ModelConfig.Mixing.MEAN)
+                    mixed += value / rows;
+                else if (row == 0 || value > mixed)
+                    mixed = value;
+            }
+
+            output[i] = mixed;
+        }
+    }
+
+    private void toVolumes(int[] volumes) {
+        for (int i = 0; i < output.length; i++) {
+            int volume = Math.round(output[i]);
+
+            volumes[i] = Math.max(outputMin[i], Math.min(outputMax[i], volume));
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package com.gradotech.soundbound;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Java side of Soundbound.h. The packet codecs are flyweights over a ByteBuffer
+ * laid out byte for byte like the C structs: encoding writes into a buffer the
+ * caller reuses and decoding reads the fields in place.
+ */
+public final class Soundbound {
+    public static final int SB_SERVER_PORT = 1881;
+    public static final int SB_STREAM_PORT = 1882;
+    public static final int SB_DISCOVERY_PORT = 1883;
+
+    public static final int SB_MAX_SPEAKERS = 8;
+    public static final int SB_DEV_NAME_SIZE = 21;
+
+    public static final byte SB_NO_CMD = 0;
+    public static final byte SB_QUERY_DATA = 1;
+    public static final byte SB_SET_VOLUME = 2;
+    public static final byte SB_START = 3;
+    public static final byte SB_STOP = 4;
+    public static final byte SB_SET_VOLUME_BATCH = 5; /* Since version 0.2 */
+    public static final byte SB_DISCOVER = 6; /* Since version 0.3, UDP only */
+    public static final byte SB_SET_VOLUME_RAMP = 7; /* Since version 0.5 */
+
+    private Soundbound() {}
+
+    /**
+     * Version as a single comparable number, major in the high byte.
+     */
+    public static int version(int major, int minor) {
+        return (major << 8) | minor;
+    }
+
+    /**
+     * struct sb_qdata_packet, sent by a controller once a client connects.
+     */
+    public static class QDataPacket {
+        public static final int SIZE = 3 + SB_MAX_SPEAKERS + SB_DEV_NAME_SIZE;
+
+        private static final int majorOffset = 1;
+        private static final int minorOffset = 2;
+        private static final int spksOffset = 3;
+        private static final int deviceOffset = spksOffset + SB_MAX_SPEAKERS;
+
+        private ByteBuffer buff;
+        private int offset;
+
+        public QDataPacket wrap(ByteBuffer buff, int offset) {
+            if (offset < 0 || buff.limit() - offset < SIZE)
+                throw new IllegalArgumentException("Buffer too short for sb_qdata_packet");
+
+            this.buff = buff;
+            this.offset = offset;
+
+            return this;
+        }
+
+        public QDataPacket wrap(byte[] packet) {
+            return wrap(ByteBuffer.wrap(packet), 0);
+        }
+
+        public byte getCmd() {
+            return buff.get(offset);
+        }
+
+        public int getMajor() {
+            return buff.get(offset + majorOffset) & 0xff;
+        }
+
+        public int getMinor() {
+            return buff.get(offset + minorOffset) & 0xff;
+        }
+
+        public int getVersion() {
+            return version(getMajor(), getMinor());
+        }
+
+        /**
+         * Speakers are listed until the first zero id.
+         */
+        public int getSpeakerCount() {
+            int count = 0;
+
+            while (count < SB_MAX_SPEAKERS && getSpeakerId(count) != 0)
+                count++;
+
+            return count;
+        }
+
+        public byte getSpeakerId(int index) {
+            if (index < 0 || index >= SB_MAX_SPEAKERS)
+                throw new IndexOutOfBoundsException("Speaker " + index);
+
+            return buff.get(offset + spksOffset + index);
+        }
+
+        public byte[] getSpeakerIds() {
+            byte[] ids = new byte[getSpeakerCount()];
+
+            for (int i = 0; i < ids.length; i++)
+                ids[i] = getSpeakerId(i);
+
+            return ids;
+        }
+
+        /**
+         * The name is NUL terminated unless it fills the whole field.
+         */
+        public String getDeviceName() {
+            byte[] name = new byte[SB_DEV_NAME_SIZE];
+            int length = 0;
+
+            while (length < SB_DEV_NAME_SIZE &&
+                    (name[length] = buff.get(offset + deviceOffset + length)) != 0)
+                length++;
+
+            return new String(name, 0, length, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Writes a complete packet at the buffer's position, as a controller would.
+         */
+        public static void encode(ByteBuffer buff, int major, int minor, byte[] speakerIds,
+                                  String device) {
+            byte[] name = device.getBytes(StandardCharsets.UTF_8);
+
+            if (speakerIds.length > SB_MAX_SPEAKERS || name.length > SB_DEV_NAME_SIZE)
+                throw new IllegalArgumentException("Speakers or device name don't fit");
+
+            buff.put(SB_QUERY_DATA);
+            buff.put((byte) major);
+            buff.put((byte) minor);
+            buff.put(speakerIds);
+            for (int i = speakerIds.length; i < SB_MAX_SPEAKERS; i++)
+                buff.put((byte) 0);
+            buff.put(name);
+            for (int i = name.length; i < SB_DEV_NAME_SIZE; i++)
+                buff.put((byte) 0);
+        }
+    }
+
+    /**
+     * struct sb_discovery_packet, a controller's answer to a single SB_DISCOVER byte
+     * broadcast on SB_DISCOVERY_PORT.
+     */
+    public static class DiscoveryPacket {
+        public static final int SIZE = 3 + QDataPacket.SIZE;
+        public static final int QDATA_OFFSET = 3;
+
+        private DiscoveryPacket() {}
+
+        /**
+         * Writes a complete answer at the buffer's position, as a controller would.
+         */
+        public static void encode(ByteBuffer buff, int port, int major, int minor,
+                                  byte[] speakerIds, String device) {
+            buff.put(SB_DISCOVER);
+            buff.put((byte) (port >> 8));
+            buff.put((byte) port);
+            QDataPacket.encode(buff, major, minor, speakerIds, device);
+        }
+
+        public static boolean matches(ByteBuffer buff, int offset) {
+            return buff.limit() - offset >= SIZE && buff.get(offset) == SB_DISCOVER &&
+                    buff.get(offset + QDATA_OFFSET) == SB_QUERY_DATA;
+        }
+
+        public static int getPort(ByteBuffer buff, int offset) {
+            return ((buff.get(offset + 1) & 0xff) << 8) | (buff.get(offset + 2) & 0xff);
+        }
+
+        /**
+         * Copies out the sb_qdata_packet, the same bytes the TCP handshake sends.
+         */
+        public static byte[] getQueryData(ByteBuffer buff, int offset) {
+            byte[] packet = new byte[QDataPacket.SIZE];
+
+            for (int i = 0; i < packet.length; i++)
+                packet[i] = buff.get(offset + QDATA_OFFSET + i);
+
+            return packet;
+        }
+    }
+
+    /**
+     * SB_SET_VOLUME followed by struct sb_volume_packet.
+     */
+    public static class VolumePacket {
+        public static final int SIZE = 4;
+
+        private VolumePacket() {}
+
+        public static void encode(ByteBuffer buff, byte id, byte volume) {
+            buff.put(SB_SET_VOLUME);
+            buff.put(id);
+            buff.put(volume);
+            buff.put((byte) 0);
+        }
+
+        public static boolean matches(ByteBuffer buff, int offset) {
+            return buff.limit() - offset >= SIZE && buff.get(offset) == SB_SET_VOLUME;
+        }
+
+        public static byte getId(ByteBuffer buff, int offset) {
+            return buff.get(offset + 1);
+        }
+
+        public static byte getVolume(ByteBuffer buff, int offset) {
+            return buff.get(offset + 2);
+        }
+    }
+
+    /**
+     * struct sb_volume_batch_packet. Only the entries in use go on the wire, so a
+     * frame is built with begin, one put per speaker and finish.
+     */
+    public static class VolumeBatchPacket {
+        public static final int HEADER_SIZE = 2;
+        public static final int ENTRY_SIZE = 2;
+        public static final int MAX_SIZE = HEADER_SIZE + SB_MAX_SPEAKERS * ENTRY_SIZE;
+
+        private VolumeBatchPacket() {}
+
+        /**
+         * Starts a frame at the buffer's position and returns where it starts.
+         */
+        public static int begin(ByteBuffer buff) {
+            int start = buff.position();
+
+            buff.put(SB_SET_VOLUME_BATCH);
+            buff.put((byte) 0);
+
+            return start;
+        }
+
+        public static void put(ByteBuffer buff, byte id, byte volume) {
+            buff.put(id);
+            buff.put(volume);
+        }
+
+        /**
+         * Stores the entry count of the frame started at start and returns it.
+         */
+        public static int finish(ByteBuffer buff, int start) {
+            int count = (buff.position() - start - HEADER_SIZE) / ENTRY_SIZE;
+
+            buff.put(start + 1, (byte) count);
+
+            return count;
+        }
+
+        public static int getCount(ByteBuffer buff, int offset) {
+            return buff.get(offset + 1) & 0xff;
+        }
+
+        public static byte getId(ByteBuffer buff, int offset, int index) {
+            return buff.get(offset + HEADER_SIZE + index * ENTRY_SIZE);
+        }
+
+        public static byte getVolume(ByteBuffer buff, int offset, int index) {
+            return buff.get(offset + HEADER_SIZE + index * ENTRY_SIZE + 1);
+        }
+    }
+
+    /**
+     * struct sb_volume_ramp_packet, a batch whose speakers move to their volumes
+     * linearly over a duration in ms shared by all of them.
+     */
+    public static class VolumeRampPacket {
+        public static final int HEADER_SIZE = 4;
+        public static final int ENTRY_SIZE = 2;
+        public static final int MAX_SIZE = HEADER_SIZE + SB_MAX_SPEAKERS * ENTRY_SIZE;
+        public static final int MAX_DURATION = 0xffff;
+
+        private VolumeRampPacket() {}
+
+        /**
+         * Starts a frame at the buffer's position and returns where it starts. The
+         * duration is capped at MAX_DURATION.
+         */
+        public static int begin(ByteBuffer buff, int durationMs) {
+            int start = buff.position();
+            int duration = Math.max(0, Math.min(MAX_DURATION, durationMs));
+
+            buff.put(SB_SET_VOLUME_RAMP);
+            buff.put((byte) 0);
+            buff.put((byte) (duration >>> 8));
+            buff.put((byte) duration);
+
+            return start;
+        }
+
+        public static void put(ByteBuffer buff, byte id, byte volume) {
+            buff.put(id);
+            buff.put(volume);
+        }
+
+        /**
+         * Stores the entry count of the frame started at start and returns it.
+         */
+        public static int finish(ByteBuffer buff, int start) {
+            int count = (buff.position() - start - HEADER_SIZE) / ENTRY_SIZE;
+
+            buff.put(start + 1, (byte) count);
+
+            return count;
+        }
+
+        public static int getCount(ByteBuffer buff, int offset) {
+            return buff.get(offset + 1) & 0xff;
+        }
+
+        public static int getDuration(ByteBuffer buff, int offset) {
+            return (buff.get(offset + 2) & 0xff) << 8 | (buff.get(offset + 3) & 0xff);
+        }
+
+        public static byte getId(ByteBuffer buff, int offset, int index) {
+            return buff.get(offset + HEADER_SIZE + index * ENTRY_SIZE);
+        }
+
+        public static byte getVolume(ByteBuffer buff, int offset, int index) {
+            return buff.get(offset + HEADER_SIZE + index * ENTRY_SIZE + 1);
+        }
+    }
+}
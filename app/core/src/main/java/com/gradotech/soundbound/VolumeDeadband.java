@@ -0,0 +1,173 @@
+package com.gradotech.soundbound;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides which predicted volumes are worth a command. A volume goes out when it
+ * moved by more than the threshold from the last one sent for its speaker, or when
+ * it reaches the bound of its range, so a fade still ends at silence or full
+ * volume. The counters show how many commands the threshold saved.
+ * <p>
+ * For boards that ramp, the deadband follows where each speaker's ramp has got to
+ * instead of the last volume sent, and extrapolates the volumes it sends along
+ * their recent trend to the end of the ramp. As a ramp glides rather than clicks,
+ * it is allowed to stray thrice the threshold from the prediction.
+ */
+public class VolumeDeadband {
+    /* Weight of the newest rate of change in a speaker's trend */
+    private static final float trendWeight = 0.5f;
+    /* A ramp glides where a step would click, so ramps may stray further */
+    private static final int rampBand = 3;
+
+    private final int[] min;
+    private final int[] max;
+    private final int threshold;
+    private final int[] sent;
+    private final float[] rampFrom;
+    private final long[] rampStart;
+    private final int[] lastVolume;
+    private final long[] lastNanos;
+    private final float[] trend;
+    private volatile long rampNanos;
+    private final AtomicLong sentCount = new AtomicLong();
+    private final AtomicLong suppressedCount = new AtomicLong();
+
+    public VolumeDeadband(int[] min, int[] max, int threshold) {
+        if (min.length != max.length)
+            throw new IllegalArgumentException("Every output needs a min and a max");
+
+        this.min = min.clone();
+        this.max = max.clone();
+        this.threshold = threshold;
+        this.sent = new int[min.length];
+        this.rampFrom = new float[min.length];
+        this.rampStart = new long[min.length];
+        this.lastVolume = new int[min.length];
+        this.lastNanos = new long[min.length];
+        this.trend = new float[min.length];
+
+        reset();
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Has accept(ordinal, volume, nanos) plan ramps of durationNanos, the same
+     * duration the boards are sent. 0 goes back to steps.
+     */
+    public void setRamp(long durationNanos) {
+        this.rampNanos = durationNanos;
+    }
+
+    public long getRampNanos() {
+        return rampNanos;
+    }
+
+    public long getSentCount() {
+        return sentCount.get();
+    }
+
+    public long getSuppressedCount() {
+        return suppressedCount.get();
+    }
+
+    /**
+     * Returns true when volume should be sent to the speaker of the given output
+     * ordinal, and remembers it as sent.
+     */
+    public boolean accept(int ordinal, int volume) {
+        int last = sent[ordinal];
+        boolean atBound = (volume == min[ordinal] || volume == max[ordinal]);
+
+        if (last != CommandQueue.EMPTY &&
+                (volume == last || (Math.abs(volume - last) <= threshold && !atBound))) {
+            suppressedCount.incrementAndGet();
+            return false;
+        }
+
+        sent[ordinal] = volume;
+        sentCount.incrementAndGet();
+
+        return true;
+    }
+
+    /**
+     * Returns the volume to send to the speaker of the given output ordinal for a
+     * prediction made at nanos, a System.nanoTime() value, or CommandQueue.EMPTY
+     * when the speaker needs no command. Without a ramp that is the volume itself
+     * when accept(ordinal, volume) takes it.
+     * <p>
+     * With a ramp the volume is compared with where the speaker's ramp is at nanos,
+     * and the volume sent is where the trend leads by the end of the new ramp.
+     */
+    public int accept(int ordinal, int volume, long nanos) {
+        long duration = rampNanos;
+
+        if (duration == 0)
+            return accept(ordinal, volume) ? volume : CommandQueue.EMPTY;
+
+        float rate = updateTrend(ordinal, volume, nanos);
+        int last = sent[ordinal];
+        float from = volume;
+
+        if (last != CommandQueue.EMPTY) {
+            boolean atBound = (volume == min[ordinal] || volume == max[ordinal]);
+
+            from = rampPosition(ordinal, nanos, duration);
+            if (Math.abs(volume - from) <= threshold * rampBand &&
+                    (!atBound || volume == last)) {
+                suppressedCount.incrementAndGet();
+                return CommandQueue.EMPTY;
+            }
+        }
+
+        int target = Math.round(volume + rate * duration);
+        target = Math.max(min[ordinal], Math.min(max[ordinal], target));
+
+        sent[ordinal] = target;
+        rampFrom[ordinal] = from;
+        rampStart[ordinal] = nanos;
+        sentCount.incrementAndGet();
+
+        return target;
+    }
+
+    /* Volume per nanosecond, smoothed over the predictions seen */
+    private float updateTrend(int ordinal, int volume, long nanos) {
+        long elapsed = nanos - lastNanos[ordinal];
+
+        if (lastNanos[ordinal] != 0 && elapsed > 0) {
+            float rate = (volume - lastVolume[ordinal]) / (float) elapsed;
+
+            trend[ordinal] += (rate - trend[ordinal]) * trendWeight;
+        }
+
+        lastVolume[ordinal] = volume;
+        lastNanos[ordinal] = nanos;
+
+        return trend[ordinal];
+    }
+
+    private float rampPosition(int ordinal, long nanos, long duration) {
+        long elapsed = nanos - rampStart[ordinal];
+
+        if (elapsed >= duration)
+            return sent[ordinal];
+
+        return rampFrom[ordinal] + (sent[ordinal] - rampFrom[ordinal]) * elapsed / duration;
+    }
+
+    /**
+     * Forgets the volumes sent, so the next ones all go out. For speakers that may
+     * have missed them, like a controller that just reconnected.
+     */
+    public void reset() {
+        for (int i = 0; i < sent.length; i++) {
+            sent[i] = CommandQueue.EMPTY;
+            lastNanos[i] = 0;
+            trend[i] = 0;
+        }
+    }
+}
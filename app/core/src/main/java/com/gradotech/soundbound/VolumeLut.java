@@ -0,0 +1,185 @@
+package com.gradotech.soundbound;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Speaker volumes of a two input model precomputed over a grid of room positions
+ * and answered by bilinear interpolation. The table lives in a memory-mapped file
+ * tagged with the hash of the model it was built from, so a changed model or
+ * config is never answered from a stale table.
+ *
+ * Every volume is quantized to one byte over its output range and the grid is
+ * stored row by row with the outputs of a point next to each other.
+ */
+public class VolumeLut implements PanningEngine {
+    private static final int magic = 0x53424c54; /* "SBLT" */
+    private static final int formatVersion = 1;
+    private static final int headerSize = 44;
+
+    private final MappedByteBuffer table;
+    private final int outputs;
+    private final int columns;
+    private final int rows;
+    private final int values;
+    private final float xMin;
+    private final float yMin;
+    private final float xStep;
+    private final float yStep;
+    private final float[] outputMin;
+    private final float[] outputScale;
+
+    private VolumeLut(MappedByteBuffer table) {
+        this.table = table;
+        this.outputs = table.getInt(16);
+        this.columns = table.getInt(20);
+        this.rows = table.getInt(24);
+        this.values = headerSize + outputs * 2 * Float.BYTES;
+        this.xMin = table.getFloat(28);
+        this.yMin = table.getFloat(36);
+        this.xStep = (table.getFloat(32) - xMin) / (columns - 1);
+        this.yStep = (table.getFloat(40) - yMin) / (rows - 1);
+
+        this.outputMin = new float[outputs];
+        this.outputScale = new float[outputs];
+        for (int o = 0; o < outputs; o++) {
+            int pos = headerSize + o * 2 * Float.BYTES;
+
+            outputMin[o] = table.getFloat(pos);
+            outputScale[o] = (table.getFloat(pos + Float.BYTES) - outputMin[o]) / 255f;
+        }
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * Size of the table file in bytes.
+     */
+    public int getSize() {
+        return table.capacity();
+    }
+
+    @Override
+    public void run(float[] input, float[] output) {
+        float fx = Math.max(0f, Math.min(columns - 1, (input[0] - xMin) / xStep));
+        float fy = Math.max(0f, Math.min(rows - 1, (input[1] - yMin) / yStep));
+        int column = Math.min((int) fx, columns - 2);
+        int row = Math.min((int) fy, rows - 2);
+        float tx = fx - column;
+        float ty = fy - row;
+        int p00 = values + (row * columns + column) * outputs;
+        int p01 = p00 + outputs;
+        int p10 = p00 + columns * outputs;
+        int p11 = p10 + outputs;
+
+        for (int o = 0; o < outputs; o++) {
+            float top = lerp(value(p00 + o), value(p01 + o), tx);
+            float bottom = lerp(value(p10 + o), value(p11 + o), tx);
+
+            output[o] = outputMin[o] + lerp(top, bottom, ty) * outputScale[o];
+        }
+    }
+
+    private float value(int pos) {
+        return table.get(pos) & 0xff;
+    }
+
+    private static float lerp(float a, float b, float t) {
+        return a + (b - a) * t;
+    }
+
+    /**
+     * Maps the table in file. Returns null when the file is missing, truncated or
+     * was built from a model with another hash, in which case it must be rebuilt.
+     */
+    public static VolumeLut open(File file, long hash) throws IOException {
+        if (!file.isFile() || file.length() < headerSize)
+            return null;
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            MappedByteBuffer table = raf.getChannel().map(FileChannel.MapMode.READ_ONLY,
+                    0, raf.length());
+
+            table.order(ByteOrder.LITTLE_ENDIAN);
+            if (table.getInt(0) != magic || table.getInt(4) != formatVersion ||
+                    table.getLong(8) != hash)
+                return null;
+
+            int outputs = table.getInt(16);
+            int columns = table.getInt(20);
+            int rows = table.getInt(24);
+
+            if (outputs < 1 || columns < 2 || rows < 2 || raf.length() !=
+                    headerSize + (long) outputs * 2 * Float.BYTES + (long) columns * rows * outputs)
+                return null;
+
+            return new VolumeLut(table);
+        }
+    }
+
+    /**
+     * Evaluates engine over the input ranges of config with a grid point every step
+     * units and writes the table to file. The file is replaced atomically so a
+     * reader never maps a half written table.
+     */
+    public static void build(File file, long hash, ModelConfig config, PanningEngine engine,
+                             float step) throws IOException {
+        if (config.getInputs().size() != 2)
+            throw new IllegalArgumentException("Lookup tables need a model with two inputs");
+
+        ModelConfig.Shape x = config.getInputs().get(0);
+        ModelConfig.Shape y = config.getInputs().get(1);
+        int outputs = config.getOutputs().size();
+        int columns = Math.max(2, (int) Math.ceil((x.getMax() - x.getMin()) / step) + 1);
+        int rows = Math.max(2, (int) Math.ceil((y.getMax() - y.getMin()) / step) + 1);
+        float[] input = new float[2];
+        float[] output = new float[outputs];
+        ByteBuffer buff = ByteBuffer.allocate(headerSize + outputs * 2 * Float.BYTES +
+                columns * rows * outputs).order(ByteOrder.LITTLE_ENDIAN);
+
+        buff.putInt(magic).putInt(formatVersion).putLong(hash);
+        buff.putInt(outputs).putInt(columns).putInt(rows);
+        buff.putFloat(x.getMin()).putFloat(x.getMax());
+        buff.putFloat(y.getMin()).putFloat(y.getMax());
+        for (ModelConfig.Shape shape : config.getOutputs())
+            buff.putFloat(shape.getMin()).putFloat(shape.getMax());
+
+        for (int row = 0; row < rows; row++) {
+            input[1] = y.getMin() + (y.getMax() - y.getMin()) * row / (float) (rows - 1);
+
+            for (int column = 0; column < columns; column++) {
+                input[0] = x.getMin() + (x.getMax() - x.getMin()) * column / (float) (columns - 1);
+                engine.run(input, output);
+
+                for (int o = 0; o < outputs; o++) {
+                    ModelConfig.Shape shape = config.getOutputs().get(o);
+                    float range = shape.getMax() - shape.getMin();
+                    float scaled = (range == 0) ? 0 : (output[o] - shape.getMin()) * 255f / range;
+
+                    buff.put((byte) Math.max(0, Math.min(255, Math.round(scaled))));
+                }
+            }
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+        try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw")) {
+            raf.setLength(0);
+            raf.write(buff.array());
+            raf.getFD().sync();
+        }
+
+        if (!tmp.renameTo(file))
+            throw new IOException("Failed to replace " + file);
+    }
+}
@@ -0,0 +1,33 @@
+package com.gradotech.soundbound;
+
+import java.lang.management.ManagementFactory;
+import java.util.function.IntConsumer;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a hot path runs on preallocated state. The rounds run once to warm up
+ * and once more counted, less than a byte a round leaves room for the JIT but not
+ * for an allocation per call.
+ */
+final class Allocations {
+    private static final int rounds = 100000;
+
+    private Allocations() {}
+
+    static void assertNoAllocation(IntConsumer round) {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        for (int i = 0; i < rounds; i++)
+            round.accept(i);
+
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < rounds; i++)
+            round.accept(i);
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+        assertTrue("Allocated " + allocated + " bytes", allocated < rounds);
+    }
+}
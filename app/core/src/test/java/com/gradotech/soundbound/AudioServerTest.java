@@ -0,0 +1,474 @@
+package com.gradotech.soundbound;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class AudioServerTest {
+    private static final int fileSize = 3 * 1024 * 1024 + 17;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private AudioServer server;
+    private byte[] song;
+
+    @Before
+    public void setUp() throws IOException {
+        File file = folder.newFile("song.mp3");
+
+        song = new byte[fileSize];
+        for (int i = 0; i < song.length; i++)
+            song[i] = (byte) (i * 31 + (i >> 8));
+        Files.write(file.toPath(), song);
+
+        server = new AudioServer(0);
+        server.setFilePath(file.getPath());
+        server.startServer();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    private HttpURLConnection open(String range) throws IOException {
+        URL url = new URL("http://127.0.0.1:" + server.getListeningPort() + "/stream");
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+
+        if (range != null)
+            connection.setRequestProperty("Range", range);
+
+        return connection;
+    }
+
+    private static byte[] readBody(HttpURLConnection connection) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buff = new byte[8192];
+        int n;
+
+        try (InputStream in = connection.getInputStream()) {
+            while ((n = in.read(buff)) > 0)
+                body.write(buff, 0, n);
+        }
+
+        return body.toByteArray();
+    }
+
+    @Test
+    public void stream_sendsWholeFileWithLength() throws IOException {
+        HttpURLConnection connection = open(null);
+
+        assertEquals(200, connection.getResponseCode());
+        assertEquals(String.valueOf(fileSize), connection.getHeaderField("Content-Length"));
+        assertEquals("bytes", connection.getHeaderField("Accept-Ranges"));
+        assertNull(connection.getHeaderField("Transfer-Encoding"));
+        assertArrayEquals(song, readBody(connection));
+    }
+
+    @Test
+    public void stream_sendsRequestedRange() throws IOException {
+        HttpURLConnection connection = open("bytes=1000-1999");
+
+        assertEquals(206, connection.getResponseCode());
+        assertEquals("bytes 1000-1999/" + fileSize, connection.getHeaderField("Content-Range"));
+        assertEquals("1000", connection.getHeaderField("Content-Length"));
+        assertArrayEquals(Arrays.copyOfRange(song, 1000, 2000), readBody(connection));
+    }
+
+    @Test
+    public void stream_resumesFromOffset() throws IOException {
+        HttpURLConnection connection = open("bytes=" + (fileSize - 100) + "-");
+
+        assertEquals(206, connection.getResponseCode());
+        assertArrayEquals(Arrays.copyOfRange(song, fileSize - 100, fileSize),
+                readBody(connection));
+    }
+
+    @Test
+    public void stream_sendsSuffixRange() throws IOException {
+        HttpURLConnection connection = open("bytes=-10");
+
+        assertEquals(206, connection.getResponseCode());
+        assertEquals("bytes " + (fileSize - 10) + "-" + (fileSize - 1) + "/" + fileSize,
+                connection.getHeaderField("Content-Range"));
+        assertArrayEquals(Arrays.copyOfRange(song, fileSize - 10, fileSize),
+                readBody(connection));
+    }
+
+    @Test
+    public void stream_rejectsRangePastEnd() throws IOException {
+        HttpURLConnection connection = open("bytes=" + fileSize + "-");
+
+        assertEquals(416, connection.getResponseCode());
+        assertEquals("bytes */" + fileSize, connection.getHeaderField("Content-Range"));
+    }
+
+    @Test
+    public void stream_answersHeadWithoutBody() throws IOException {
+        HttpURLConnection connection = open(null);
+
+        connection.setRequestMethod("HEAD");
+
+        assertEquals(200, connection.getResponseCode());
+        assertEquals(String.valueOf(fileSize), connection.getHeaderField("Content-Length"));
+        assertEquals(0, readBody(connection).length);
+    }
+
+    @Test
+    public void stream_keepsConnectionAliveBetweenRanges() throws IOException {
+        try (Socket socket = new Socket("127.0.0.1", server.getListeningPort())) {
+            OutputStream out = socket.getOutputStream();
+            InputStream in = socket.getInputStream();
+
+            for (int start = 0; start < 3000; start += 1500) {
+                String request = "GET /stream HTTP/1.1\r\nHost: localhost\r\n" +
+                        "Range: bytes=" + start + "-" + (start + 9) + "\r\n\r\n";
+
+                out.write(request.getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+
+                assertTrue(readHeaders(in).startsWith("HTTP/1.1 206"));
+
+                byte[] body = new byte[10];
+                for (int n = 0; n < body.length; )
+                    n += in.read(body, n, body.length - n);
+
+                assertArrayEquals(Arrays.copyOfRange(song, start, start + 10), body);
+            }
+        }
+    }
+
+    private static String readHeaders(InputStream in) throws IOException {
+        StringBuilder headers = new StringBuilder();
+
+        while (!headers.toString().endsWith("\r\n\r\n")) {
+            int c = in.read();
+
+            if (c < 0)
+                throw new IOException("Connection closed in headers");
+
+            headers.append((char) c);
+        }
+
+        return headers.toString();
+    }
+
+    @Test
+    public void broadcast_readsSongOnceForAllClients() throws Exception {
+        final int clients = 8;
+        List<Thread> threads = new ArrayList<>();
+        List<byte[]> bodies = Collections.synchronizedList(new ArrayList<>());
+
+        server.setBroadcast(true);
+
+        for (int i = 0; i < clients; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    bodies.add(readBody(open(null)));
+                } catch (IOException ignored) {}
+            });
+
+            thread.start();
+            threads.add(thread);
+        }
+
+        for (Thread thread : threads)
+            thread.join(10000);
+
+        /* Clients joining late get the same bytes from where the broadcast was */
+        assertEquals(clients, bodies.size());
+        for (byte[] body : bodies) {
+            assertTrue(body.length > 0);
+            assertArrayEquals(Arrays.copyOfRange(song, fileSize - body.length, fileSize), body);
+        }
+
+        assertEquals(fileSize, server.getBroadcastStream().getSourceBytes());
+    }
+
+    @Test
+    public void broadcast_answersHeadWithoutJoining() throws Exception {
+        server.setBroadcast(true);
+
+        HttpURLConnection head = open(null);
+        head.setRequestMethod("HEAD");
+
+        assertEquals(200, head.getResponseCode());
+        assertEquals("none", head.getHeaderField("Accept-Ranges"));
+        assertNull(head.getHeaderField("Content-Length"));
+        assertNull(server.getBroadcastStream());
+
+        /* The first client to play starts the broadcast from the top */
+        assertArrayEquals(song, readBody(open(null)));
+    }
+
+    private int[] playMp3(int seconds) throws IOException {
+        File file = folder.newFile("timed.mp3");
+        int[] bitrates = new int[(int) Math.ceil(seconds * 44100 / 1152.0)];
+
+        Arrays.fill(bitrates, 9);
+        song = Mp3FrameIndexTest.writeSong(file, bitrates, true, 0);
+        server.setIndexDir(folder.getRoot());
+        server.setFilePath(file.getPath());
+
+        return bitrates;
+    }
+
+    @Test
+    public void stream_seeksToTime() throws Exception {
+        playMp3(30);
+        Mp3FrameIndex index = Mp3FrameIndex.build(new File(folder.getRoot(), "timed.mp3"));
+        int offset = (int) index.getOffset(12);
+
+        assertTrue(offset > index.getAudioStart());
+
+        URL url = new URL("http://127.0.0.1:" + server.getListeningPort() + "/stream?t=12.5");
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+
+        assertEquals(200, connection.getResponseCode());
+        assertEquals(String.valueOf(song.length - offset),
+                connection.getHeaderField("Content-Length"));
+        assertArrayEquals(Arrays.copyOfRange(song, offset, song.length), readBody(connection));
+
+        /* The index was cached next to the other songs */
+        assertEquals(1, folder.getRoot().listFiles((dir, name) -> name.endsWith(".idx")).length);
+    }
+
+    @Test
+    public void stream_resumesWherePaused() throws Exception {
+        playMp3(30);
+
+        server.setPlayingStatus(true);
+        Thread.sleep(1100);
+        server.setPlayingStatus(false);
+
+        double position = server.getPlaybackPosition();
+        assertTrue(position >= 1.1 && position < 5);
+
+        Mp3FrameIndex index = Mp3FrameIndex.build(new File(folder.getRoot(), "timed.mp3"));
+        int offset = (int) index.getOffset(position);
+
+        assertArrayEquals(Arrays.copyOfRange(song, offset, song.length), readBody(open(null)));
+
+        /* Another song starts from its beginning */
+        server.setFilePath(new File(folder.getRoot(), "song.mp3").getPath());
+        assertEquals(0, server.getPlaybackPosition(), 0);
+    }
+
+    @Test
+    public void stream_pacesAtBitrate() throws Exception {
+        playMp3(6);
+        server.setPacing(true);
+
+        long start = System.nanoTime();
+        readBody(open(null));
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        /* Three seconds go out at once, the other three in real time */
+        assertTrue("Took " + elapsed, elapsed > 2.5 && elapsed < 4.5);
+    }
+
+    /* A song of the given seconds with an ID3 tag and a Xing frame around its audio */
+    private byte[] writeTrack(String name, int bitrateIndex, double seconds) throws IOException {
+        int[] bitrates = new int[(int) Math.ceil(seconds * 44100 / 1152.0)];
+
+        Arrays.fill(bitrates, bitrateIndex);
+        return Mp3FrameIndexTest.writeSong(folder.newFile(name), bitrates, true, 300);
+    }
+
+    private byte[] audioOf(String name, byte[] track) throws IOException {
+        Mp3FrameIndex index = Mp3FrameIndex.build(new File(folder.getRoot(), name));
+
+        return Arrays.copyOfRange(track, index.getAudioStart(), index.getAudioEnd());
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] both = Arrays.copyOf(first, first.length + second.length);
+
+        System.arraycopy(second, 0, both, first.length, second.length);
+
+        return both;
+    }
+
+    private String path(String name) {
+        return new File(folder.getRoot(), name).getPath();
+    }
+
+    @Test
+    public void playlist_streamsSongsBackToBackWithoutTags() throws Exception {
+        byte[] first = writeTrack("first.mp3", 9, 2);
+        byte[] second = writeTrack("second.mp3", 5, 2);
+
+        server.setIndexDir(folder.getRoot());
+        server.setPlaylist(Arrays.asList(path("first.mp3"), path("second.mp3")));
+
+        HttpURLConnection connection = open(null);
+
+        assertEquals(200, connection.getResponseCode());
+        assertNull(connection.getHeaderField("Content-Length"));
+        assertArrayEquals(concat(audioOf("first.mp3", first), audioOf("second.mp3", second)),
+                readBody(connection));
+    }
+
+    @Test
+    public void playlist_answersHeadWithoutStarting() throws Exception {
+        writeTrack("first.mp3", 9, 2);
+
+        server.setIndexDir(folder.getRoot());
+        server.setPlaylist(Arrays.asList(path("first.mp3")));
+
+        HttpURLConnection connection = open(null);
+        connection.setRequestMethod("HEAD");
+
+        assertEquals(200, connection.getResponseCode());
+        assertEquals("none", connection.getHeaderField("Accept-Ranges"));
+        assertEquals(0, readBody(connection).length);
+        assertNull(server.getBroadcastStream());
+    }
+
+    @Test
+    public void playlist_seeksAcrossSongs() throws Exception {
+        writeTrack("first.mp3", 9, 2);
+        byte[] second = writeTrack("second.mp3", 5, 5);
+        Mp3FrameIndex firstIndex = Mp3FrameIndex.build(new File(folder.getRoot(), "first.mp3"));
+        Mp3FrameIndex secondIndex = Mp3FrameIndex.build(new File(folder.getRoot(), "second.mp3"));
+
+        server.setIndexDir(folder.getRoot());
+        server.setPlaylist(Arrays.asList(path("first.mp3"), path("second.mp3")));
+
+        /* 1.5 s into the second song, its audio from the start of second 1 */
+        double seconds = firstIndex.getDurationMs() / 1000.0 + 1.5;
+        URL url = new URL("http://127.0.0.1:" + server.getListeningPort() + "/stream?t=" + seconds);
+        int offset = (int) secondIndex.getOffset(1);
+
+        assertTrue(offset > secondIndex.getAudioStart());
+        assertArrayEquals(Arrays.copyOfRange(second, offset, secondIndex.getAudioEnd()),
+                readBody((HttpURLConnection) url.openConnection()));
+
+        /* The same playlist again keeps playing, a new one starts over */
+        server.setPlaylist(Arrays.asList(path("first.mp3"), path("second.mp3")));
+        Playlist playlist = server.getPlaylist();
+        server.setPlaylist(Arrays.asList(path("second.mp3")));
+        assertNotSame(playlist, server.getPlaylist());
+        assertEquals(0, server.getPlaybackPosition(), 0);
+    }
+
+    /*
+     * Plays a 4 s song into a 1 s one whose index takes 400 ms to load, paced, and
+     * returns the ms between the last byte of the first song and the first byte of
+     * the second one reaching a local client.
+     */
+    private double boundaryGapMs(int prefetchBytes) throws Exception {
+        String suffix = prefetchBytes + ".mp3";
+        byte[] first = audioOf("first" + suffix, writeTrack("first" + suffix, 1, 4));
+        byte[] second = audioOf("second" + suffix, writeTrack("second" + suffix, 2, 1));
+        Playlist playlist = new Playlist(song -> {
+            try {
+                if (song.getName().startsWith("second"))
+                    Thread.sleep(400);
+                return Mp3FrameIndex.build(song);
+            } catch (IOException | InterruptedException e) {
+                return null;
+            }
+        }, prefetchBytes);
+
+        playlist.add(path("first" + suffix));
+        playlist.add(path("second" + suffix));
+        server.setPacing(true);
+        server.setPlaylist(playlist);
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        long lastFirst = 0;
+        long firstSecond = 0;
+
+        try (Socket socket = new Socket("127.0.0.1", server.getListeningPort())) {
+            InputStream in = socket.getInputStream();
+            byte[] buff = new byte[4096];
+            int n;
+
+            socket.getOutputStream().write("GET /stream HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                    .getBytes(StandardCharsets.US_ASCII));
+            assertTrue(readHeaders(in).startsWith("HTTP/1.1 200"));
+
+            while ((n = in.read(buff)) > 0) {
+                long now = System.nanoTime();
+
+                if (body.size() < first.length)
+                    lastFirst = now;
+                body.write(buff, 0, n);
+                if (body.size() > first.length && firstSecond == 0)
+                    firstSecond = now;
+            }
+        }
+
+        assertArrayEquals(concat(first, second), body.toByteArray());
+
+        return (firstSecond - lastFirst) / 1e6;
+    }
+
+    @Test
+    public void playlist_prefetchesTheNextSongBeforeTheBoundary() throws Exception {
+        double prefetched = boundaryGapMs(64 * 1024);
+        double opened = boundaryGapMs(0);
+
+        /* Pacing lets out a tenth of a second at a time, the slow index shows on top */
+        assertTrue("Gap of " + prefetched + " ms", prefetched < 200);
+        assertTrue("Gap of " + opened + " ms", opened > 350);
+    }
+
+    @Test
+    public void metrics_servesStagesAndCountersAsJson() throws IOException {
+        URL url = new URL("http://127.0.0.1:" + server.getListeningPort() + "/metrics");
+        PipelineMetrics metrics = new PipelineMetrics();
+
+        assertEquals("Invalid URL", new String(readBody((HttpURLConnection) url.openConnection()),
+                StandardCharsets.UTF_8));
+
+        metrics.record(PipelineMetrics.Stage.PREDICT, 1500);
+        metrics.addCounter("commands_sent", () -> 42);
+        server.setMetrics(metrics);
+
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        String json = new String(readBody(connection), StandardCharsets.UTF_8);
+
+        assertEquals("application/json", connection.getContentType());
+        assertTrue(json, json.startsWith("{\"stages\":{\"scan\":{\"count\":0,"));
+        assertTrue(json, json.contains("\"predict\":{\"count\":1,\"p50_us\":1.5,"));
+        assertTrue(json, json.endsWith("\"counters\":{\"commands_sent\":42}}"));
+    }
+
+    @Test
+    public void parseRange_handlesHeaderForms() {
+        assertNull(AudioServer.parseRange(null, 100));
+        assertNull(AudioServer.parseRange("bytes=0-1,5-6", 100));
+        assertNull(AudioServer.parseRange("items=0-1", 100));
+        assertNull(AudioServer.parseRange("bytes=9-3", 100));
+        assertNull(AudioServer.parseRange("bytes=x-3", 100));
+
+        assertArrayEquals(new long[] { 10, 99 }, AudioServer.parseRange("bytes=10-", 100));
+        assertArrayEquals(new long[] { 10, 99 }, AudioServer.parseRange("bytes=10-500", 100));
+        assertArrayEquals(new long[] { 0, 99 }, AudioServer.parseRange("bytes=-500", 100));
+
+        long[] unsatisfiable = AudioServer.parseRange("bytes=100-", 100);
+        assertTrue(unsatisfiable[0] > unsatisfiable[1]);
+    }
+}
@@ -0,0 +1,52 @@
+package com.gradotech.soundbound;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BackoffTest {
+    @Test
+    public void next_doublesWithinJitterUpToMax() {
+        Backoff backoff = new Backoff(100, 1000, new Random(1));
+        long[] caps = { 100, 200, 400, 800, 1000, 1000, 1000 };
+
+        for (long cap : caps) {
+            long delay = backoff.next();
+
+            assertTrue(delay + " for " + cap, delay >= cap / 2 && delay <= cap);
+        }
+        assertEquals(caps.length, backoff.getAttempts());
+
+        backoff.reset();
+        assertTrue(backoff.next() <= 100);
+    }
+
+    @Test
+    public void next_spreadsDelays() {
+        Backoff first = new Backoff(1000, 1000, new Random(1));
+        Backoff second = new Backoff(1000, 1000, new Random(2));
+        int same = 0;
+
+        for (int i = 0; i < 20; i++) {
+            if (first.next() == second.next())
+                same++;
+        }
+
+        assertTrue(same < 5);
+    }
+
+    @Test
+    public void next_neverOverflows() {
+        Backoff backoff = new Backoff(1, Long.MAX_VALUE / 4, new Random(3));
+
+        for (int i = 0; i < 100; i++)
+            assertTrue(backoff.next() > 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_rejectsMaxBelowBase() {
+        new Backoff(100, 50);
+    }
+}
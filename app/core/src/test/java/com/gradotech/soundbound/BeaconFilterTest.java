@@ -0,0 +1,106 @@
+package com.gradotech.soundbound;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BeaconFilterTest {
+    private static final String[] specs = { "average:5", "exponential:0.2", "kalman:0.005:0.09" };
+
+    @Test
+    public void movingAverage_averagesTheLastWindow() {
+        BeaconFilter filter = BeaconFilter.parse("average:3");
+
+        assertEquals(1f, filter.update(1f), 1e-6f);
+        assertEquals(1.5f, filter.update(2f), 1e-6f);
+        assertEquals(2f, filter.update(3f), 1e-6f);
+        assertEquals(3f, filter.update(4f), 1e-6f);
+
+        filter.reset();
+        assertEquals(7f, filter.update(7f), 1e-6f);
+    }
+
+    @Test
+    public void update_startsAtTheFirstDistance() {
+        for (String spec : specs)
+            assertEquals(spec, 2.5f, BeaconFilter.parse(spec).update(2.5f), 1e-6f);
+    }
+
+    @Test
+    public void update_reducesTheJitterOfAStillListener() {
+        for (String spec : specs) {
+            BeaconFilter filter = BeaconFilter.parse(spec);
+            Random random = new Random(7);
+            double raw = 0;
+            double filtered = 0;
+
+            for (int i = 0; i < 20; i++)
+                filter.update(2f + (float) random.nextGaussian() * 0.3f);
+
+            for (int i = 0; i < 1000; i++) {
+                float distance = 2f + (float) random.nextGaussian() * 0.3f;
+                float smoothed = filter.update(distance);
+
+                raw += (distance - 2f) * (distance - 2f);
+                filtered += (smoothed - 2f) * (smoothed - 2f);
+            }
+
+            assertTrue(spec + " kept " + filtered / raw + " of the variance",
+                    filtered < raw / 3);
+        }
+    }
+
+    @Test
+    public void update_followsAListenerThatMoved() {
+        for (String spec : specs) {
+            BeaconFilter filter = BeaconFilter.parse(spec);
+
+            for (int i = 0; i < 10; i++)
+                filter.update(1f);
+
+            float distance = 0;
+            for (int i = 0; i < 50; i++)
+                distance = filter.update(3f);
+
+            assertEquals(spec, 3f, distance, 0.1f);
+        }
+    }
+
+    @Test
+    public void getLag_matchesHowFarASteadyWalkTrails() {
+        for (String spec : specs) {
+            BeaconFilter filter = BeaconFilter.parse(spec);
+            float distance = 0;
+            int i;
+
+            /* 5 cm per update, the output settles at lag updates behind */
+            for (i = 0; i < 500; i++)
+                distance = filter.update(i * 0.05f);
+
+            assertEquals(spec, filter.getLag(), ((i - 1) * 0.05f - distance) / 0.05f, 0.05f);
+        }
+
+        assertEquals(0, BeaconFilter.parse("none").getLag(), 0);
+        assertEquals(4, BeaconFilter.parse("exponential:0.2").getLag(), 1e-6f);
+    }
+
+    @Test
+    public void parse_acceptsNoneAndNull() {
+        assertEquals(1.23f, BeaconFilter.parse(null).update(1.23f), 0);
+        assertEquals(1.23f, BeaconFilter.parse("none").update(1.23f), 0);
+    }
+
+    @Test
+    public void parse_rejectsBadSpecs() {
+        for (String spec : new String[] { "", "median:3", "average", "average:0", "average:x",
+                "exponential:0", "exponential:1.5", "kalman:0.1", "kalman:0:1", "none:1" }) {
+            try {
+                BeaconFilter.parse(spec);
+                fail(spec);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+}
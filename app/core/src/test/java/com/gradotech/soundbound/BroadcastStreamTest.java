@@ -0,0 +1,164 @@
+package com.gradotech.soundbound;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class BroadcastStreamTest {
+    private static final int songSize = 2 * 1024 * 1024 + 5;
+    private static final int capacity = 64 * 1024;
+
+    /* Counts what the broadcast really reads from the source */
+    private static class CountingSource implements ReadableByteChannel {
+        private final ReadableByteChannel source;
+        private final AtomicLong bytes = new AtomicLong();
+
+        CountingSource(byte[] song) {
+            this.source = Channels.newChannel(new ByteArrayInputStream(song));
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            int n = source.read(dst);
+
+            if (n > 0)
+                bytes.addAndGet(n);
+
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return source.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            source.close();
+        }
+    }
+
+    private static class Client extends Thread {
+        private final BroadcastStream.Subscriber subscriber;
+        private final ByteArrayOutputStream received = new ByteArrayOutputStream();
+        private volatile IOException error;
+
+        Client(BroadcastStream.Subscriber subscriber) {
+            this.subscriber = subscriber;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            WritableByteChannel target = Channels.newChannel(received);
+
+            try {
+                int n;
+
+                do {
+                    n = subscriber.transferTo(target);
+                } while (n >= 0);
+            } catch (IOException e) {
+                error = e;
+            } finally {
+                subscriber.close();
+            }
+        }
+    }
+
+    private static byte[] song() {
+        byte[] song = new byte[songSize];
+
+        for (int i = 0; i < song.length; i++)
+            song[i] = (byte) (i * 7 + (i >> 10));
+
+        return song;
+    }
+
+    @Test
+    public void subscribers_shareOneReadOfTheSource() throws Exception {
+        byte[] song = song();
+
+        for (int clients : new int[] { 1, 4, 16 }) {
+            CountingSource source = new CountingSource(song);
+            List<Client> threads = new ArrayList<>();
+
+            try (BroadcastStream stream = new BroadcastStream(source, capacity, 5000)) {
+                for (int i = 0; i < clients; i++)
+                    threads.add(new Client(stream.subscribe()));
+                for (Client client : threads)
+                    client.start();
+                for (Client client : threads)
+                    client.join(10000);
+
+                for (Client client : threads) {
+                    assertNull(client.error);
+                    assertArrayEquals(song, client.received.toByteArray());
+                }
+
+                /* Same disk reads and the same ring whatever the number of clients */
+                assertEquals(songSize, source.bytes.get());
+                assertEquals(songSize, stream.getSourceBytes());
+                assertEquals(capacity, stream.getCapacity());
+                assertTrue(stream.isFinished());
+            }
+        }
+    }
+
+    @Test
+    public void stalledSubscriber_isDroppedAndOthersFinish() throws Exception {
+        byte[] song = song();
+
+        try (BroadcastStream stream = new BroadcastStream(new CountingSource(song), 1024, 100)) {
+            BroadcastStream.Subscriber stalled = stream.subscribe();
+            Client client = new Client(stream.subscribe());
+
+            client.start();
+            client.join(10000);
+
+            assertNull(client.error);
+            assertArrayEquals(song, client.received.toByteArray());
+            assertEquals(1, stream.getDroppedCount());
+
+            try {
+                stalled.transferTo(Channels.newChannel(new ByteArrayOutputStream()));
+                fail("A dropped subscriber must not read");
+            } catch (IOException expected) {}
+        }
+    }
+
+    @Test
+    public void lateSubscriber_joinsAtSlowestCursor() throws Exception {
+        byte[] song = song();
+
+        try (BroadcastStream stream = new BroadcastStream(new CountingSource(song), capacity, 5000)) {
+            BroadcastStream.Subscriber first = stream.subscribe();
+            ByteArrayOutputStream sink = new ByteArrayOutputStream();
+
+            /* Let the first subscriber consume some of the ring */
+            int consumed = 0;
+            while (consumed < 1000)
+                consumed += first.transferTo(Channels.newChannel(sink));
+
+            BroadcastStream.Subscriber late = stream.subscribe();
+
+            assertEquals(first.getPosition(), late.getPosition());
+            assertEquals(2, stream.getSubscriberCount());
+
+            first.close();
+            late.close();
+            assertEquals(0, stream.getSubscriberCount());
+        }
+    }
+}
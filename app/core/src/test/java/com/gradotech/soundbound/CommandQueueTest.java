@@ -0,0 +1,58 @@
+package com.gradotech.soundbound;
+
+import org.junit.Test;
+
+
+import static org.junit.Assert.*;
+
+public class CommandQueueTest {
+    @Test
+    public void offerVolume_latestValueWins() {
+        CommandQueue queue = new CommandQueue(new byte[] { 'a', 'b' });
+
+        assertTrue(queue.offerVolume((byte) 'a', (byte) 10));
+        assertTrue(queue.offerVolume((byte) 'b', (byte) 20));
+        assertTrue(queue.offerVolume((byte) 'a', (byte) 30));
+        assertFalse(queue.offerVolume((byte) 'z', (byte) 40));
+
+        assertEquals(30, queue.pollVolume(0));
+        assertEquals(20, queue.pollVolume(1));
+        assertEquals(CommandQueue.EMPTY, queue.pollVolume(0));
+        assertEquals(1, queue.getCoalescedCount());
+        assertEquals(1, queue.getDroppedCount());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void offerControl_keepsOrderAndBound() {
+        CommandQueue queue = new CommandQueue(new byte[] { 'a' });
+        int accepted = 0;
+
+        while (queue.offerControl((byte) (3 + accepted % 2)))
+            accepted++;
+
+        assertEquals(16, accepted);
+        assertFalse(queue.isEmpty());
+
+        for (int i = 0; i < accepted; i++)
+            assertEquals(3 + i % 2, queue.pollControl());
+
+        assertEquals(CommandQueue.EMPTY, queue.pollControl());
+        assertTrue(queue.offerControl((byte) 3));
+        assertEquals(3, queue.pollControl());
+    }
+
+    @Test
+    public void offer_doesNotAllocate() {
+        CommandQueue queue = new CommandQueue(new byte[] { 'a', 'b', 'c', 'd' });
+
+        Allocations.assertNoAllocation(i -> exercise(queue, i));
+    }
+
+    private static void exercise(CommandQueue queue, int i) {
+        queue.offerVolume((byte) ('a' + i % 4), (byte) i);
+        queue.offerControl((byte) 3);
+        queue.pollControl();
+        queue.pollVolume(i % 4);
+    }
+}
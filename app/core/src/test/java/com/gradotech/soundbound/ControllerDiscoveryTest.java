@@ -0,0 +1,123 @@
+package com.gradotech.soundbound;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * The broadcast address is a loopback stub that answers like the firmware's
+ * answerDiscovery().
+ */
+public class ControllerDiscoveryTest {
+    private static class StubResponder extends Thread {
+        private final DatagramSocket socket;
+        private final int tcpPort;
+        private final int ignored;
+        private final AtomicInteger requests = new AtomicInteger();
+
+        /* Drops the first ignored requests like a lossy WiFi would */
+        StubResponder(int tcpPort, int ignored) throws IOException {
+            this.socket = new DatagramSocket(new InetSocketAddress("127.0.0.1", 0));
+            this.tcpPort = tcpPort;
+            this.ignored = ignored;
+
+            setDaemon(true);
+            start();
+        }
+
+        InetSocketAddress getAddress() {
+            return (InetSocketAddress) socket.getLocalSocketAddress();
+        }
+
+        @Override
+        public void run() {
+            byte[] buff = new byte[64];
+
+            try {
+                while (true) {
+                    DatagramPacket request = new DatagramPacket(buff, buff.length);
+                    socket.receive(request);
+
+                    if (request.getLength() != 1 || buff[0] != Soundbound.SB_DISCOVER ||
+                            requests.incrementAndGet() <= ignored)
+                        continue;
+
+                    ByteBuffer answer = ByteBuffer.allocate(Soundbound.DiscoveryPacket.SIZE);
+                    Soundbound.DiscoveryPacket.encode(answer, tcpPort, 0, 3,
+                                                      new byte[] { 'a' }, "Stub");
+
+                    /* Noise and a duplicate must not show up in the result */
+                    socket.send(new DatagramPacket(new byte[] { 1, 2, 3 }, 3,
+                                                   request.getSocketAddress()));
+                    socket.send(new DatagramPacket(answer.array(), answer.capacity(),
+                                                   request.getSocketAddress()));
+                    socket.send(new DatagramPacket(answer.array(), answer.capacity(),
+                                                   request.getSocketAddress()));
+                }
+            } catch (IOException e) {
+                /* Closed */
+            }
+        }
+
+        void shutdown() {
+            socket.close();
+        }
+    }
+
+    private StubResponder responder;
+
+    @After
+    public void tearDown() {
+        if (responder != null)
+            responder.shutdown();
+    }
+
+    @Test
+    public void discover_returnsTcpAddressOfEachController() throws IOException {
+        responder = new StubResponder(4321, 0);
+
+        long start = System.nanoTime();
+        List<InetSocketAddress> found =
+                new ControllerDiscovery(responder.getAddress(), 2000, 50).discover();
+        long elapsedMs = (System.nanoTime() - start) / 1000000;
+
+        assertEquals(Collections.singletonList(new InetSocketAddress("127.0.0.1", 4321)),
+                     found);
+        /* Settles shortly after the answer instead of waiting for the timeout */
+        assertTrue("Took " + elapsedMs + " ms", elapsedMs < 1000);
+    }
+
+    @Test
+    public void discover_resendsWhenTheFirstRequestIsLost() throws IOException {
+        responder = new StubResponder(4321, 1);
+
+        List<InetSocketAddress> found =
+                new ControllerDiscovery(responder.getAddress(), 400, 50).discover();
+
+        assertEquals(1, found.size());
+        assertEquals(2, responder.requests.get());
+    }
+
+    @Test
+    public void discover_returnsNothingAfterTheTimeout() throws IOException {
+        responder = new StubResponder(4321, Integer.MAX_VALUE);
+
+        long start = System.nanoTime();
+        List<InetSocketAddress> found =
+                new ControllerDiscovery(responder.getAddress(), 200, 50).discover();
+        long elapsedMs = (System.nanoTime() - start) / 1000000;
+
+        assertTrue(found.isEmpty());
+        assertTrue("Took " + elapsedMs + " ms", elapsedMs >= 190);
+    }
+}
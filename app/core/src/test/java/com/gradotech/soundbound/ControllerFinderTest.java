@@ -0,0 +1,237 @@
+package com.gradotech.soundbound;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the finder against a loopback stand-in that answers discovery over UDP and
+ * the handshake over TCP like the firmware.
+ */
+public class ControllerFinderTest {
+    private static class StandIn extends Thread {
+        private final ServerSocket server;
+        private final DatagramSocket discovery;
+        private final List<Socket> clients = Collections.synchronizedList(new ArrayList<>());
+        private final AtomicInteger requests = new AtomicInteger();
+
+        StandIn() throws IOException {
+            server = new ServerSocket();
+            server.bind(new InetSocketAddress("127.0.0.1", 0));
+            discovery = new DatagramSocket(new InetSocketAddress("127.0.0.1", 0));
+
+            Thread responder = new Thread(this::answerDiscovery);
+            responder.setDaemon(true);
+            responder.start();
+
+            setDaemon(true);
+            start();
+        }
+
+        @Override
+        public void run() {
+            ByteBuffer qdata = ByteBuffer.allocate(Soundbound.QDataPacket.SIZE);
+            Soundbound.QDataPacket.encode(qdata, 0, 3, new byte[] { 'a', 'b' }, "Stub");
+
+            try {
+                while (true) {
+                    Socket client = server.accept();
+
+                    client.getOutputStream().write(qdata.array());
+                    clients.add(client);
+                }
+            } catch (IOException e) {
+                /* Closed */
+            }
+        }
+
+        private void answerDiscovery() {
+            byte[] buff = new byte[16];
+            ByteBuffer answer = ByteBuffer.allocate(Soundbound.DiscoveryPacket.SIZE);
+            Soundbound.DiscoveryPacket.encode(answer, server.getLocalPort(), 0, 3,
+                                              new byte[] { 'a', 'b' }, "Stub");
+
+            try {
+                while (true) {
+                    DatagramPacket request = new DatagramPacket(buff, buff.length);
+                    discovery.receive(request);
+                    requests.incrementAndGet();
+
+                    discovery.send(new DatagramPacket(answer.array(), answer.capacity(),
+                                                      request.getSocketAddress()));
+                }
+            } catch (IOException e) {
+                /* Closed */
+            }
+        }
+
+        InetSocketAddress getTcpAddress() {
+            return (InetSocketAddress) server.getLocalSocketAddress();
+        }
+
+        InetSocketAddress getUdpAddress() {
+            return (InetSocketAddress) discovery.getLocalSocketAddress();
+        }
+
+        void shutdown() throws IOException {
+            server.close();
+            discovery.close();
+            synchronized (clients) {
+                for (Socket client : clients)
+                    client.close();
+            }
+        }
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private StandIn standIn;
+    private File cacheFile;
+    private final List<ControllerScanner.Controller> found = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        standIn = new StandIn();
+        cacheFile = new File(folder.getRoot(), "controllers");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (ControllerScanner.Controller controller : found)
+            controller.getChannel().close();
+
+        standIn.shutdown();
+    }
+
+    private int find(ControllerFinder finder, List<ControllerFinder.Source> sources)
+            throws IOException {
+        return finder.find(controller -> {
+            found.add(controller);
+            return true;
+        }, sources);
+    }
+
+    /* The range never holds the stand-in unless scanPort is its port */
+    private ControllerFinder finder(int scanPort, boolean discover) {
+        ControllerFinder finder = new ControllerFinder(
+                new ControllerScanner(scanPort, Soundbound.QDataPacket.SIZE, 300),
+                AddressRange.parse("127.0.0.1-1", ""));
+
+        if (discover)
+            finder.setDiscovery(new ControllerDiscovery(standIn.getUdpAddress(), 500, 20));
+        finder.setCache(new ControllerCache(cacheFile), 300);
+
+        return finder;
+    }
+
+    private static int closedPort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    @Test
+    public void find_coldStartDiscoversAndCachesTheController() throws IOException {
+        List<ControllerFinder.Source> sources = new ArrayList<>();
+
+        assertEquals(1, find(finder(closedPort(), true), sources));
+        assertEquals(Collections.singletonList(ControllerFinder.Source.DISCOVERY), sources);
+        assertEquals(standIn.getTcpAddress(), found.get(0).getAddress());
+
+        List<ControllerCache.Entry> cached = new ControllerCache(cacheFile).load();
+        assertEquals(1, cached.size());
+        assertEquals(standIn.getTcpAddress(), cached.get(0).getAddress());
+        assertArrayEquals(new byte[] { 'a', 'b' }, cached.get(0).getSpeakerIds());
+    }
+
+    @Test
+    public void find_warmStartConnectsToTheCachedControllerOnly() throws IOException {
+        find(finder(closedPort(), true), null);
+        found.get(0).getChannel().close();
+
+        List<ControllerFinder.Source> sources = new ArrayList<>();
+        int requests = standIn.requests.get();
+
+        assertEquals(1, find(finder(closedPort(), true), sources));
+        assertEquals(Collections.singletonList(ControllerFinder.Source.CACHE), sources);
+        /* Every cached board answered, no broadcast needed */
+        assertEquals(requests, standIn.requests.get());
+        assertEquals(2, standIn.clients.size());
+    }
+
+    @Test
+    public void find_staleCacheFallsThroughToDiscovery() throws IOException {
+        InetSocketAddress stale = new InetSocketAddress("127.0.0.1", closedPort());
+        ControllerCache cache = new ControllerCache(cacheFile);
+        cache.save(Collections.singletonList(
+                new ControllerCache.Entry(stale, new byte[] { 'z' })));
+
+        List<ControllerFinder.Source> sources = new ArrayList<>();
+
+        assertEquals(1, find(finder(closedPort(), true), sources));
+        assertEquals(Collections.singletonList(ControllerFinder.Source.DISCOVERY), sources);
+
+        /* The board that answered goes first, the stale one is kept behind it */
+        List<ControllerCache.Entry> cached = cache.load();
+        assertEquals(Arrays.asList(standIn.getTcpAddress(), stale),
+                     Arrays.asList(cached.get(0).getAddress(), cached.get(1).getAddress()));
+    }
+
+    @Test
+    public void find_forgetsTheOldAddressOfAMovedBoard() throws IOException {
+        InetSocketAddress old = new InetSocketAddress("127.0.0.1", closedPort());
+        ControllerCache cache = new ControllerCache(cacheFile);
+        cache.save(Collections.singletonList(
+                new ControllerCache.Entry(old, new byte[] { 'b', 'a' })));
+
+        find(finder(closedPort(), true), null);
+
+        List<ControllerCache.Entry> cached = cache.load();
+        assertEquals(1, cached.size());
+        assertEquals(standIn.getTcpAddress(), cached.get(0).getAddress());
+    }
+
+    @Test
+    public void find_fallsBackToTheRangeWithoutDiscovery() throws IOException {
+        List<ControllerFinder.Source> sources = new ArrayList<>();
+
+        assertEquals(1, find(finder(standIn.getTcpAddress().getPort(), false), sources));
+        assertEquals(Collections.singletonList(ControllerFinder.Source.RANGE), sources);
+    }
+
+    @Test
+    public void cache_ignoresBrokenFiles() throws IOException {
+        try (FileOutputStream out = new FileOutputStream(cacheFile)) {
+            out.write(new byte[] { 'S', 'B', 'C', 'C', 0, 0, 0, 1, 0, 0, 0, 5, 4 });
+        }
+
+        assertTrue(new ControllerCache(cacheFile).load().isEmpty());
+        assertTrue(new ControllerCache(new File(folder.getRoot(), "none")).load().isEmpty());
+
+        /* A negative count is as broken as a bad magic number */
+        try (FileOutputStream out = new FileOutputStream(cacheFile)) {
+            out.write(new byte[] { 'S', 'B', 'C', 'C', 0, 0, 0, 1, (byte) 0xff, 0, 0, 0 });
+        }
+        assertTrue(new ControllerCache(cacheFile).load().isEmpty());
+    }
+}
@@ -0,0 +1,289 @@
+package com.gradotech.soundbound;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class ControllerPoolTest {
+    private static class StubController extends Thread {
+        private final Socket socket;
+        private final ByteArrayOutputStream received = new ByteArrayOutputStream();
+        private final AtomicLong count = new AtomicLong();
+
+        StubController(Socket socket) {
+            this.socket = socket;
+            setDaemon(true);
+            start();
+        }
+
+        @Override
+        public void run() {
+            byte[] buff = new byte[4096];
+
+            try (InputStream in = socket.getInputStream()) {
+                int n;
+
+                while ((n = in.read(buff)) > 0) {
+                    synchronized (received) {
+                        received.write(buff, 0, n);
+                    }
+                    count.addAndGet(n);
+                }
+            } catch (IOException ignored) {}
+        }
+
+        byte[] awaitBytes(int length) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 2000;
+
+            while (count.get() < length && System.currentTimeMillis() < deadline)
+                Thread.sleep(1);
+
+            synchronized (received) {
+                return received.toByteArray();
+            }
+        }
+    }
+
+    private ServerSocket server;
+    private ControllerPool pool;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new ServerSocket();
+        server.bind(new InetSocketAddress("127.0.0.1", 0));
+
+        pool = new ControllerPool();
+        pool.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        pool.close();
+        pool.join();
+        server.close();
+    }
+
+    /* Version 0.1 boards get one SB_SET_VOLUME packet per speaker */
+    private StubController connect(byte... speakerIds) throws IOException {
+        return connect(0, 1, speakerIds);
+    }
+
+    private StubController connect(int major, int minor, byte... speakerIds)
+            throws IOException {
+        SocketChannel channel = SocketChannel.open(server.getLocalSocketAddress());
+        StubController stub = new StubController(server.accept());
+
+        pool.addController(channel, speakerIds, major, minor);
+
+        return stub;
+    }
+
+    private static byte[] volumeCmd(int id, int volume) {
+        return new byte[] { 2, (byte) id, (byte) volume, 0 };
+    }
+
+    @Test
+    public void emitCommand_routesVolumesBySpeakerId() throws Exception {
+        StubController first = connect((byte) 'a', (byte) 'b');
+        StubController second = connect((byte) 'c');
+
+        assertTrue(pool.emitCommand(volumeCmd('a', 10)));
+        assertTrue(pool.emitCommand(volumeCmd('c', 20)));
+        assertFalse(pool.emitCommand(volumeCmd('z', 40)));
+
+        assertArrayEquals(new byte[] { 2, 'a', 10, 0 }, first.awaitBytes(4));
+        assertArrayEquals(new byte[] { 2, 'c', 20, 0 }, second.awaitBytes(4));
+
+        assertTrue(pool.emitCommand(new byte[] { 3 }));
+
+        assertArrayEquals(new byte[] { 2, 'a', 10, 0, 3 }, first.awaitBytes(5));
+        assertArrayEquals(new byte[] { 2, 'c', 20, 0, 3 }, second.awaitBytes(5));
+        assertEquals(1, pool.getDroppedCount());
+    }
+
+    @Test
+    public void emitVolume_endsOnLatestVolumeAndKeepsControlOrder() throws Exception {
+        StubController stub = connect((byte) 'a', (byte) 'b');
+
+        pool.emitControl((byte) 3);
+        for (int volume = 0; volume <= 100; volume++) {
+            pool.emitVolume((byte) 'a', (byte) volume);
+            pool.emitVolume((byte) 'b', (byte) (100 - volume));
+        }
+        pool.emitControl((byte) 4);
+
+        /* Wait until the last volume of both speakers and both controls arrived */
+        long deadline = System.currentTimeMillis() + 2000;
+        int[] last = new int[256];
+        ByteArrayOutputStream controls = new ByteArrayOutputStream();
+
+        while (System.currentTimeMillis() < deadline) {
+            byte[] received = stub.awaitBytes(0);
+
+            controls.reset();
+            for (int i = 0; i < received.length; ) {
+                if (received[i] == 2 && i + 3 < received.length) {
+                    last[received[i + 1]] = received[i + 2];
+                    i += 4;
+                } else {
+                    controls.write(received[i++]);
+                }
+            }
+
+            if (last['a'] == 100 && last['b'] == 0 && controls.size() == 2)
+                break;
+
+            Thread.sleep(1);
+        }
+
+        assertEquals(100, last['a']);
+        assertEquals(0, last['b']);
+        assertArrayEquals(new byte[] { 3, 4 }, controls.toByteArray());
+    }
+
+    @Test
+    public void flush_recordsLatenciesAndSentCommands() throws Exception {
+        PipelineMetrics metrics = new PipelineMetrics();
+        StubController stub = connect((byte) 'a', (byte) 'b');
+
+        pool.setMetrics(metrics);
+
+        long origin = System.nanoTime();
+        Thread.sleep(20);
+        pool.emitVolume((byte) 'a', (byte) 10, origin);
+        pool.emitVolume((byte) 'b', (byte) 20, origin);
+        stub.awaitBytes(8);
+
+        long deadline = System.currentTimeMillis() + 2000;
+        while (metrics.get(PipelineMetrics.Stage.TOTAL).getCount() == 0 &&
+                System.currentTimeMillis() < deadline)
+            Thread.sleep(1);
+
+        assertEquals(2, pool.getSentCount());
+        assertTrue(metrics.get(PipelineMetrics.Stage.QUEUE).getCount() >= 1);
+        assertTrue(metrics.get(PipelineMetrics.Stage.WRITE).getCount() >= 1);
+        /* The total starts at the origin of the volume, not when it was queued */
+        assertTrue(metrics.get(PipelineMetrics.Stage.TOTAL).getMax() >= 20000000L);
+        assertTrue(metrics.get(PipelineMetrics.Stage.QUEUE).getMax() < 20000000L);
+    }
+
+    @Test
+    public void emitVolume_sendsBatchFrameToNewerBoards() throws Exception {
+        StubController batched = connect(0, 2, (byte) 'a', (byte) 'b', (byte) 'c');
+        StubController legacy = connect(0, 1, (byte) 'd');
+
+        assertTrue(pool.emitVolume((byte) 'a', (byte) 10));
+        assertTrue(pool.emitVolume((byte) 'c', (byte) 30));
+        assertTrue(pool.emitVolume((byte) 'd', (byte) 40));
+
+        /* Depending on timing the two volumes arrive in one or two batch frames */
+        long deadline = System.currentTimeMillis() + 2000;
+        int[] last = new int[256];
+
+        while (System.currentTimeMillis() < deadline && last['c'] == 0) {
+            byte[] frames = batched.awaitBytes(0);
+
+            for (int i = 0; i + 1 < frames.length; i += 2 + frames[i + 1] * 2) {
+                assertEquals(5, frames[i]);
+                if (i + 2 + frames[i + 1] * 2 > frames.length)
+                    break;
+
+                for (int entry = 0; entry < frames[i + 1]; entry++)
+                    last[frames[i + 2 + entry * 2]] = frames[i + 3 + entry * 2];
+            }
+
+            Thread.sleep(1);
+        }
+
+        assertEquals(10, last['a']);
+        assertEquals(30, last['c']);
+        assertArrayEquals(new byte[] { 2, 'd', 40, 0 }, legacy.awaitBytes(4));
+    }
+
+    @Test
+    public void emitVolume_sendsRampFrameToBoardsThatRamp() throws Exception {
+        pool.setRampDuration(200);
+        StubController ramped = connect(0, 5, (byte) 'a');
+        StubController batched = connect(0, 4, (byte) 'b');
+
+        assertTrue(pool.emitVolume((byte) 'a', (byte) 10));
+        assertTrue(pool.emitVolume((byte) 'b', (byte) 20));
+
+        assertArrayEquals(new byte[] { 7, 1, 0, (byte) 200, 'a', 10 }, ramped.awaitBytes(6));
+        assertArrayEquals(new byte[] { 5, 1, 'b', 20 }, batched.awaitBytes(4));
+    }
+
+    @Test
+    public void emitCommand_dropsControllerThatClosed() throws Exception {
+        StubController stub = connect((byte) 'a');
+
+        stub.socket.close();
+
+        long deadline = System.currentTimeMillis() + 2000;
+        while (pool.getControllerCount() > 0 && System.currentTimeMillis() < deadline)
+            Thread.sleep(1);
+
+        assertEquals(0, pool.getControllerCount());
+        assertFalse(pool.emitCommand(volumeCmd('a', 10)));
+    }
+
+    @Test
+    public void addController_replaysOnlyTheLatestState() throws Exception {
+        pool.emitControl(Soundbound.SB_START);
+        pool.emitControl((byte) 6);
+        for (int volume = 0; volume <= 70; volume += 10)
+            pool.emitVolume((byte) 'a', (byte) volume);
+        pool.emitVolume((byte) 'z', (byte) 99);
+
+        StubController stub = connect((byte) 'a', (byte) 'b');
+
+        assertArrayEquals(new byte[] { Soundbound.SB_START, 2, 'a', 70, 0 }, stub.awaitBytes(5));
+        Thread.sleep(50);
+        assertEquals(5, stub.count.get());
+    }
+
+    @Test
+    public void heartbeat_probesIdleControllersAndReportsLoss() throws Exception {
+        List<String> lost = new ArrayList<>();
+        StubController stub = connect((byte) 'a');
+
+        pool.setListener((speakerIds, reason) -> {
+            synchronized (lost) {
+                lost.add(new String(speakerIds, StandardCharsets.US_ASCII));
+            }
+        });
+        pool.setHeartbeat(40, 1000);
+
+        byte[] received = stub.awaitBytes(3);
+        assertTrue(received.length >= 3);
+        for (byte b : received)
+            assertEquals(Soundbound.SB_NO_CMD, b);
+        assertTrue(pool.getHeartbeatCount() >= 3);
+
+        stub.socket.close();
+
+        long deadline = System.currentTimeMillis() + 2000;
+        while (pool.getLostCount() == 0 && System.currentTimeMillis() < deadline)
+            Thread.sleep(1);
+
+        assertEquals(1, pool.getLostCount());
+        synchronized (lost) {
+            assertEquals(Collections.singletonList("a"), lost);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.gradotech.soundbound;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the scanner against loopback stubs. Every host of the range accepts the
+ * connection, but only the last one answers, so a sequential scan would stall on
+ * each silent host in turn.
+ */
+public class ControllerScannerTest {
+    private static final int packetSize = 32;
+    private static final int maxHosts = 128;
+
+    private final List<ServerSocket> stubs = new ArrayList<>();
+    private int port;
+
+    @Before
+    public void setUp() throws IOException {
+        ServerSocket first = new ServerSocket();
+        first.bind(new InetSocketAddress("127.0.0.1", 0));
+        stubs.add(first);
+        port = first.getLocalPort();
+
+        try {
+            for (int i = 2; i <= maxHosts; i++) {
+                ServerSocket stub = new ServerSocket();
+                stub.bind(new InetSocketAddress(InetAddress.getByName("127.0.0." + i), port));
+                stubs.add(stub);
+            }
+        } catch (IOException e) {
+            /* Only 127.0.0.1 is routable on some hosts */
+            Assume.assumeNoException(e);
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (ServerSocket stub : stubs)
+            stub.close();
+    }
+
+    @Test
+    public void parse_cidrAndSuffixRanges() {
+        AddressRange cidr = AddressRange.parse("192.168.1.77/24", "10.0.0.");
+        AddressRange suffix = AddressRange.parse("100-120", "192.168.1.");
+        AddressRange full = AddressRange.parse("10.0.0.250-10.0.1.5", "");
+
+        assertEquals(254, cidr.size());
+        assertEquals("192.168.1.1", cidr.get(0).getHostAddress());
+        assertEquals("192.168.1.254", cidr.get(253).getHostAddress());
+        assertEquals(21, suffix.size());
+        assertEquals("192.168.1.120", suffix.get(20).getHostAddress());
+        assertEquals(12, full.size());
+        assertEquals("10.0.1.5", full.get(11).getHostAddress());
+    }
+
+    @Test
+    public void scan_returnsNullWhenNobodyAnswers() throws IOException {
+        ControllerScanner scanner = new ControllerScanner(port, packetSize, 300);
+
+        assertNull(scanner.scan(AddressRange.parse("127.0.0.1-8", "")));
+    }
+
+    @Test
+    public void scan_timeToFirstControllerStaysFlat() throws Exception {
+        long smallest = Long.MAX_VALUE;
+        long largest = 0;
+
+        for (int hosts = 4; hosts <= maxHosts; hosts *= 4) {
+            Thread responder = respondFrom(stubs.get(hosts - 1));
+            ControllerScanner scanner = new ControllerScanner(port, packetSize, 2000);
+
+            long start = System.nanoTime();
+            ControllerScanner.Controller controller =
+                    scanner.scan(AddressRange.parse("127.0.0.1-" + hosts, ""));
+            long elapsed = (System.nanoTime() - start) / 1000000;
+
+            assertNotNull(controller);
+            assertEquals("127.0.0." + hosts, controller.getAddress().getAddress().getHostAddress());
+            assertTrue(controller.getChannel().isBlocking());
+
+            controller.getChannel().close();
+            responder.join();
+
+            smallest = Math.min(smallest, elapsed);
+            largest = Math.max(largest, elapsed);
+        }
+
+        /* A sequential scan with a 100 ms timeout would need more than 12 s here */
+        assertTrue("Scan time grew with range size", largest - smallest < 500);
+    }
+
+    private static Thread respondFrom(ServerSocket stub) {
+        Thread responder = new Thread(() -> {
+            try (Socket client = stub.accept()) {
+                byte[] packet = new byte[packetSize];
+                OutputStream out = client.getOutputStream();
+
+                packet[0] = 1; /* SB_QUERY_DATA */
+                out.write(packet);
+                out.flush();
+
+                /* Keep the socket open until the scanner has read the packet */
+                client.getInputStream().read();
+            } catch (IOException ignored) {}
+        });
+
+        responder.start();
+
+        return responder;
+    }
+}
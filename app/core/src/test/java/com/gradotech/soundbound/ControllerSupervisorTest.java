@@ -0,0 +1,257 @@
+package com.gradotech.soundbound;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the supervisor against a loopback stub controller that answers the scan like
+ * the firmware, records what it receives and can drop the connection or go away
+ * for a while like a rebooting board.
+ */
+public class ControllerSupervisorTest {
+    private static class StubController extends Thread {
+        private final int port;
+        private final List<ByteArrayOutputStream> connections =
+                Collections.synchronizedList(new ArrayList<>());
+        private volatile ServerSocket server;
+        private volatile Socket client;
+        private volatile boolean stopped;
+
+        StubController() throws IOException {
+            server = new ServerSocket();
+            server.setReuseAddress(true);
+            server.bind(new InetSocketAddress("127.0.0.1", 0));
+            port = server.getLocalPort();
+
+            setDaemon(true);
+            start();
+        }
+
+        @Override
+        public void run() {
+            while (!stopped) {
+                ServerSocket current = server;
+
+                if (current == null) {
+                    pause();
+                    continue;
+                }
+
+                try (Socket socket = current.accept()) {
+                    ByteBuffer qdata = ByteBuffer.allocate(Soundbound.QDataPacket.SIZE);
+                    ByteArrayOutputStream received = new ByteArrayOutputStream();
+                    byte[] buff = new byte[256];
+                    int n;
+
+                    Soundbound.QDataPacket.encode(qdata, 0, 1, new byte[] { 'a', 'b' },
+                                                  "Stub");
+                    socket.getOutputStream().write(qdata.array());
+                    client = socket;
+                    connections.add(received);
+
+                    InputStream in = socket.getInputStream();
+                    while ((n = in.read(buff)) > 0) {
+                        synchronized (received) {
+                            received.write(buff, 0, n);
+                        }
+                    }
+                } catch (IOException ignored) {
+                    /* Dropped or rebooting, accept the next connection */
+                }
+            }
+        }
+
+        private static void pause() {
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException ignored) {}
+        }
+
+        /* Closes the connection and refuses new ones for downMs */
+        void reboot(long downMs) throws Exception {
+            ServerSocket old = server;
+
+            server = null;
+            old.close();
+            client.close();
+            Thread.sleep(downMs);
+
+            ServerSocket fresh = new ServerSocket();
+            fresh.setReuseAddress(true);
+            fresh.bind(new InetSocketAddress("127.0.0.1", port));
+            server = fresh;
+        }
+
+        void shutdown() throws IOException {
+            ServerSocket current = server;
+
+            stopped = true;
+            server = null;
+            if (current != null)
+                current.close();
+            if (client != null)
+                client.close();
+        }
+
+        byte[] awaitBytes(int connection, int length) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 3000;
+
+            while (System.currentTimeMillis() < deadline) {
+                if (connections.size() > connection) {
+                    ByteArrayOutputStream received = connections.get(connection);
+
+                    synchronized (received) {
+                        if (received.size() >= length)
+                            return received.toByteArray();
+                    }
+                }
+
+                Thread.sleep(1);
+            }
+
+            fail("Connection " + connection + " didn't get " + length + " bytes");
+            return null;
+        }
+    }
+
+    private static class Recorder implements ControllerSupervisor.Listener {
+        final List<ControllerSupervisor.State> states =
+                Collections.synchronizedList(new ArrayList<>());
+        final List<String> found = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void onControllerFound(byte[] packet) {
+            found.add(new Soundbound.QDataPacket().wrap(packet).getDeviceName());
+        }
+
+        @Override
+        public void onControllerLost(byte[] speakerIds, String reason) {}
+
+        @Override
+        public void onStateChanged(ControllerSupervisor.State state, int controllers) {
+            states.add(state);
+        }
+    }
+
+    private StubController stub;
+    private ControllerPool pool;
+    private ControllerSupervisor supervisor;
+    private Recorder recorder;
+
+    @Before
+    public void setUp() throws IOException {
+        stub = new StubController();
+        pool = new ControllerPool();
+        pool.setHeartbeat(50, 1000);
+        pool.start();
+
+        recorder = new Recorder();
+        supervisor = new ControllerSupervisor(pool, new ControllerFinder(
+                new ControllerScanner(stub.port, Soundbound.QDataPacket.SIZE, 200),
+                AddressRange.parse("127.0.0.1-1", "")), new Backoff(20, 100, new Random(1)),
+                recorder);
+        supervisor.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        supervisor.close();
+        supervisor.join(2000);
+        pool.close();
+        pool.join(2000);
+        stub.shutdown();
+    }
+
+    private void awaitControllers(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 3000;
+
+        while (pool.getControllerCount() != count && System.currentTimeMillis() < deadline)
+            Thread.sleep(1);
+
+        assertEquals(count, pool.getControllerCount());
+    }
+
+    /* Controllers join during the scan, the supervisor settles after it */
+    private void awaitConnected() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 3000;
+
+        while (supervisor.getControllerState() != ControllerSupervisor.State.CONNECTED &&
+                System.currentTimeMillis() < deadline)
+            Thread.sleep(1);
+
+        assertEquals(ControllerSupervisor.State.CONNECTED, supervisor.getControllerState());
+    }
+
+    @Test
+    public void reconnect_replaysLatestStateAfterReboot() throws Exception {
+        awaitControllers(1);
+
+        pool.emitControl(Soundbound.SB_START);
+        pool.emitVolume((byte) 'a', (byte) 10);
+        stub.awaitBytes(0, 5);
+
+        /* Volumes produced while the board is away are coalesced into the last one */
+        stub.reboot(300);
+        for (int volume = 20; volume <= 60; volume += 10)
+            pool.emitVolume((byte) 'a', (byte) volume);
+        pool.emitVolume((byte) 'b', (byte) 5);
+
+        byte[] replay = stub.awaitBytes(1, 9);
+        awaitConnected();
+
+        assertArrayEquals(new byte[] { Soundbound.SB_START, 2, 'a', 60, 0, 2, 'b', 5, 0 },
+                          trimHeartbeats(replay, 9));
+        assertEquals(1, pool.getLostCount());
+        assertEquals(Collections.nCopies(2, "Stub"), recorder.found);
+
+        /* Retries while the board was away stay in BACKOFF, no state per retry */
+        assertEquals(ControllerSupervisor.State.SCANNING, recorder.states.get(0));
+        assertEquals(ControllerSupervisor.State.CONNECTED, recorder.states.get(1));
+        assertEquals(ControllerSupervisor.State.SCANNING, recorder.states.get(2));
+        assertEquals(ControllerSupervisor.State.BACKOFF, recorder.states.get(3));
+        assertEquals(ControllerSupervisor.State.CONNECTED, recorder.states.get(4));
+    }
+
+    @Test
+    public void reconnect_afterDroppedConnection() throws Exception {
+        awaitControllers(1);
+
+        for (int drop = 1; drop <= 3; drop++) {
+            stub.client.close();
+
+            stub.awaitBytes(drop, 0);
+            awaitControllers(1);
+        }
+
+        awaitConnected();
+        assertEquals(3, pool.getLostCount());
+    }
+
+    /* Heartbeats may come before the replay, drop them */
+    private static byte[] trimHeartbeats(byte[] received, int length) {
+        int start = 0;
+
+        while (start < received.length && received[start] == Soundbound.SB_NO_CMD)
+            start++;
+
+        byte[] trimmed = new byte[Math.min(length, received.length - start)];
+        System.arraycopy(received, start, trimmed, 0, trimmed.length);
+
+        return trimmed;
+    }
+}
@@ -0,0 +1,137 @@
+package com.gradotech.soundbound;
+
+import org.junit.Test;
+
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DenseNetworkEngineTest {
+    /* The app's assets are test resources of this module */
+    static DenseNetworkEngine loadRoomModel() throws Exception {
+        URL model = DenseNetworkEngineTest.class.getResource("/room_to_volume.tflite");
+
+        return DenseNetworkEngine.fromTFLite(ByteBuffer.wrap(Files.readAllBytes(Paths.get(model.toURI()))));
+    }
+
+    @Test
+    public void run_evaluatesDenseLayersWithRelu() {
+        /* 2 -> 2 with ReLU, then 2 -> 1 linear */
+        DenseNetworkEngine engine = new DenseNetworkEngine(Arrays.asList(
+                new DenseNetworkEngine.Layer(2, 2, new float[] { 1, 2, -1, -1 },
+                        new float[] { 0.5f, 0 }, 1),
+                new DenseNetworkEngine.Layer(2, 1, new float[] { 2, 3 },
+                        new float[] { -1 }, 0)));
+        float[] output = new float[1];
+
+        engine.run(new float[] { 1, 2 }, output);
+
+        /* Hidden: relu(1 + 4 + 0.5) = 5.5, relu(-3) = 0 */
+        assertEquals(2 * 5.5f - 1, output[0], 1e-6f);
+    }
+
+    @Test
+    public void fromTFLite_readsRoomModel() throws Exception {
+        DenseNetworkEngine engine = loadRoomModel();
+        List<DenseNetworkEngine.Layer> layers = engine.getLayers();
+
+        assertEquals(2, layers.size());
+        assertEquals(2, engine.getInputCount());
+        assertEquals(8, layers.get(0).getOutputs());
+        assertEquals(4, engine.getOutputCount());
+
+    }
+
+    /*
+     * Outputs of the shipped model in double precision from tools/tflite_reference.py,
+     * which decodes the flatbuffer on its own:
+     *   python3 tflite_reference.py room_to_volume.tflite 20,30 170,180 330,350 300,40 60,300
+     */
+    private static final float[][] roomPoints = {
+            { 20, 30 }, { 170, 180 }, { 330, 350 }, { 300, 40 }, { 60, 300 } };
+    private static final float[][] roomVolumes = {
+            { -20.9909f, 54.4414f, 57.0820f, 131.7147f },
+            { 56.1259f, 53.5833f, 55.6215f, 53.7730f },
+            { 140.9943f, 55.2077f, 51.4564f, -31.9633f },
+            { 51.4679f, -13.4825f, 125.0322f, 60.5139f },
+            { 59.6143f, 112.6222f, -3.2736f, 51.1683f } };
+
+    @Test
+    public void run_matchesReferenceOutputsOfRoomModel() throws Exception {
+        DenseNetworkEngine engine = loadRoomModel();
+        float[] output = new float[4];
+
+        for (int i = 0; i < roomPoints.length; i++) {
+            engine.run(roomPoints[i], output);
+            assertArrayEquals(Arrays.toString(roomPoints[i]), roomVolumes[i], output, 1e-3f);
+        }
+    }
+
+    /* Speakers at the corners as in tools/volume_generator.py, volume grows with distance */
+    @Test
+    public void run_ordersSpeakersLikeTheGenerator() throws Exception {
+        DenseNetworkEngine engine = loadRoomModel();
+        float[][] speakers = { { 0, 0 }, { 340, 0 }, { 0, 360 }, { 340, 360 } };
+        float[] output = new float[4];
+
+        for (float[] point : new float[][] { { 20, 30 }, { 330, 350 }, { 300, 40 }, { 60, 300 } }) {
+            int nearest = 0;
+            int farthest = 0;
+            float[] distances = new float[4];
+
+            for (int i = 0; i < 4; i++) {
+                distances[i] = (float) Math.hypot(speakers[i][0] - point[0],
+                                                  speakers[i][1] - point[1]);
+                if (distances[i] < distances[nearest])
+                    nearest = i;
+                if (distances[i] > distances[farthest])
+                    farthest = i;
+            }
+
+            engine.run(point, output);
+            for (int i = 0; i < 4; i++) {
+                assertTrue(Arrays.toString(point), output[nearest] <= output[i]);
+                assertTrue(Arrays.toString(point), output[farthest] >= output[i]);
+            }
+        }
+    }
+
+    @Test
+    public void runBatch_matchesOneRowAtATime() throws Exception {
+        DenseNetworkEngine engine = loadRoomModel();
+        float[] input = { 20, 30, 170, 180, 330, 350 };
+        float[] batch = new float[12];
+        float[] row = new float[4];
+
+        engine.runBatch(input, batch, 3);
+
+        for (int r = 0; r < 3; r++) {
+            engine.run(Arrays.copyOfRange(input, r * 2, r * 2 + 2), row);
+            assertArrayEquals(row, Arrays.copyOfRange(batch, r * 4, r * 4 + 4), 0);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_rejectsMismatchedLayers() {
+        new DenseNetworkEngine(Arrays.asList(
+                new DenseNetworkEngine.Layer(2, 3, new float[6], new float[3], 0),
+                new DenseNetworkEngine.Layer(2, 1, new float[2], new float[1], 0)));
+    }
+
+    @Test
+    public void run_doesNotAllocate() throws Exception {
+        DenseNetworkEngine engine = loadRoomModel();
+        float[] input = new float[2];
+        float[] output = new float[4];
+
+        Allocations.assertNoAllocation(i -> {
+            input[0] = i % 340;
+            engine.run(input, output);
+        });
+    }
+}
@@ -0,0 +1,155 @@
+package com.gradotech.soundbound;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class InferenceWorkerTest {
+    private static final String beacon = "2f234454-cf6d-4a0f-adf2-f4911ba9ffa6";
+
+    /* Passes the distance in cm through as volume after taking sleepMs to predict */
+    private static class SlowEngine implements PanningEngine {
+        final List<Integer> inputs = new ArrayList<>();
+        final long sleepMs;
+        volatile Thread thread;
+
+        SlowEngine(long sleepMs) {
+            this.sleepMs = sleepMs;
+        }
+
+        @Override
+        public void run(float[] input, float[] output) {
+            thread = Thread.currentThread();
+            synchronized (inputs) {
+                inputs.add(Math.round(input[0]));
+            }
+            output[0] = input[0] % 100;
+
+            try {
+                Thread.sleep(sleepMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static InferenceWorker worker(PanningEngine engine, InferenceWorker.Output output) {
+        ModelConfig config = new ModelConfig();
+
+        config.addInput(new ModelConfig.Shape("x", "float", 0, 100000));
+        config.addOutput(new ModelConfig.Shape("a", "float", 0, 100));
+        config.addBeacon(new ModelConfig.Beacon(beacon, "x"));
+
+        Predictor predictor = new Predictor(config, engine);
+
+        return new InferenceWorker(predictor, predictor.createDeadband(), output, 4);
+    }
+
+    private static void awaitSequence(InferenceWorker worker, long sequence)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+
+        while (worker.getLastSequence() != sequence && System.nanoTime() < deadline)
+            Thread.sleep(1);
+
+        assertEquals(sequence, worker.getLastSequence());
+    }
+
+    @Test
+    public void flood_workerEndsOnTheNewestSnapshot() throws Exception {
+        SlowEngine engine = new SlowEngine(1);
+        InferenceWorker worker = worker(engine, (id, volume, origin) -> {});
+        final int scans = 20000;
+        long sequence = 0;
+
+        worker.start();
+        for (int i = 1; i <= scans; i++) {
+            InferenceWorker.Snapshot snapshot = worker.begin();
+
+            snapshot.put(beacon, i / 100f);
+            sequence = worker.publish();
+        }
+
+        awaitSequence(worker, sequence);
+        worker.close();
+        worker.join(1000);
+
+        assertEquals(scans, sequence);
+        assertEquals(scans, worker.getPublishedCount());
+        assertEquals(scans, worker.getProcessedCount() + worker.getOverwrittenCount());
+        assertTrue(worker.getProcessedCount() < scans / 10);
+        assertNotSame(Thread.currentThread(), engine.thread);
+
+        /* Every prediction saw a newer scan than the one before, the last one the newest */
+        synchronized (engine.inputs) {
+            for (int i = 1; i < engine.inputs.size(); i++)
+                assertTrue(engine.inputs.get(i) > engine.inputs.get(i - 1));
+            assertEquals(scans, (int) engine.inputs.get(engine.inputs.size() - 1));
+        }
+    }
+
+    @Test
+    public void flood_latencyStaysWithinTwoPredictions() throws Exception {
+        InferenceWorker worker = worker(new SlowEngine(5), (id, volume, origin) -> {});
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(300);
+        long sequence = 0;
+        int i = 0;
+
+        worker.start();
+        while (System.nanoTime() < end) {
+            worker.begin().put(beacon, ++i / 100f);
+            sequence = worker.publish();
+        }
+
+        awaitSequence(worker, sequence);
+        worker.close();
+        worker.join(1000);
+
+        /* A queue would have grown by the whole flood, the mailbox waits one prediction */
+        long maxMs = TimeUnit.NANOSECONDS.toMillis(worker.getMaxLatencyNanos());
+        assertTrue("Max latency " + maxMs + " ms", maxMs < 100);
+    }
+
+    @Test
+    public void process_sendsVolumesThroughTheDeadband() throws Exception {
+        List<Integer> sent = new ArrayList<>();
+        InferenceWorker worker = worker(new SlowEngine(0), (id, volume, origin) -> {
+            assertEquals('a', id);
+            synchronized (sent) {
+                sent.add((int) volume);
+            }
+        });
+        float[] distances = { 0.40f, 0.40f, 0.41f, 0.50f };
+
+        worker.start();
+        for (float distance : distances) {
+            worker.begin().put(beacon, distance);
+            awaitSequence(worker, worker.publish());
+        }
+        worker.close();
+        worker.join(1000);
+
+        /* The deadband of the config is 0, only the repeated volume is dropped */
+        synchronized (sent) {
+            assertEquals(3, sent.size());
+            assertEquals(50, (int) sent.get(2));
+        }
+        assertEquals(1, worker.getDeadband().getSuppressedCount());
+    }
+
+    @Test
+    public void snapshot_ignoresBeaconsPastItsCapacity() {
+        InferenceWorker worker = worker(new SlowEngine(0), (id, volume, origin) -> {});
+        InferenceWorker.Snapshot snapshot = worker.begin();
+
+        for (int i = 0; i < 10; i++)
+            snapshot.put("beacon" + i, 1f);
+
+        assertEquals(4, snapshot.size());
+        assertEquals(0, worker.begin().size());
+    }
+}
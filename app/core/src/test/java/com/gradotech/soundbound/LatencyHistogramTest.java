@@ -0,0 +1,85 @@
+package com.gradotech.soundbound;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+    @Test
+    public void buckets_coverEveryValueOnce() {
+        for (long nanos = 0; nanos < 100000; nanos++) {
+            int bucket = LatencyHistogram.bucketOf(nanos);
+
+            assertTrue(LatencyHistogram.lowerBound(bucket) <= nanos);
+            assertTrue(LatencyHistogram.lowerBound(bucket + 1) > nanos);
+        }
+    }
+
+    @Test
+    public void getPercentile_isWithinAnEighth() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Random random = new Random(5);
+        long[] values = new long[100000];
+
+        for (int i = 0; i < values.length; i++) {
+            /* Log uniform from 1 us to 1 s */
+            values[i] = (long) Math.pow(10, 3 + random.nextDouble() * 6);
+            histogram.record(values[i]);
+        }
+
+        Arrays.sort(values);
+
+        for (double percent : new double[] { 50, 90, 99, 99.9 }) {
+            long exact = values[(int) Math.ceil(values.length * percent / 100) - 1];
+            long estimate = histogram.getPercentile(percent);
+
+            assertTrue(percent + ": " + estimate + " for " + exact,
+                    estimate >= exact && estimate <= exact + exact / 8);
+        }
+
+        assertEquals(values[values.length - 1], histogram.getMax());
+        assertEquals(values[values.length - 1], histogram.getPercentile(100));
+        assertEquals(values.length, histogram.getCount());
+    }
+
+    @Test
+    public void record_handlesExtremesAndReset() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals(0, histogram.getPercentile(50));
+
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(0, histogram.getPercentile(50));
+        assertEquals(Long.MAX_VALUE, histogram.getPercentile(100));
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+    }
+
+    @Test
+    public void record_countsEveryThread() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        List<Thread> threads = new ArrayList<>();
+
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 100000; i++)
+                    histogram.record(i);
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+
+        assertEquals(400000, histogram.getCount());
+        assertEquals(99999, histogram.getMax());
+    }
+}
@@ -0,0 +1,277 @@
+package com.gradotech.soundbound;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Offline evaluation of the lookahead on synthetic walking traces, with the model
+ * and beacon filters the app ships. Every 200 ms a scan reports the listener's
+ * position with BLE-like noise, and the volumes that pass the deadband play 150 ms
+ * later. What plays is compared with the volumes of where the listener really is:
+ * the perceived lag is the delay of the ideal volumes that matches best, the error
+ * is the mean volume difference at that moment.
+ */
+public class LookaheadEvaluationTest {
+    private static final String beaconX = "2f234454-cf6d-4a0f-adf2-f4911ba9ffa6";
+    private static final String beaconY = "7b8d4e1f-9a3c-6f2b-0e5d-8c9a7d3b2e4f";
+    private static final long scanMs = 200;
+    private static final long latencyMs = 150;
+    private static final long durationMs = 60000;
+    private static final long settleMs = 2000;
+    private static final long stepMs = 10;
+    private static final long maxLagMs = 2000;
+    private static final double noiseCm = 15;
+
+    private static DenseNetworkEngine engine;
+
+    /* Position of the listener in cm at a time in ms */
+    private interface Trace {
+        void position(long ms, float[] out);
+    }
+
+    private static class Result {
+        final long lagMs;
+        final double error;
+        final int sent;
+        final float maxStep;
+
+        Result(long lagMs, double error, int sent, float maxStep) {
+            this.lagMs = lagMs;
+            this.error = error;
+            this.sent = sent;
+            this.maxStep = maxStep;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "lag %4d ms, error %5.2f, %4d sent/min, " +
+                                 "largest step %3.0f", lagMs, error, sent * 60000 / durationMs,
+                                 maxStep);
+        }
+    }
+
+    @BeforeClass
+    public static void loadModel() throws Exception {
+        engine = DenseNetworkEngineTest.loadRoomModel();
+    }
+
+    private static ModelConfig config(ModelConfig.Lookahead lookahead) {
+        ModelConfig config = new ModelConfig();
+
+        config.addInput(new ModelConfig.Shape("x", "float", 0, 340));
+        config.addInput(new ModelConfig.Shape("y", "float", 0, 360));
+        for (String speaker : new String[] { "a", "b", "c", "d" })
+            config.addOutput(new ModelConfig.Shape(speaker, "float", 0, 100));
+        config.addBeacon(new ModelConfig.Beacon(beaconX, "x", "exponential:0.2"));
+        config.addBeacon(new ModelConfig.Beacon(beaconY, "y", "exponential:0.2"));
+        config.setDeadband(2);
+        config.setLookahead(lookahead);
+
+        return config;
+    }
+
+    /* Back and forth between two corners at 80 cm/s */
+    private static final Trace pacing = (ms, out) -> {
+        double length = Math.hypot(240, 240);
+        double travelled = ms / 1000.0 * 80 % (2 * length);
+        double along = (travelled < length ? travelled : 2 * length - travelled) / length;
+
+        out[0] = (float) (50 + 240 * along);
+        out[1] = (float) (60 + 240 * along);
+    };
+
+    /* 3 s walking across the room at 100 cm/s, 3 s standing, and back */
+    private static final Trace stopAndGo = (ms, out) -> {
+        long cycle = ms % 12000;
+        double walked;
+
+        if (cycle < 3000)
+            walked = cycle / 1000.0 * 100;
+        else if (cycle < 6000)
+            walked = 300;
+        else if (cycle < 9000)
+            walked = 300 - (cycle - 6000) / 1000.0 * 100;
+        else
+            walked = 0;
+
+        out[0] = (float) (20 + walked);
+        out[1] = 180;
+    };
+
+    /* Circles the middle of the room at 70 cm/s */
+    private static final Trace circling = (ms, out) -> {
+        double angle = ms / 1000.0 * 70 / 110;
+
+        out[0] = (float) (170 + 110 * Math.cos(angle));
+        out[1] = (float) (180 + 110 * Math.sin(angle));
+    };
+
+    private static Result evaluate(Trace trace, ModelConfig.Lookahead lookahead) {
+        return evaluate(trace, lookahead, 0);
+    }
+
+    /* With a rampMs the boards step along ramps every SB_RAMP_STEP_MS like VolumeRamp */
+    private static Result evaluate(Trace trace, ModelConfig.Lookahead lookahead, long rampMs) {
+        Predictor predictor = new Predictor(config(lookahead), engine);
+        VolumeDeadband deadband = predictor.createDeadband();
+        Random random = new Random(42);
+        int speakers = predictor.getOutputCount();
+        int samples = (int) (durationMs / stepMs);
+        float[][] playing = new float[samples][speakers];
+        float[][] ideal = new float[samples][speakers];
+        float[] position = new float[2];
+        float[] output = new float[speakers];
+        int[] volumes = new int[speakers];
+        float[] current = new float[speakers];
+        float[] rampFrom = new float[speakers];
+        int[] rampTo = new int[speakers];
+        long[] rampStartMs = new long[speakers];
+        float maxStep = 0;
+        int nextScan = 0;
+        int sent = 0;
+
+        predictor.setLatency(latencyMs * 1000000);
+        deadband.setRamp(rampMs * 1000000);
+
+        for (int s = 0; s < samples; s++) {
+            long ms = s * stepMs;
+
+            /* A scan reports the middle of its period, its volumes play latency later */
+            long scanMsAt = nextScan * scanMs;
+            if (scanMsAt + latencyMs <= ms) {
+                trace.position(Math.max(0, scanMsAt - scanMs / 2), position);
+                predictor.updateInput(beaconX, (float) (position[0] + random.nextGaussian() *
+                                      noiseCm) / 100);
+                predictor.updateInput(beaconY, (float) (position[1] + random.nextGaussian() *
+                                      noiseCm) / 100);
+                predictor.predict(volumes, scanMsAt * 1000000);
+
+                for (int i = 0; i < speakers; i++) {
+                    int volume = deadband.accept(i, volumes[i], scanMsAt * 1000000);
+
+                    if (volume != CommandQueue.EMPTY) {
+                        rampFrom[i] = current[i];
+                        rampTo[i] = volume;
+                        rampStartMs[i] = ms;
+                        sent++;
+                    }
+                }
+
+                nextScan++;
+            }
+
+            for (int i = 0; i < speakers; i++) {
+                long elapsed = ms - rampStartMs[i];
+                float volume = rampTo[i];
+
+                if (elapsed < rampMs)
+                    volume = Math.round(rampFrom[i] + (rampTo[i] - rampFrom[i]) *
+                                        (elapsed - elapsed % 20) / rampMs);
+
+                if (s * stepMs > settleMs)
+                    maxStep = Math.max(maxStep, Math.abs(volume - current[i]));
+                current[i] = volume;
+            }
+
+            trace.position(ms, position);
+            engine.run(position, output);
+            for (int i = 0; i < speakers; i++)
+                ideal[s][i] = Math.max(0, Math.min(100, output[i]));
+            playing[s] = current.clone();
+        }
+
+        long bestLag = 0;
+        double bestError = Double.MAX_VALUE;
+        int first = (int) ((settleMs + maxLagMs) / stepMs);
+
+        for (long lag = -maxLagMs; lag <= maxLagMs; lag += stepMs) {
+            int shift = (int) (lag / stepMs);
+            double error = 0;
+
+            for (int s = first; s < samples - first; s++) {
+                for (int i = 0; i < speakers; i++)
+                    error += Math.abs(playing[s][i] - ideal[s - shift][i]);
+            }
+            error /= (double) (samples - 2 * first) * speakers;
+
+            if (error < bestError) {
+                bestError = error;
+                bestLag = lag;
+            }
+        }
+
+        /* Error against where the listener is now, at the lag found */
+        double error = 0;
+        for (int s = first; s < samples - first; s++) {
+            for (int i = 0; i < speakers; i++)
+                error += Math.abs(playing[s][i] - ideal[s][i]);
+        }
+        error /= (double) (samples - 2 * first) * speakers;
+
+        return new Result(bestLag, error, sent, maxStep);
+    }
+
+    /* Same as the app's room_to_volume.json */
+    private static final ModelConfig.Lookahead shipped = new ModelConfig.Lookahead(1500, 3, 4, 150);
+
+    private static void compare(String name, Trace trace) {
+        Result without = evaluate(trace, null);
+        Result single = evaluate(trace, new ModelConfig.Lookahead(1500, 1, 4, 150));
+        Result batch = evaluate(trace, shipped);
+
+        String results = String.format(Locale.ROOT, "%n without: %s%n 1 step:  %s%n 3 steps: %s",
+                                       without, single, batch);
+
+        assertTrue(name + " lag" + results, batch.lagMs * 2 < without.lagMs);
+        assertTrue(name + " error" + results, batch.error * 2 < without.error);
+        /* Averaging the steps must not cost accuracy over a single step */
+        assertTrue(name + " steps" + results, batch.error < single.error * 1.05);
+    }
+
+    /* Ramps of a scan period against steps, both with the shipped lookahead */
+    private static void compareRamps(String name, Trace trace) {
+        Result steps = evaluate(trace, shipped);
+        Result ramps = evaluate(trace, shipped, scanMs);
+
+        String results = String.format(Locale.ROOT, "%n steps: %s%n ramps: %s", steps, ramps);
+
+        assertTrue(name + " sent" + results, ramps.sent * 2 < steps.sent);
+        assertTrue(name + " step" + results, ramps.maxStep * 3 < steps.maxStep);
+        assertTrue(name + " error" + results, ramps.error < steps.error * 1.25);
+    }
+
+    @Test
+    public void lookahead_halvesPerceivedLagOfPacing() {
+        compare("pacing", pacing);
+    }
+
+    @Test
+    public void lookahead_halvesPerceivedLagOfStopAndGo() {
+        compare("stop-and-go", stopAndGo);
+    }
+
+    @Test
+    public void lookahead_halvesPerceivedLagOfCircling() {
+        compare("circling", circling);
+    }
+
+    @Test
+    public void ramps_halveCommandsOfPacingAndSmoothSteps() {
+        compareRamps("pacing", pacing);
+    }
+
+    @Test
+    public void ramps_halveCommandsOfStopAndGoAndSmoothSteps() {
+        compareRamps("stop-and-go", stopAndGo);
+    }
+
+    @Test
+    public void ramps_halveCommandsOfCirclingAndSmoothSteps() {
+        compareRamps("circling", circling);
+    }
+}
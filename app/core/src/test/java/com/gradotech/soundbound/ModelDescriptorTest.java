@@ -0,0 +1,110 @@
+package com.gradotech.soundbound;
+
+import org.junit.Test;
+
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.*;
+
+public class ModelDescriptorTest {
+    private static byte[] loadAsset(String name) throws Exception {
+        URL asset = ModelDescriptorTest.class.getResource("/" + name);
+
+        return Files.readAllBytes(Paths.get(asset.toURI()));
+    }
+
+    @Test
+    public void shippedDescriptor_isCompiledFromShippedJson() throws Exception {
+        CRC32 crc = new CRC32();
+        crc.update(loadAsset("room_to_volume.json"));
+
+        /* Compiled by the build, stale only when the tests run outside it */
+        assertEquals((int) crc.getValue(),
+                ModelDescriptor.getSourceCrc(ByteBuffer.wrap(loadAsset("room_to_volume.sbm"))));
+    }
+
+    @Test
+    public void read_matchesJsonConfig() throws Exception {
+        ModelConfig json = ModelConfigJson.parse(
+                new String(loadAsset("room_to_volume.json"), StandardCharsets.UTF_8));
+        ModelConfig binary = ModelDescriptor.read(ByteBuffer.wrap(loadAsset("room_to_volume.sbm")));
+
+        assertShapesEqual(json.getInputs(), binary.getInputs());
+        assertShapesEqual(json.getOutputs(), binary.getOutputs());
+
+        assertEquals(json.getSpeakers().size(), binary.getSpeakers().size());
+        for (int i = 0; i < json.getSpeakers().size(); i++) {
+            assertEquals(json.getSpeakers().get(i).getId(), binary.getSpeakers().get(i).getId());
+            assertArrayEquals(json.getSpeakers().get(i).getCoordinates(),
+                    binary.getSpeakers().get(i).getCoordinates());
+        }
+
+        assertEquals(json.getBeacons().size(), binary.getBeacons().size());
+        for (int i = 0; i < json.getBeacons().size(); i++) {
+            ModelConfig.Beacon expected = json.getBeacons().get(i);
+            ModelConfig.Beacon actual = binary.getBeacons().get(i);
+
+            assertEquals(expected.getId1(), actual.getId1());
+            assertEquals(expected.getMeasures(), actual.getMeasures());
+            assertEquals(expected.getFilter(), actual.getFilter());
+            assertEquals(expected.getListener(), actual.getListener());
+        }
+
+        assertEquals(json.getDeadband(), binary.getDeadband());
+        assertEquals(json.getMixing(), binary.getMixing());
+        assertEquals(json.getLookahead().getHorizonMs(), binary.getLookahead().getHorizonMs());
+        assertEquals(json.getLookahead().getSteps(), binary.getLookahead().getSteps());
+        assertEquals(json.getLookahead().getWindow(), binary.getLookahead().getWindow());
+        assertEquals(json.getLookahead().getMaxSpeed(), binary.getLookahead().getMaxSpeed(), 0);
+    }
+
+    private static void assertShapesEqual(List<ModelConfig.Shape> expected,
+                                          List<ModelConfig.Shape> actual) {
+        assertEquals(expected.size(), actual.size());
+
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getName(), actual.get(i).getName());
+            assertEquals(expected.get(i).getType(), actual.get(i).getType());
+            assertEquals(expected.get(i).getMin(), actual.get(i).getMin());
+            assertEquals(expected.get(i).getMax(), actual.get(i).getMax());
+        }
+    }
+
+    @Test
+    public void read_rejectsOtherVersionsAndTruncatedDescriptors() throws Exception {
+        byte[] descriptor = loadAsset("room_to_volume.sbm");
+
+        byte[] json = loadAsset("room_to_volume.json");
+        assertRejected(json);
+
+        byte[] version = descriptor.clone();
+        version[4] = 3;
+        assertRejected(version);
+
+        byte[] truncated = new byte[descriptor.length - 10];
+        System.arraycopy(descriptor, 0, truncated, 0, truncated.length);
+        assertRejected(truncated);
+
+        /* A beacon measuring an input the model doesn't have */
+        byte[] beacon = descriptor.clone();
+        int strings = ByteBuffer.wrap(descriptor).order(ByteOrder.LITTLE_ENDIAN).getInt(36);
+        beacon[strings - 2] = 9;
+        assertRejected(beacon);
+    }
+
+    private static void assertRejected(byte[] descriptor) {
+        try {
+            ModelDescriptor.read(ByteBuffer.wrap(descriptor));
+            fail("Descriptor accepted");
+        } catch (IllegalArgumentException e) {
+            /* Expected */
+        }
+    }
+}
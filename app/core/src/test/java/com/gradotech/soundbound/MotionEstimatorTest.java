@@ -0,0 +1,50 @@
+package com.gradotech.soundbound;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MotionEstimatorTest {
+    private static final long scanNanos = 200000000L;
+
+    @Test
+    public void update_fitsTheVelocityOfASteadyWalk() {
+        MotionEstimator motion = new MotionEstimator(2, 4, 150);
+
+        assertEquals(0, motion.getVelocity(0), 0);
+
+        /* 100 cm/s along x, standing along y, with a little jitter */
+        for (int i = 0; i < 10; i++)
+            motion.update(i * scanNanos, new float[] { 20 * i + (i % 2), 180 });
+
+        assertEquals(100, motion.getVelocity(0), 5);
+        assertEquals(0, motion.getVelocity(1), 1e-3f);
+        assertEquals(0.2f, motion.getInterval(), 1e-6f);
+    }
+
+    @Test
+    public void update_capsTheSpeed() {
+        MotionEstimator motion = new MotionEstimator(1, 3, 150);
+
+        motion.update(0, new float[] { 0 });
+        motion.update(scanNanos, new float[] { 300 });
+
+        assertEquals(150, motion.getVelocity(0), 0);
+
+        motion.update(2 * scanNanos, new float[] { -300 });
+
+        assertEquals(-150, motion.getVelocity(0), 0);
+    }
+
+    @Test
+    public void update_startsOverAfterAGap() {
+        MotionEstimator motion = new MotionEstimator(1, 4, 150);
+
+        motion.update(0, new float[] { 0 });
+        motion.update(scanNanos, new float[] { 20 });
+        motion.update(10 * scanNanos, new float[] { 100 });
+
+        assertEquals(0, motion.getVelocity(0), 0);
+        assertEquals(0, motion.getInterval(), 0);
+    }
+}
@@ -0,0 +1,190 @@
+package com.gradotech.soundbound;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class Mp3FrameIndexTest {
+    /* MPEG 1 layer III, 44.1 kHz, no CRC, joint stereo */
+    private static final int mpeg1Layer3 = 0xfffb0040;
+    private static final int samplesPerFrame = 1152;
+    private static final int sampleRate = 44100;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    static int frameLength(int bitrateIndex) {
+        return Mp3FrameIndex.frameLength(mpeg1Layer3 | bitrateIndex << 12);
+    }
+
+    /**
+     * Writes silent frames with the given bitrate indexes after an ID3v2 tag of
+     * id3Size bytes, with a Xing frame first when xing is set.
+     */
+    static byte[] writeSong(File file, int[] bitrateIndexes, boolean xing, int id3Size)
+            throws IOException {
+        ByteArrayOutputStream song = new ByteArrayOutputStream();
+
+        if (id3Size > 0) {
+            byte[] tag = new byte[id3Size];
+            int size = id3Size - 10;
+
+            tag[0] = 'I';
+            tag[1] = 'D';
+            tag[2] = '3';
+            tag[3] = 4;
+            tag[6] = (byte) ((size >> 21) & 0x7f);
+            tag[7] = (byte) ((size >> 14) & 0x7f);
+            tag[8] = (byte) ((size >> 7) & 0x7f);
+            tag[9] = (byte) (size & 0x7f);
+            song.write(tag, 0, tag.length);
+        }
+
+        if (xing) {
+            ByteBuffer frame = ByteBuffer.allocate(frameLength(9));
+
+            frame.putInt(mpeg1Layer3 | 9 << 12);
+            frame.position(4 + 32);
+            frame.put(new byte[] { 'X', 'i', 'n', 'g' });
+            song.write(frame.array(), 0, frame.capacity());
+        }
+
+        for (int bitrateIndex : bitrateIndexes) {
+            ByteBuffer frame = ByteBuffer.allocate(frameLength(bitrateIndex));
+
+            frame.putInt(mpeg1Layer3 | bitrateIndex << 12);
+            song.write(frame.array(), 0, frame.capacity());
+        }
+
+        Files.write(file.toPath(), song.toByteArray());
+
+        return song.toByteArray();
+    }
+
+    private static int framesFor(double seconds) {
+        return (int) Math.ceil(seconds * sampleRate / samplesPerFrame);
+    }
+
+    @Test
+    public void build_timesConstantBitrateSong() throws IOException {
+        File file = folder.newFile("cbr.mp3");
+        int[] bitrates = new int[framesFor(40)];
+
+        Arrays.fill(bitrates, 9); /* 128 kbps */
+        writeSong(file, bitrates, false, 1000);
+
+        Mp3FrameIndex index = Mp3FrameIndex.build(file);
+        int frameLength = frameLength(9);
+
+        assertEquals(417, frameLength);
+        assertEquals(bitrates.length, index.getFrameCount());
+        assertEquals(bitrates.length * (long) samplesPerFrame * 1000 / sampleRate,
+                index.getDurationMs());
+        assertEquals(1000, index.getAudioStart());
+        assertEquals(1000 + bitrates.length * frameLength, index.getAudioEnd());
+        assertEquals(frameLength * sampleRate / samplesPerFrame, index.getBytesPerSecond(), 1);
+
+        long tenSeconds = 1000 + (long) framesFor(10) * frameLength;
+        assertEquals(tenSeconds, index.getOffset(10.5));
+        assertEquals(10, index.getSecond(tenSeconds));
+        assertEquals(10, index.getSecond(tenSeconds + 1));
+        assertEquals(1000, index.getOffset(0));
+        assertEquals(index.getAudioEnd(), index.getOffset(41));
+    }
+
+    @Test
+    public void build_skipsXingFrameAndTimesVariableBitrate() throws IOException {
+        File file = folder.newFile("vbr.mp3");
+        int[] bitrates = new int[framesFor(20)];
+        long[] expected = new long[20];
+        int xingLength = frameLength(9);
+        long pos = xingLength;
+        long samples = 0;
+        int second = 0;
+
+        for (int i = 0; i < bitrates.length; i++) {
+            bitrates[i] = (i % 3 == 0) ? 14 : 5; /* 320 and 64 kbps */
+
+            while (second < expected.length && samples >= (long) second * sampleRate)
+                expected[second++] = pos;
+
+            samples += samplesPerFrame;
+            pos += frameLength(bitrates[i]);
+        }
+
+        writeSong(file, bitrates, true, 0);
+        Mp3FrameIndex index = Mp3FrameIndex.build(file);
+
+        assertEquals(bitrates.length, index.getFrameCount());
+        assertEquals(xingLength, index.getAudioStart());
+        for (int s = 0; s < expected.length; s++)
+            assertEquals(expected[s], index.getOffset(s));
+    }
+
+    @Test
+    public void build_resynchronizesPastGarbage() throws IOException {
+        File file = folder.newFile("junk.mp3");
+        int[] bitrates = new int[100];
+
+        Arrays.fill(bitrates, 9);
+        byte[] song = writeSong(file, bitrates, false, 0);
+
+        /* A stray sync inside junk between frames 10 and 11 and an ID3v1 tag at the end */
+        byte[] junk = new byte[300];
+        Arrays.fill(junk, (byte) 0x55);
+        junk[50] = (byte) 0xff;
+        junk[51] = (byte) 0xfb;
+        byte[] tag = new byte[128];
+        tag[0] = 'T';
+        tag[1] = 'A';
+        tag[2] = 'G';
+
+        int split = 10 * frameLength(9);
+        ByteArrayOutputStream broken = new ByteArrayOutputStream();
+        broken.write(song, 0, split);
+        broken.write(junk, 0, junk.length);
+        broken.write(song, split, song.length - split);
+        broken.write(tag, 0, tag.length);
+        Files.write(file.toPath(), broken.toByteArray());
+
+        Mp3FrameIndex index = Mp3FrameIndex.build(file);
+
+        assertEquals(bitrates.length, index.getFrameCount());
+        assertEquals(song.length + junk.length, index.getAudioEnd());
+    }
+
+    @Test
+    public void load_cachesIndexUntilSongChanges() throws IOException {
+        File file = folder.newFile("song.mp3");
+        File cache = new File(folder.getRoot(), "song.idx");
+        int[] bitrates = new int[framesFor(30)];
+
+        Arrays.fill(bitrates, 11);
+        writeSong(file, bitrates, true, 0);
+
+        assertNull(Mp3FrameIndex.open(cache, file));
+
+        Mp3FrameIndex built = Mp3FrameIndex.load(file, cache);
+        Mp3FrameIndex cached = Mp3FrameIndex.open(cache, file);
+
+        assertNotNull(cached);
+        assertEquals(built.getDurationMs(), cached.getDurationMs());
+        assertEquals(built.getFrameCount(), cached.getFrameCount());
+        assertEquals(built.getAudioStart(), cached.getAudioStart());
+        assertEquals(built.getAudioEnd(), cached.getAudioEnd());
+        for (int s = 0; s < 30; s++)
+            assertEquals(built.getOffset(s), cached.getOffset(s));
+
+        assertTrue(file.setLastModified(file.lastModified() - 10000));
+        assertNull(Mp3FrameIndex.open(cache, file));
+    }
+}
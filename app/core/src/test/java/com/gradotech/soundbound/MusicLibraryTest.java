@@ -0,0 +1,288 @@
+package com.gradotech.soundbound;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class MusicLibraryTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static class Recorder implements MusicLibrary.Listener {
+        final List<List<MusicLibrary.Track>> found =
+                Collections.synchronizedList(new ArrayList<>());
+        final List<MusicLibrary.Track> removed = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch updated;
+
+        Recorder(int updates) {
+            updated = new CountDownLatch(updates);
+        }
+
+        @Override
+        public void onTracksFound(List<MusicLibrary.Track> tracks) {
+            found.add(tracks);
+        }
+
+        @Override
+        public void onTracksRemoved(List<MusicLibrary.Track> tracks) {
+            removed.addAll(tracks);
+        }
+
+        @Override
+        public void onTrackUpdated(MusicLibrary.Track track) {
+            updated.countDown();
+        }
+
+        @Override
+        public void onScanFinished(int trackCount) {}
+
+        List<String> paths() {
+            List<String> paths = new ArrayList<>();
+
+            for (List<MusicLibrary.Track> batch : found) {
+                for (MusicLibrary.Track track : batch)
+                    paths.add(track.getPath());
+            }
+
+            return paths;
+        }
+    }
+
+    private static byte[] textFrame(String id, String value, int version) {
+        byte[] text = value.getBytes((version == 4) ? StandardCharsets.UTF_8 :
+                StandardCharsets.ISO_8859_1);
+        int size = text.length + 1;
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+
+        frame.write(id.getBytes(StandardCharsets.US_ASCII), 0, 4);
+        if (version == 4) {
+            frame.write((size >> 21) & 0x7f);
+            frame.write((size >> 14) & 0x7f);
+            frame.write((size >> 7) & 0x7f);
+            frame.write(size & 0x7f);
+        } else {
+            frame.write(size >>> 24);
+            frame.write(size >>> 16);
+            frame.write(size >>> 8);
+            frame.write(size);
+        }
+        frame.write(0);
+        frame.write(0);
+        frame.write((version == 4) ? 3 : 0); /* UTF-8 or Latin-1 */
+        frame.write(text, 0, text.length);
+
+        return frame.toByteArray();
+    }
+
+    /* A tag with a picture before the text frames and a few silent frames */
+    private static void writeTagged(File file, int version, String title, String artist)
+            throws IOException {
+        ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        byte[] picture = new byte[10 + 20000];
+
+        System.arraycopy("APIC".getBytes(StandardCharsets.US_ASCII), 0, picture, 0, 4);
+        picture[6] = (byte) (20000 >> 8);
+        picture[7] = (byte) 20000;
+        if (version == 4) {
+            picture[5] = (byte) ((20000 >> 14) & 0x7f);
+            picture[6] = (byte) ((20000 >> 7) & 0x7f);
+            picture[7] = (byte) (20000 & 0x7f);
+        }
+        frames.write(picture, 0, picture.length);
+
+        byte[] frame = textFrame("TIT2", title, version);
+        frames.write(frame, 0, frame.length);
+        frame = textFrame("TPE1", artist, version);
+        frames.write(frame, 0, frame.length);
+
+        int size = frames.size();
+        byte[] header = { 'I', 'D', '3', (byte) version, 0, 0, (byte) ((size >> 21) & 0x7f),
+                (byte) ((size >> 14) & 0x7f), (byte) ((size >> 7) & 0x7f), (byte) (size & 0x7f) };
+
+        File audio = new File(file.getPath() + ".audio");
+        int[] bitrates = new int[383]; /* 10 s at 128 kbps */
+        Arrays.fill(bitrates, 9);
+        byte[] song = Mp3FrameIndexTest.writeSong(audio, bitrates, false, 0);
+        audio.delete();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(header, 0, header.length);
+        out.write(frames.toByteArray(), 0, size);
+        out.write(song, 0, song.length);
+        Files.write(file.toPath(), out.toByteArray());
+    }
+
+    private File touch(String path) throws IOException {
+        File file = new File(folder.getRoot(), "Music/" + path);
+
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), path.getBytes(StandardCharsets.UTF_8));
+
+        return file;
+    }
+
+    @Test
+    public void scan_recursesAndPublishesOnlyMp3Files() throws Exception {
+        touch("a.mp3");
+        touch("b.MP3");
+        touch("cover.jpg");
+        touch(".hidden/c.mp3");
+        touch("Album/01.mp3");
+        touch("Album/Disc 2/01.mp3");
+
+        Recorder recorder = new Recorder(0);
+        MusicLibrary library = new MusicLibrary(new File(folder.getRoot(), "Music"),
+                new File(folder.getRoot(), "library"), recorder);
+
+        library.scan().get();
+        library.scan().get();
+        library.close();
+
+        String music = new File(folder.getRoot(), "Music").getPath() + File.separator;
+        assertEquals(Arrays.asList(music + "a.mp3", music + "b.MP3",
+                music + "Album" + File.separator + "01.mp3",
+                music + "Album" + File.separator + "Disc 2" + File.separator + "01.mp3"),
+                recorder.paths());
+    }
+
+    @Test
+    public void scan_fromCacheReportsOnlyChanges() throws Exception {
+        File root = new File(folder.getRoot(), "Music");
+        File cache = new File(folder.getRoot(), "library");
+        File kept = touch("kept.mp3");
+        File changed = touch("changed.mp3");
+        File gone = touch("gone.mp3");
+
+        MusicLibrary cold = new MusicLibrary(root, cache, new Recorder(0));
+        cold.scan().get();
+        cold.close();
+
+        Files.write(changed.toPath(), new byte[100]);
+        assertTrue(changed.setLastModified(changed.lastModified() + 5000));
+        assertTrue(gone.delete());
+        touch("added.mp3");
+
+        Recorder recorder = new Recorder(0);
+        MusicLibrary warm = new MusicLibrary(root, cache, recorder);
+        warm.scan().get();
+        warm.close();
+
+        /* The cached tracks come first, then the differences */
+        assertEquals(3, recorder.found.get(0).size());
+        assertEquals(Arrays.asList(changed.getPath(), gone.getPath(), kept.getPath(),
+                new File(root, "added.mp3").getPath(), changed.getPath()), recorder.paths());
+
+        List<String> removed = new ArrayList<>();
+        for (MusicLibrary.Track track : recorder.removed)
+            removed.add(track.getPath());
+        Collections.sort(removed);
+        assertEquals(Arrays.asList(changed.getPath(), gone.getPath()), removed);
+    }
+
+    @Test
+    public void requestMetadata_readsTagsOnceAndCachesThem() throws Exception {
+        File root = new File(folder.getRoot(), "Music");
+        File cache = new File(folder.getRoot(), "library");
+        File v3 = new File(root, "v3.mp3");
+        File v4 = new File(root, "v4.mp3");
+
+        root.mkdirs();
+        writeTagged(v3, 3, "Caf\u00e9", "Artist");
+        writeTagged(v4, 4, "\u6771\u4eac", "Band");
+
+        Recorder recorder = new Recorder(2);
+        MusicLibrary library = new MusicLibrary(root, cache, recorder);
+        library.scan().get();
+        for (MusicLibrary.Track track : recorder.found.get(0))
+            library.requestMetadata(track);
+        assertTrue(recorder.updated.await(5, TimeUnit.SECONDS));
+        library.close();
+
+        MusicLibrary.Track first = recorder.found.get(0).get(0);
+        MusicLibrary.Track second = recorder.found.get(0).get(1);
+        assertEquals("Artist - Caf\u00e9", first.getDisplayName());
+        assertEquals("Band - \u6771\u4eac", second.getDisplayName());
+        assertEquals(383 * 1152 * 1000L / 44100, first.getDurationMs());
+
+        /* The next launch knows the tags without opening the files */
+        Recorder warm = new Recorder(0);
+        MusicLibrary again = new MusicLibrary(root, cache, warm);
+        again.scan().get();
+        again.close();
+
+        MusicLibrary.Track cached = warm.found.get(0).get(0);
+        assertTrue(cached.hasMetadata());
+        assertEquals("Caf\u00e9", cached.getTitle());
+        assertEquals(first.getDurationMs(), cached.getDurationMs());
+    }
+
+    @Test
+    public void requestMetadata_racingCloseNeverThrows() throws Exception {
+        File root = new File(folder.getRoot(), "Music");
+        File song = new File(root, "song.mp3");
+
+        root.mkdirs();
+        writeTagged(song, 3, "Title", "Artist");
+
+        for (int round = 0; round < 20; round++) {
+            MusicLibrary library = new MusicLibrary(root, new File(folder.getRoot(),
+                    "library" + round), new Recorder(0));
+            AtomicReference<Throwable> error = new AtomicReference<>();
+            AtomicBoolean closed = new AtomicBoolean();
+
+            /* Like the list adapter asking for every row it binds */
+            Thread requester = new Thread(() -> {
+                try {
+                    while (!closed.get())
+                        library.requestMetadata(new MusicLibrary.Track(song.getPath(), 0, 0));
+                } catch (Throwable e) {
+                    error.set(e);
+                }
+            });
+            requester.start();
+
+            Thread.sleep(1);
+            library.close();
+            closed.set(true);
+            requester.join();
+            library.close();
+
+            assertNull(error.get());
+        }
+    }
+
+    @Test
+    public void readMetadata_fallsBackToId3v1AndFileName() throws Exception {
+        File file = folder.newFile("Plain Song.mp3");
+        byte[] tag = new byte[128];
+
+        MusicLibrary.Track plain = new MusicLibrary.Track(file.getPath(), 0, 0);
+        MusicLibrary.readMetadata(plain);
+        assertEquals("Plain Song", plain.getDisplayName());
+
+        System.arraycopy("TAG".getBytes(StandardCharsets.US_ASCII), 0, tag, 0, 3);
+        System.arraycopy("Old Title".getBytes(StandardCharsets.US_ASCII), 0, tag, 3, 9);
+        System.arraycopy("Old Artist".getBytes(StandardCharsets.US_ASCII), 0, tag, 33, 10);
+        Files.write(file.toPath(), tag);
+
+        MusicLibrary.Track tagged = new MusicLibrary.Track(file.getPath(), 0, 0);
+        MusicLibrary.readMetadata(tagged);
+        assertEquals("Old Artist - Old Title", tagged.getDisplayName());
+    }
+}
@@ -0,0 +1,146 @@
+package com.gradotech.soundbound;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PlaylistTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<Integer> started = new ArrayList<>();
+
+    private static Mp3FrameIndex index(File song) {
+        try {
+            return Mp3FrameIndex.build(song);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /* Writes a song of frames of one bitrate and returns its audio */
+    private byte[] writeSong(String name, int bitrateIndex, int frames) throws IOException {
+        File file = folder.newFile(name);
+        int[] bitrates = new int[frames];
+
+        Arrays.fill(bitrates, bitrateIndex);
+        byte[] song = Mp3FrameIndexTest.writeSong(file, bitrates, true, 100);
+        Mp3FrameIndex index = Mp3FrameIndex.build(file);
+
+        return Arrays.copyOfRange(song, index.getAudioStart(), index.getAudioEnd());
+    }
+
+    private Playlist playlist(int prefetchBytes, String... names) {
+        Playlist playlist = new Playlist(PlaylistTest::index, prefetchBytes);
+
+        for (String name : names)
+            playlist.add(new File(folder.getRoot(), name).getPath());
+
+        return playlist;
+    }
+
+    private byte[] readAll(Playlist.Stream stream, int chunk) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteBuffer buff = ByteBuffer.allocate(chunk);
+
+        while (stream.read(buff) >= 0) {
+            out.write(buff.array(), 0, buff.position());
+            buff.clear();
+        }
+
+        return out.toByteArray();
+    }
+
+    @Test
+    public void stream_joinsSongsAtFrameBoundaries() throws IOException {
+        byte[] first = writeSong("first.mp3", 9, 40);
+        byte[] second = writeSong("second.mp3", 5, 30);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+
+        expected.write(first);
+        expected.write(second);
+
+        for (int prefetch : new int[] { 0, 1000, 1 << 20 }) {
+            Playlist.Stream stream = playlist(prefetch, "first.mp3", "second.mp3")
+                    .open(0, 0, (track, index) -> started.add(track));
+
+            assertArrayEquals(expected.toByteArray(), readAll(stream, 777));
+            assertEquals(2, stream.getTrack());
+            stream.close();
+        }
+
+        assertEquals(Arrays.asList(0, 1, 0, 1, 0, 1), started);
+    }
+
+    @Test
+    public void stream_skipsSongsThatCantBeIndexed() throws IOException {
+        byte[] first = writeSong("first.mp3", 9, 10);
+        Files.write(folder.newFile("broken.mp3").toPath(), new byte[] { 1, 2, 3 });
+        byte[] last = writeSong("last.mp3", 9, 10);
+        Playlist playlist = playlist(4096, "missing.mp3", "first.mp3", "broken.mp3", "last.mp3");
+        Playlist.Stream stream = playlist.open(0, 0, (track, index) -> started.add(track));
+
+        byte[] body = readAll(stream, 4096);
+
+        assertEquals(first.length + last.length, body.length);
+        assertEquals(Arrays.asList(1, 3), started);
+    }
+
+    @Test
+    public void stream_startsAtOffsetAndPlaysSongsAddedLater() throws IOException {
+        byte[] first = writeSong("first.mp3", 9, 40);
+        byte[] second = writeSong("second.mp3", 9, 10);
+        Mp3FrameIndex index = Mp3FrameIndex.build(new File(folder.getRoot(), "first.mp3"));
+        Playlist playlist = playlist(4096, "first.mp3");
+        long offset = index.getAudioStart() + 20 * first.length / 40;
+        Playlist.Stream stream = playlist.open(0, offset, null);
+        ByteBuffer buff = ByteBuffer.allocate(first.length);
+
+        assertEquals(first.length / 2, stream.read(buff));
+        assertArrayEquals(Arrays.copyOfRange(first, first.length / 2, first.length),
+                Arrays.copyOf(buff.array(), buff.position()));
+
+        playlist.add(new File(folder.getRoot(), "second.mp3").getPath());
+        assertArrayEquals(second, readAll(stream, 4096));
+        assertEquals(-1, stream.read(ByteBuffer.allocate(1)));
+    }
+
+    @Test
+    public void getIndex_indexesEverySongOnce() throws IOException {
+        byte[] first = writeSong("first.mp3", 9, 10);
+        byte[] second = writeSong("second.mp3", 9, 10);
+        List<String> indexed = new ArrayList<>();
+        Playlist playlist = new Playlist(song -> {
+            synchronized (indexed) {
+                indexed.add(song.getName());
+            }
+            return index(song);
+        }, 4096);
+
+        for (String name : new String[] { "first.mp3", "missing.mp3", "second.mp3" })
+            playlist.add(new File(folder.getRoot(), name).getPath());
+
+        /* Seeking goes through every song, the stream and its prefetch reuse them */
+        for (int track = 0; track < playlist.size(); track++)
+            playlist.getIndex(track);
+        byte[] body = readAll(playlist.open(0, 0, null), 4096);
+
+        assertEquals(first.length + second.length, body.length);
+        assertNull(playlist.getIndex(1));
+        assertEquals(first.length, playlist.getIndex(0).getAudioEnd() -
+                                   playlist.getIndex(0).getAudioStart());
+
+        assertEquals(Arrays.asList("first.mp3", "missing.mp3", "second.mp3"), indexed);
+    }
+}
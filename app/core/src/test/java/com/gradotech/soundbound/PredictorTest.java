@@ -0,0 +1,316 @@
+package com.gradotech.soundbound;
+
+import org.junit.Test;
+
+
+import static org.junit.Assert.*;
+
+public class PredictorTest {
+    private static final String beaconX = "2f234454-cf6d-4a0f-adf2-f4911ba9ffa6";
+    private static final String beaconY = "7b8d4e1f-9a3c-6f2b-0e5d-8c9a7d3b2e4f";
+
+    /* Beacons are listed in the opposite order of the inputs they measure */
+    private static ModelConfig roomConfig() {
+        ModelConfig config = new ModelConfig();
+
+        config.addInput(new ModelConfig.Shape("x", "float", 0, 340));
+        config.addInput(new ModelConfig.Shape("y", "float", 0, 360));
+        config.addOutput(new ModelConfig.Shape("a", "float", 0, 100));
+        config.addOutput(new ModelConfig.Shape("b", "float", 0, 100));
+        config.addOutput(new ModelConfig.Shape("c", "float", 0, 100));
+        config.addBeacon(new ModelConfig.Beacon(beaconY, "y"));
+        config.addBeacon(new ModelConfig.Beacon(beaconX, "x"));
+
+        return config;
+    }
+
+    private static ModelConfig filteredConfig(String filter) {
+        ModelConfig config = new ModelConfig();
+
+        config.addInput(new ModelConfig.Shape("x", "float", 0, 340));
+        config.addInput(new ModelConfig.Shape("y", "float", 0, 360));
+        config.addOutput(new ModelConfig.Shape("a", "float", 0, 100));
+        config.addOutput(new ModelConfig.Shape("b", "float", 0, 100));
+        config.addOutput(new ModelConfig.Shape("c", "float", 0, 100));
+        config.addBeacon(new ModelConfig.Beacon(beaconY, "y", filter));
+        config.addBeacon(new ModelConfig.Beacon(beaconX, "x", filter));
+
+        return config;
+    }
+
+    /* Passes x, y and x + y through so the test can see what reached the model */
+    private static final PanningEngine passThrough = (input, output) -> {
+        output[0] = input[0];
+        output[1] = input[1];
+        output[2] = input[0] + input[1];
+    };
+
+    @Test
+    public void predict_usesConfigOrderAndClamps() {
+        Predictor predictor = new Predictor(roomConfig(), passThrough);
+        int[] volumes = new int[predictor.getOutputCount()];
+
+        assertTrue(predictor.updateInput(beaconX, 0.42f));
+        assertTrue(predictor.updateInput(beaconY, 0.9f));
+        assertFalse(predictor.updateInput("unknown", 1f));
+
+        predictor.predict(volumes);
+
+        assertArrayEquals(new int[] { 42, 90, 100 }, volumes);
+        assertEquals('a', predictor.getSpeakerId(0));
+        assertEquals('c', predictor.getSpeakerId(2));
+
+        predictor.updateInput(beaconX, -1f);
+        predictor.predict(volumes);
+
+        assertEquals(0, volumes[0]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_rejectsBeaconOfUnknownInput() {
+        ModelConfig config = roomConfig();
+
+        config.addBeacon(new ModelConfig.Beacon("z-beacon", "z"));
+        new Predictor(config, passThrough);
+    }
+
+    @Test
+    public void updateInput_filtersEachBeacon() {
+        Predictor predictor = new Predictor(filteredConfig("average:2"), passThrough);
+        int[] volumes = new int[predictor.getOutputCount()];
+
+        predictor.updateInput(beaconX, 0.2f);
+        predictor.updateInput(beaconX, 0.6f);
+        predictor.updateInput(beaconY, 0.5f);
+        predictor.predict(volumes);
+
+        assertArrayEquals(new int[] { 40, 50, 90 }, volumes);
+    }
+
+    private static ModelConfig lookaheadConfig(int steps) {
+        ModelConfig config = filteredConfig("exponential:0.5");
+
+        config.setLookahead(new ModelConfig.Lookahead(1000, steps, 4, 150));
+
+        return config;
+    }
+
+    @Test
+    public void predict_looksAheadByFilterLagAndLatency() {
+        Predictor predictor = new Predictor(lookaheadConfig(1), passThrough);
+        int[] volumes = new int[predictor.getOutputCount()];
+
+        /* 10 cm/s along x, 200 ms scans */
+        predictor.setLatency(100000000L);
+        for (int i = 0; i <= 20; i++) {
+            predictor.updateInput(beaconX, 0.1f + i * 0.02f);
+            predictor.updateInput(beaconY, 0.3f);
+            predictor.predict(volumes, i * 200000000L);
+        }
+
+        /* 1 update of filter lag plus half a scan at 0.2 s, plus 0.1 s of latency */
+        assertEquals(0.4f, predictor.getHorizon(0), 1e-4f);
+
+        /* The filter trails 50 cm by 2 cm, the lookahead goes 4 cm past them */
+        assertArrayEquals(new int[] { 52, 30, 82 }, volumes);
+
+        predictor.predict(volumes);
+        assertArrayEquals(new int[] { 48, 30, 78 }, volumes);
+    }
+
+    @Test
+    public void predict_spreadsTheBatchAroundTheHorizon() {
+        int[][] volumes = new int[2][3];
+        int[] rows = new int[2];
+
+        for (int steps = 1; steps <= 3; steps += 2) {
+            int index = steps / 2;
+            PanningEngine counting = new PanningEngine() {
+                @Override
+                public void run(float[] input, float[] output) {
+                    passThrough.run(input, output);
+                    rows[index]++;
+                }
+            };
+            Predictor predictor = new Predictor(lookaheadConfig(steps), counting);
+
+            predictor.setLatency(100000000L);
+            for (int i = 0; i <= 10; i++) {
+                predictor.updateInput(beaconX, 0.1f + i * 0.03f);
+                predictor.updateInput(beaconY, 0.2f);
+                predictor.predict(volumes[index], i * 200000000L);
+            }
+        }
+
+        /* 37 cm out of the filter plus 0.4 s at 15 cm/s, for one row or the mean of 3 */
+        assertEquals(43, volumes[0][0]);
+        assertArrayEquals(volumes[0], volumes[1]);
+        assertEquals(3 * rows[0], rows[1]);
+    }
+
+    @Test
+    public void predict_keepsTheBatchWithinTheHorizon() {
+        int[][] volumes = new int[2][3];
+
+        for (int steps = 1; steps <= 3; steps += 2) {
+            int index = steps / 2;
+            Predictor predictor = new Predictor(lookaheadConfig(steps), passThrough);
+
+            predictor.setLatency(900000000L);
+            for (int i = 0; i <= 10; i++) {
+                predictor.updateInput(beaconX, 0.1f + i * 0.03f);
+                predictor.updateInput(beaconY, 0.2f);
+                predictor.predict(volumes[index], i * 200000000L);
+            }
+            assertEquals(1f, predictor.getHorizon(0), 1e-4f);
+        }
+
+        /* 37 cm plus 1 s at 15 cm/s, the rows at 0.5, 1 and 1 s fall short of it */
+        assertEquals(52, volumes[0][0]);
+        assertEquals(49, volumes[1][0]);
+    }
+
+    private static final String guideX = "3a1c6e2f-5b7d-4c8e-9f0a-1b2c3d4e5f60";
+    private static final String guideY = "8e7d6c5b-4a39-4281-b7f6-e5d4c3b2a190";
+
+    /* A visitor carrying beaconX and beaconY, then a guide with beacons of their own */
+    private static ModelConfig listenersConfig(ModelConfig.Mixing mixing) {
+        ModelConfig config = roomConfig();
+
+        config.addBeacon(new ModelConfig.Beacon(guideX, "x", null, 1));
+        config.addBeacon(new ModelConfig.Beacon(guideY, "y", null, 1));
+        config.setMixing(mixing);
+
+        return config;
+    }
+
+    @Test
+    public void predict_mixesListenersByPolicy() {
+        int[][] expected = {
+                { 60, 30, 80 },
+                { 51, 25, 76 },
+                { 42, 30, 72 } };
+
+        for (ModelConfig.Mixing mixing : ModelConfig.Mixing.values()) {
+            Predictor predictor = new Predictor(listenersConfig(mixing), passThrough);
+            int[] volumes = new int[predictor.getOutputCount()];
+
+            assertEquals(2, predictor.getListenerCount());
+            predictor.updateInput(beaconX, 0.42f);
+            predictor.updateInput(beaconY, 0.3f);
+            predictor.updateInput(guideX, 0.6f);
+            predictor.updateInput(guideY, 0.2f);
+            predictor.predict(volumes);
+
+            assertArrayEquals(mixing.name(), expected[mixing.ordinal()], volumes);
+        }
+    }
+
+    @Test
+    public void predict_mixesOnlyListenersInTheRoom() {
+        Predictor predictor = new Predictor(listenersConfig(ModelConfig.Mixing.MEAN),
+                                            passThrough);
+        int[] volumes = new int[predictor.getOutputCount()];
+
+        /* Nobody seen yet, both listeners are predicted from where they were */
+        predictor.predict(volumes);
+        assertArrayEquals(new int[] { 0, 0, 0 }, volumes);
+
+        predictor.updateInput(guideX, 0.6f);
+        predictor.updateInput(guideY, 0.2f);
+        predictor.predict(volumes);
+        assertArrayEquals(new int[] { 60, 20, 80 }, volumes);
+
+        predictor.updateInput(beaconX, 0.4f);
+        predictor.updateInput(beaconY, 0.4f);
+        predictor.predict(volumes);
+        assertArrayEquals(new int[] { 50, 30, 80 }, volumes);
+
+        /* The guide left, they stay in the mix for 3 predictions */
+        for (int i = 0; i < 3; i++) {
+            predictor.updateInput(beaconX, 0.4f);
+            predictor.predict(volumes);
+        }
+        assertArrayEquals(new int[] { 40, 40, 80 }, volumes);
+    }
+
+    @Test
+    public void predict_runsAllListenersInOneBatch() {
+        ModelConfig config = listenersConfig(ModelConfig.Mixing.MAX);
+        int[] calls = new int[2];
+        PanningEngine batching = new PanningEngine() {
+            @Override
+            public void run(float[] input, float[] output) {
+                passThrough.run(input, output);
+                calls[0]++;
+            }
+
+            @Override
+            public int getMaxBatch() {
+                return 6;
+            }
+
+            @Override
+            public void runBatch(float[] input, float[] output, int rows) {
+                float[] in = new float[2];
+                float[] out = new float[3];
+
+                for (int row = 0; row < rows; row++) {
+                    System.arraycopy(input, row * 2, in, 0, 2);
+                    passThrough.run(in, out);
+                    System.arraycopy(out, 0, output, row * 3, 3);
+                }
+                calls[1]++;
+            }
+        };
+
+        config.setLookahead(new ModelConfig.Lookahead(1000, 3, 4, 150));
+        Predictor predictor = new Predictor(config, batching);
+        int[] volumes = new int[predictor.getOutputCount()];
+
+        predictor.setLatency(300000000L);
+
+        /* The visitor walks along x, the guide stands still further along y */
+        for (int i = 0; i <= 10; i++) {
+            predictor.updateInput(beaconX, 0.1f + i * 0.03f);
+            predictor.updateInput(beaconY, 0.2f);
+            predictor.updateInput(guideX, 0.3f);
+            predictor.updateInput(guideY, 0.5f);
+            predictor.predict(volumes, i * 200000000L);
+        }
+
+        assertEquals(0, calls[0]);
+        assertEquals(11, calls[1]);
+        assertEquals(0.4f, predictor.getHorizon(0, 0), 1e-4f);
+        assertEquals(0.4f, predictor.getHorizon(1, 0), 1e-4f);
+
+        /* Each listener looks ahead on their own motion, 40 cm plus 0.4 s at 15 cm/s */
+        assertArrayEquals(new int[] { 46, 50, 80 }, volumes);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_rejectsListenerWithoutBeacons() {
+        ModelConfig config = roomConfig();
+
+        config.addBeacon(new ModelConfig.Beacon("z-beacon", "x", null, 2));
+        new Predictor(config, passThrough);
+    }
+
+    @Test
+    public void predict_doesNotAllocateAfterWarmup() {
+        Predictor predictor = new Predictor(filteredConfig("kalman:0.005:0.09"), passThrough);
+        VolumeDeadband deadband = predictor.createDeadband();
+        int[] volumes = new int[predictor.getOutputCount()];
+
+        Allocations.assertNoAllocation(i -> cycle(predictor, deadband, volumes, i));
+    }
+
+    private static void cycle(Predictor predictor, VolumeDeadband deadband, int[] volumes,
+            int i) {
+        predictor.updateInput(beaconX, (i % 340) / 100f);
+        predictor.updateInput(beaconY, (i % 360) / 100f);
+        predictor.predict(volumes);
+        for (int j = 0; j < volumes.length; j++)
+            deadband.accept(j, volumes[j]);
+    }
+}
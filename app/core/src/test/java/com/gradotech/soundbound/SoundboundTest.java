@@ -0,0 +1,221 @@
+package com.gradotech.soundbound;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Golden bytes and layouts are the output of lib/test/packet_dump.cpp, which fills
+ * the sb_* structs of SoundboundProtocol.h and prints their sizes, offsets and wire
+ * bytes. make test in lib/test fails when the structs no longer match the file.
+ */
+public class SoundboundTest {
+    private static final Map<String, Integer> layout = new HashMap<>();
+    private static final Map<String, byte[]> packets = new HashMap<>();
+
+    static {
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                SoundboundTest.class.getResourceAsStream("/sb_packets.txt"),
+                StandardCharsets.US_ASCII))) {
+            String line;
+
+            while ((line = in.readLine()) != null) {
+                String[] words = line.split(" ");
+
+                if (words[0].equals("size") || words[0].equals("offset")) {
+                    layout.put(words[0] + " " + words[1], Integer.parseInt(words[2]));
+                } else if (words[0].equals("packet")) {
+                    byte[] bytes = new byte[words.length - 2];
+
+                    for (int i = 0; i < bytes.length; i++)
+                        bytes[i] = (byte) Integer.parseInt(words[i + 2], 16);
+                    packets.put(words[1], bytes);
+                }
+            }
+        } catch (IOException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static final byte[] qdataGolden = packets.get("qdata");
+    private static final byte[] discoveryGolden = packets.get("discovery");
+    private static final byte[] volumeGolden = packets.get("volume");
+    private static final byte[] batchGolden = packets.get("batch");
+    private static final byte[] rampGolden = packets.get("ramp");
+
+    private static int size(String struct) {
+        return layout.get("size " + struct);
+    }
+
+    private static int offset(String field) {
+        return layout.get("offset " + field);
+    }
+
+    private static byte[] written(ByteBuffer buff) {
+        byte[] bytes = new byte[buff.position()];
+
+        buff.flip();
+        buff.get(bytes);
+
+        return bytes;
+    }
+
+    @Test
+    public void qdataPacket_matchesStructLayout() {
+        ByteBuffer buff = ByteBuffer.allocate(64);
+
+        assertEquals(size("qdata"), Soundbound.QDataPacket.SIZE);
+        assertEquals(3, offset("qdata.spks"));
+        assertEquals(3 + Soundbound.SB_MAX_SPEAKERS, offset("qdata.device"));
+
+        Soundbound.QDataPacket.encode(buff, 0, 2, new byte[] { 'a', 'b', 'c', 'd' },
+                "Living room");
+        assertArrayEquals(qdataGolden, written(buff));
+    }
+
+    @Test
+    public void qdataPacket_decodesInPlace() {
+        /* Decoding at an offset must not copy or move the buffer */
+        ByteBuffer buff = ByteBuffer.allocate(qdataGolden.length + 3);
+        buff.position(3);
+        buff.put(qdataGolden);
+        buff.position(0);
+
+        Soundbound.QDataPacket qdata = new Soundbound.QDataPacket().wrap(buff, 3);
+
+        assertEquals(Soundbound.SB_QUERY_DATA, qdata.getCmd());
+        assertEquals(0, qdata.getMajor());
+        assertEquals(2, qdata.getMinor());
+        assertEquals(4, qdata.getSpeakerCount());
+        assertEquals('c', qdata.getSpeakerId(2));
+        assertArrayEquals(new byte[] { 'a', 'b', 'c', 'd' }, qdata.getSpeakerIds());
+        assertEquals("Living room", qdata.getDeviceName());
+        assertEquals(0, buff.position());
+    }
+
+    @Test
+    public void qdataPacket_readsUnterminatedName() {
+        byte[] packet = qdataGolden.clone();
+
+        for (int i = 11; i < packet.length; i++)
+            packet[i] = 'x';
+        for (int i = 3; i < 11; i++)
+            packet[i] = (byte) ('a' + i);
+
+        Soundbound.QDataPacket qdata = new Soundbound.QDataPacket().wrap(packet);
+
+        assertEquals(Soundbound.SB_DEV_NAME_SIZE, qdata.getDeviceName().length());
+        assertEquals(Soundbound.SB_MAX_SPEAKERS, qdata.getSpeakerCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void qdataPacket_rejectsShortBuffer() {
+        new Soundbound.QDataPacket().wrap(new byte[Soundbound.QDataPacket.SIZE - 1]);
+    }
+
+    @Test
+    public void discoveryPacket_matchesStructLayout() {
+        ByteBuffer buff = ByteBuffer.allocate(64);
+
+        assertEquals(size("discovery"), Soundbound.DiscoveryPacket.SIZE);
+        assertEquals(offset("discovery.qdata"), Soundbound.DiscoveryPacket.QDATA_OFFSET);
+
+        Soundbound.DiscoveryPacket.encode(buff, Soundbound.SB_SERVER_PORT, 0, 2,
+                new byte[] { 'a', 'b', 'c', 'd' }, "Living room");
+        assertArrayEquals(discoveryGolden, written(buff));
+
+        assertTrue(Soundbound.DiscoveryPacket.matches(buff, 0));
+        assertEquals(Soundbound.SB_SERVER_PORT, Soundbound.DiscoveryPacket.getPort(buff, 0));
+        assertArrayEquals(qdataGolden, Soundbound.DiscoveryPacket.getQueryData(buff, 0));
+    }
+
+    @Test
+    public void discoveryPacket_rejectsRequestsAndTruncatedAnswers() {
+        ByteBuffer request = ByteBuffer.wrap(new byte[] { Soundbound.SB_DISCOVER });
+        ByteBuffer truncated = ByteBuffer.allocate(Soundbound.DiscoveryPacket.SIZE);
+
+        Soundbound.DiscoveryPacket.encode(truncated, 1881, 0, 3, new byte[] { 'a' }, "x");
+        truncated.limit(Soundbound.DiscoveryPacket.SIZE - 1);
+
+        assertFalse(Soundbound.DiscoveryPacket.matches(request, 0));
+        assertFalse(Soundbound.DiscoveryPacket.matches(truncated, 0));
+    }
+
+    @Test
+    public void volumePacket_matchesStructLayout() {
+        ByteBuffer buff = ByteBuffer.allocate(16);
+
+        assertEquals(size("volume"), Soundbound.VolumePacket.SIZE);
+        Soundbound.VolumePacket.encode(buff, (byte) 'b', (byte) 55);
+        assertArrayEquals(volumeGolden, written(buff));
+
+        assertTrue(Soundbound.VolumePacket.matches(buff, 0));
+        assertEquals('b', Soundbound.VolumePacket.getId(buff, 0));
+        assertEquals(55, Soundbound.VolumePacket.getVolume(buff, 0));
+    }
+
+    @Test
+    public void volumeBatchPacket_matchesStructLayout() {
+        ByteBuffer buff = ByteBuffer.allocate(Soundbound.VolumeBatchPacket.MAX_SIZE);
+
+        assertEquals(size("batch"), Soundbound.VolumeBatchPacket.MAX_SIZE);
+        assertEquals(offset("batch.vols"), Soundbound.VolumeBatchPacket.HEADER_SIZE);
+        assertEquals(size("entry"), Soundbound.VolumeBatchPacket.ENTRY_SIZE);
+
+        int start = Soundbound.VolumeBatchPacket.begin(buff);
+
+        Soundbound.VolumeBatchPacket.put(buff, (byte) 'a', (byte) 100);
+        Soundbound.VolumeBatchPacket.put(buff, (byte) 'c', (byte) 0);
+        Soundbound.VolumeBatchPacket.put(buff, (byte) 'd', (byte) 200);
+        assertEquals(3, Soundbound.VolumeBatchPacket.finish(buff, start));
+        assertArrayEquals(batchGolden, written(buff));
+
+        assertEquals(3, Soundbound.VolumeBatchPacket.getCount(buff, 0));
+        assertEquals('d', Soundbound.VolumeBatchPacket.getId(buff, 0, 2));
+        assertEquals((byte) 200, Soundbound.VolumeBatchPacket.getVolume(buff, 0, 2));
+    }
+
+    @Test
+    public void volumeRampPacket_matchesStructLayout() {
+        ByteBuffer buff = ByteBuffer.allocate(Soundbound.VolumeRampPacket.MAX_SIZE);
+
+        assertEquals(size("ramp"), Soundbound.VolumeRampPacket.MAX_SIZE);
+        assertEquals(offset("ramp.vols"), Soundbound.VolumeRampPacket.HEADER_SIZE);
+        assertEquals(size("entry"), Soundbound.VolumeRampPacket.ENTRY_SIZE);
+
+        int start = Soundbound.VolumeRampPacket.begin(buff, 800);
+
+        Soundbound.VolumeRampPacket.put(buff, (byte) 'a', (byte) 40);
+        Soundbound.VolumeRampPacket.put(buff, (byte) 'b', (byte) 60);
+        assertEquals(2, Soundbound.VolumeRampPacket.finish(buff, start));
+        assertArrayEquals(rampGolden, written(buff));
+
+        assertEquals(800, Soundbound.VolumeRampPacket.getDuration(buff, 0));
+        assertEquals('b', Soundbound.VolumeRampPacket.getId(buff, 0, 1));
+        assertEquals(60, Soundbound.VolumeRampPacket.getVolume(buff, 0, 1));
+
+        /* The duration is capped rather than wrapped */
+        buff.clear();
+        Soundbound.VolumeRampPacket.begin(buff, 100000);
+        assertEquals(0xffff, Soundbound.VolumeRampPacket.getDuration(buff, 0));
+    }
+
+    @Test
+    public void commands_matchEnum() {
+        assertEquals(0, Soundbound.SB_NO_CMD);
+        assertEquals(1, Soundbound.SB_QUERY_DATA);
+        assertEquals(2, Soundbound.SB_SET_VOLUME);
+        assertEquals(3, Soundbound.SB_START);
+        assertEquals(4, Soundbound.SB_STOP);
+        assertEquals(5, Soundbound.SB_SET_VOLUME_BATCH);
+        assertEquals(7, Soundbound.SB_SET_VOLUME_RAMP);
+    }
+}
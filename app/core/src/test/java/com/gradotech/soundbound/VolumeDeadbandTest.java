@@ -0,0 +1,138 @@
+package com.gradotech.soundbound;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class VolumeDeadbandTest {
+    private static final String beaconX = "2f234454-cf6d-4a0f-adf2-f4911ba9ffa6";
+    private static final String beaconY = "7b8d4e1f-9a3c-6f2b-0e5d-8c9a7d3b2e4f";
+
+    @Test
+    public void accept_sendsOnlyChangesAboveTheThreshold() {
+        VolumeDeadband deadband = new VolumeDeadband(new int[] { 0, 0 }, new int[] { 100, 100 }, 2);
+
+        assertTrue(deadband.accept(0, 50));
+        assertTrue(deadband.accept(1, 50));
+        assertFalse(deadband.accept(0, 50));
+        assertFalse(deadband.accept(0, 52));
+        assertFalse(deadband.accept(0, 48));
+        assertTrue(deadband.accept(0, 53));
+        /* Measured from the last volume sent, not the last one seen */
+        assertFalse(deadband.accept(0, 51));
+        assertTrue(deadband.accept(0, 50));
+
+        assertEquals(4, deadband.getSentCount());
+        assertEquals(4, deadband.getSuppressedCount());
+    }
+
+    @Test
+    public void accept_alwaysReachesTheBounds() {
+        VolumeDeadband deadband = new VolumeDeadband(new int[] { 0 }, new int[] { 100 }, 5);
+
+        assertTrue(deadband.accept(0, 2));
+        assertTrue(deadband.accept(0, 0));
+        assertFalse(deadband.accept(0, 0));
+        assertTrue(deadband.accept(0, 97));
+        assertTrue(deadband.accept(0, 100));
+        assertFalse(deadband.accept(0, 100));
+    }
+
+    @Test
+    public void accept_withoutRampSendsTheVolumeItself() {
+        VolumeDeadband deadband = new VolumeDeadband(new int[] { 0 }, new int[] { 100 }, 2);
+
+        assertEquals(50, deadband.accept(0, 50, 1000));
+        assertEquals(CommandQueue.EMPTY, deadband.accept(0, 52, 2000));
+        assertEquals(53, deadband.accept(0, 53, 3000));
+    }
+
+    @Test
+    public void accept_followsTheRampAndExtrapolatesTheTrend() {
+        long ms = 1000000;
+        VolumeDeadband deadband = new VolumeDeadband(new int[] { 0 }, new int[] { 100 }, 2);
+        deadband.setRamp(200 * ms);
+
+        /* Ramps may stray 6 from the predictions */
+        assertEquals(20, deadband.accept(0, 20, 100 * ms));
+        assertEquals(CommandQueue.EMPTY, deadband.accept(0, 26, 200 * ms));
+
+        /* Rising by about 10 per 100 ms, so the ramp heads for 20 more */
+        int target = deadband.accept(0, 40, 300 * ms);
+        assertTrue("Ramped to " + target, target >= 55 && target <= 65);
+
+        /* Judged by where the ramp from 20 has got to, not where it goes */
+        int halfway = (20 + target) / 2;
+        assertEquals(CommandQueue.EMPTY, deadband.accept(0, halfway, 400 * ms));
+        assertNotEquals(CommandQueue.EMPTY, deadband.accept(0, halfway, 600 * ms));
+        assertEquals(3, deadband.getSentCount());
+    }
+
+    @Test
+    public void accept_rampsClampedToTheBounds() {
+        long ms = 1000000;
+        VolumeDeadband deadband = new VolumeDeadband(new int[] { 0 }, new int[] { 100 }, 2);
+        deadband.setRamp(1000 * ms);
+
+        deadband.accept(0, 60, 1000 * ms);
+        assertEquals(100, deadband.accept(0, 90, 1100 * ms));
+
+        /* Reaching the bound is sent even within the band */
+        deadband.reset();
+        deadband.accept(0, 4, 1000 * ms);
+        assertEquals(0, deadband.accept(0, 0, 3000 * ms));
+        assertEquals(CommandQueue.EMPTY, deadband.accept(0, 0, 4000 * ms));
+    }
+
+    @Test
+    public void reset_sendsEverythingAgain() {
+        VolumeDeadband deadband = new VolumeDeadband(new int[] { 0 }, new int[] { 100 }, 2);
+
+        assertTrue(deadband.accept(0, 40));
+        assertFalse(deadband.accept(0, 40));
+        deadband.reset();
+        assertTrue(deadband.accept(0, 40));
+    }
+
+    @Test
+    public void stillListener_sendsFarFewerCommands() throws Exception {
+        int unfiltered = commands(null, 0);
+        int filtered = commands("exponential:0.2", 2);
+
+        assertTrue("Sent " + filtered + " of " + unfiltered, filtered * 2 < unfiltered);
+    }
+
+    /* Commands sent in a minute of scans for a listener standing still in the room */
+    private static int commands(String filter, int threshold) throws Exception {
+        ModelConfig config = new ModelConfig();
+
+        config.addInput(new ModelConfig.Shape("x", "float", 0, 340));
+        config.addInput(new ModelConfig.Shape("y", "float", 0, 360));
+        for (String speaker : new String[] { "a", "b", "c", "d" })
+            config.addOutput(new ModelConfig.Shape(speaker, "float", 0, 100));
+        config.addBeacon(new ModelConfig.Beacon(beaconX, "x", filter));
+        config.addBeacon(new ModelConfig.Beacon(beaconY, "y", filter));
+        config.setDeadband(threshold);
+
+        Predictor predictor = new Predictor(config, DenseNetworkEngineTest.loadRoomModel());
+        VolumeDeadband deadband = predictor.createDeadband();
+        int[] volumes = new int[predictor.getOutputCount()];
+        Random random = new Random(3);
+        int sent = 0;
+
+        for (int scan = 0; scan < 300; scan++) {
+            predictor.updateInput(beaconX, 1.7f + (float) random.nextGaussian() * 0.3f);
+            predictor.updateInput(beaconY, 1.2f + (float) random.nextGaussian() * 0.3f);
+            predictor.predict(volumes);
+
+            for (int i = 0; i < volumes.length; i++) {
+                if (deadband.accept(i, volumes[i]))
+                    sent++;
+            }
+        }
+
+        return sent;
+    }
+}
@@ -0,0 +1,97 @@
+package com.gradotech.soundbound;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+public class VolumeLutTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static ModelConfig roomConfig() {
+        ModelConfig config = new ModelConfig();
+
+        config.addInput(new ModelConfig.Shape("x", "float", 0, 340));
+        config.addInput(new ModelConfig.Shape("y", "float", 0, 360));
+        config.addOutput(new ModelConfig.Shape("a", "float", 0, 100));
+        config.addOutput(new ModelConfig.Shape("b", "float", 0, 100));
+
+        return config;
+    }
+
+    /* Bilinear in x and y, so the table reproduces it up to quantization */
+    private static final PanningEngine planes = (input, output) -> {
+        output[0] = input[0] * 100 / 340;
+        output[1] = 100 - input[1] * 100 / 360;
+    };
+
+    @Test
+    public void run_interpolatesBetweenGridPoints() throws IOException {
+        File file = folder.newFile();
+        float[] output = new float[2];
+
+        VolumeLut.build(file, 1, roomConfig(), planes, 20);
+        VolumeLut lut = VolumeLut.open(file, 1);
+
+        assertEquals(18, lut.getColumns());
+        assertEquals(19, lut.getRows());
+
+        lut.run(new float[] { 127, 211 }, output);
+        assertEquals(127 * 100 / 340f, output[0], 0.2f);
+        assertEquals(100 - 211 * 100 / 360f, output[1], 0.2f);
+
+        /* Positions outside the room answer for its closest edge */
+        lut.run(new float[] { -50, 1000 }, output);
+        assertEquals(0, output[0], 0.2f);
+        assertEquals(0, output[1], 0.2f);
+    }
+
+    @Test
+    public void open_rejectsStaleOrTruncatedTable() throws IOException {
+        File file = folder.newFile();
+
+        assertNull(VolumeLut.open(new File(folder.getRoot(), "missing"), 1));
+
+        VolumeLut.build(file, 1, roomConfig(), planes, 20);
+        assertNull(VolumeLut.open(file, 2));
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 1);
+        }
+        assertNull(VolumeLut.open(file, 1));
+    }
+
+    @Test
+    public void run_staysCloseToRoomModel() throws Exception {
+        PanningEngine model = DenseNetworkEngineTest.loadRoomModel();
+        ModelConfig config = roomConfig();
+        File file = folder.newFile();
+        float[] input = new float[2];
+        float[] expected = new float[4];
+        float[] actual = new float[4];
+
+        config.addOutput(new ModelConfig.Shape("c", "float", 0, 100));
+        config.addOutput(new ModelConfig.Shape("d", "float", 0, 100));
+        VolumeLut.build(file, 1, config, model, 2);
+        VolumeLut lut = VolumeLut.open(file, 1);
+
+        for (float x = 0; x <= 340; x += 3.3f) {
+            for (float y = 0; y <= 360; y += 3.7f) {
+                input[0] = x;
+                input[1] = y;
+                model.run(input, expected);
+                lut.run(input, actual);
+
+                /* Predictor clamps the model output to the volume range */
+                for (int i = 0; i < 4; i++)
+                    assertEquals(Math.max(0, Math.min(100, expected[i])), actual[i], 1f);
+            }
+        }
+    }
+}
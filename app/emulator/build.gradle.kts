@@ -0,0 +1,17 @@
+plugins {
+    id("application")
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_1_8
+    targetCompatibility = JavaVersion.VERSION_1_8
+}
+
+application {
+    mainClass.set("com.gradotech.soundbound.LoadHarness")
+}
+
+dependencies {
+    implementation(project(":core"))
+    testImplementation("junit:junit:4.13.2")
+}
@@ -0,0 +1,894 @@
+package com.gradotech.soundbound;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs Soundbound boards on the JVM the way sketch/soundbound.ino runs one on an
+ * ESP8266 with lib/Soundbound.cpp, all of them on a single selector thread.
+ * <p>
+ * A board listens on its own address, polls for a client every 100 ms and answers
+ * the one it accepts with its sb_qdata_packet. Further connections are never
+ * accepted. Boards of version 0.4 and later read everything that arrived into the
+ * 256 byte ring of PacketParser and handle every complete packet in a pass of
+ * loop(). Older ones read a command byte and, while a packet is being captured,
+ * one more byte of it, with the firmware's state machine and its quirks. Boards
+ * of version 0.5 and later also step SB_SET_VOLUME_RAMP ramps every 20 ms.
+ * A pass sleeps the idle delay while nothing plays, and every potentiometer write
+ * takes a millisecond. SB_START fetches /stream from the client's address on the
+ * stream port into a 4 KB buffer that drains at the bitrate. A buffer that runs
+ * dry before the stream ends is an underrun, playback resumes once it is full
+ * again. A lost client or a crash restarts the board.
+ */
+public class ControllerEmulator extends Thread {
+    /* Timing of the sketch */
+    private static final long acceptPollNanos = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final int playbackBufferSize = 4096; /* BUFF_SIZE */
+    /* TCP window of the ESP8266 lwIP build, 4 * TCP_MSS */
+    private static final int receiveWindow = 5840;
+    private static final int maxPacketSize = 32; /* SB_MAX_PCKT_SIZE */
+    private static final int ringSize = 256; /* SB_RING_SIZE */
+    /* SB_RAMP_STEP_MS */
+    private static final long rampStepNanos = TimeUnit.MILLISECONDS.toNanos(20);
+
+    public interface Listener {
+        /**
+         * Called on the emulator's thread when a board wrote a volume to the
+         * potentiometer of a speaker, at a System.nanoTime() of nanos.
+         */
+        void onVolumeApplied(Board board, byte id, int volume, long nanos);
+    }
+
+    private enum State {
+        BOOTING,
+        WAITING,
+        RUNNING
+    }
+
+    private enum StreamState {
+        NONE,
+        CONNECTING,
+        HEADERS,
+        BODY,
+        ENDED
+    }
+
+    public class Board {
+        private final InetSocketAddress address;
+        private final byte[] speakerIds;
+        private final int[] volumes;
+        private final ByteBuffer qdata;
+        private final ByteBuffer inbound;
+        private final byte[] packet;
+        private final boolean bulkParsing;
+        private State state;
+        private long nextPassNanos;
+        private ServerSocketChannel server;
+        private SocketChannel client;
+
+        /* Soundbound::capturePacket and its Packet */
+        private boolean capturing;
+        private int cursor;
+
+        /* PacketParser::ring, kept ready to be filled */
+        private final ByteBuffer ring;
+        private int potWrites;
+
+        /* The VolumeRamp of every speaker */
+        private final boolean ramps;
+        private final int[] rampFrom;
+        private final int[] rampTo;
+        private final long[] rampStartNanos;
+        private final long[] rampMs;
+        private long lastStepNanos;
+
+        /* The AudioGeneratorMP3 exists once SB_START was received */
+        private boolean mp3;
+        private boolean mp3Running;
+        private StreamState streamState;
+        private SocketChannel stream;
+        private SelectionKey streamKey;
+        private final ByteBuffer headers;
+        private final ByteBuffer body;
+        private int level;
+        private boolean prebuffering;
+        private long stallNanos;
+        private long drainNanos;
+        private double drainCarry;
+
+        private volatile boolean connected;
+        private volatile long commands;
+        private volatile long applied;
+        private volatile long underruns;
+        private volatile long stalledNanos;
+        private volatile long streamBytes;
+        private volatile long restarts;
+        private volatile long crashes;
+
+        private Board(InetSocketAddress address, String device, byte[] speakerIds)
+                throws IOException {
+            this.speakerIds = speakerIds.clone();
+            this.volumes = new int[speakerIds.length];
+            this.qdata = ByteBuffer.allocate(Soundbound.QDataPacket.SIZE);
+            this.inbound = ByteBuffer.allocate(1460);
+            this.packet = new byte[maxPacketSize];
+            this.bulkParsing = Soundbound.version(majorVersion, minorVersion) >=
+                    Soundbound.version(0, 4);
+            this.ring = ByteBuffer.allocate(ringSize);
+            this.ramps = Soundbound.version(majorVersion, minorVersion) >=
+                    Soundbound.version(0, 5);
+            this.rampFrom = new int[speakerIds.length];
+            this.rampTo = new int[speakerIds.length];
+            this.rampStartNanos = new long[speakerIds.length];
+            this.rampMs = new long[speakerIds.length];
+            this.headers = ByteBuffer.allocate(1024);
+            this.body = ByteBuffer.allocate(playbackBufferSize);
+            this.streamState = StreamState.NONE;
+
+            Soundbound.QDataPacket.encode(qdata, majorVersion, minorVersion, speakerIds, device);
+            qdata.flip();
+
+            /* The speakers start at the volume of the sketch's sb_speaker table */
+            Arrays.fill(volumes, 100);
+            endRamps();
+
+            listen(address);
+            this.address = (InetSocketAddress) server.getLocalAddress();
+            this.state = State.WAITING;
+            this.nextPassNanos = System.nanoTime();
+        }
+
+        private void listen(InetSocketAddress address) throws IOException {
+            server = ServerSocketChannel.open();
+            server.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            server.setOption(StandardSocketOptions.SO_RCVBUF, receiveWindow);
+            server.bind(address);
+            server.configureBlocking(false);
+        }
+
+        public InetSocketAddress getAddress() {
+            return address;
+        }
+
+        public byte[] getSpeakerIds() {
+            return speakerIds.clone();
+        }
+
+        /**
+         * Volume last written for the speaker, -1 if the board has no such speaker.
+         */
+        public int getVolume(byte id) {
+            int index = indexOf(id);
+
+            return (index < 0) ? -1 : volumes[index];
+        }
+
+        public boolean isConnected() {
+            return connected;
+        }
+
+        /**
+         * Command bytes the board read as the start of a command.
+         */
+        public long getCommandCount() {
+            return commands;
+        }
+
+        public long getAppliedCount() {
+            return applied;
+        }
+
+        public long getUnderrunCount() {
+            return underruns;
+        }
+
+        /**
+         * Time playback spent waiting for the buffer to fill again after underruns.
+         */
+        public long getStalledNanos() {
+            return stalledNanos;
+        }
+
+        public long getStreamBytes() {
+            return streamBytes;
+        }
+
+        public long getRestartCount() {
+            return restarts;
+        }
+
+        public long getCrashCount() {
+            return crashes;
+        }
+
+        private int indexOf(byte id) {
+            for (int i = 0; i < speakerIds.length; i++) {
+                if (speakerIds[i] == id)
+                    return i;
+            }
+
+            return -1;
+        }
+
+        private void pass(long now) throws IOException {
+            switch (state) {
+            case BOOTING:
+                listen(address);
+                state = State.WAITING;
+                /* Fall through, the board polls for a client right away */
+            case WAITING:
+                client = server.accept();
+                if (client == null) {
+                    nextPassNanos = now + acceptPollNanos;
+                    return;
+                }
+
+                client.configureBlocking(false);
+                client.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                qdata.rewind();
+                client.write(qdata);
+                inbound.clear().flip();
+                ring.clear();
+                state = State.RUNNING;
+                connected = true;
+                loop(now);
+                break;
+            case RUNNING:
+                loop(now);
+                break;
+            }
+        }
+
+        /* One pass of loop() in the sketch */
+        private void loop(long now) throws IOException {
+            potWrites = 0;
+            int cmd = bulkParsing ? parse(now) : cmdReceived();
+
+            if (state != State.RUNNING)
+                return;
+
+            switch (cmd) {
+            case Soundbound.SB_SET_VOLUME:
+            case Soundbound.SB_SET_VOLUME_BATCH:
+                update(now);
+                break;
+            case Soundbound.SB_START:
+                startStream();
+                break;
+            case Soundbound.SB_STOP:
+                if (!mp3 && bulkParsing)
+                    break;
+
+                /* mp3->stop() dereferences a null pointer before the first start */
+                if (!mp3) {
+                    crashes++;
+                    restart(now);
+                    return;
+                }
+
+                mp3Running = false;
+                closeStream();
+                break;
+            default:
+                break;
+            }
+
+            if (state != State.RUNNING)
+                return;
+
+            if (ramps && now - lastStepNanos >= rampStepNanos) {
+                lastStepNanos = now;
+                stepRamps(now);
+            }
+
+            long delay = playAudio(now) ? loopNanos :
+                    isRamping() ? rampStepNanos : idleDelayNanos;
+            nextPassNanos = now + potWrites * potDelayNanos + delay;
+
+            /* WiFiClient::connect() of the stream blocks loop() until the headers */
+            if (streamState == StreamState.CONNECTING || streamState == StreamState.HEADERS)
+                nextPassNanos = Long.MAX_VALUE;
+        }
+
+        /* Next byte from the client, -1 when none has arrived */
+        private int read() throws IOException {
+            if (!inbound.hasRemaining()) {
+                inbound.clear();
+                int count = client.read(inbound);
+                inbound.flip();
+
+                if (count < 0) {
+                    restart(System.nanoTime());
+                    return -1;
+                }
+            }
+
+            return inbound.hasRemaining() ? inbound.get() & 0xff : -1;
+        }
+
+        /* Soundbound::cmdRecieved() up to version 0.3 */
+        private int cmdReceived() throws IOException {
+            /*
+             * The bytes of a captured packet belong to update(), which loop() only
+             * calls for volumes, so an SB_QUERY_DATA over TCP wedges the board
+             */
+            if (capturing)
+                return packet[0];
+
+            int cmd = read();
+            if (cmd < 0)
+                return Soundbound.SB_NO_CMD;
+
+            commands++;
+
+            if (cmd == Soundbound.SB_QUERY_DATA || cmd == Soundbound.SB_SET_VOLUME ||
+                    cmd == Soundbound.SB_SET_VOLUME_BATCH) {
+                capturing = true;
+                packet[0] = (byte) cmd;
+                cursor = 1;
+            }
+
+            return cmd;
+        }
+
+        /* Soundbound::update() up to version 0.3 */
+        private void update(long now) throws IOException {
+            int data = read();
+
+            if (data < 0)
+                return;
+
+            /* A batch of more than 15 entries overflows the packet and is dropped */
+            if (cursor >= maxPacketSize) {
+                capturing = false;
+                return;
+            }
+
+            packet[cursor++] = (byte) data;
+            if (!isDone())
+                return;
+
+            capturing = false;
+            apply(packet, 0, now);
+        }
+
+        /*
+         * Soundbound::update() since version 0.4 with PacketParser, returns the
+         * latest SB_START or SB_STOP, SB_NO_CMD if there was none
+         */
+        private int parse(long now) throws IOException {
+            int playback = Soundbound.SB_NO_CMD;
+
+            if (ring.hasRemaining() && client.read(ring) < 0) {
+                restart(now);
+                return Soundbound.SB_NO_CMD;
+            }
+
+            ring.flip();
+            while (ring.hasRemaining()) {
+                int offset = ring.position();
+                int cmd = ring.get(offset) & 0xff;
+                int size = 1;
+
+                if (cmd == Soundbound.SB_SET_VOLUME) {
+                    size = Soundbound.VolumePacket.SIZE;
+                } else if (cmd == Soundbound.SB_SET_VOLUME_BATCH ||
+                        (ramps && cmd == Soundbound.SB_SET_VOLUME_RAMP)) {
+                    if (ring.remaining() < 2)
+                        break;
+
+                    /* No client sends that many, the command byte is skipped */
+                    int count = ring.get(offset + 1) & 0xff;
+                    if (count > Soundbound.SB_MAX_SPEAKERS) {
+                        ring.position(offset + 1);
+                        continue;
+                    }
+
+                    size = ((cmd == Soundbound.SB_SET_VOLUME_RAMP) ?
+                            Soundbound.VolumeRampPacket.HEADER_SIZE :
+                            Soundbound.VolumeBatchPacket.HEADER_SIZE) +
+                            count * Soundbound.VolumeBatchPacket.ENTRY_SIZE;
+                }
+
+                if (ring.remaining() < size)
+                    break;
+
+                commands++;
+                ring.position(offset + size);
+
+                switch (cmd) {
+                case Soundbound.SB_SET_VOLUME:
+                case Soundbound.SB_SET_VOLUME_BATCH:
+                    apply(ring.array(), offset, now);
+                    break;
+                case Soundbound.SB_SET_VOLUME_RAMP:
+                    ramp(ring.array(), offset, now);
+                    break;
+                case Soundbound.SB_QUERY_DATA:
+                    qdata.rewind();
+                    client.write(qdata);
+                    break;
+                case Soundbound.SB_START:
+                case Soundbound.SB_STOP:
+                    playback = cmd;
+                    break;
+                default:
+                    break;
+                }
+            }
+            ring.compact();
+
+            return playback;
+        }
+
+        /* Applies the volume or batch packet at offset */
+        private void apply(byte[] buffer, int offset, long now) {
+            if (buffer[offset] == Soundbound.SB_SET_VOLUME) {
+                setVolume(buffer[offset + 1], buffer[offset + 2] & 0xff, now);
+                return;
+            }
+
+            int count = buffer[offset + 1] & 0xff;
+            for (int i = 0; i < count && i < Soundbound.SB_MAX_SPEAKERS; i++)
+                setVolume(buffer[offset + 2 + 2 * i], buffer[offset + 3 + 2 * i] & 0xff, now);
+        }
+
+        /* Starts the ramps of the packet at offset from where the speakers are */
+        private void ramp(byte[] buffer, int offset, long now) {
+            ByteBuffer packet = ByteBuffer.wrap(buffer);
+            int count = Soundbound.VolumeRampPacket.getCount(packet, offset);
+
+            for (int i = 0; i < count; i++) {
+                int index = indexOf(Soundbound.VolumeRampPacket.getId(packet, offset, i));
+
+                if (index < 0)
+                    continue;
+
+                rampFrom[index] = volumes[index];
+                rampTo[index] = Soundbound.VolumeRampPacket.getVolume(packet, offset, i) & 0xff;
+                rampStartNanos[index] = now;
+                rampMs[index] = Soundbound.VolumeRampPacket.getDuration(packet, offset);
+            }
+        }
+
+        /* VolumeRamp::step() of every speaker, in whole ms like millis() */
+        private void stepRamps(long now) {
+            for (int i = 0; i < speakerIds.length; i++) {
+                long elapsed = TimeUnit.NANOSECONDS.toMillis(now - rampStartNanos[i]);
+                int volume;
+
+                if (rampFrom[i] == rampTo[i])
+                    continue;
+
+                if (elapsed >= rampMs[i]) {
+                    volume = rampTo[i];
+                    rampFrom[i] = rampTo[i];
+                } else {
+                    long delta = (rampTo[i] - rampFrom[i]) * elapsed;
+
+                    delta += (delta < 0) ? -(rampMs[i] / 2) : rampMs[i] / 2;
+                    volume = (int) (rampFrom[i] + delta / rampMs[i]);
+                }
+
+                if (volume != volumes[i])
+                    write(i, volume, now);
+            }
+        }
+
+        private boolean isRamping() {
+            for (int i = 0; i < speakerIds.length; i++) {
+                if (rampFrom[i] != rampTo[i])
+                    return true;
+            }
+
+            return false;
+        }
+
+        private void endRamps() {
+            System.arraycopy(volumes, 0, rampFrom, 0, volumes.length);
+            System.arraycopy(volumes, 0, rampTo, 0, volumes.length);
+        }
+
+        /* Packet::isDone() */
+        private boolean isDone() {
+            if (packet[0] == Soundbound.SB_SET_VOLUME)
+                return cursor >= Soundbound.VolumePacket.SIZE;
+
+            if (packet[0] == Soundbound.SB_SET_VOLUME_BATCH)
+                return cursor >= 2 && cursor >= Soundbound.VolumeBatchPacket.HEADER_SIZE +
+                        (packet[1] & 0xff) * Soundbound.VolumeBatchPacket.ENTRY_SIZE;
+
+            return cursor >= 1;
+        }
+
+        private void setVolume(byte id, int volume, long now) {
+            int index = indexOf(id);
+
+            if (index < 0)
+                return;
+
+            rampFrom[index] = volume;
+            rampTo[index] = volume;
+            write(index, volume, now);
+        }
+
+        /* A potentiometer write */
+        private void write(int index, int volume, long now) {
+            byte id = speakerIds[index];
+
+            volumes[index] = volume;
+            applied++;
+            potWrites++;
+
+            Listener listener = ControllerEmulator.this.listener;
+            if (listener != null)
+                listener.onVolumeApplied(this, id, volume, now);
+        }
+
+        /* playAudio(), false makes loop() sleep the idle delay */
+        private boolean playAudio(long now) {
+            if (!mp3)
+                return false;
+
+            if (!mp3Running)
+                return true;
+
+            double bytes = (now - drainNanos) / 1e9 * bitrate / 8 + drainCarry;
+            drainNanos = now;
+            drainCarry = 0;
+
+            boolean ended = streamState == StreamState.ENDED;
+
+            if (prebuffering) {
+                if (level < playbackBufferSize && !ended)
+                    return true;
+
+                prebuffering = false;
+                if (stallNanos != 0) {
+                    stalledNanos += now - stallNanos;
+                    stallNanos = 0;
+                }
+                return true;
+            }
+
+            if (bytes <= level) {
+                int whole = (int) bytes;
+
+                level -= whole;
+                drainCarry = bytes - whole;
+            } else if (ended) {
+                /* The song played to the end, mp3->loop() fails once */
+                level = 0;
+                mp3Running = false;
+                closeStream();
+                return false;
+            } else {
+                level = 0;
+                underruns++;
+                prebuffering = true;
+                stallNanos = now;
+            }
+
+            if (streamState == StreamState.BODY && level < playbackBufferSize)
+                streamKey.interestOps(SelectionKey.OP_READ);
+
+            return true;
+        }
+
+        /* reinitAudioLib() */
+        private void startStream() throws IOException {
+            closeStream();
+
+            mp3 = true;
+            mp3Running = true;
+            level = 0;
+            prebuffering = true;
+            stallNanos = 0;
+            drainCarry = 0;
+            drainNanos = System.nanoTime();
+
+            stream = SocketChannel.open();
+            stream.configureBlocking(false);
+            stream.setOption(StandardSocketOptions.SO_RCVBUF, receiveWindow);
+            streamState = StreamState.CONNECTING;
+            headers.clear();
+
+            InetSocketAddress url = new InetSocketAddress(
+                    ((InetSocketAddress) client.getRemoteAddress()).getAddress(), streamPort);
+
+            try {
+                if (stream.connect(url)) {
+                    streamKey = stream.register(selector, SelectionKey.OP_READ, this);
+                    sendRequest();
+                } else {
+                    streamKey = stream.register(selector, SelectionKey.OP_CONNECT, this);
+                }
+            } catch (IOException e) {
+                endStream();
+            }
+        }
+
+        private void sendRequest() throws IOException {
+            InetSocketAddress remote = (InetSocketAddress) stream.getRemoteAddress();
+            ByteBuffer request = ByteBuffer.wrap(("GET /stream HTTP/1.1\r\n" +
+                    "Host: " + remote.getAddress().getHostAddress() + ":" + remote.getPort() +
+                    "\r\nIcy-MetaData: 1\r\nConnection: close\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+
+            while (request.hasRemaining())
+                stream.write(request);
+
+            streamState = StreamState.HEADERS;
+            streamKey.interestOps(SelectionKey.OP_READ);
+        }
+
+        private void handleStream(SelectionKey key) {
+            try {
+                if (key.isConnectable()) {
+                    stream.finishConnect();
+                    sendRequest();
+                } else if (key.isReadable()) {
+                    if (streamState == StreamState.HEADERS)
+                        readHeaders();
+                    else
+                        readBody();
+                }
+            } catch (IOException e) {
+                endStream();
+            }
+        }
+
+        private void readHeaders() throws IOException {
+            if (stream.read(headers) < 0) {
+                endStream();
+                return;
+            }
+
+            String text = new String(headers.array(), 0, headers.position(),
+                                     StandardCharsets.US_ASCII);
+            int end = text.indexOf("\r\n\r\n");
+            if (end < 0) {
+                if (!headers.hasRemaining())
+                    endStream();
+                return;
+            }
+
+            if (!text.startsWith("HTTP/1.1 20") && !text.startsWith("HTTP/1.0 20")) {
+                endStream();
+                return;
+            }
+
+            streamState = StreamState.BODY;
+            fill(headers.position() - end - 4);
+            resume();
+        }
+
+        private void readBody() throws IOException {
+            body.clear();
+            body.limit(playbackBufferSize - level);
+
+            int count = stream.read(body);
+            if (count < 0) {
+                endStream();
+                return;
+            }
+
+            fill(count);
+            if (level >= playbackBufferSize)
+                streamKey.interestOps(0);
+        }
+
+        private void fill(int count) {
+            streamBytes += count;
+            level = Math.min(playbackBufferSize, level + count);
+        }
+
+        /* The stream failed or ended, the bytes in the buffer still play */
+        private void endStream() {
+            boolean blocked = streamState != StreamState.BODY;
+
+            closeStream();
+            streamState = StreamState.ENDED;
+            if (blocked)
+                resume();
+        }
+
+        private void resume() {
+            if (nextPassNanos == Long.MAX_VALUE)
+                nextPassNanos = System.nanoTime();
+        }
+
+        private void closeStream() {
+            if (stream != null) {
+                try {
+                    stream.close();
+                } catch (IOException ignored) {}
+            }
+
+            stream = null;
+            streamKey = null;
+            streamState = StreamState.NONE;
+        }
+
+        /* ESP.restart(), the board comes back after the restart delay */
+        private void restart(long now) {
+            closeStream();
+
+            try {
+                if (client != null)
+                    client.close();
+                server.close();
+            } catch (IOException ignored) {}
+
+            client = null;
+            connected = false;
+            capturing = false;
+            mp3 = false;
+            mp3Running = false;
+            Arrays.fill(volumes, 100);
+            endRamps();
+            restarts++;
+
+            state = State.BOOTING;
+            nextPassNanos = now + restartDelayNanos;
+        }
+
+        private void close() {
+            closeStream();
+
+            try {
+                if (client != null)
+                    client.close();
+                server.close();
+            } catch (IOException ignored) {}
+
+            connected = false;
+        }
+    }
+
+    private final Selector selector;
+    private final List<Board> boards;
+    private final int streamPort;
+    private final int bitrate;
+    private int majorVersion;
+    private int minorVersion;
+    private long idleDelayNanos;
+    private long loopNanos;
+    private long potDelayNanos;
+    private long restartDelayNanos;
+    private volatile Listener listener;
+    private volatile boolean running;
+
+    /**
+     * Boards fetch /stream on streamPort and play it at bitrate bits per second.
+     */
+    public ControllerEmulator(int streamPort, int bitrate) throws IOException {
+        super("ControllerEmulator");
+
+        this.selector = Selector.open();
+        this.boards = new ArrayList<>();
+        this.streamPort = streamPort;
+        this.bitrate = bitrate;
+        this.majorVersion = 0;
+        this.minorVersion = 5;
+        this.idleDelayNanos = TimeUnit.MILLISECONDS.toNanos(1000);
+        this.loopNanos = TimeUnit.MILLISECONDS.toNanos(1);
+        this.potDelayNanos = TimeUnit.MILLISECONDS.toNanos(1);
+        this.restartDelayNanos = TimeUnit.MILLISECONDS.toNanos(2000);
+        this.running = true;
+    }
+
+    /**
+     * Version of the firmware the boards added afterwards run, 0.5 by default. It
+     * is reported in their sb_qdata_packet and picks how commands are parsed.
+     */
+    public void setVersion(int major, int minor) {
+        this.majorVersion = major;
+        this.minorVersion = minor;
+    }
+
+    /**
+     * The sketch sleeps 1000 ms in a pass of loop() while nothing plays and every
+     * potentiometer write waits 1 ms. A pass while playing is taken as 1 ms, the
+     * time of an mp3->loop() on the real board varies with the song.
+     */
+    public void setTiming(long idleDelayMs, long loopMicros, long potDelayMicros) {
+        this.idleDelayNanos = TimeUnit.MILLISECONDS.toNanos(idleDelayMs);
+        this.loopNanos = TimeUnit.MICROSECONDS.toNanos(loopMicros);
+        this.potDelayNanos = TimeUnit.MICROSECONDS.toNanos(potDelayMicros);
+    }
+
+    /**
+     * Time a board takes to boot and join the network again, 2000 ms by default.
+     */
+    public void setRestartDelay(long restartDelayMs) {
+        this.restartDelayNanos = TimeUnit.MILLISECONDS.toNanos(restartDelayMs);
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Starts listening for a board on address, port 0 picks a free port. Boards are
+     * added and configured before the emulator is started.
+     */
+    public Board addBoard(InetSocketAddress address, String device, byte[] speakerIds)
+            throws IOException {
+        if (isAlive())
+            throw new IllegalStateException("Boards are added before the emulator starts");
+
+        Board board = new Board(address, device, speakerIds);
+        boards.add(board);
+
+        return board;
+    }
+
+    public List<Board> getBoards() {
+        return boards;
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                long now = System.nanoTime();
+                long next = Long.MAX_VALUE;
+
+                for (Board board : boards) {
+                    if (board.nextPassNanos <= now) {
+                        try {
+                            board.pass(now);
+                        } catch (IOException e) {
+                            board.restart(now);
+                        }
+                    }
+
+                    next = Math.min(next, board.nextPassNanos);
+                }
+
+                long wait = (next == Long.MAX_VALUE) ? 0 : next - System.nanoTime();
+                if (next != Long.MAX_VALUE && wait <= 0)
+                    selector.selectNow();
+                else
+                    selector.select((wait == 0) ? 0 :
+                            Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait)));
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+
+                    if (key.isValid())
+                        ((Board) key.attachment()).handleStream(key);
+                }
+            } catch (IOException e) {
+                running = false;
+            }
+        }
+
+        for (Board board : boards)
+            board.close();
+
+        try {
+            selector.close();
+        } catch (IOException ignored) {}
+    }
+
+    public void close() {
+        running = false;
+        selector.wakeup();
+    }
+}
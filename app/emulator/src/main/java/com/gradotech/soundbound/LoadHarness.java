@@ -0,0 +1,300 @@
+package com.gradotech.soundbound;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Drives emulated controllers through the app's ControllerSupervisor, ControllerPool
+ * and AudioServer, and reports command throughput, apply latency and stream
+ * underruns. Every controller gets its own loopback address on SB_SERVER_PORT, so
+ * the controllers are found by the same range scan as on a real network. Linux
+ * routes all of 127.0.0.0/8 to loopback, other systems need the addresses aliased.
+ * <p>
+ * Options, with their defaults:
+ * <pre>
+ *   --controllers 100    emulated boards, one address each
+ *   --speakers 2         speakers per board, 255 speakers at most in total
+ *   --seconds 30         length of the run after every board joined
+ *   --rate 5             volume updates per speaker and second
+ *   --bitrate 128        kbps of the song and of the boards' playback
+ *   --prefix 127.0.1.    addresses of the boards, from prefix.1 up
+ *   --idle-delay 1000    ms a pass of loop() sleeps while nothing plays
+ *   --version 0.5        firmware of the boards, 0.3 parses a byte per pass
+ *   --broadcast          serve /stream through one shared BroadcastStream
+ * </pre>
+ */
+public class LoadHarness {
+    private static final long joinTimeoutMs = 30000;
+    private static final long scanTimeoutMs = 1500;
+    private static final long heartbeatMs = 2000;
+    private static final long writeTimeoutMs = 5000;
+    private static final int mpeg1Layer3 = 0xfffb0040;
+
+    private int controllers = 100;
+    private int speakers = 2;
+    private int seconds = 30;
+    private int rate = 5;
+    private int bitrate = 128;
+    private String prefix = "127.0.1.";
+    private long idleDelayMs = 1000;
+    private int majorVersion = 0;
+    private int minorVersion = 5;
+    private boolean broadcast;
+
+    /* System.nanoTime() a volume was emitted at, by speaker and volume */
+    private final AtomicLongArray emitted = new AtomicLongArray(256 * 256);
+    private final LatencyHistogram applyLatency = new LatencyHistogram();
+
+    public static void main(String[] args) throws Exception {
+        LoadHarness harness = new LoadHarness();
+
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+
+            if (option.equals("--broadcast")) {
+                harness.broadcast = true;
+                continue;
+            }
+
+            if (i + 1 >= args.length)
+                usage("Missing value of " + option);
+            String value = args[++i];
+
+            switch (option) {
+            case "--controllers":
+                harness.controllers = Integer.parseInt(value);
+                break;
+            case "--speakers":
+                harness.speakers = Integer.parseInt(value);
+                break;
+            case "--seconds":
+                harness.seconds = Integer.parseInt(value);
+                break;
+            case "--rate":
+                harness.rate = Integer.parseInt(value);
+                break;
+            case "--bitrate":
+                harness.bitrate = Integer.parseInt(value);
+                break;
+            case "--prefix":
+                harness.prefix = value;
+                break;
+            case "--idle-delay":
+                harness.idleDelayMs = Long.parseLong(value);
+                break;
+            case "--version":
+                String[] version = value.split("\\.");
+                if (version.length != 2)
+                    usage("Version is major.minor");
+                harness.majorVersion = Integer.parseInt(version[0]);
+                harness.minorVersion = Integer.parseInt(version[1]);
+                break;
+            default:
+                usage("Unknown option " + option);
+            }
+        }
+
+        if (harness.controllers < 1 || harness.controllers > 254 || harness.speakers < 1 ||
+                harness.speakers > Soundbound.SB_MAX_SPEAKERS ||
+                harness.controllers * harness.speakers > 255)
+            usage("Speaker IDs are a byte, at most 255 speakers on 254 controllers");
+
+        harness.run();
+        System.exit(0);
+    }
+
+    private static void usage(String error) {
+        System.err.println(error);
+        System.err.println("Usage: LoadHarness [--controllers n] [--speakers n] [--seconds n] " +
+                "[--rate hz] [--bitrate kbps] [--prefix a.b.c.] [--idle-delay ms] [--version major.minor] [--broadcast]");
+        System.exit(1);
+    }
+
+    /* A CBR song of MPEG 1 layer III frames at 44.1 kHz, silent as far as we care */
+    private static void writeSong(File file, int bitrate, int songSeconds) throws IOException {
+        int[] bitrates = { 0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320 };
+        int bitrateIndex = Arrays.binarySearch(bitrates, bitrate);
+
+        if (bitrateIndex <= 0)
+            throw new IllegalArgumentException("No MPEG 1 layer III bitrate of " + bitrate);
+
+        int header = mpeg1Layer3 | bitrateIndex << 12;
+        byte[] frame = new byte[Mp3FrameIndex.frameLength(header)];
+        frame[0] = (byte) (header >>> 24);
+        frame[1] = (byte) (header >>> 16);
+        frame[2] = (byte) (header >>> 8);
+        frame[3] = (byte) header;
+
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            for (int i = 0; i < songSeconds * 44100 / 1152; i++)
+                out.write(frame);
+        }
+    }
+
+    private void run() throws Exception {
+        File song = File.createTempFile("harness", ".mp3");
+        song.deleteOnExit();
+        writeSong(song, bitrate, seconds + 60);
+
+        AudioServer audioServer = new AudioServer(Soundbound.SB_STREAM_PORT);
+        audioServer.setPacing(true);
+        audioServer.setBroadcast(broadcast);
+        audioServer.setFilePath(song.getPath());
+        audioServer.setPlayingStatus(true);
+        audioServer.startServer();
+
+        ControllerEmulator emulator = new ControllerEmulator(Soundbound.SB_STREAM_PORT,
+                                                             bitrate * 1000);
+        emulator.setTiming(idleDelayMs, 1000, 1000);
+        emulator.setVersion(majorVersion, minorVersion);
+        emulator.setListener((board, id, volume, nanos) -> {
+            long sent = emitted.get((id & 0xff) * 256 + volume);
+
+            if (sent != 0)
+                applyLatency.record(nanos - sent);
+        });
+
+        for (int c = 0; c < controllers; c++) {
+            byte[] ids = new byte[speakers];
+
+            for (int s = 0; s < speakers; s++)
+                ids[s] = (byte) (1 + c * speakers + s);
+
+            emulator.addBoard(new InetSocketAddress(InetAddress.getByName(prefix + (c + 1)),
+                    Soundbound.SB_SERVER_PORT), "Emulated " + (c + 1), ids);
+        }
+        emulator.start();
+
+        PipelineMetrics metrics = new PipelineMetrics();
+        ControllerPool pool = new ControllerPool();
+        pool.setMetrics(metrics);
+        pool.setHeartbeat(heartbeatMs, writeTimeoutMs);
+
+        ControllerFinder finder = new ControllerFinder(
+                new ControllerScanner(Soundbound.SB_SERVER_PORT, Soundbound.QDataPacket.SIZE,
+                                      scanTimeoutMs),
+                AddressRange.parse("1-" + controllers, prefix));
+        ControllerSupervisor supervisor = new ControllerSupervisor(pool, finder,
+                new Backoff(500, 5000), new ControllerSupervisor.Listener() {
+                    @Override
+                    public void onControllerFound(byte[] packet) {
+                    }
+
+                    @Override
+                    public void onControllerLost(byte[] speakerIds, String reason) {
+                        System.err.println("Lost controller of speaker " +
+                                (speakerIds[0] & 0xff) + ": " + reason);
+                    }
+
+                    @Override
+                    public void onStateChanged(ControllerSupervisor.State state, int count) {
+                    }
+                });
+
+        long joinStart = System.nanoTime();
+        pool.start();
+        supervisor.start();
+
+        long deadline = System.currentTimeMillis() + joinTimeoutMs;
+        while (pool.getControllerCount() < controllers && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        long joinMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - joinStart);
+
+        System.out.println(String.format(Locale.ROOT, "%d of %d controllers joined in %d ms",
+                pool.getControllerCount(), controllers, joinMs));
+
+        pool.emitControl(Soundbound.SB_START);
+
+        long start = System.nanoTime();
+        long sentStart = pool.getSentCount();
+        long appliedStart = applied(emulator);
+        long periodNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        long emits = 0;
+
+        for (long tick = 0; ; tick++) {
+            long due = start + tick * periodNanos;
+            long now = System.nanoTime();
+
+            if (due - start >= TimeUnit.SECONDS.toNanos(seconds))
+                break;
+            if (due > now)
+                TimeUnit.NANOSECONDS.sleep(due - now);
+
+            /* A volume repeats only every 101 ticks, so it names the emit it came from */
+            for (int id = 1; id <= controllers * speakers; id++) {
+                int volume = (int) ((tick + id) % 101);
+                long nanos = System.nanoTime();
+
+                emitted.set(id * 256 + volume, nanos);
+                pool.emitVolume((byte) id, (byte) volume, nanos);
+                emits++;
+            }
+        }
+
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        report(emulator, pool, metrics, elapsed, emits, pool.getSentCount() - sentStart,
+               applied(emulator) - appliedStart);
+
+        supervisor.close();
+        pool.close();
+        emulator.close();
+        audioServer.stop();
+    }
+
+    private static long applied(ControllerEmulator emulator) {
+        long count = 0;
+
+        for (ControllerEmulator.Board board : emulator.getBoards())
+            count += board.getAppliedCount();
+
+        return count;
+    }
+
+    private void report(ControllerEmulator emulator, ControllerPool pool,
+                        PipelineMetrics metrics, double elapsed, long emits, long sent,
+                        long applied) {
+        long underruns = 0;
+        long stalledNanos = 0;
+        long streamBytes = 0;
+        long restarts = 0;
+        long crashes = 0;
+        int starved = 0;
+
+        for (ControllerEmulator.Board board : emulator.getBoards()) {
+            underruns += board.getUnderrunCount();
+            stalledNanos += board.getStalledNanos();
+            streamBytes += board.getStreamBytes();
+            restarts += board.getRestartCount();
+            crashes += board.getCrashCount();
+            if (board.getUnderrunCount() > 0)
+                starved++;
+        }
+
+        LatencyHistogram total = metrics.get(PipelineMetrics.Stage.TOTAL);
+
+        System.out.println(String.format(Locale.ROOT,
+                "commands:  %.0f emitted/s, %.0f sent/s, %.0f applied/s, %d coalesced, " +
+                "%d dropped%n" +
+                "pool:      emit to write p50 %.2f ms, p99 %.2f ms%n" +
+                "apply:     emit to board p50 %.1f ms, p99 %.1f ms, max %.1f ms%n" +
+                "stream:    %.1f kB/s per board, %d underruns on %d boards, %.1f s stalled%n" +
+                "boards:    %d lost, %d restarts, %d crashes",
+                emits / elapsed, sent / elapsed, applied / elapsed, pool.getCoalescedCount(),
+                pool.getDroppedCount(),
+                total.getPercentile(50) / 1e6, total.getPercentile(99) / 1e6,
+                applyLatency.getPercentile(50) / 1e6, applyLatency.getPercentile(99) / 1e6,
+                applyLatency.getMax() / 1e6,
+                streamBytes / elapsed / 1000 / emulator.getBoards().size(), underruns, starved,
+                stalledNanos / 1e9,
+                pool.getLostCount(), restarts, crashes));
+    }
+}
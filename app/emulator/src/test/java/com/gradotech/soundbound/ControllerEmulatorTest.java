@@ -0,0 +1,301 @@
+package com.gradotech.soundbound;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ControllerEmulatorTest {
+    /* 8000 bytes a second, the 4 KB buffer plays for half a second */
+    private static final int bitrate = 64000;
+
+    private ServerSocket streamServer;
+    private ControllerEmulator emulator;
+    private final BlockingQueue<Long> appliedNanos = new LinkedBlockingQueue<>();
+
+    @Before
+    public void setUp() throws IOException {
+        streamServer = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        emulator = new ControllerEmulator(streamServer.getLocalPort(), bitrate);
+        emulator.setTiming(20, 1000, 1000);
+        emulator.setRestartDelay(100);
+        emulator.setListener((board, id, volume, nanos) -> appliedNanos.add(nanos));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        emulator.close();
+        emulator.join(1000);
+        streamServer.close();
+    }
+
+    private ControllerEmulator.Board addBoard() throws IOException {
+        return emulator.addBoard(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                                 "Emulated", new byte[] { 'a', 'b' });
+    }
+
+    private static Socket connect(ControllerEmulator.Board board) throws IOException {
+        Socket socket = new Socket();
+
+        socket.connect(board.getAddress(), 1000);
+        socket.setSoTimeout(2000);
+        socket.setTcpNoDelay(true);
+
+        return socket;
+    }
+
+    private static Soundbound.QDataPacket handshake(Socket socket) throws IOException {
+        byte[] packet = new byte[Soundbound.QDataPacket.SIZE];
+
+        new DataInputStream(socket.getInputStream()).readFully(packet);
+
+        return new Soundbound.QDataPacket().wrap(packet);
+    }
+
+    private static void waitFor(String what, long timeoutMs, Condition condition)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+
+        while (!condition.holds()) {
+            if (System.currentTimeMillis() > deadline)
+                fail("Timed out waiting for " + what);
+            Thread.sleep(5);
+        }
+    }
+
+    private interface Condition {
+        boolean holds();
+    }
+
+    /* Answers /stream with size bytes, sent in chunks every pauseMs */
+    private void serveStream(int size, int chunk, long pauseMs) {
+        Thread thread = new Thread(() -> {
+            try (Socket client = streamServer.accept()) {
+                InputStream in = client.getInputStream();
+                OutputStream out = client.getOutputStream();
+                byte[] request = new byte[1024];
+                int length = 0;
+
+                while (!new String(request, 0, length, "US-ASCII").endsWith("\r\n\r\n"))
+                    length += in.read(request, length, request.length - length);
+
+                out.write(("HTTP/1.1 200 OK\r\nContent-Length: " + size + "\r\n\r\n")
+                        .getBytes("US-ASCII"));
+                for (int sent = 0; sent < size; sent += chunk) {
+                    out.write(new byte[Math.min(chunk, size - sent)]);
+                    out.flush();
+                    if (sent + chunk < size)
+                        Thread.sleep(pauseMs);
+                }
+            } catch (IOException | InterruptedException e) {
+                /* Closed */
+            }
+        });
+
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Test
+    public void board_answersScannerWithQueryData() throws Exception {
+        ControllerEmulator.Board board = addBoard();
+        emulator.start();
+
+        ControllerScanner scanner = new ControllerScanner(board.getAddress().getPort(),
+                Soundbound.QDataPacket.SIZE, 1000);
+        ControllerScanner.Controller controller = scanner.scan(
+                AddressRange.parse("127.0.0.1", ""));
+
+        assertNotNull(controller);
+        Soundbound.QDataPacket qdata = new Soundbound.QDataPacket().wrap(controller.getPacket());
+        assertEquals(Soundbound.version(0, 5), qdata.getVersion());
+        assertArrayEquals(new byte[] { 'a', 'b' }, qdata.getSpeakerIds());
+        assertEquals("Emulated", qdata.getDeviceName());
+        controller.getChannel().close();
+    }
+
+    @Test
+    public void board_readsOneBytePerPassUpToVersion03() throws Exception {
+        emulator.setVersion(0, 3);
+        ControllerEmulator.Board board = addBoard();
+        emulator.start();
+
+        try (Socket socket = connect(board)) {
+            handshake(socket);
+
+            /* 2 bytes in the first pass, then 1 per pass, a pass idles 20 ms */
+            long sent = System.nanoTime();
+            socket.getOutputStream().write(new byte[] {
+                    Soundbound.SB_SET_VOLUME_BATCH, 2, 'a', 40, 'b', 60 });
+
+            Long first = appliedNanos.poll(2, TimeUnit.SECONDS);
+            Long second = appliedNanos.poll(2, TimeUnit.SECONDS);
+            assertNotNull(first);
+            assertNotNull(second);
+            assertTrue(first - sent >= TimeUnit.MILLISECONDS.toNanos(4 * 20));
+            assertEquals(40, board.getVolume((byte) 'a'));
+            assertEquals(60, board.getVolume((byte) 'b'));
+            assertEquals(-1, board.getVolume((byte) 'c'));
+
+            /* Speakers of other boards are ignored, a packet may arrive in pieces */
+            socket.getOutputStream().write(Soundbound.SB_SET_VOLUME);
+            socket.getOutputStream().write(new byte[] { 'c', 10, 0 });
+            socket.getOutputStream().write(new byte[] { Soundbound.SB_SET_VOLUME, 'a', 20, 0 });
+
+            assertNotNull(appliedNanos.poll(2, TimeUnit.SECONDS));
+            assertEquals(20, board.getVolume((byte) 'a'));
+            assertEquals(3, board.getAppliedCount());
+        }
+    }
+
+    @Test
+    public void board_playsStreamAndCountsUnderruns() throws Exception {
+        ControllerEmulator.Board board = addBoard();
+        emulator.start();
+
+        try (Socket socket = connect(board)) {
+            handshake(socket);
+
+            /* Fast enough: a second of audio at once */
+            serveStream(8000, 8000, 0);
+            socket.getOutputStream().write(Soundbound.SB_START);
+            waitFor("the stream", 2000, () -> board.getStreamBytes() == 8000);
+            Thread.sleep(1200);
+            assertEquals(0, board.getUnderrunCount());
+
+            /* Half a second of audio, then the rest a second later */
+            serveStream(8192, 4096, 1000);
+            socket.getOutputStream().write(Soundbound.SB_START);
+            waitFor("the stream", 3000, () -> board.getStreamBytes() == 8000 + 8192);
+            Thread.sleep(200);
+            assertEquals(1, board.getUnderrunCount());
+            assertTrue(board.getStalledNanos() > TimeUnit.MILLISECONDS.toNanos(300));
+        }
+    }
+
+    @Test
+    public void board_restartsOnStopBeforeStartUpToVersion03() throws Exception {
+        emulator.setVersion(0, 3);
+        ControllerEmulator.Board board = addBoard();
+        emulator.start();
+
+        try (Socket socket = connect(board)) {
+            handshake(socket);
+            socket.getOutputStream().write(Soundbound.SB_STOP);
+
+            /* The reset closes the connection */
+            assertEquals(-1, socket.getInputStream().read());
+        }
+
+        assertEquals(1, board.getCrashCount());
+
+        /* Refused while the board boots, then served again */
+        long deadline = System.currentTimeMillis() + 2000;
+        while (true) {
+            try (Socket socket = connect(board)) {
+                assertArrayEquals(new byte[] { 'a', 'b' }, handshake(socket).getSpeakerIds());
+                assertEquals(1, board.getRestartCount());
+                break;
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > deadline)
+                    throw e;
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    @Test
+    public void board_wedgesOnQueryDataOverTcpUpToVersion03() throws Exception {
+        emulator.setVersion(0, 3);
+        ControllerEmulator.Board board = addBoard();
+        emulator.start();
+
+        try (Socket socket = connect(board)) {
+            handshake(socket);
+
+            /* The captured query is never completed, nothing after it is parsed */
+            socket.getOutputStream().write(new byte[] {
+                    Soundbound.SB_QUERY_DATA, Soundbound.SB_SET_VOLUME, 'a', 5, 0 });
+
+            assertNull(appliedNanos.poll(300, TimeUnit.MILLISECONDS));
+            assertEquals(1, board.getCommandCount());
+        }
+    }
+
+    @Test
+    public void board_parsesEverythingThatArrivedInOnePass() throws Exception {
+        ControllerEmulator.Board board = addBoard();
+        emulator.start();
+
+        try (Socket socket = connect(board)) {
+            handshake(socket);
+
+            /* A pass idles 20 ms, the legacy parser needed a pass per byte */
+            long sent = System.nanoTime();
+            socket.getOutputStream().write(new byte[] {
+                    Soundbound.SB_SET_VOLUME_BATCH, 2, 'a', 40, 'b', 60,
+                    Soundbound.SB_NO_CMD,
+                    Soundbound.SB_STOP,
+                    Soundbound.SB_QUERY_DATA,
+                    Soundbound.SB_SET_VOLUME, 'a', 20, 0 });
+
+            assertArrayEquals(new byte[] { 'a', 'b' }, handshake(socket).getSpeakerIds());
+            for (int i = 0; i < 3; i++) {
+                Long applied = appliedNanos.poll(2, TimeUnit.SECONDS);
+                assertNotNull(applied);
+                assertTrue(applied - sent < TimeUnit.MILLISECONDS.toNanos(2 * 20));
+            }
+            assertEquals(20, board.getVolume((byte) 'a'));
+            assertEquals(60, board.getVolume((byte) 'b'));
+            assertEquals(5, board.getCommandCount());
+
+            /* Nothing to stop before the first start */
+            assertEquals(0, board.getCrashCount());
+            assertTrue(board.isConnected());
+        }
+    }
+
+    @Test
+    public void board_stepsRampsEvery20Ms() throws Exception {
+        ControllerEmulator.Board board = addBoard();
+        emulator.start();
+
+        try (Socket socket = connect(board)) {
+            handshake(socket);
+
+            /* From 100 down to 60 over 200 ms, in about 10 writes */
+            long sent = System.nanoTime();
+            socket.getOutputStream().write(new byte[] {
+                    Soundbound.SB_SET_VOLUME_RAMP, 1, 0, (byte) 200, 'a', 60 });
+
+            waitFor("the ramp", 2000, () -> board.getVolume((byte) 'a') == 60);
+            long took = System.nanoTime() - sent;
+
+            assertTrue(took >= TimeUnit.MILLISECONDS.toNanos(200));
+            assertTrue(took < TimeUnit.MILLISECONDS.toNanos(2 * 200));
+            assertTrue(board.getAppliedCount() >= 5 && board.getAppliedCount() <= 11);
+            assertEquals(100, board.getVolume((byte) 'b'));
+
+            /* A plain volume ends the ramp */
+            socket.getOutputStream().write(new byte[] {
+                    Soundbound.SB_SET_VOLUME_RAMP, 1, 0x27, 0x10, 'b', 0,
+                    Soundbound.SB_SET_VOLUME, 'b', 50, 0 });
+            waitFor("the volume", 2000, () -> board.getVolume((byte) 'b') == 50);
+            Thread.sleep(100);
+            assertEquals(50, board.getVolume((byte) 'b'));
+        }
+    }
+}
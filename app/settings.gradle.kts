@@ -15,3 +15,6 @@ dependencyResolutionManagement {
 
 rootProject.name = "Soundbound"
 include(":app")
+include(":core")
+include(":benchmarks")
+include(":emulator")
@@ -0,0 +1,127 @@
+/*
+ * Soundbound ESP8266 Library
+ * Dynamic audio panning control
+ *
+ * Copyright (C) 2023 Grado Technologies
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+#include <cstring>
+
+#include "PacketParser.h"
+
+PacketParser::PacketParser()
+{
+	reset();
+}
+
+void PacketParser::reset()
+{
+	this->head = 0;
+	this->tail = 0;
+}
+
+uint16_t PacketParser::pending()
+{
+	return static_cast<uint16_t>(this->tail - this->head);
+}
+
+uint16_t PacketParser::free()
+{
+	return SB_RING_SIZE - pending();
+}
+
+/* Free bytes up to the end of the ring */
+uint16_t PacketParser::contiguousFree()
+{
+	uint16_t offset = this->tail & (SB_RING_SIZE - 1);
+	uint16_t end = SB_RING_SIZE - offset;
+
+	return (free() < end) ? free() : end;
+}
+
+uint8_t PacketParser::peek(uint16_t offset)
+{
+	return this->ring[(this->head + offset) & (SB_RING_SIZE - 1)];
+}
+
+size_t PacketParser::fill(const uint8_t *data, size_t size)
+{
+	size_t total = 0;
+	uint16_t chunk;
+
+	while (total < size && free() > 0) {
+		chunk = contiguousFree();
+		if (chunk > size - total)
+			chunk = static_cast<uint16_t>(size - total);
+
+		memcpy(&this->ring[this->tail & (SB_RING_SIZE - 1)], data + total, chunk);
+		this->tail += chunk;
+		total += chunk;
+	}
+
+	return total;
+}
+
+/*
+ * Returns the next complete packet, command byte first so it maps onto the packet
+ * structs, or nullptr until more bytes arrive. The packet stays valid until the
+ * next call.
+ */
+const uint8_t *PacketParser::next()
+{
+	uint16_t header;
+	uint16_t size;
+	uint16_t i;
+
+	while (pending() > 0) {
+		switch (peek(0)) {
+		case SB_SET_VOLUME:
+			size = sizeof(sb_volume_packet);
+			break;
+		case SB_SET_VOLUME_BATCH:
+		case SB_SET_VOLUME_RAMP:
+			/* Size is only known once the count byte is in */
+			if (pending() < 2)
+				return nullptr;
+
+			/* No client sends that many, skip the command byte to resync */
+			if (peek(1) > SB_MAX_SPEAKERS) {
+				this->head++;
+				continue;
+			}
+
+			header = (peek(0) == SB_SET_VOLUME_RAMP) ?
+				offsetof(sb_volume_ramp_packet, vols) :
+				offsetof(sb_volume_batch_packet, vols);
+			size = header + peek(1) * sizeof(sb_volume_entry);
+			break;
+		default:
+			size = 1;
+			break;
+		}
+
+		if (pending() < size)
+			return nullptr;
+
+		for (i = 0; i < size; i++)
+			this->packet[i] = peek(i);
+		this->head += size;
+
+		return this->packet;
+	}
+
+	return nullptr;
+}
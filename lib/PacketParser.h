@@ -0,0 +1,89 @@
+/*
+ * Soundbound ESP8266 Library
+ * Dynamic audio panning control
+ *
+ * Copyright (C) 2023 Grado Technologies
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+#ifndef __SOUNDBOUND_PACKET_PARSER_H__
+#define __SOUNDBOUND_PACKET_PARSER_H__
+
+#include <cstddef>
+#include <cstdint>
+
+#include "SoundboundProtocol.h"
+
+/* Must be a power of two */
+#define SB_RING_SIZE		256
+
+/*
+ * Splits the bytes of a client into packets. Everything the client has is read
+ * into a ring buffer in one go, then every complete packet in it can be taken out
+ * with next(). Nothing is allocated, the parser lives inside its owner.
+ *
+ * Only depends on the protocol definitions, so it builds and is tested on the
+ * host, see test/.
+ */
+class PacketParser {
+
+private:
+	uint8_t ring[SB_RING_SIZE];
+	uint8_t packet[SB_MAX_PCKT_SIZE];
+	uint16_t head;			/* Next byte to parse */
+	uint16_t tail;			/* Next byte to fill */
+
+	uint8_t peek(uint16_t offset);
+	uint16_t contiguousFree();
+
+public:
+	PacketParser();
+	uint16_t pending();
+	uint16_t free();
+	size_t fill(const uint8_t *data, size_t size);
+	template <class Client> size_t fill(Client &client);
+	const uint8_t *next();
+	void reset();
+};
+
+/*
+ * Reads what the client has available, as much as fits. Client is a WiFiClient
+ * or anything else with available() and read(buf, size).
+ */
+template <class Client>
+size_t PacketParser::fill(Client &client)
+{
+	size_t total = 0;
+	int available;
+	int count;
+	uint16_t chunk;
+
+	while (free() > 0 && (available = client.available()) > 0) {
+		chunk = contiguousFree();
+		if (static_cast<int>(chunk) > available)
+			chunk = static_cast<uint16_t>(available);
+
+		count = client.read(&this->ring[this->tail & (SB_RING_SIZE - 1)], chunk);
+		if (count <= 0)
+			break;
+
+		this->tail += static_cast<uint16_t>(count);
+		total += static_cast<size_t>(count);
+	}
+
+	return total;
+}
+
+#endif /* __SOUNDBOUND_PACKET_PARSER_H__ */
@@ -23,7 +23,6 @@
 
 #include "Soundbound.h"
 
-#define TX_BUFF_EMPTY -1
 #define VOL_SCALE_MAX 100
 
 /*
@@ -45,6 +44,7 @@ Soundbound::Soundbound(const char *device, const sb_speaker *speakers, uint8_t c
 
 	this->speakers_count = count;
 	this->speakers_desc = speakers;
+	this->lastStep = 0;
 
 	SPI.begin();
 }
@@ -62,50 +62,122 @@ Speaker *Soundbound::getSpeaker(char id)
 	return this->m_speakers.at(id);
 }
 
-void Soundbound::update(WiFiClient &client)
+void Soundbound::setVolume(char id, uint8_t volume)
 {
-	sb_volume_packet *volPacket = nullptr;
+	std::map<char, Speaker *>::iterator it = this->m_speakers.find(id);
+	Speaker *speaker;
+	int vol;
 
-	if (hasPacket()) {
-		Packet *pckt	= this->packet;
-		int data	= client.read();
+	if (it == this->m_speakers.end())
+		return;
 
-		if (data == TX_BUFF_EMPTY)
-			pckt->setDone(true);
+	speaker = it->second;
+	speaker->setVolume(volume);
 
-		if (!pckt->isDone()) {
-			uint8_t byte = static_cast<uint8_t>(data);
-			bool hasSpace = pckt->fillBuffer(byte);
+	vol = speaker->getVolume();
+	Serial.printf("Speaker '%c' hw vol %d\n", id, vol);
+	Serial.flush();
+}
 
-			if (!hasSpace)
-				pckt->setDone(true);
-		} else if (pckt->getCmdType() == SB_SET_VOLUME) {
-			uint8_t *buff = pckt->getBuffer();
+void Soundbound::rampVolume(char id, uint8_t volume, uint16_t duration)
+{
+	std::map<char, Speaker *>::iterator it = this->m_speakers.find(id);
 
-			volPacket = reinterpret_cast<sb_volume_packet *>(buff);
-		}
+	if (it == this->m_speakers.end())
+		return;
+
+	it->second->rampVolume(volume, duration, millis());
+}
+
+/* Moves the ramping speakers along, at most every SB_RAMP_STEP_MS */
+void Soundbound::step(uint32_t now)
+{
+	std::map<char, Speaker *>::iterator it;
+
+	if (now - this->lastStep < SB_RAMP_STEP_MS)
+		return;
+
+	this->lastStep = now;
+
+	for (it = this->m_speakers.begin(); it != this->m_speakers.end(); it++)
+		it->second->step(now);
+}
+
+bool Soundbound::isRamping()
+{
+	std::map<char, Speaker *>::iterator it;
+
+	for (it = this->m_speakers.begin(); it != this->m_speakers.end(); it++) {
+		if (it->second->isRamping())
+			return true;
 	}
 
-	if (volPacket) {
-		Speaker *speaker = this->getSpeaker(volPacket->id);
-		int vol;
+	return false;
+}
+
+/*
+ * Reads everything the client has sent and handles every complete packet in it.
+ * Volumes are applied and ramps stepped here, the latest SB_START or SB_STOP is
+ * returned for the sketch to act on, SB_NO_CMD if there was none.
+ */
+sb_command Soundbound::update(WiFiClient &client)
+{
+	sb_command playback = SB_NO_CMD;
+	const uint8_t *buff;
+	uint8_t i;
 
-		speaker->setVolume(volPacket->volume);
+	this->parser.fill(client);
 
-		vol = speaker->getVolume();
-		Serial.printf("Speaker '%c' hw vol %d\n", volPacket->id, vol);
-		Serial.flush();
+	while ((buff = this->parser.next()) != nullptr) {
+		switch (buff[0]) {
+		case SB_SET_VOLUME: {
+			const sb_volume_packet *volPacket =
+				reinterpret_cast<const sb_volume_packet *>(buff);
 
-		doCapture(SB_NO_CMD, false);
+			setVolume(volPacket->id, volPacket->volume);
+			break;
+		}
+		case SB_SET_VOLUME_BATCH: {
+			const sb_volume_batch_packet *batch =
+				reinterpret_cast<const sb_volume_batch_packet *>(buff);
+
+			for (i = 0; i < batch->count; i++)
+				setVolume(batch->vols[i].id, batch->vols[i].volume);
+			break;
+		}
+		case SB_SET_VOLUME_RAMP: {
+			const sb_volume_ramp_packet *ramp =
+				reinterpret_cast<const sb_volume_ramp_packet *>(buff);
+			uint16_t duration = (ramp->duration[0] << 8) | ramp->duration[1];
+
+			for (i = 0; i < ramp->count; i++)
+				rampVolume(ramp->vols[i].id, ramp->vols[i].volume, duration);
+			break;
+		}
+		case SB_QUERY_DATA:
+			queryData(client);
+			break;
+		case SB_START:
+		case SB_STOP:
+			playback = static_cast<sb_command>(buff[0]);
+			break;
+		case SB_NO_CMD:
+		default:
+			/* Heartbeats and invalid commands */
+			break;
+		}
 	}
+
+	step(millis());
+
+	return playback;
 }
 
-void Soundbound::queryData(WiFiClient &client)
+void Soundbound::fillQueryData(sb_qdata_packet &qdata)
 {
-	sb_qdata_packet qdata = { 0 };
-	uint8_t *buff = (uint8_t *)&qdata;
 	uint8_t i;
 
+	memset(&qdata, 0, sizeof(qdata));
 	strcpy(qdata.device, this->device);
 
 	qdata.cmd	= SB_QUERY_DATA;
@@ -118,52 +190,51 @@ void Soundbound::queryData(WiFiClient &client)
 		else
 			break;
 	}
-
-	for (i = 0; i < sizeof(qdata); i++)
-		client.write(buff[i]);
 }
 
-sb_command Soundbound::cmdRecieved(WiFiClient &client)
+void Soundbound::queryData(WiFiClient &client)
 {
-	int byte = client.read();
-	sb_command cmd;
-
-	if (byte == TX_BUFF_EMPTY)
-		return SB_NO_CMD;
-
-	cmd = static_cast<sb_command>(byte);
-
-	if (SB_IS_LONG_PACKET(cmd))
-		doCapture(cmd, true);
+	sb_qdata_packet qdata;
+	uint8_t *buff = (uint8_t *)&qdata;
+	uint8_t i;
 
-	if (hasPacket())
-		return packet->getCmdType();
+	fillQueryData(qdata);
 
-	return cmd;
+	for (i = 0; i < sizeof(qdata); i++)
+		client.write(buff[i]);
 }
 
-void Soundbound::doCapture(sb_command cmd, bool capture)
+void Soundbound::answerDiscovery(WiFiUDP &udp, uint16_t port)
 {
-	if (capture && !hasPacket()) {
-		this->packet = new Packet(cmd);
-	} else if (!capture && hasPacket()) {
-		delete this->packet;
-		this->packet = nullptr;
+	sb_discovery_packet reply;
+	int size = udp.parsePacket();
+
+	if (size <= 0)
+		return;
+
+	/* Anything but a discovery request is someone else's datagram */
+	if (udp.read() != SB_DISCOVER) {
+		udp.flush();
+		return;
 	}
 
-	this->capturePacket = capture;
-}
+	udp.flush();
 
-bool Soundbound::hasPacket()
-{
-	return this->capturePacket;
+	reply.cmd	= SB_DISCOVER;
+	reply.port[0]	= static_cast<uint8_t>(port >> 8);
+	reply.port[1]	= static_cast<uint8_t>(port & 0xff);
+	fillQueryData(reply.qdata);
+
+	udp.beginPacket(udp.remoteIP(), udp.remotePort());
+	udp.write(reinterpret_cast<const uint8_t *>(&reply), sizeof(reply));
+	udp.endPacket();
 }
 
 /*
  * Speaker
  */
 
-Speaker::Speaker(const sb_speaker& speaker)
+Speaker::Speaker(const sb_speaker& speaker) : ramp(speaker.volume)
 {
 	this->id	= speaker.spk_id;
 	this->pmeter	= new Potentiometer(speaker.pmeter);
@@ -180,9 +251,28 @@ void Speaker::setVolume(uint8_t volume)
 {
 	Potentiometer *pmeter = this->getPotentiometer();
 
+	this->ramp.set(volume);
 	this->volume = pmeter->setVolume(volume);
 }
 
+void Speaker::rampVolume(uint8_t volume, uint16_t duration, uint32_t now)
+{
+	this->ramp.begin(volume, duration, now);
+}
+
+void Speaker::step(uint32_t now)
+{
+	Potentiometer *pmeter = this->getPotentiometer();
+
+	if (this->ramp.step(now))
+		this->volume = pmeter->setVolume(this->ramp.getVolume());
+}
+
+bool Speaker::isRamping()
+{
+	return this->ramp.isRunning();
+}
+
 int Speaker::getVolume()
 {
 	return static_cast<int>(this->volume);
@@ -233,44 +323,3 @@ uint8_t Potentiometer::setVolume(uint8_t volume)
 
 	return static_cast<uint8_t>(hw_vol);
 }
-
-/*
- * Packet
- */
-
-Packet::Packet(sb_command cmd)
-{
-	this->cmd	= cmd;
-	this->cursor	= 0;
-}
-
-sb_command Packet::getCmdType()
-{
-	return this->cmd;
-}
-
-void Packet::setDone(bool done)
-{
-	this->done = done;
-}
-
-bool Packet::isDone()
-{
-	return this->done;
-}
-
-bool Packet::fillBuffer(uint8_t byte)
-{
-	if (this->cursor >= SB_MAX_PCKT_SIZE)
-		return false;
-
-	this->buff[this->cursor] = byte;
-	this->cursor++;
-
-	return true;
-}
-
-uint8_t *Packet::getBuffer()
-{
-	return this->buff;
-}
@@ -25,49 +25,11 @@
 #include <map>
 
 #include <ESP8266WiFi.h>
+#include <WiFiUdp.h>
 
-#define SB_VERSION_MINOR	1
-#define SB_VERSION_MAJOR	0
-
-#define SB_MAX_SPEAKERS		8
-#define SB_DEV_NAME_SIZE	21
-#define SB_MAX_PCKT_SIZE	32
-
-#define SB_IS_LONG_PACKET(cmd)	(	\
-	((cmd) == SB_QUERY_DATA ||	\
-	(cmd) == SB_SET_VOLUME)		\
-)
-
-/*
- * Communication interface
- */
-
-enum sb_command {
-	SB_NO_CMD	= 0,
-
-	SB_QUERY_DATA	= 1,
-	SB_SET_VOLUME	= 2,
-	SB_START	= 3,
-	SB_STOP		= 4,
-
-	SB_CMD_MAX	= UCHAR_MAX
-};
-
-struct sb_qdata_packet {
-	uint8_t cmd;			/* SB_QUERY_DATA */
-	uint8_t major;			/* Major version number */
-	uint8_t minor;			/* Minor version number */
-	char spks[SB_MAX_SPEAKERS];	/* Speaker IDs */
-	char device[SB_DEV_NAME_SIZE];	/* Name of the HW controller */
-};
-
-struct sb_volume_packet {
-	uint8_t cmd;			/* SB_SET_VOLUME */
-	char id;			/* Spekaer ID */
-	uint8_t volume;			/* Volume to be set */
-	uint8_t reserved;
-};
-
+#include "SoundboundProtocol.h"
+#include "PacketParser.h"
+#include "VolumeRamp.h"
 
 /*
  * HW configuration interface
@@ -117,31 +79,19 @@ private:
 	char id;
 	uint8_t volume;
 	Potentiometer *pmeter;
+	VolumeRamp ramp;
 
 public:
 	Speaker(const sb_speaker& speaker);
 	~Speaker();
 	Potentiometer *getPotentiometer();
 	void setVolume(uint8_t volume);
+	void rampVolume(uint8_t volume, uint16_t duration, uint32_t now);
+	void step(uint32_t now);
+	bool isRamping();
 	int getVolume();
 };
 
-class Packet {
-private:
-	bool done;
-	sb_command cmd;
-	uint8_t buff[SB_MAX_PCKT_SIZE];
-	uint8_t cursor;
-
-public:
-	Packet(sb_command cmd);
-	sb_command getCmdType();
-	void setDone(bool done);
-	bool isDone();
-	bool fillBuffer(uint8_t byte);
-	uint8_t *getBuffer();
-};
-
 class Soundbound {
 
 private:
@@ -150,18 +100,22 @@ private:
 	const sb_speaker *speakers_desc;
 	std::map<char, Speaker *> m_speakers;
 
-	bool capturePacket;
-	Packet *packet;
+	PacketParser parser;
+	uint32_t lastStep;
+
+	void fillQueryData(sb_qdata_packet &qdata);
 
 public:
 	Soundbound(const char *device, const sb_speaker *speakers, uint8_t count);
 	~Soundbound();
 	Speaker *getSpeaker(char id);
-	void update(WiFiClient &client);
+	void setVolume(char id, uint8_t volume);
+	void rampVolume(char id, uint8_t volume, uint16_t duration);
+	void step(uint32_t now);
+	bool isRamping();
+	sb_command update(WiFiClient &client);
 	void queryData(WiFiClient &client);
-	sb_command cmdRecieved(WiFiClient &client);
-	void doCapture(sb_command cmd, bool capture);
-	bool hasPacket();
+	void answerDiscovery(WiFiUDP &udp, uint16_t port);
 };
 
 #endif /* __SOUNDBOUND_H__ */
@@ -0,0 +1,102 @@
+/*
+ * Soundbound ESP8266 Library
+ * Dynamic audio panning control
+ *
+ * Copyright (C) 2023 Grado Technologies
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+#ifndef __SOUNDBOUND_PROTOCOL_H__
+#define __SOUNDBOUND_PROTOCOL_H__
+
+#include <climits>
+#include <cstdint>
+
+#define SB_VERSION_MINOR	5
+#define SB_VERSION_MAJOR	0
+
+#define SB_DISCOVERY_PORT	1883
+
+#define SB_MAX_SPEAKERS		8
+#define SB_DEV_NAME_SIZE	21
+#define SB_MAX_PCKT_SIZE	32
+
+/*
+ * Communication interface
+ */
+
+enum sb_command {
+	SB_NO_CMD	= 0,
+
+	SB_QUERY_DATA	= 1,
+	SB_SET_VOLUME	= 2,
+	SB_START	= 3,
+	SB_STOP		= 4,
+	SB_SET_VOLUME_BATCH	= 5,	/* Since version 0.2 */
+	SB_DISCOVER	= 6,	/* Since version 0.3, UDP only */
+	SB_SET_VOLUME_RAMP	= 7,	/* Since version 0.5 */
+
+	SB_CMD_MAX	= UCHAR_MAX
+};
+
+struct sb_qdata_packet {
+	uint8_t cmd;			/* SB_QUERY_DATA */
+	uint8_t major;			/* Major version number */
+	uint8_t minor;			/* Minor version number */
+	char spks[SB_MAX_SPEAKERS];	/* Speaker IDs */
+	char device[SB_DEV_NAME_SIZE];	/* Name of the HW controller */
+};
+
+struct sb_volume_packet {
+	uint8_t cmd;			/* SB_SET_VOLUME */
+	char id;			/* Spekaer ID */
+	uint8_t volume;			/* Volume to be set */
+	uint8_t reserved;
+};
+
+struct sb_volume_entry {
+	char id;			/* Speaker ID */
+	uint8_t volume;			/* Volume to be set */
+};
+
+/* Only the first count entries are sent on the wire */
+struct sb_volume_batch_packet {
+	uint8_t cmd;			/* SB_SET_VOLUME_BATCH */
+	uint8_t count;			/* Number of entries */
+	sb_volume_entry vols[SB_MAX_SPEAKERS];
+};
+
+/*
+ * Moves every listed speaker from its current volume to the given one, linearly
+ * over duration. Only the first count entries are sent on the wire.
+ */
+struct sb_volume_ramp_packet {
+	uint8_t cmd;			/* SB_SET_VOLUME_RAMP */
+	uint8_t count;			/* Number of entries */
+	uint8_t duration[2];		/* Milliseconds, big endian */
+	sb_volume_entry vols[SB_MAX_SPEAKERS];
+};
+
+/*
+ * Answer to an SB_DISCOVER datagram broadcast on SB_DISCOVERY_PORT, sent back to
+ * the sender only. The client then connects to port over TCP as usual.
+ */
+struct sb_discovery_packet {
+	uint8_t cmd;			/* SB_DISCOVER */
+	uint8_t port[2];		/* TCP server port, big endian */
+	sb_qdata_packet qdata;		/* Same as the TCP handshake */
+};
+
+#endif /* __SOUNDBOUND_PROTOCOL_H__ */
@@ -0,0 +1,85 @@
+/*
+ * Soundbound ESP8266 Library
+ * Dynamic audio panning control
+ *
+ * Copyright (C) 2023 Grado Technologies
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+#include "VolumeRamp.h"
+
+VolumeRamp::VolumeRamp(uint8_t volume)
+{
+	set(volume);
+}
+
+/* Jumps to volume, ending any ramp */
+void VolumeRamp::set(uint8_t volume)
+{
+	this->from	= volume;
+	this->to	= volume;
+	this->volume	= volume;
+	this->start	= 0;
+	this->duration	= 0;
+}
+
+void VolumeRamp::begin(uint8_t target, uint16_t duration, uint32_t now)
+{
+	this->from	= this->volume;
+	this->to	= target;
+	this->start	= now;
+	this->duration	= duration;
+}
+
+/*
+ * Moves the volume along the ramp to where it is at now. Returns true if it
+ * changed and has to be written out.
+ */
+bool VolumeRamp::step(uint32_t now)
+{
+	uint32_t elapsed = now - this->start;
+	int32_t delta = static_cast<int32_t>(this->to) - this->from;
+	uint8_t volume;
+
+	if (!isRunning())
+		return false;
+
+	if (elapsed >= this->duration) {
+		volume = this->to;
+		this->from = this->to;
+	} else {
+		/* Rounded to the nearest step, away from the start on ties */
+		delta *= static_cast<int32_t>(elapsed);
+		delta += (delta < 0) ? -(this->duration / 2) : this->duration / 2;
+		volume = static_cast<uint8_t>(this->from + delta / this->duration);
+	}
+
+	if (volume == this->volume)
+		return false;
+
+	this->volume = volume;
+
+	return true;
+}
+
+uint8_t VolumeRamp::getVolume()
+{
+	return this->volume;
+}
+
+bool VolumeRamp::isRunning()
+{
+	return this->from != this->to;
+}
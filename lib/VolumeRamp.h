@@ -0,0 +1,55 @@
+/*
+ * Soundbound ESP8266 Library
+ * Dynamic audio panning control
+ *
+ * Copyright (C) 2023 Grado Technologies
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+#ifndef __SOUNDBOUND_VOLUME_RAMP_H__
+#define __SOUNDBOUND_VOLUME_RAMP_H__
+
+#include <cstdint>
+
+/* Ramps step at most this often, every step is a potentiometer write */
+#define SB_RAMP_STEP_MS		20
+
+/*
+ * Volume of a speaker moving linearly towards a target. A new ramp starts from
+ * wherever the previous one got to, so retargeting never jumps. Times are
+ * millis() values and may wrap around.
+ *
+ * Only depends on the standard headers, so it builds and is tested on the host,
+ * see test/.
+ */
+class VolumeRamp {
+
+private:
+	uint8_t from;
+	uint8_t to;
+	uint8_t volume;			/* Last volume stepped to */
+	uint32_t start;
+	uint16_t duration;
+
+public:
+	VolumeRamp(uint8_t volume);
+	void set(uint8_t volume);
+	void begin(uint8_t target, uint16_t duration, uint32_t now);
+	bool step(uint32_t now);
+	uint8_t getVolume();
+	bool isRunning();
+};
+
+#endif /* __SOUNDBOUND_VOLUME_RAMP_H__ */
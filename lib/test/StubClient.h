@@ -0,0 +1,62 @@
+/*
+ * Stand-in for WiFiClient on the host: hands out the bytes of a buffer, at most
+ * chunk of them per available() like packets arriving one by one.
+ */
+
+#ifndef __SOUNDBOUND_STUB_CLIENT_H__
+#define __SOUNDBOUND_STUB_CLIENT_H__
+
+#include <cstddef>
+#include <cstdint>
+#include <cstring>
+
+class StubClient {
+
+private:
+	const uint8_t *data;
+	size_t size;
+	size_t pos;
+	size_t chunk;
+	size_t arrived;
+
+public:
+	StubClient(const uint8_t *data, size_t size, size_t chunk)
+		: data(data), size(size), pos(0), chunk(chunk), arrived(0) {}
+
+	/* Lets the next chunk arrive */
+	void receive()
+	{
+		arrived += chunk;
+		if (arrived > size)
+			arrived = size;
+	}
+
+	int available()
+	{
+		return static_cast<int>(arrived - pos);
+	}
+
+	int read(uint8_t *buf, size_t count)
+	{
+		if (count > arrived - pos)
+			count = arrived - pos;
+
+		memcpy(buf, data + pos, count);
+		pos += count;
+
+		return static_cast<int>(count);
+	}
+
+	bool done()
+	{
+		return pos == size;
+	}
+
+	void rewind()
+	{
+		pos = 0;
+		arrived = 0;
+	}
+};
+
+#endif /* __SOUNDBOUND_STUB_CLIENT_H__ */
@@ -0,0 +1,107 @@
+/*
+ * Writes the sizes, offsets and wire bytes of the sb_* packets as the compiler
+ * lays them out. Soundbound.java is tested against this output: make golden
+ */
+
+#include <cstddef>
+#include <cstdio>
+#include <cstring>
+
+#include "SoundboundProtocol.h"
+
+#define SERVER_PORT	1881
+
+static void size(const char *name, size_t value)
+{
+	printf("size %s %zu\n", name, value);
+}
+
+static void offset(const char *name, size_t value)
+{
+	printf("offset %s %zu\n", name, value);
+}
+
+static void packet(const char *name, const void *data, size_t length)
+{
+	const uint8_t *bytes = (const uint8_t *) data;
+
+	printf("packet %s", name);
+	for (size_t i = 0; i < length; i++)
+		printf(" %02x", bytes[i]);
+	printf("\n");
+}
+
+static void qdata(sb_qdata_packet *qdata)
+{
+	memset(qdata, 0, sizeof(*qdata));
+	qdata->cmd = SB_QUERY_DATA;
+	qdata->major = 0;
+	qdata->minor = 2;
+	memcpy(qdata->spks, "abcd", 4);
+	strncpy(qdata->device, "Living room", SB_DEV_NAME_SIZE);
+}
+
+int main()
+{
+	sb_qdata_packet query;
+	sb_discovery_packet discovery;
+	sb_volume_packet volume;
+	sb_volume_batch_packet batch;
+	sb_volume_ramp_packet ramp;
+
+	printf("# Generated by lib/test/packet_dump.cpp from SoundboundProtocol.h\n");
+
+	size("qdata", sizeof(sb_qdata_packet));
+	offset("qdata.major", offsetof(sb_qdata_packet, major));
+	offset("qdata.minor", offsetof(sb_qdata_packet, minor));
+	offset("qdata.spks", offsetof(sb_qdata_packet, spks));
+	offset("qdata.device", offsetof(sb_qdata_packet, device));
+	size("discovery", sizeof(sb_discovery_packet));
+	offset("discovery.port", offsetof(sb_discovery_packet, port));
+	offset("discovery.qdata", offsetof(sb_discovery_packet, qdata));
+	size("volume", sizeof(sb_volume_packet));
+	size("entry", sizeof(sb_volume_entry));
+	size("batch", sizeof(sb_volume_batch_packet));
+	offset("batch.vols", offsetof(sb_volume_batch_packet, vols));
+	size("ramp", sizeof(sb_volume_ramp_packet));
+	offset("ramp.duration", offsetof(sb_volume_ramp_packet, duration));
+	offset("ramp.vols", offsetof(sb_volume_ramp_packet, vols));
+
+	qdata(&query);
+	packet("qdata", &query, sizeof(query));
+
+	memset(&discovery, 0, sizeof(discovery));
+	discovery.cmd = SB_DISCOVER;
+	discovery.port[0] = SERVER_PORT >> 8;
+	discovery.port[1] = SERVER_PORT & 0xff;
+	qdata(&discovery.qdata);
+	packet("discovery", &discovery, sizeof(discovery));
+
+	memset(&volume, 0, sizeof(volume));
+	volume.cmd = SB_SET_VOLUME;
+	volume.id = 'b';
+	volume.volume = 55;
+	packet("volume", &volume, sizeof(volume));
+
+	/* Batches and ramps go out up to their last entry */
+	memset(&batch, 0, sizeof(batch));
+	batch.cmd = SB_SET_VOLUME_BATCH;
+	batch.count = 3;
+	batch.vols[0] = { 'a', 100 };
+	batch.vols[1] = { 'c', 0 };
+	batch.vols[2] = { 'd', 200 };
+	packet("batch", &batch, offsetof(sb_volume_batch_packet, vols) +
+	       batch.count * sizeof(sb_volume_entry));
+
+	memset(&ramp, 0, sizeof(ramp));
+	ramp.cmd = SB_SET_VOLUME_RAMP;
+	ramp.count = 2;
+	ramp.duration[0] = 800 >> 8;
+	ramp.duration[1] = 800 & 0xff;
+	ramp.vols[0] = { 'a', 40 };
+	ramp.vols[1] = { 'b', 60 };
+	packet("ramp", &ramp, offsetof(sb_volume_ramp_packet, vols) +
+	       ramp.count * sizeof(sb_volume_entry));
+
+	return 0;
+}
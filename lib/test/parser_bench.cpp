@@ -0,0 +1,235 @@
+/*
+ * Host benchmark of the packet parser against the byte per pass parsing it
+ * replaced: make bench
+ *
+ * Both parse the same stream of batches, volumes and heartbeats, arriving in
+ * chunks of a TCP segment. The legacy loop reads a byte per pass and allocates a
+ * packet for each long command, as Soundbound::cmdRecieved() and update() did up
+ * to version 0.3.
+ */
+
+#include <chrono>
+#include <cstdio>
+#include <cstdlib>
+#include <new>
+
+#include "PacketParser.h"
+#include "StubClient.h"
+
+#define STREAM_SIZE	(64 * 1024)
+#define SEGMENT_SIZE	64
+#define ROUNDS		200
+
+static size_t allocations;
+
+void *operator new(size_t size)
+{
+	allocations++;
+
+	void *ptr = malloc(size);
+	if (!ptr)
+		throw std::bad_alloc();
+
+	return ptr;
+}
+
+void operator delete(void *ptr) noexcept
+{
+	free(ptr);
+}
+
+void operator delete(void *ptr, size_t) noexcept
+{
+	free(ptr);
+}
+
+static uint8_t stream[STREAM_SIZE];
+static size_t streamPackets;
+static volatile uint32_t sink;
+
+/* What the pool sends: mostly batches, some volumes and heartbeats */
+static size_t fillStream()
+{
+	size_t size = 0;
+	uint8_t n = 0;
+	uint8_t i;
+
+	while (size + 2 + SB_MAX_SPEAKERS * 2 <= STREAM_SIZE) {
+		switch (n++ % 4) {
+		case 0:
+		case 1:
+			stream[size++] = SB_SET_VOLUME_BATCH;
+			stream[size++] = 4;
+			for (i = 0; i < 4; i++) {
+				stream[size++] = 'a' + i;
+				stream[size++] = n % 101;
+			}
+			break;
+		case 2:
+			stream[size++] = SB_SET_VOLUME;
+			stream[size++] = 'a';
+			stream[size++] = n % 101;
+			stream[size++] = 0;
+			break;
+		default:
+			stream[size++] = SB_NO_CMD;
+			break;
+		}
+		streamPackets++;
+	}
+
+	return size;
+}
+
+/* Soundbound::Packet as of version 0.3 */
+class LegacyPacket {
+
+private:
+	uint8_t cmd;
+	uint8_t buff[SB_MAX_PCKT_SIZE];
+	uint8_t cursor;
+
+public:
+	LegacyPacket(uint8_t cmd) : cmd(cmd), cursor(1)
+	{
+		buff[0] = cmd;
+	}
+
+	bool isDone()
+	{
+		if (cmd == SB_SET_VOLUME)
+			return cursor >= sizeof(sb_volume_packet);
+		if (cursor < 2)
+			return false;
+
+		return cursor >= 2 + buff[1] * sizeof(sb_volume_entry);
+	}
+
+	void fillBuffer(uint8_t byte)
+	{
+		if (cursor < SB_MAX_PCKT_SIZE)
+			buff[cursor++] = byte;
+	}
+
+	uint8_t *getBuffer()
+	{
+		return buff;
+	}
+};
+
+static int readByte(StubClient &client)
+{
+	uint8_t byte;
+
+	return client.read(&byte, 1) == 1 ? byte : -1;
+}
+
+/* One call is a pass of loop(): cmdRecieved() then update() */
+static size_t legacyPass(StubClient &client, LegacyPacket *&packet)
+{
+	int byte;
+
+	if (!packet) {
+		byte = readByte(client);
+		if (byte < 0)
+			return 0;
+		if (byte != SB_SET_VOLUME && byte != SB_SET_VOLUME_BATCH)
+			return 1;
+
+		packet = new LegacyPacket(static_cast<uint8_t>(byte));
+	}
+
+	byte = readByte(client);
+	if (byte < 0)
+		return 0;
+
+	packet->fillBuffer(static_cast<uint8_t>(byte));
+	if (!packet->isDone())
+		return 0;
+
+	sink += packet->getBuffer()[1];
+	delete packet;
+	packet = nullptr;
+
+	return 1;
+}
+
+static size_t legacy(StubClient &client, size_t &passes)
+{
+	LegacyPacket *packet = nullptr;
+	size_t packets = 0;
+
+	while (!client.done()) {
+		client.receive();
+		while (client.available() > 0) {
+			packets += legacyPass(client, packet);
+			passes++;
+		}
+	}
+
+	return packets;
+}
+
+static size_t bulk(StubClient &client, size_t &passes)
+{
+	static PacketParser parser;
+	const uint8_t *packet;
+	size_t packets = 0;
+
+	while (!client.done()) {
+		client.receive();
+		parser.fill(client);
+		while ((packet = parser.next()) != nullptr) {
+			sink += packet[1];
+			packets++;
+		}
+		passes++;
+	}
+
+	return packets;
+}
+
+static void run(const char *name, size_t (*parse)(StubClient &, size_t &),
+		StubClient &client)
+{
+	std::chrono::steady_clock::time_point start;
+	double seconds;
+	size_t packets = 0;
+	size_t passes = 0;
+	size_t before;
+	int i;
+
+	/* Warm up */
+	client.rewind();
+	parse(client, passes);
+
+	passes = 0;
+	before = allocations;
+	start = std::chrono::steady_clock::now();
+	for (i = 0; i < ROUNDS; i++) {
+		client.rewind();
+		packets += parse(client, passes);
+	}
+	seconds = std::chrono::duration<double>(std::chrono::steady_clock::now() - start).count();
+
+	if (packets != streamPackets * ROUNDS) {
+		fprintf(stderr, "%s parsed %zu of %zu packets\n", name, packets,
+			streamPackets * ROUNDS);
+		exit(1);
+	}
+
+	printf("%-8s %8.1f ns/packet %8.2f passes/packet %8.2f allocations/packet\n", name,
+	       seconds * 1e9 / packets, static_cast<double>(passes) / packets,
+	       static_cast<double>(allocations - before) / packets);
+}
+
+int main()
+{
+	size_t size = fillStream();
+	StubClient client(stream, size, SEGMENT_SIZE);
+
+	run("legacy", legacy, client);
+	run("bulk", bulk, client);
+
+	return 0;
+}
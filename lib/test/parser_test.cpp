@@ -0,0 +1,209 @@
+/*
+ * Host tests of the packet parser: make test
+ */
+
+#include <cassert>
+#include <cstdio>
+#include <cstdlib>
+#include <new>
+
+#include "PacketParser.h"
+#include "StubClient.h"
+
+static size_t allocations;
+
+void *operator new(size_t size)
+{
+	allocations++;
+
+	void *ptr = malloc(size);
+	if (!ptr)
+		throw std::bad_alloc();
+
+	return ptr;
+}
+
+void operator delete(void *ptr) noexcept
+{
+	free(ptr);
+}
+
+void operator delete(void *ptr, size_t) noexcept
+{
+	free(ptr);
+}
+
+static void test_parsesEveryPacketOfAPass()
+{
+	const uint8_t bytes[] = {
+		SB_SET_VOLUME_BATCH, 2, 'a', 40, 'b', 60,
+		SB_NO_CMD,
+		SB_START,
+		SB_SET_VOLUME, 'a', 20, 0,
+	};
+	StubClient client(bytes, sizeof(bytes), sizeof(bytes));
+	PacketParser parser;
+	const uint8_t *packet;
+
+	client.receive();
+	assert(parser.fill(client) == sizeof(bytes));
+
+	packet = parser.next();
+	assert(packet && packet[0] == SB_SET_VOLUME_BATCH && packet[1] == 2);
+	assert(packet[2] == 'a' && packet[3] == 40 && packet[4] == 'b' && packet[5] == 60);
+	packet = parser.next();
+	assert(packet && packet[0] == SB_NO_CMD);
+	packet = parser.next();
+	assert(packet && packet[0] == SB_START);
+	packet = parser.next();
+	assert(packet && packet[0] == SB_SET_VOLUME && packet[1] == 'a' && packet[2] == 20);
+	assert(!parser.next());
+	assert(parser.pending() == 0);
+}
+
+static void test_sizesRampsByTheirHeader()
+{
+	const uint8_t bytes[] = {
+		SB_SET_VOLUME_RAMP, 2, 0x01, 0x2c, 'a', 40, 'b', 60,
+		SB_START,
+	};
+	PacketParser parser;
+	const sb_volume_ramp_packet *ramp;
+	const uint8_t *packet;
+
+	/* The entries follow the duration */
+	parser.fill(bytes, 7);
+	assert(!parser.next());
+
+	parser.fill(bytes + 7, sizeof(bytes) - 7);
+	packet = parser.next();
+	assert(packet && packet[0] == SB_SET_VOLUME_RAMP);
+
+	ramp = reinterpret_cast<const sb_volume_ramp_packet *>(packet);
+	assert(ramp->count == 2 && ((ramp->duration[0] << 8) | ramp->duration[1]) == 300);
+	assert(ramp->vols[1].id == 'b' && ramp->vols[1].volume == 60);
+
+	packet = parser.next();
+	assert(packet && packet[0] == SB_START);
+}
+
+static void test_waitsForTheRestOfAPacket()
+{
+	const uint8_t bytes[] = { SB_SET_VOLUME_BATCH, 1, 'a', 40 };
+	StubClient client(bytes, sizeof(bytes), 1);
+	PacketParser parser;
+	int i;
+
+	/* Neither the count nor the entries are known before they arrive */
+	for (i = 0; i < 3; i++) {
+		client.receive();
+		parser.fill(client);
+		assert(!parser.next());
+	}
+
+	client.receive();
+	parser.fill(client);
+	assert(parser.next());
+}
+
+static void test_packetsWrapAroundTheRing()
+{
+	const uint8_t bytes[] = { SB_SET_VOLUME_BATCH, 3, 'a', 1, 'b', 2, 'c', 3 };
+	const uint8_t heartbeats[7] = { SB_NO_CMD };
+	PacketParser parser;
+	const uint8_t *packet;
+	int i;
+
+	/* Shifted by 7, packets of 8 bytes straddle the end of the ring every 32 */
+	assert(parser.fill(heartbeats, sizeof(heartbeats)) == sizeof(heartbeats));
+	for (i = 0; i < 7; i++)
+		assert(parser.next() && parser.pending() == 6 - i);
+
+	for (i = 0; i < 3 * SB_RING_SIZE; i++) {
+		assert(parser.fill(bytes, sizeof(bytes)) == sizeof(bytes));
+		packet = parser.next();
+		assert(packet && memcmp(packet, bytes, sizeof(bytes)) == 0);
+	}
+}
+
+static void test_fullRingKeepsTheRestInTheClient()
+{
+	static uint8_t bytes[SB_RING_SIZE + 100];
+	StubClient client(bytes, sizeof(bytes), sizeof(bytes));
+	PacketParser parser;
+	size_t parsed = 0;
+
+	memset(bytes, SB_NO_CMD, sizeof(bytes));
+	client.receive();
+
+	assert(parser.fill(client) == SB_RING_SIZE);
+	assert(client.available() == 100);
+	while (parser.next())
+		parsed++;
+
+	assert(parser.fill(client) == 100);
+	while (parser.next())
+		parsed++;
+
+	assert(parsed == sizeof(bytes) && client.done());
+}
+
+static void test_skipsOversizedBatch()
+{
+	const uint8_t bytes[] = {
+		SB_SET_VOLUME_BATCH, SB_MAX_SPEAKERS + 1,
+		SB_STOP,
+	};
+	PacketParser parser;
+	const uint8_t *packet;
+
+	parser.fill(bytes, sizeof(bytes));
+
+	/* The count is taken for a command of its own */
+	packet = parser.next();
+	assert(packet && packet[0] == SB_MAX_SPEAKERS + 1);
+	packet = parser.next();
+	assert(packet && packet[0] == SB_STOP);
+	assert(!parser.next());
+}
+
+static void test_neverAllocates()
+{
+	const uint8_t bytes[] = {
+		SB_SET_VOLUME, 'a', 20, 0,
+		SB_SET_VOLUME_BATCH, 1, 'b', 30,
+	};
+	StubClient client(bytes, sizeof(bytes), 3);
+	PacketParser parser;
+	size_t before = allocations;
+	int packets = 0;
+	int i;
+
+	for (i = 0; i < 1000; i++) {
+		client.rewind();
+		while (!client.done()) {
+			client.receive();
+			parser.fill(client);
+			while (parser.next())
+				packets++;
+		}
+	}
+
+	assert(packets == 2000);
+	assert(allocations == before);
+}
+
+int main()
+{
+	test_parsesEveryPacketOfAPass();
+	test_sizesRampsByTheirHeader();
+	test_waitsForTheRestOfAPacket();
+	test_packetsWrapAroundTheRing();
+	test_fullRingKeepsTheRestInTheClient();
+	test_skipsOversizedBatch();
+	test_neverAllocates();
+
+	printf("OK\n");
+
+	return 0;
+}
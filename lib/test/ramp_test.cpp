@@ -0,0 +1,103 @@
+/*
+ * Host tests of the volume ramp: make test
+ */
+
+#include <cassert>
+#include <cstdio>
+#include <cstdlib>
+
+#include "VolumeRamp.h"
+
+static void test_movesLinearlyToTheTarget()
+{
+	VolumeRamp ramp(20);
+
+	ramp.begin(60, 200, 1000);
+	assert(ramp.isRunning());
+
+	assert(!ramp.step(1000) && ramp.getVolume() == 20);
+	assert(ramp.step(1050) && ramp.getVolume() == 30);
+	assert(ramp.step(1100) && ramp.getVolume() == 40);
+	assert(ramp.step(1199) && ramp.getVolume() == 60);
+	assert(ramp.isRunning());
+	assert(!ramp.step(1200) && ramp.getVolume() == 60);
+	assert(!ramp.isRunning());
+	assert(!ramp.step(5000));
+}
+
+static void test_rampsDown()
+{
+	VolumeRamp ramp(100);
+
+	ramp.begin(0, 1000, 0);
+	assert(ramp.step(250) && ramp.getVolume() == 75);
+	assert(ramp.step(999) && ramp.getVolume() == 0);
+	assert(!ramp.step(1000) && !ramp.isRunning());
+}
+
+static void test_writesOnlyWhenTheVolumeChanges()
+{
+	VolumeRamp ramp(50);
+	int writes = 0;
+	uint32_t now;
+
+	/* 4 steps over 200 ms, stepped every ms */
+	ramp.begin(54, 200, 0);
+	for (now = 0; now <= 300; now++)
+		writes += ramp.step(now);
+
+	assert(writes == 4);
+	assert(ramp.getVolume() == 54);
+}
+
+static void test_retargetsFromWhereItGot()
+{
+	VolumeRamp ramp(0);
+
+	ramp.begin(100, 100, 0);
+	assert(ramp.step(30) && ramp.getVolume() == 30);
+
+	/* No jump back to 0 or on to 100 */
+	ramp.begin(50, 100, 30);
+	assert(!ramp.step(30) && ramp.getVolume() == 30);
+	assert(ramp.step(80) && ramp.getVolume() == 40);
+	assert(ramp.step(130) && ramp.getVolume() == 50);
+}
+
+static void test_zeroDurationAndSetJump()
+{
+	VolumeRamp ramp(10);
+
+	ramp.begin(90, 0, 500);
+	assert(ramp.step(500) && ramp.getVolume() == 90);
+
+	ramp.begin(0, 1000, 600);
+	ramp.step(700);
+	ramp.set(42);
+	assert(!ramp.isRunning() && ramp.getVolume() == 42);
+	assert(!ramp.step(2000));
+}
+
+static void test_survivesMillisWrapAround()
+{
+	VolumeRamp ramp(0);
+	uint32_t start = 0xffffffffu - 50;
+
+	ramp.begin(100, 100, start);
+	assert(ramp.step(start + 50) && ramp.getVolume() == 50);
+	assert(ramp.step(start + 100) && ramp.getVolume() == 100);
+}
+
+int main()
+{
+	test_movesLinearlyToTheTarget();
+	test_rampsDown();
+	test_writesOnlyWhenTheVolumeChanges();
+	test_retargetsFromWhereItGot();
+	test_zeroDurationAndSetJump();
+	test_survivesMillisWrapAround();
+
+	printf("OK\n");
+
+	return 0;
+}
@@ -1,5 +1,6 @@
 #include <Arduino.h>
 #include <ESP8266WiFi.h>
+#include <WiFiUdp.h>
 
 #include "AudioFileSourceICYStream.h"
 #include "AudioFileSourceBuffer.h"
@@ -19,6 +20,7 @@ const char *password = "";
 
 WiFiServer server(SERVER_PORT);
 WiFiClient client;
+WiFiUDP discovery;
 
 AudioGeneratorMP3 *mp3;
 AudioFileSourceICYStream *file;
@@ -122,13 +124,18 @@ void setup()
 	while (WiFi.status() != WL_CONNECTED)
 		delay(1000);
 
+	sb = new Soundbound("ESP8266", speaker, SPKS_COUNT);
+
+	/* Tell broadcasting clients where to connect while waiting for one */
 	server.begin();
+	discovery.begin(SB_DISCOVERY_PORT);
 	while (!client.connected()) {
+		sb->answerDiscovery(discovery, SERVER_PORT);
 		client = server.available();
 		delay(100);
 	}
+	discovery.stop();
 
-	sb = new Soundbound("ESP8266", speaker, SPKS_COUNT);
 	sb->queryData(client);
 
 	audioLogger = &Serial;
@@ -156,26 +163,26 @@ void loop()
 {
 	if (client) {
 		if(client.connected()) {
-			sb_command cmd = sb->cmdRecieved(client);
+			/* Volumes are applied in there, only playback is left to us */
+			sb_command cmd = sb->update(client);
 
 			switch (cmd) {
-			case SB_SET_VOLUME:
-				sb->update(client);
-				break;
 			case SB_START:
 				reinitAudioLib();
 				break;
 			case SB_STOP:
-				mp3->stop();
+				/* Nothing to stop before the first start */
+				if (mp3)
+					mp3->stop();
 				break;
 			case SB_NO_CMD:
 			default:
-				/* Skip invalid commands */
 				break;
 			}
 
+			/* Keep stepping a ramp while nothing plays */
 			if (!playAudio())
-				delay(1000);
+				delay(sb->isRamping() ? SB_RAMP_STEP_MS : 1000);
 		}
 	} else {
 		ESP.restart();
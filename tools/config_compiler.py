@@ -0,0 +1,111 @@
+import json
+import struct
+import sys
+import zlib
+
+# Compiles a JSON model config into the binary descriptor the app maps at
+# startup, see ModelDescriptor.java for the layout. The build runs it as the
+# compileModelDescriptor task into build/generated/modelAssets, by hand it is:
+#
+#   python3 config_compiler.py ../app/app/src/main/assets/room_to_volume.json out.sbm
+
+MAGIC = 0x53424d44 # "SBMD"
+FORMAT_VERSION = 2
+HEADER_SIZE = 40
+NO_STRING = 0xffff
+# In the order of ModelConfig.Mixing
+MIXING = ['max', 'mean', 'priority']
+
+strings = bytearray()
+string_offsets = {}
+
+def add_string(value):
+    if value is None:
+        return NO_STRING
+
+    if value not in string_offsets:
+        encoded = value.encode('utf-8')
+        if len(encoded) > 255:
+            raise ValueError("String too long: {}".format(value))
+
+        string_offsets[value] = len(strings)
+        strings.append(len(encoded))
+        strings.extend(encoded)
+
+    if string_offsets[value] >= NO_STRING:
+        raise ValueError("Too many strings")
+
+    return string_offsets[value]
+
+def pack_shape(shape):
+    return struct.pack('<HHii', add_string(shape['name']), add_string(shape['type']),
+                       shape['min'], shape['max'])
+
+def pack_speaker(speaker):
+    x, y = speaker['coordinates']
+    return struct.pack('<Hii', add_string(speaker['id']), x, y)
+
+def pack_beacon(beacon, input_names):
+    if beacon['measures'] not in input_names:
+        raise ValueError("Beacon {} measures unknown input {}".format(beacon['id1'],
+                                                                    beacon['measures']))
+
+    return struct.pack('<HHBB', add_string(beacon['id1']), add_string(beacon.get('filter')),
+                       input_names.index(beacon['measures']), beacon.get('listener', 0))
+
+def compile_config(source):
+    config = json.loads(source.decode('utf-8'))
+    tables = [config['inputs'], config['outputs'], config['speakers'], config['beacons']]
+    input_names = [shape['name'] for shape in config['inputs']]
+
+    if any(len(table) > 255 for table in tables):
+        raise ValueError("Too many table entries")
+
+    body = bytearray()
+    for shape in config['inputs'] + config['outputs']:
+        body += pack_shape(shape)
+    for speaker in config['speakers']:
+        body += pack_speaker(speaker)
+    for beacon in config['beacons']:
+        body += pack_beacon(beacon, input_names)
+
+    lookahead = config.get('lookahead')
+    if lookahead is None:
+        horizon_ms, steps, window, max_speed = -1, 0, 0, 0.0
+    else:
+        horizon_ms = lookahead['horizon_ms']
+        steps = lookahead.get('steps', 1)
+        window = lookahead.get('window', 5)
+        max_speed = lookahead['max_speed']
+
+    mixing = config.get('mixing', 'max')
+    if mixing not in MIXING:
+        raise ValueError("Unknown mixing {}".format(mixing))
+
+    size = HEADER_SIZE + len(body) + len(strings)
+    header = struct.pack('<IIIIBBBBiiBBBxfi', MAGIC, FORMAT_VERSION,
+                         zlib.crc32(source) & 0xffffffff, size,
+                         len(config['inputs']), len(config['outputs']),
+                         len(config['speakers']), len(config['beacons']),
+                         config.get('deadband', 0), horizon_ms, steps, window,
+                         MIXING.index(mixing), max_speed,
+                         HEADER_SIZE + len(body))
+
+    return header + body + strings
+
+if __name__ == "__main__":
+    if len(sys.argv) not in (2, 3):
+        print("Usage: {} config.json [descriptor.sbm]".format(sys.argv[0]))
+        sys.exit(1)
+
+    source_name = sys.argv[1]
+    descriptor_name = sys.argv[2] if len(sys.argv) == 3 else \
+        source_name.rsplit('.', 1)[0] + '.sbm'
+
+    with open(source_name, 'rb') as f:
+        descriptor = compile_config(f.read())
+
+    with open(descriptor_name, 'wb') as f:
+        f.write(descriptor)
+
+    print("{}: {} bytes".format(descriptor_name, len(descriptor)))
@@ -0,0 +1,125 @@
+import struct
+import sys
+
+# Evaluates a dense TFLite model in double precision with nothing but the
+# standard library, as a reference for DenseNetworkEngine on machines without
+# TensorFlow. The model is walked along its tensors from the subgraph input to
+# the output, so operator order and tensor indices are checked as well. Prints
+# the outputs for every x,y given:
+#
+#   python3 tflite_reference.py ../app/app/src/main/assets/room_to_volume.tflite 170,180
+
+FULLY_CONNECTED = 9
+TENSOR_FLOAT32 = 0
+ACTIVATION_NONE = 0
+ACTIVATION_RELU = 1
+ACTIVATION_RELU6 = 3
+
+class Table:
+    def __init__(self, data, pos):
+        self.data = data
+        self.pos = pos
+        vtable = pos - struct.unpack_from('<i', data, pos)[0]
+        self.vtable = vtable
+        self.vtable_size = struct.unpack_from('<H', data, vtable)[0]
+
+    def field(self, index):
+        entry = 4 + index * 2
+        if entry >= self.vtable_size:
+            return 0
+        offset = struct.unpack_from('<H', self.data, self.vtable + entry)[0]
+        return self.pos + offset if offset else 0
+
+    def scalar(self, index, fmt, default):
+        pos = self.field(index)
+        return struct.unpack_from(fmt, self.data, pos)[0] if pos else default
+
+    def ref(self, index):
+        pos = self.field(index)
+        return pos + struct.unpack_from('<I', self.data, pos)[0] if pos else 0
+
+    def table(self, index):
+        pos = self.ref(index)
+        return Table(self.data, pos) if pos else None
+
+    def vector(self, index, fmt):
+        pos = self.ref(index)
+        if not pos:
+            return []
+        length = struct.unpack_from('<I', self.data, pos)[0]
+        size = struct.calcsize(fmt)
+        return [struct.unpack_from(fmt, self.data, pos + 4 + i * size)[0]
+                for i in range(length)]
+
+    def tables(self, index):
+        pos = self.ref(index)
+        if not pos:
+            return []
+        length = struct.unpack_from('<I', self.data, pos)[0]
+        return [Table(self.data, pos + 4 + i * 4 +
+                      struct.unpack_from('<I', self.data, pos + 4 + i * 4)[0])
+                for i in range(length)]
+
+def load(path):
+    with open(path, 'rb') as f:
+        data = f.read()
+
+    model = Table(data, struct.unpack_from('<I', data, 0)[0])
+    codes = model.tables(1)
+    subgraph = model.tables(2)[0]
+    buffers = model.tables(4)
+    tensors = subgraph.tables(0)
+
+    def floats(tensor):
+        if tensor.scalar(1, '<b', TENSOR_FLOAT32) != TENSOR_FLOAT32:
+            raise ValueError("Only float32 weights are supported")
+        data = buffers[tensor.scalar(2, '<I', 0)].vector(0, '<B')
+        return list(struct.unpack('<{}f'.format(len(data) // 4), bytes(data)))
+
+    # Output tensor -> (input tensor, weights rows, bias, activation)
+    producers = {}
+    for op in subgraph.tables(3):
+        code = codes[op.scalar(0, '<I', 0)]
+        builtin = max(code.scalar(0, '<b', 0), code.scalar(3, '<i', 0))
+        if builtin != FULLY_CONNECTED:
+            raise ValueError("Unsupported operator {}".format(builtin))
+
+        inputs = op.vector(1, '<i')
+        weights = tensors[inputs[1]]
+        units, width = weights.vector(0, '<i')
+        values = floats(weights)
+        rows = [values[u * width:(u + 1) * width] for u in range(units)]
+        options = op.table(4)
+        activation = options.scalar(0, '<b', ACTIVATION_NONE) if options else ACTIVATION_NONE
+
+        producers[op.vector(2, '<i')[0]] = (inputs[0], rows, floats(tensors[inputs[2]]),
+                                            activation)
+
+    # Layers from the subgraph input to its output
+    layers = []
+    tensor = subgraph.vector(2, '<i')[0]
+    source = subgraph.vector(1, '<i')[0]
+    while tensor != source:
+        tensor, rows, bias, activation = producers[tensor]
+        layers.insert(0, (rows, bias, activation))
+
+    return layers
+
+def run(layers, values):
+    for rows, bias, activation in layers:
+        values = [sum(w * v for w, v in zip(row, values)) + b for row, b in zip(rows, bias)]
+        if activation == ACTIVATION_RELU:
+            values = [max(0.0, v) for v in values]
+        elif activation == ACTIVATION_RELU6:
+            values = [min(6.0, max(0.0, v)) for v in values]
+        elif activation != ACTIVATION_NONE:
+            raise ValueError("Unsupported activation {}".format(activation))
+
+    return values
+
+if __name__ == "__main__":
+    layers = load(sys.argv[1])
+
+    for point in sys.argv[2:]:
+        values = run(layers, [float(v) for v in point.split(',')])
+        print("{}: {}".format(point, ", ".join("{:.4f}".format(v) for v in values)))